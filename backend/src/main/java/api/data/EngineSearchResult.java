@@ -8,6 +8,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class EngineSearchResult {
+    private int docId;
     private String url;
     private String type;
     private String title;
@@ -20,7 +21,8 @@ public class EngineSearchResult {
         return mapper.writeValueAsString(results);
     }
 
-    public EngineSearchResult(String url, String type, String title, String displayText, float score) {
+    public EngineSearchResult(int docId, String url, String type, String title, String displayText, float score) {
+        this.setDocId(docId);
         this.setUrl(url);
         this.setType(type);
         this.setTitle(title);
@@ -69,6 +71,14 @@ public class EngineSearchResult {
         this.type = type;
     }
 
+    public int getDocId() {
+        return docId;
+    }
+
+    public void setDocId(int docId) {
+        this.docId = docId;
+    }
+
     public String getUrl() {
         return url;
     }
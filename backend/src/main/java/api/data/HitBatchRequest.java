@@ -0,0 +1,86 @@
+package api.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Body of POST /retrieve/batch (IndexServer => HitServer).
+ * All the word variants of one query that live in the same hit group, sent
+ * with the matched docIDs only once.
+ */
+public class HitBatchRequest {
+
+    private String hitGroup;
+    private List<String> words;
+    private List<Integer> docIDs;
+
+    // false => hits without context (scoring only needs tags & positions)
+    private boolean contexts;
+
+    public static String serialize(HitBatchRequest request) throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.writeValueAsString(request);
+    }
+
+    public static HitBatchRequest deserialize(String json)
+            throws JsonParseException, JsonMappingException, IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.readValue(json, HitBatchRequest.class);
+    }
+
+    public HitBatchRequest() {
+        this.hitGroup = "";
+        this.words = new ArrayList<>();
+        this.docIDs = new ArrayList<>();
+        this.contexts = true;
+    }
+
+    public HitBatchRequest(String hitGroup, List<String> words, List<Integer> docIDs, boolean contexts) {
+        this.hitGroup = hitGroup;
+        this.words = words;
+        this.docIDs = docIDs;
+        this.contexts = contexts;
+    }
+
+    public String getHitGroup() {
+        return hitGroup;
+    }
+
+    public void setHitGroup(String hitGroup) {
+        this.hitGroup = hitGroup;
+    }
+
+    public List<String> getWords() {
+        return words;
+    }
+
+    public void setWords(List<String> words) {
+        this.words = words;
+    }
+
+    public List<Integer> getDocIDs() {
+        return docIDs;
+    }
+
+    public void setDocIDs(List<Integer> docIDs) {
+        this.docIDs = docIDs;
+    }
+
+    public boolean isContexts() {
+        return contexts;
+    }
+
+    public void setContexts(boolean contexts) {
+        this.contexts = contexts;
+    }
+
+    public String toString() {
+        return "HitBatchRequest(hitGroup = " + hitGroup + ", words = " + words + ", docIDs = " + docIDs.size() + ", contexts = " + contexts + ")";
+    }
+}
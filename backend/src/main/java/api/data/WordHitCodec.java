@@ -0,0 +1,329 @@
+package api.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+/**
+ * Binary encoding of the hits returned by /retrieve/batch
+ * ({word : {docID : [WordHit, ...]}}), the compact alternative to JSON.
+ *
+ * Layout (version 1), every number is an unsigned varint:
+ * - version byte
+ * - symbol table: n, then n strings (tags & hit words)
+ * - context table: n, then n strings (each distinct context once)
+ * - words: n, then per word
+ * - word string, number of docs, then per doc (ascending docID)
+ * - docID delta, number of hits, then per hit
+ * - tag symbol, word symbol, zigzag pos delta, cap, fontSize, context index
+ *
+ * A string is its UTF-8 byte length followed by the bytes.
+ */
+public class WordHitCodec {
+
+    public static final String CONTENT_TYPE = "application/x-wordhits";
+
+    public static final int VERSION = 1;
+
+    /**
+     * Encode the hits of a batch.
+     *
+     * @param hits : [Map], word => docID => hits
+     * @return [byte[]]
+     */
+    public static byte[] encode(Map<String, ? extends Map<Integer, ? extends List<WordHit>>> hits) {
+
+        HashMap<String, Integer> symbols = new HashMap<String, Integer>();
+        HashMap<String, Integer> contexts = new HashMap<String, Integer>();
+
+        ArrayList<String> symbolTable = new ArrayList<String>();
+        ArrayList<String> contextTable = new ArrayList<String>();
+
+        // body first, the tables are only complete afterwards
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        writeVarint(body, hits.size());
+
+        for (Map.Entry<String, ? extends Map<Integer, ? extends List<WordHit>>> wordEntry : hits.entrySet()) {
+
+            writeString(body, wordEntry.getKey());
+
+            // docIDs in ascending order for the deltas
+            TreeMap<Integer, List<WordHit>> docHits = new TreeMap<Integer, List<WordHit>>(wordEntry.getValue());
+
+            writeVarint(body, docHits.size());
+
+            int previousDocID = 0;
+
+            for (Map.Entry<Integer, List<WordHit>> docEntry : docHits.entrySet()) {
+
+                writeVarint(body, docEntry.getKey() - previousDocID);
+                previousDocID = docEntry.getKey();
+
+                writeVarint(body, docEntry.getValue().size());
+
+                // the hits keep their order, so positions may go backwards
+                int previousPos = 0;
+
+                for (WordHit hit : docEntry.getValue()) {
+
+                    writeVarint(body, intern(hit.getTag(), symbols, symbolTable));
+                    writeVarint(body, intern(hit.getWord(), symbols, symbolTable));
+                    writeVarint(body, zigzag(hit.getPos() - previousPos));
+                    writeVarint(body, hit.getCap());
+                    writeVarint(body, hit.getFontSize());
+                    writeVarint(body, intern(hit.getContext(), contexts, contextTable));
+
+                    previousPos = hit.getPos();
+
+                }
+
+            }
+
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 1024);
+
+        out.write(VERSION);
+
+        writeVarint(out, symbolTable.size());
+
+        for (String symbol : symbolTable) {
+
+            writeString(out, symbol);
+
+        }
+
+        writeVarint(out, contextTable.size());
+
+        for (String context : contextTable) {
+
+            writeString(out, context);
+
+        }
+
+        byte[] bodyBytes = body.toByteArray();
+        out.write(bodyBytes, 0, bodyBytes.length);
+
+        return out.toByteArray();
+
+    }
+
+    /**
+     * Decode the hits of a batch.
+     *
+     * @param in : [InputStream], the whole encoded batch
+     * @return [HashMap], word => docID => hits
+     * @throws IOException if the stream is truncated or of an unknown version
+     */
+    public static HashMap<String, HashMap<Integer, ArrayList<WordHit>>> decode(InputStream in) throws IOException {
+
+        return decode(in.readAllBytes());
+
+    }
+
+    public static HashMap<String, HashMap<Integer, ArrayList<WordHit>>> decode(byte[] bytes) throws IOException {
+
+        Reader reader = new Reader(bytes);
+
+        int version = reader.readByte();
+
+        if (version != VERSION) {
+
+            throw new IOException("Unsupported word hit encoding version: " + version);
+
+        }
+
+        String[] symbolTable = new String[reader.readVarint()];
+
+        for (int i = 0; i < symbolTable.length; i++) {
+
+            symbolTable[i] = reader.readString();
+
+        }
+
+        String[] contextTable = new String[reader.readVarint()];
+
+        for (int i = 0; i < contextTable.length; i++) {
+
+            contextTable[i] = reader.readString();
+
+        }
+
+        int numWords = reader.readVarint();
+
+        HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>();
+
+        for (int w = 0; w < numWords; w++) {
+
+            String word = reader.readString();
+
+            int numDocs = reader.readVarint();
+
+            HashMap<Integer, ArrayList<WordHit>> docHits = new HashMap<Integer, ArrayList<WordHit>>();
+
+            int docID = 0;
+
+            for (int d = 0; d < numDocs; d++) {
+
+                docID += reader.readVarint();
+
+                int numHits = reader.readVarint();
+
+                ArrayList<WordHit> singleHits = new ArrayList<WordHit>(numHits);
+
+                int pos = 0;
+
+                for (int h = 0; h < numHits; h++) {
+
+                    String tag = symbolTable[reader.readVarint()];
+                    String hitWord = symbolTable[reader.readVarint()];
+                    pos += unzigzag(reader.readVarint());
+                    int cap = reader.readVarint();
+                    int fontSize = reader.readVarint();
+                    String context = contextTable[reader.readVarint()];
+
+                    singleHits.add(new WordHit(docID, hitWord, tag, pos, cap, fontSize, context));
+
+                }
+
+                docHits.put(docID, singleHits);
+
+            }
+
+            hits.put(word, docHits);
+
+        }
+
+        return hits;
+
+    }
+
+    private static int intern(String value, HashMap<String, Integer> ids, ArrayList<String> table) {
+
+        if (value == null) {
+
+            value = "";
+
+        }
+
+        Integer id = ids.get(value);
+
+        if (id == null) {
+
+            id = table.size();
+            ids.put(value, id);
+            table.add(value);
+
+        }
+
+        return id;
+
+    }
+
+    private static int zigzag(int value) {
+
+        return (value << 1) ^ (value >> 31);
+
+    }
+
+    private static int unzigzag(int value) {
+
+        return (value >>> 1) ^ -(value & 1);
+
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+
+        while ((value & ~0x7F) != 0) {
+
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+
+        }
+
+        out.write(value);
+
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+
+    }
+
+    /**
+     * Bounds-checked cursor over the encoded bytes.
+     */
+    private static class Reader {
+
+        private final byte[] bytes;
+        private int offset = 0;
+
+        Reader(byte[] bytes) {
+
+            this.bytes = bytes;
+
+        }
+
+        int readByte() throws IOException {
+
+            if (offset >= bytes.length) {
+
+                throw new IOException("Truncated word hit encoding");
+
+            }
+
+            return bytes[offset++] & 0xFF;
+
+        }
+
+        int readVarint() throws IOException {
+
+            int value = 0;
+            int shift = 0;
+            int current;
+
+            do {
+
+                current = readByte();
+                value |= (current & 0x7F) << shift;
+                shift += 7;
+
+            } while ((current & 0x80) != 0);
+
+            return value;
+
+        }
+
+        String readString() throws IOException {
+
+            int length = readVarint();
+
+            if (length < 0 || offset + length > bytes.length) {
+
+                throw new IOException("Truncated word hit encoding");
+
+            }
+
+            String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            offset += length;
+
+            return value;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package api.http;
+
+import spark.Filter;
+import spark.Request;
+import spark.Response;
+
+/**
+ * After-filter compressing the responses for the clients which accept gzip
+ * (e.g. ServiceHttpClient): Spark gzips the body once the response carries
+ * Content-Encoding: gzip.
+ * Responses which are already compact (e.g. the binary hits) are left as is.
+ */
+public class GzipFilter implements Filter {
+
+    private final String[] skippedTypes;
+
+    /**
+     * @param skippedTypes : [String...], content types sent uncompressed
+     */
+    public GzipFilter(String... skippedTypes) {
+
+        this.skippedTypes = skippedTypes;
+
+    }
+
+    @Override
+    public void handle(Request req, Response resp) {
+
+        String acceptEncoding = req.headers("Accept-Encoding");
+
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+
+            return;
+
+        }
+
+        String type = resp.type();
+
+        for (String skipped : skippedTypes) {
+
+            if (type != null && type.startsWith(skipped)) {
+
+                return;
+
+            }
+
+        }
+
+        resp.header("Content-Encoding", "gzip");
+
+    }
+
+}
@@ -0,0 +1,159 @@
+package api.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram of the requests to one destination (host:port).
+ * The buckets are fixed (1 ms to 10 s, roughly 1-2-5 steps), so recording is
+ * a few atomic increments and the percentiles are bucket upper bounds.
+ */
+public class LatencyHistogram {
+
+    // upper bounds (ms) of the buckets, the last bucket is everything slower
+    public static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    private final String destination;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+    private final AtomicLong totalMicros = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public LatencyHistogram(String destination) {
+
+        this.destination = destination;
+
+    }
+
+    /**
+     * @param latencyNanos : [long], elapsed time of the request
+     * @param success      : [boolean], false for an IO error or a timeout
+     */
+    public void record(long latencyNanos, boolean success) {
+
+        long micros = latencyNanos / 1000;
+
+        counts.incrementAndGet(bucketOf(micros / 1000.0));
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+
+        if (!success) {
+
+            errors.incrementAndGet();
+
+        }
+
+    }
+
+    private static int bucketOf(double latencyMs) {
+
+        for (int i = 0; i < BOUNDS.length; i++) {
+
+            if (latencyMs <= BOUNDS[i]) {
+
+                return i;
+
+            }
+
+        }
+
+        return BOUNDS.length;
+
+    }
+
+    public String getDestination() {
+
+        return destination;
+
+    }
+
+    public long getCount() {
+
+        long count = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+
+            count += counts.get(i);
+
+        }
+
+        return count;
+
+    }
+
+    public long getErrors() {
+
+        return errors.get();
+
+    }
+
+    public double getMeanMs() {
+
+        long count = getCount();
+
+        return (count == 0) ? 0 : totalMicros.get() / 1000.0 / count;
+
+    }
+
+    public double getMaxMs() {
+
+        return maxMicros.get() / 1000.0;
+
+    }
+
+    /**
+     * @param percentile : [double], e.g. 99
+     * @return [double], upper bound (ms) of the bucket holding the percentile
+     *         (the max for the last bucket), 0 without any request
+     */
+    public double getPercentileMs(double percentile) {
+
+        long count = getCount();
+
+        if (count == 0) {
+
+            return 0;
+
+        }
+
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+
+        for (int i = 0; i < BOUNDS.length; i++) {
+
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+
+                return Math.min(BOUNDS[i], getMaxMs());
+
+            }
+
+        }
+
+        return getMaxMs();
+
+    }
+
+    /**
+     * @return [long[]], number of requests per bucket (BOUNDS, then slower)
+     */
+    public long[] getCounts() {
+
+        long[] snapshot = new long[counts.length()];
+
+        for (int i = 0; i < snapshot.length; i++) {
+
+            snapshot[i] = counts.get(i);
+
+        }
+
+        return snapshot;
+
+    }
+
+}
@@ -0,0 +1,433 @@
+package api.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP client shared by the internal calls between the servers (search
+ * engine => index servers & ranker, index server => hit servers, stormlite
+ * sender bolts => workers), instead of a new HttpURLConnection per request.
+ *
+ * - HTTP/1.1 keep-alive: the connections to every host:port are pooled and
+ * reused once a response body has been read to the end (close never waits
+ * for the rest of an unread body, that connection is closed instead)
+ * - at most maxPerHost requests in flight per host:port
+ * - connect timeout for every request, a deadline per request (until the
+ * response headers, the caller bounds the body by its own reads)
+ * - Accept-Encoding: gzip, the body is decoded transparently
+ * - the body is streamed (getBody), never buffered by the client
+ * - a latency histogram per destination (getHistograms, shown by /monitor)
+ *
+ * Configured once per process (configure) before the first request, every
+ * caller then uses shared().
+ */
+public class ServiceHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 1000;
+
+    public static final int DEFAULT_TIMEOUT_MS = 5000;
+
+    public static final int DEFAULT_MAX_PER_HOST = 64;
+
+    // max n bytes already received that close discards to keep the connection
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static volatile ServiceHttpClient shared = null;
+
+    private final HttpClient client;
+
+    private final int timeoutMs;
+
+    private final int maxPerHost;
+
+    // host:port => permits for the requests in flight
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    // host:port => latencies
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * @param connectTimeoutMs : [int], connect timeout (ms)
+     * @param timeoutMs        : [int], default deadline of a request (ms)
+     * @param maxPerHost       : [int], max requests in flight per host:port
+     */
+    public ServiceHttpClient(int connectTimeoutMs, int timeoutMs, int maxPerHost) {
+
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+
+        this.timeoutMs = timeoutMs;
+        this.maxPerHost = Math.max(1, maxPerHost);
+
+    }
+
+    /**
+     * Set up the shared client of this process (replaces the previous one,
+     * whose pooled connections are closed once idle).
+     */
+    public static synchronized void configure(int connectTimeoutMs, int timeoutMs, int maxPerHost) {
+
+        shared = new ServiceHttpClient(connectTimeoutMs, timeoutMs, maxPerHost);
+
+    }
+
+    public static ServiceHttpClient shared() {
+
+        if (shared == null) {
+
+            synchronized (ServiceHttpClient.class) {
+
+                if (shared == null) {
+
+                    shared = new ServiceHttpClient(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_TIMEOUT_MS,
+                            DEFAULT_MAX_PER_HOST);
+
+                }
+
+            }
+
+        }
+
+        return shared;
+
+    }
+
+    public int getTimeoutMs() {
+
+        return timeoutMs;
+
+    }
+
+    /**
+     * @return [List<LatencyHistogram>], one per destination contacted so far
+     */
+    public List<LatencyHistogram> getHistograms() {
+
+        ArrayList<LatencyHistogram> all = new ArrayList<LatencyHistogram>(histograms.values());
+
+        all.sort((a, b) -> a.getDestination().compareTo(b.getDestination()));
+
+        return all;
+
+    }
+
+    public Response get(String url) throws IOException {
+
+        return exchange("GET", url, null, null, null, timeoutMs);
+
+    }
+
+    public Response get(String url, int timeoutMs) throws IOException {
+
+        return exchange("GET", url, null, null, null, timeoutMs);
+
+    }
+
+    /**
+     * @param headers : [Map<String, String>], extra request headers (e.g.
+     *                If-None-Match)
+     */
+    public Response get(String url, Map<String, String> headers, int timeoutMs) throws IOException {
+
+        return exchange("GET", url, null, null, headers, timeoutMs);
+
+    }
+
+    public Response postJson(String url, String json) throws IOException {
+
+        return exchange("POST", url, json.getBytes(StandardCharsets.UTF_8), "application/json", null, timeoutMs);
+
+    }
+
+    public Response postJson(String url, String json, int timeoutMs) throws IOException {
+
+        return exchange("POST", url, json.getBytes(StandardCharsets.UTF_8), "application/json", null, timeoutMs);
+
+    }
+
+    /**
+     * Send a request and return as soon as the response headers are in.
+     * The response must be closed (try-with-resources), that gives its
+     * connection back to the pool.
+     *
+     * @param method      : [String], GET / POST
+     * @param url         : [String], e.g. http://127.0.0.1:8081/retrieve/batch
+     * @param body        : [byte[]], null without body
+     * @param contentType : [String], content type of the body
+     * @param accept      : [String], Accept header, null => any
+     * @param timeoutMs   : [int], deadline until the response headers
+     * @return [Response]
+     * @throws IOException on a connection error or a timeout
+     */
+    public Response send(String method, String url, byte[] body, String contentType, String accept, int timeoutMs)
+            throws IOException {
+
+        return exchange(method, url, body, contentType, (accept == null) ? null : Map.of("Accept", accept), timeoutMs);
+
+    }
+
+    private Response exchange(String method, String url, byte[] body, String contentType,
+            Map<String, String> headers, int timeoutMs) throws IOException {
+
+        URI uri = URI.create(url);
+
+        String destination = uri.getHost() + ":" + ((uri.getPort() < 0) ? 80 : uri.getPort());
+
+        LatencyHistogram histogram = histograms.computeIfAbsent(destination, LatencyHistogram::new);
+        Semaphore permits = hostPermits.computeIfAbsent(destination, d -> new Semaphore(maxPerHost));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Accept-Encoding", "gzip");
+
+        if (headers != null) {
+
+            headers.forEach(builder::header);
+
+        }
+
+        if (body != null) {
+
+            builder.header("Content-Type", (contentType == null) ? "application/octet-stream" : contentType);
+            builder.method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+
+        } else {
+
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+
+        }
+
+        long startT = System.nanoTime();
+
+        try {
+
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+
+                histogram.record(System.nanoTime() - startT, false);
+
+                throw new IOException("Too many requests in flight to " + destination);
+
+            }
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + destination);
+
+        }
+
+        try {
+
+            HttpResponse<InputStream> response = client.send(builder.build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+
+            return new Response(response, histogram, permits, startT);
+
+        } catch (IOException e) {
+
+            permits.release();
+            histogram.record(System.nanoTime() - startT, false);
+
+            throw e;
+
+        } catch (InterruptedException e) {
+
+            permits.release();
+            histogram.record(System.nanoTime() - startT, false);
+
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+
+        }
+
+    }
+
+    /**
+     * A response whose body is still on the wire.
+     */
+    public static class Response implements AutoCloseable {
+
+        private final HttpResponse<InputStream> response;
+
+        private final LatencyHistogram histogram;
+
+        private final Semaphore permits;
+
+        private final long startT;
+
+        private final InputStream raw;
+
+        private InputStream body = null;
+
+        private boolean failed = false;
+
+        private boolean closed = false;
+
+        Response(HttpResponse<InputStream> response, LatencyHistogram histogram, Semaphore permits, long startT) {
+
+            this.response = response;
+            this.histogram = histogram;
+            this.permits = permits;
+            this.startT = startT;
+            this.raw = response.body();
+
+        }
+
+        public int getStatus() {
+
+            return response.statusCode();
+
+        }
+
+        public String getContentType() {
+
+            return getHeader("Content-Type");
+
+        }
+
+        public String getHeader(String name) {
+
+            return response.headers().firstValue(name).orElse(null);
+
+        }
+
+        /**
+         * @return [InputStream], the (decoded) body, read as it arrives
+         * @throws IOException
+         */
+        public synchronized InputStream getBody() throws IOException {
+
+            if (body == null) {
+
+                String encoding = getHeader("Content-Encoding");
+
+                body = (encoding != null && encoding.equalsIgnoreCase("gzip")) ? new GZIPInputStream(raw) : raw;
+
+            }
+
+            return body;
+
+        }
+
+        /**
+         * @return [String], the whole body as UTF-8
+         * @throws IOException
+         */
+        public String readString() throws IOException {
+
+            try {
+
+                return new String(getBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            } catch (IOException e) {
+
+                failed = true;
+
+                throw e;
+
+            }
+
+        }
+
+        /**
+         * Give up on the body (e.g. a hedged request which lost): the
+         * connection is closed instead of going back to the pool.
+         */
+        public synchronized void abort() {
+
+            if (closed) {
+
+                return;
+
+            }
+
+            closed = true;
+
+            try {
+
+                raw.close();
+
+            } catch (IOException e) {
+
+                // closing anyway
+
+            }
+
+            permits.release();
+            histogram.record(System.nanoTime() - startT, true);
+
+        }
+
+        /**
+         * Record the latency and release the connection. The part of the body
+         * already received is discarded (up to MAX_DRAIN_BYTES) without
+         * blocking; if more is still on the wire, the stream is closed, which
+         * cancels the exchange instead of waiting for a slow peer.
+         */
+        @Override
+        public synchronized void close() {
+
+            if (closed) {
+
+                return;
+
+            }
+
+            closed = true;
+
+            try {
+
+                byte[] discard = new byte[4096];
+
+                int drained = 0;
+                int available;
+
+                while (drained < MAX_DRAIN_BYTES && (available = raw.available()) > 0) {
+
+                    int n = raw.read(discard, 0, Math.min(available, discard.length));
+
+                    if (n < 0) {
+
+                        break;
+
+                    }
+
+                    drained += n;
+
+                }
+
+                raw.close();
+
+            } catch (IOException e) {
+
+                failed = true;
+
+            }
+
+            permits.release();
+            histogram.record(System.nanoTime() - startT, !failed && getStatus() < 500);
+
+        }
+
+    }
+
+}
@@ -2,10 +2,7 @@ package edu.upenn.cis.stormlite.distributed;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
 import java.util.Map;
 import java.util.UUID;
 
@@ -14,6 +11,10 @@ import org.apache.logging.log4j.LogManager;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.github.cdimascio.dotenv.Dotenv;
+
+import api.http.ServiceHttpClient;
+
 import edu.upenn.cis.stormlite.OutputFieldsDeclarer;
 import edu.upenn.cis.stormlite.TopologyContext;
 import edu.upenn.cis.stormlite.bolt.IRichBolt;
@@ -45,7 +46,12 @@ public class MultiJobSenderBolt implements IRichBolt {
 	String stream;
 	String address;
 	ObjectMapper mapper = new ObjectMapper();
-	URL url;
+	String url;
+
+	private static Dotenv dotenv = Dotenv.configure().load();
+
+	// deadline of a send (ms), see SenderBolt
+	private int sendTimeoutMs = Integer.parseInt(dotenv.get("STORMLITE_SEND_TIMEOUT_MS", "5000"));
 
 	TopologyContext context;
 
@@ -66,8 +72,8 @@ public class MultiJobSenderBolt implements IRichBolt {
 		mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
 		this.context = context;
 		try {
-			url = new URL(address + "/pushdata/" + jobID + "/" + stream);
-		} catch (MalformedURLException e) {
+			url = URI.create(address + "/pushdata/" + jobID + "/" + stream).toString();
+		} catch (IllegalArgumentException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 			throw new RuntimeException("Unable to create remote URL");
@@ -102,9 +108,7 @@ public class MultiJobSenderBolt implements IRichBolt {
 
 		log.debug("Sender is routing " + tuple.toString() + " from " + tuple.getSourceExecutor() + " to " + address
 				+ "/" + stream);
-		log.debug("URL: " + url.toString());
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setRequestProperty("Content-Type", "application/json");
+		log.debug("URL: " + url);
 		String jsonForTuple = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tuple);
 
 		// TODO: send this to /pushdata/{stream} as a POST!
@@ -124,22 +128,18 @@ public class MultiJobSenderBolt implements IRichBolt {
 			}
 		}
 
-		// Set to post and allow write
-		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
+		// POST through the shared keep-alive client, blocks until the worker
+		// answered or STORMLITE_SEND_TIMEOUT_MS passed
+		try (ServiceHttpClient.Response resp = ServiceHttpClient.shared().postJson(url, jsonForTuple,
+				sendTimeoutMs)) {
 
-		// get & set byte length
-		byte[] byteJson = jsonForTuple.getBytes();
-		int contentLength = byteJson.length;
-		conn.setFixedLengthStreamingMode(contentLength);
+			if (resp.getStatus() != 200) {
 
-		// write
-		OutputStream os = conn.getOutputStream();
-		os.write(byteJson);
-		os.flush();
+				log.error("(MultiJobSenderBolt) " + url + " answered " + resp.getStatus());
 
-		///////////
-		conn.disconnect();
+			}
+
+		}
 
 	}
 
@@ -2,10 +2,7 @@ package edu.upenn.cis.stormlite.distributed;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.UUID;
@@ -15,6 +12,10 @@ import org.apache.logging.log4j.LogManager;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.github.cdimascio.dotenv.Dotenv;
+
+import api.http.ServiceHttpClient;
+
 import edu.upenn.cis.stormlite.OutputFieldsDeclarer;
 import edu.upenn.cis.stormlite.TopologyContext;
 import edu.upenn.cis.stormlite.bolt.IRichBolt;
@@ -34,6 +35,13 @@ public class SenderBolt implements IRichBolt {
 
 	static Logger log = LogManager.getLogger(SenderBolt.class);
 
+	private static Dotenv dotenv = Dotenv.configure().load();
+
+	// deadline of a send (ms): the tuples are sent one after the other and
+	// each send waits for the status of the worker, which keeps the end of
+	// stream behind the data
+	private int sendTimeoutMs = Integer.parseInt(dotenv.get("STORMLITE_SEND_TIMEOUT_MS", "5000"));
+
 	// do batch sender
 	private int batchSize = 100;
 	private ArrayList<Tuple> batch = new ArrayList<Tuple>();
@@ -49,8 +57,8 @@ public class SenderBolt implements IRichBolt {
 	String stream;
 	String address;
 	ObjectMapper mapper = new ObjectMapper();
-	URL url;
-	URL batchUrl;
+	String url;
+	String batchUrl;
 
 	TopologyContext context;
 
@@ -70,9 +78,9 @@ public class SenderBolt implements IRichBolt {
 		mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
 		this.context = context;
 		try {
-			url = new URL(address + "/pushdata/" + stream);
-			batchUrl = new URL(address + "/pushbatch/" + stream);
-		} catch (MalformedURLException e) {
+			url = URI.create(address + "/pushdata/" + stream).toString();
+			batchUrl = URI.create(address + "/pushbatch/" + stream).toString();
+		} catch (IllegalArgumentException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 			throw new RuntimeException("Unable to create remote URL");
@@ -112,26 +120,8 @@ public class SenderBolt implements IRichBolt {
 						+ batch.get(0).getSourceExecutor() + " to " + address
 						+ "/" + stream);
 				// send
-				HttpURLConnection conn = (HttpURLConnection) batchUrl.openConnection();
-				conn.setRequestProperty("Content-Type", "application/json");
 				String jsonForBatch = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(batch);
-
-				// Set to post and allow write
-				conn.setRequestMethod("POST");
-				conn.setDoOutput(true);
-
-				// get & set byte length
-				byte[] byteJson = jsonForBatch.getBytes();
-				int contentLength = byteJson.length;
-				conn.setFixedLengthStreamingMode(contentLength);
-
-				// write
-				OutputStream os = conn.getOutputStream();
-				os.write(byteJson);
-				os.flush();
-
-				///////////
-				conn.disconnect();
+				post(batchUrl, jsonForBatch);
 
 				// clear batch
 				batch.clear();
@@ -151,26 +141,8 @@ public class SenderBolt implements IRichBolt {
 						+ batch.get(0).getSourceExecutor() + " to " + address
 						+ "/" + stream);
 				// send
-				HttpURLConnection conn = (HttpURLConnection) batchUrl.openConnection();
-				conn.setRequestProperty("Content-Type", "application/json");
 				String jsonForBatch = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(batch);
-
-				// Set to post and allow write
-				conn.setRequestMethod("POST");
-				conn.setDoOutput(true);
-
-				// get & set byte length
-				byte[] byteJson = jsonForBatch.getBytes();
-				int contentLength = byteJson.length;
-				conn.setFixedLengthStreamingMode(contentLength);
-
-				// write
-				OutputStream os = conn.getOutputStream();
-				os.write(byteJson);
-				os.flush();
-
-				///////////
-				conn.disconnect();
+				post(batchUrl, jsonForBatch);
 
 				// clear batch
 				batch.clear();
@@ -194,26 +166,8 @@ public class SenderBolt implements IRichBolt {
 				finalEos.add(tuple);
 
 				// send
-				HttpURLConnection conn = (HttpURLConnection) batchUrl.openConnection();
-				conn.setRequestProperty("Content-Type", "application/json");
 				String jsonForBatch = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(finalEos);
-
-				// Set to post and allow write
-				conn.setRequestMethod("POST");
-				conn.setDoOutput(true);
-
-				// get & set byte length
-				byte[] byteJson = jsonForBatch.getBytes();
-				int contentLength = byteJson.length;
-				conn.setFixedLengthStreamingMode(contentLength);
-
-				// write
-				OutputStream os = conn.getOutputStream();
-				os.write(byteJson);
-				os.flush();
-
-				///////////
-				conn.disconnect();
+				post(batchUrl, jsonForBatch);
 
 			}
 
@@ -235,8 +189,6 @@ public class SenderBolt implements IRichBolt {
 		log.debug("Sender is routing " + tuple.toString() + " from " + tuple.getSourceExecutor() + " to " + address
 				+ "/" + stream);
 
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setRequestProperty("Content-Type", "application/json");
 		String jsonForTuple = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tuple);
 
 		// TODO: send this to /pushdata/{stream} as a POST!
@@ -256,22 +208,30 @@ public class SenderBolt implements IRichBolt {
 			}
 		}
 
-		// Set to post and allow write
-		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
+		post(url, jsonForTuple);
 
-		// get & set byte length
-		byte[] byteJson = jsonForTuple.getBytes();
-		int contentLength = byteJson.length;
-		conn.setFixedLengthStreamingMode(contentLength);
+	}
 
-		// write
-		OutputStream os = conn.getOutputStream();
-		os.write(byteJson);
-		os.flush();
+	/**
+	 * POST the json through the shared keep-alive client (the connection to
+	 * the worker is reused by the next tuple), blocks until the worker
+	 * answered or STORMLITE_SEND_TIMEOUT_MS passed
+	 * 
+	 * @param dest : [String], /pushdata or /pushbatch url of the worker
+	 * @param json : [String]
+	 * @throws IOException
+	 */
+	private void post(String dest, String json) throws IOException {
 
-		///////////
-		conn.disconnect();
+		try (ServiceHttpClient.Response resp = ServiceHttpClient.shared().postJson(dest, json, sendTimeoutMs)) {
+
+			if (resp.getStatus() != 200) {
+
+				log.error("(SenderBolt) " + dest + " answered " + resp.getStatus());
+
+			}
+
+		}
 
 	}
 
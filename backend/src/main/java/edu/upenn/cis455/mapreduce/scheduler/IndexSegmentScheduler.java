@@ -0,0 +1,101 @@
+package edu.upenn.cis455.mapreduce.scheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
+
+import indexer.index.SegmentedIndex;
+
+/**
+ * Seal the doc words of the last indexing run (docWordX storages written by
+ * IndexReduceBolt) into a new segment of the segmented index, picked up by
+ * the index servers (INDEXER_POSTINGS_SOURCE=segments) at their next poll.
+ * Run it after each MapReduce job, in place of a full IndexSynchronizer
+ * rescan.
+ */
+public class IndexSegmentScheduler {
+
+    final static Logger logger = LogManager.getLogger(IndexSegmentScheduler.class);
+
+    public static void main(String[] args) {
+
+        org.apache.logging.log4j.core.config.Configurator.setLevel("edu.upenn", Level.INFO);
+        org.apache.logging.log4j.core.config.Configurator.setLevel("indexer", Level.INFO);
+
+        if (args.length < 3) {
+
+            System.out.println(
+                    "Usage: [segment directory] [hit storage directory (docWordX)] [index storage directory (doc infos)] [clear docWords (true|false)] [merge factor]");
+            return;
+
+        }
+
+        boolean clearDocWords = (args.length > 3) && Boolean.parseBoolean(args[3]);
+        int mergeFactor = (args.length > 4) ? Integer.parseInt(args[4]) : 4;
+
+        List<IndexStorage> docWordDBs = new ArrayList<IndexStorage>();
+
+        File[] files = new File(args[1]).listFiles();
+
+        if (files != null) {
+
+            for (File f : files) {
+
+                // doc word folder must be named after docWordX (see IndexReduceBolt)
+                if (f.isDirectory() && f.getName().startsWith("docWord")) {
+
+                    docWordDBs.add(StorageFactory.getIndexDatabase(f.getPath()));
+
+                }
+
+            }
+
+        }
+
+        IndexStorage indexDB = StorageFactory.getIndexDatabase(args[2]);
+
+        List<IndexStorage> docInfoDBs = new ArrayList<IndexStorage>(docWordDBs);
+        docInfoDBs.add(indexDB);
+
+        SegmentedIndex segmentedIndex = new SegmentedIndex(new File(args[0]), mergeFactor);
+
+        try {
+
+            String name = segmentedIndex.seal(docWordDBs, docInfoDBs);
+
+            // the next run only writes its own batch
+            if (name != null && clearDocWords) {
+
+                for (IndexStorage db : docWordDBs) {
+
+                    db.clearDocWords("short");
+
+                }
+
+            }
+
+        } catch (IOException e) {
+
+            logger.error("(IndexSegmentScheduler) Fail to seal the segment! " + e.getMessage());
+
+        }
+
+        for (IndexStorage db : docWordDBs) {
+
+            db.close();
+
+        }
+
+        indexDB.close();
+
+    }
+
+}
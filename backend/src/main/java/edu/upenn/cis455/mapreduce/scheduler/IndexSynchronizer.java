@@ -2,6 +2,7 @@ package edu.upenn.cis455.mapreduce.scheduler;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 
 import javax.imageio.plugins.tiff.TIFFDirectory;
 
@@ -21,6 +22,7 @@ import edu.upenn.cis455.mapreduce.worker.storage.entities.DocWord;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.Word;
 
+import api.http.ServiceHttpClient;
 import indexer.IndexMySQLStorage;
 import storage.MySQLConfig;
 
@@ -35,6 +37,8 @@ public class IndexSynchronizer {
     private String shortDocWordsTable = dotenv.get("INDEXER_SHORT_DOCWORDS");
     private String plainDocWordsTable = dotenv.get("INDEXER_PLAIN_DOCWORDS");
     private String docInfoTable = dotenv.get("INDEXER_DOCINFO");
+    private String generationTable = dotenv.get("INDEXER_GENERATION_TABLE", "IndexGeneration");
+    private String shortImpactTable = dotenv.get("INDEXER_SHORT_IMPACTS", "");
 
     /**
      * Schedule the synchronization of the indexed data to the remote storage.
@@ -320,12 +324,30 @@ public class IndexSynchronizer {
             remoteDB.updateTFIDF(plainDocWordsTable, plainLexiconTable);
         }
 
+        if ((this.doTfIdf || this.syncDocWord) && !shortImpactTable.isEmpty()) {
+
+            // the scores changed => rebuild the impact-ordered postings
+            long numPostings = remoteDB.buildImpactTable(shortDocWordsTable, shortLexiconTable, shortImpactTable);
+
+            logger.info("Impact table " + shortImpactTable + " rebuilt with " + numPostings + " (n) postings");
+
+        }
+
         if (this.cleanUpdates) {
 
             this.indexDB.clearAllUpdates();
 
         }
 
+        // before the new generation: a filter fetched from now on is a new one,
+        // the index servers drop the older ones once they see the new generation
+        refreshHitFilters();
+
+        // new index generation => the index servers drop their cached results
+        long generation = remoteDB.bumpIndexGeneration(generationTable);
+
+        logger.info("Index generation is now " + generation);
+
         remoteDB.close();
         indexDB.close();
 
@@ -375,4 +397,49 @@ public class IndexSynchronizer {
 
     }
 
+    /**
+     * Ask every hit server (INDEXER_HIT_SHARD_X_IPs) to rebuild its bloom
+     * filters; a server withdraws its filters at once, so that the index
+     * servers fetch the new ones for the new generation (see HitFilterCache).
+     */
+    private void refreshHitFilters() {
+
+        LinkedHashSet<String> addresses = new LinkedHashSet<String>();
+
+        int numHitShards = Integer.parseInt(dotenv.get("INDEXER_NUM_HIT_SHARDS", "0"));
+
+        for (int i = 0; i < numHitShards; i++) {
+
+            String ips = dotenv.get("INDEXER_HIT_SHARD_" + i + "_IPs", "");
+
+            // format [ip1,ip2,...]
+            for (String address : ips.replace("[", "").replace("]", "").split(",")) {
+
+                if (!address.trim().isEmpty()) {
+
+                    addresses.add(address.trim());
+
+                }
+
+            }
+
+        }
+
+        for (String address : addresses) {
+
+            try (ServiceHttpClient.Response resp = ServiceHttpClient.shared()
+                    .postJson("http://" + address + "/retrieve/bloom/refresh", "{}")) {
+
+                logger.info("Hit server " + address + " is rebuilding its bloom filters (" + resp.getStatus() + ")");
+
+            } catch (Exception e) {
+
+                logger.warn("Unable to refresh the bloom filters of the hit server " + address + " : " + e);
+
+            }
+
+        }
+
+    }
+
 }
@@ -0,0 +1,45 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import java.util.ArrayList;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+/**
+ * Tuple binding of the distinct contexts of one (docID, tag) in the context pool:
+ * count, then the strings.
+ */
+public class ContextListBinding extends TupleBinding<ArrayList<String>> {
+
+    @Override
+    public ArrayList<String> entryToObject(TupleInput input) {
+
+        int size = input.readPackedInt();
+
+        ArrayList<String> contexts = new ArrayList<String>(size);
+
+        for (int i = 0; i < size; i++) {
+
+            contexts.add(input.readString());
+
+        }
+
+        return contexts;
+
+    }
+
+    @Override
+    public void objectToEntry(ArrayList<String> contexts, TupleOutput output) {
+
+        output.writePackedInt(contexts.size());
+
+        for (String context : contexts) {
+
+            output.writeString(context);
+
+        }
+
+    }
+
+}
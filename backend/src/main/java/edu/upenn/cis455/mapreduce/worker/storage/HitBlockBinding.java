@@ -0,0 +1,96 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.HitBlock;
+
+/**
+ * Tuple (non Java-serialized) binding of a HitBlock:
+ * size, then each column as packed ints
+ * (positions delta-encoded, the other columns as is).
+ */
+public class HitBlockBinding extends TupleBinding<HitBlock> {
+
+    @Override
+    public HitBlock entryToObject(TupleInput input) {
+
+        int size = input.readPackedInt();
+
+        int[] positions = new int[size];
+        int previous = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            previous += input.readPackedInt();
+            positions[i] = previous;
+
+        }
+
+        int[] caps = readColumn(input, size);
+        int[] tagIDs = readColumn(input, size);
+        int[] fontSizes = readColumn(input, size);
+        int[] contextRefs = readColumn(input, size);
+
+        return new HitBlock(positions, caps, tagIDs, fontSizes, contextRefs);
+
+    }
+
+    @Override
+    public void objectToEntry(HitBlock block, TupleOutput output) {
+
+        int size = block.size();
+
+        output.writePackedInt(size);
+
+        int previous = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            output.writePackedInt(block.getPos(i) - previous);
+            previous = block.getPos(i);
+
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            output.writePackedInt(block.getCap(i));
+
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            output.writePackedInt(block.getTagID(i));
+
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            output.writePackedInt(block.getFontSize(i));
+
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            output.writePackedInt(block.getContextRef(i));
+
+        }
+
+    }
+
+    private static int[] readColumn(TupleInput input, int size) {
+
+        int[] column = new int[size];
+
+        for (int i = 0; i < size; i++) {
+
+            column[i] = input.readPackedInt();
+
+        }
+
+        return column;
+
+    }
+
+}
@@ -0,0 +1,150 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * One-shot migration of a hit storage from the Java-serialized lists
+ * (short_hits & plain_hits) to the columnar hit blocks.
+ * The blocks are written into a new directory, the old one is left as is
+ * (swap the directories once the numbers look right).
+ *
+ * Reports the size on disk of both storages and the average lookup latency
+ * (getWordHitList) of the same random keys in both formats.
+ */
+public class HitBlockMigration {
+
+    final static Logger logger = LogManager.getLogger(HitBlockMigration.class);
+
+    public static void main(String args[]) {
+
+        org.apache.logging.log4j.core.config.Configurator.setLevel("edu.upenn", Level.INFO);
+
+        if (args.length < 2) {
+            System.out.println("Usage: [legacy hit storage directory] [target hit storage directory] [number of lookups]");
+            System.exit(1);
+        }
+
+        int numLookups = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+
+        HitStorage legacyDB = StorageFactory.getHitDatabase(args[0]);
+        HitStorage blockDB = StorageFactory.getHitDatabase(args[1]);
+
+        // 1. migrate
+        long migrateStartT = System.nanoTime();
+
+        int nShort = legacyDB.migrateLegacyHits(blockDB, "short");
+        int nPlain = legacyDB.migrateLegacyHits(blockDB, "plain");
+
+        logger.info("(HitBlockMigration) migrated " + nShort + " (n) short & " + nPlain + " (n) plain hit lists in "
+                + ((System.nanoTime() - migrateStartT) / 1000000) + " (ms)");
+
+        // 2. lookup latency on the same random keys
+        ArrayList<String> keys = sampleKeys(blockDB, numLookups);
+
+        // warm up both once, then measure
+        measureLookups(legacyDB, keys);
+        measureLookups(blockDB, keys);
+
+        double legacyLatency = measureLookups(legacyDB, keys);
+        double blockLatency = measureLookups(blockDB, keys);
+
+        legacyDB.close();
+        blockDB.close();
+
+        // 3. size on disk
+        long legacySize = directorySize(new File(args[0]));
+        long blockSize = directorySize(new File(args[1]));
+
+        logger.info(String.format("(HitBlockMigration) size : legacy %.2f (MB), columnar %.2f (MB)",
+                legacySize / 1048576.0, blockSize / 1048576.0));
+        logger.info(String.format("(HitBlockMigration) lookup (%d keys) : legacy %.3f (ms), columnar %.3f (ms)",
+                keys.size(), legacyLatency, blockLatency));
+
+    }
+
+    /**
+     * Reservoir sample of the short hit keys.
+     */
+    private static ArrayList<String> sampleKeys(HitStorage hitDB, int numKeys) {
+
+        ArrayList<String> keys = new ArrayList<String>();
+
+        Random random = new Random(455);
+
+        int seen = 0;
+
+        for (String key : hitDB.getHitKeys("short")) {
+
+            if (keys.size() < numKeys) {
+
+                keys.add(key);
+
+            } else {
+
+                int j = random.nextInt(seen + 1);
+
+                if (j < numKeys) {
+
+                    keys.set(j, key);
+
+                }
+
+            }
+
+            seen++;
+
+        }
+
+        return keys;
+
+    }
+
+    /**
+     * @return [double], average latency of a lookup in ms
+     */
+    private static double measureLookups(HitStorage hitDB, ArrayList<String> keys) {
+
+        long startT = System.nanoTime();
+
+        for (String key : keys) {
+
+            String word = key.substring(0, key.lastIndexOf(","));
+            int docID = Integer.parseInt(key.substring(key.lastIndexOf(",") + 1));
+
+            hitDB.getWordHitList(word, docID, "short");
+
+        }
+
+        return (System.nanoTime() - startT) / 1e6 / Math.max(1, keys.size());
+
+    }
+
+    private static long directorySize(File directory) {
+
+        long size = 0;
+
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+
+            return 0;
+
+        }
+
+        for (File f : files) {
+
+            size += f.isDirectory() ? directorySize(f) : f.length();
+
+        }
+
+        return size;
+
+    }
+
+}
@@ -0,0 +1,489 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+/**
+ * Read-only hits of a hit shard, from a segment written by
+ * HitSegmentWriter and mapped into memory (only the short hits, the ones
+ * served by the hit servers).
+ *
+ * A lookup binary-searches the sparse index (on the heap), then scans at most
+ * INDEX_INTERVAL entries of the mapped file, comparing the keys in place and
+ * decoding the hits straight from the mapping: no copy of the entry, no
+ * cursor, no lock, the page cache of the OS is the cache.
+ * Only absolute reads are used on the shared buffer, so it is safe for any
+ * number of concurrent readers.
+ */
+public class HitSegment implements HitSource {
+
+    final static Logger logger = LogManager.getLogger(HitSegment.class);
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private final int dataOffset;
+    private final int contextOffset;
+    private final int tagOffset;
+
+    private final long numEntries;
+
+    private final byte[][] dataKeys;
+    private final int[] dataOffsets;
+
+    private final byte[][] contextKeys;
+    private final int[] contextOffsets;
+
+    private final String[] tagTable;
+
+    /**
+     * Position in the mapped buffer, for one read.
+     */
+    private static class Cursor {
+
+        private int pos;
+
+        Cursor(int pos) {
+
+            this.pos = pos;
+
+        }
+
+    }
+
+    /**
+     * @param file : [File], e.g. indexStorage/hit0.seg
+     * @throws IOException if it is not a (complete) segment
+     */
+    public HitSegment(File file) throws IOException {
+
+        this.file = file;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            if (channel.size() < HitSegmentWriter.FOOTER_SIZE || channel.size() > Integer.MAX_VALUE) {
+
+                throw new IOException("Not a hit segment: " + file);
+
+            }
+
+            // the mapping stays valid once the channel is closed
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        }
+
+        int footer = buffer.capacity() - HitSegmentWriter.FOOTER_SIZE;
+
+        if (buffer.getInt(footer + 7 * 8 + 2 * 4) != HitSegmentWriter.MAGIC) {
+
+            throw new IOException("Not a hit segment: " + file);
+
+        }
+
+        if (buffer.getInt(footer + 7 * 8 + 4) != HitSegmentWriter.VERSION) {
+
+            throw new IOException("Unsupported hit segment version: " + file);
+
+        }
+
+        this.dataOffset = (int) buffer.getLong(footer);
+        this.contextOffset = (int) buffer.getLong(footer + 8);
+        this.tagOffset = (int) buffer.getLong(footer + 2 * 8);
+
+        int dataIndexOffset = (int) buffer.getLong(footer + 3 * 8);
+        int contextIndexOffset = (int) buffer.getLong(footer + 4 * 8);
+
+        this.numEntries = buffer.getLong(footer + 5 * 8);
+
+        long numContexts = buffer.getLong(footer + 6 * 8);
+        int interval = buffer.getInt(footer + 7 * 8);
+
+        int numDataSamples = (int) ((numEntries + interval - 1) / interval);
+        int numContextSamples = (int) ((numContexts + interval - 1) / interval);
+
+        this.dataKeys = new byte[numDataSamples][];
+        this.dataOffsets = new int[numDataSamples];
+
+        readIndex(dataIndexOffset, dataKeys, dataOffsets);
+
+        this.contextKeys = new byte[numContextSamples][];
+        this.contextOffsets = new int[numContextSamples];
+
+        readIndex(contextIndexOffset, contextKeys, contextOffsets);
+
+        Cursor cursor = new Cursor(tagOffset);
+
+        this.tagTable = new String[readVarint(cursor)];
+
+        for (int i = 0; i < tagTable.length; i++) {
+
+            tagTable[i] = readString(cursor);
+
+        }
+
+        logger.info("(HitSegment) " + file + " : " + numEntries + " (n) hit lists, " + numContexts
+                + " (n) context lists, " + (buffer.capacity() / 1024) + " (KB) mapped");
+
+    }
+
+    private void readIndex(int offset, byte[][] keys, int[] offsets) {
+
+        int pos = offset;
+
+        for (int i = 0; i < keys.length; i++) {
+
+            keys[i] = new byte[buffer.getInt(pos)];
+            pos += 4;
+
+            for (int j = 0; j < keys[i].length; j++) {
+
+                keys[i][j] = buffer.get(pos + j);
+
+            }
+
+            pos += keys[i].length;
+
+            offsets[i] = buffer.getInt(pos);
+            pos += 4;
+
+        }
+
+    }
+
+    public long getNumEntries() {
+
+        return numEntries;
+
+    }
+
+    public long getSizeInBytes() {
+
+        return buffer.capacity();
+
+    }
+
+    /**
+     * @param word           : [String]
+     * @param docID          : [int]
+     * @param collectionType : [String], only short is in the segment
+     * @return [ArrayList<WordHit>], empty if not found
+     */
+    public ArrayList<WordHit> getWordHitList(String word, int docID, String collectionType) {
+
+        return getWordHitList(word, docID, collectionType, true);
+
+    }
+
+    /**
+     * Same as above, the contexts are not read if withContext is false (the
+     * hits then come with an empty context).
+     */
+    public ArrayList<WordHit> getWordHitList(String word, int docID, String collectionType, boolean withContext) {
+
+        if (!collectionType.equals("short")) {
+
+            return new ArrayList<WordHit>();
+
+        }
+
+        int value = find(HitSegmentWriter.encodeKey(word + "," + docID), dataKeys, dataOffsets, contextOffset);
+
+        if (value == -1) {
+
+            return new ArrayList<WordHit>();
+
+        }
+
+        Cursor cursor = new Cursor(value);
+
+        int size = readVarint(cursor);
+
+        ArrayList<WordHit> hits = new ArrayList<WordHit>(size);
+
+        // tagID => contexts of (docID, tag), looked up once
+        HashMap<Integer, ArrayList<String>> tagContexts = (withContext) ? new HashMap<Integer, ArrayList<String>>()
+                : null;
+
+        int pos = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            pos += unzigzag(readVarint(cursor));
+
+            int cap = readVarint(cursor);
+            int tagID = readVarint(cursor);
+            int fontSize = readVarint(cursor);
+            int contextRef = readVarint(cursor);
+
+            String tag = tagTable[tagID];
+            String context = "";
+
+            if (withContext) {
+
+                ArrayList<String> contexts = tagContexts.get(tagID);
+
+                if (contexts == null) {
+
+                    contexts = getContexts(docID + "," + tag);
+                    tagContexts.put(tagID, contexts);
+
+                }
+
+                if (contextRef < contexts.size()) {
+
+                    context = contexts.get(contextRef);
+
+                }
+
+            }
+
+            hits.add(new WordHit(docID, word, tag, pos, cap, fontSize, context));
+
+        }
+
+        return hits;
+
+    }
+
+    private ArrayList<String> getContexts(String key) {
+
+        int value = find(HitSegmentWriter.encodeKey(key), contextKeys, contextOffsets, tagOffset);
+
+        if (value == -1) {
+
+            return new ArrayList<String>();
+
+        }
+
+        Cursor cursor = new Cursor(value);
+
+        int count = readVarint(cursor);
+
+        ArrayList<String> contexts = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; i++) {
+
+            contexts.add(readString(cursor));
+
+        }
+
+        return contexts;
+
+    }
+
+    /**
+     * @param key     : [byte[]], encoded key
+     * @param keys    : [byte[][]], sampled keys of the section
+     * @param offsets : [int[]], their entries
+     * @param end     : [int], end of the section
+     * @return [int], position of the value of the key, -1 if not found
+     */
+    private int find(byte[] key, byte[][] keys, int[] offsets, int end) {
+
+        // last sampled key <= key
+        int low = 0;
+        int high = keys.length - 1;
+        int sample = -1;
+
+        while (low <= high) {
+
+            int mid = (low + high) >>> 1;
+
+            if (HitSegmentWriter.compare(keys[mid], key) <= 0) {
+
+                sample = mid;
+                low = mid + 1;
+
+            } else {
+
+                high = mid - 1;
+
+            }
+
+        }
+
+        if (sample == -1) {
+
+            return -1;
+
+        }
+
+        Cursor cursor = new Cursor(offsets[sample]);
+
+        while (cursor.pos < end) {
+
+            int keyLength = readVarint(cursor);
+            int cmp = compareInPlace(cursor.pos, keyLength, key);
+
+            cursor.pos += keyLength;
+
+            int valueLength = readVarint(cursor);
+
+            if (cmp == 0) {
+
+                return cursor.pos;
+
+            }
+
+            if (cmp > 0) {
+
+                // passed it
+                return -1;
+
+            }
+
+            cursor.pos += valueLength;
+
+        }
+
+        return -1;
+
+    }
+
+    private int compareInPlace(int pos, int length, byte[] key) {
+
+        int n = Math.min(length, key.length);
+
+        for (int i = 0; i < n; i++) {
+
+            int cmp = Integer.compare(buffer.get(pos + i) & 0xff, key[i] & 0xff);
+
+            if (cmp != 0) {
+
+                return cmp;
+
+            }
+
+        }
+
+        return Integer.compare(length, key.length);
+
+    }
+
+    private int readVarint(Cursor cursor) {
+
+        int value = 0;
+
+        for (int shift = 0;; shift += 7) {
+
+            byte b = buffer.get(cursor.pos++);
+
+            value |= (b & 0x7f) << shift;
+
+            if (b >= 0) {
+
+                return value;
+
+            }
+
+        }
+
+    }
+
+    private String readString(Cursor cursor) {
+
+        int length = readVarint(cursor);
+
+        byte[] utf8 = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+
+            utf8[i] = buffer.get(cursor.pos + i);
+
+        }
+
+        cursor.pos += length;
+
+        return new String(utf8, StandardCharsets.UTF_8);
+
+    }
+
+    private static int unzigzag(int value) {
+
+        return (value >>> 1) ^ -(value & 1);
+
+    }
+
+    /**
+     * Keys (word,docID) in sorted order, decoded while the data section is
+     * walked.
+     *
+     * @param collectionType : [String], only short is in the segment
+     * @return
+     */
+    public Iterable<String> getHitKeys(String collectionType) {
+
+        if (!collectionType.equals("short")) {
+
+            return Collections.emptyList();
+
+        }
+
+        return () -> new Iterator<String>() {
+
+            private final Cursor cursor = new Cursor(dataOffset);
+
+            @Override
+            public boolean hasNext() {
+
+                return cursor.pos < contextOffset;
+
+            }
+
+            @Override
+            public String next() {
+
+                if (!hasNext()) {
+
+                    throw new NoSuchElementException();
+
+                }
+
+                byte[] key = new byte[readVarint(cursor)];
+
+                for (int i = 0; i < key.length; i++) {
+
+                    key[i] = buffer.get(cursor.pos + i);
+
+                }
+
+                cursor.pos += key.length;
+
+                int valueLength = readVarint(cursor);
+
+                cursor.pos += valueLength;
+
+                return HitSegmentWriter.decodeKey(key);
+
+            }
+
+        };
+
+    }
+
+    /**
+     * The mapping is released by the GC once unreachable (the file can not
+     * be unmapped explicitly).
+     */
+    public void close() {
+
+        logger.debug("(HitSegment) closing " + file);
+
+    }
+
+}
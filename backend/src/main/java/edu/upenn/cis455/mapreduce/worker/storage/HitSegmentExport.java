@@ -0,0 +1,198 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Export the finished hit shards (hitX, BerkeleyDB) of a hit storage
+ * directory into immutable segments (hitX.seg), served by the HitServer in
+ * place of the BerkeleyDB storages. BerkeleyDB stays the format of the
+ * indexing (mutable) phase only.
+ *
+ * Then compares the retrieval throughput of both on the same random keys:
+ * cold (first pass right after opening: empty JE cache, nothing of the
+ * segment faulted in) and warm (second pass). For a truly cold run, drop the
+ * page cache of the OS before (echo 3 > /proc/sys/vm/drop_caches).
+ */
+public class HitSegmentExport {
+
+    final static Logger logger = LogManager.getLogger(HitSegmentExport.class);
+
+    public static void main(String args[]) {
+
+        org.apache.logging.log4j.core.config.Configurator.setLevel("edu.upenn", Level.INFO);
+
+        if (args.length < 2) {
+            System.out.println(
+                    "Usage: [hit storage directory] [segment directory] [number of lookups] [export|bench|both]");
+            System.exit(1);
+        }
+
+        File hitDirectory = new File(args[0]);
+        File segmentDirectory = new File(args[1]);
+
+        int numLookups = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+        String mode = (args.length > 3) ? args[3] : "both";
+
+        segmentDirectory.mkdirs();
+
+        File[] shards = hitDirectory.listFiles((dir, name) -> name.startsWith("hit") && !name.endsWith(".seg"));
+
+        if (shards == null || shards.length == 0) {
+
+            System.out.println("No hit shard (hitX) in " + hitDirectory);
+            System.exit(1);
+
+        }
+
+        for (File shard : shards) {
+
+            File segment = new File(segmentDirectory, shard.getName() + ".seg");
+
+            try {
+
+                if (!mode.equals("bench")) {
+
+                    export(shard, segment);
+
+                }
+
+                if (!mode.equals("export")) {
+
+                    benchmark(shard, segment, numLookups);
+
+                }
+
+            } catch (IOException | IllegalArgumentException e) {
+
+                logger.error("(HitSegmentExport) " + shard.getName() + " : " + e.getMessage());
+
+            }
+
+        }
+
+    }
+
+    private static void export(File shard, File segment) throws IOException {
+
+        HitStorage hitDB = new HitStorage(shard.getPath());
+
+        long startT = System.nanoTime();
+
+        try {
+
+            long numEntries = HitSegmentWriter.write(hitDB, segment);
+
+            logger.info(String.format("(HitSegmentExport) %s : %d (n) hit lists exported in %d (ms), %.2f (MB)",
+                    shard.getName(), numEntries, (System.nanoTime() - startT) / 1000000,
+                    segment.length() / 1048576.0));
+
+        } finally {
+
+            hitDB.close();
+
+        }
+
+    }
+
+    private static void benchmark(File shard, File segment, int numLookups) throws IOException {
+
+        // half of the keys exist, half are misses (other docs of the same words)
+        ArrayList<String> keys = sampleKeys(new HitSegment(segment), numLookups);
+
+        // BerkeleyDB, opened right before the cold pass (not the cached
+        // instance of the StorageFactory)
+        HitStorage hitDB = new HitStorage(shard.getPath());
+
+        double bdbCold = measureLookups(hitDB, keys);
+        double bdbWarm = measureLookups(hitDB, keys);
+
+        hitDB.close();
+
+        // segment, mapped right before the cold pass
+        HitSegment hitSegment = new HitSegment(segment);
+
+        double segmentCold = measureLookups(hitSegment, keys);
+        double segmentWarm = measureLookups(hitSegment, keys);
+
+        hitSegment.close();
+
+        logger.info(String.format(
+                "(HitSegmentExport) %s (%d keys) lookups/s : BerkeleyDB cold %.0f, warm %.0f | segment cold %.0f, warm %.0f",
+                shard.getName(), keys.size(), bdbCold, bdbWarm, segmentCold, segmentWarm));
+
+    }
+
+    /**
+     * Reservoir sample of the keys, every other one moved to a doc it is not
+     * in (most of the time) to measure the misses too.
+     */
+    private static ArrayList<String> sampleKeys(HitSource hitSource, int numKeys) {
+
+        ArrayList<String> keys = new ArrayList<String>();
+
+        Random random = new Random(455);
+
+        int seen = 0;
+
+        for (String key : hitSource.getHitKeys("short")) {
+
+            if (keys.size() < numKeys) {
+
+                keys.add(key);
+
+            } else {
+
+                int j = random.nextInt(seen + 1);
+
+                if (j < numKeys) {
+
+                    keys.set(j, key);
+
+                }
+
+            }
+
+            seen++;
+
+        }
+
+        for (int i = 1; i < keys.size(); i += 2) {
+
+            String key = keys.get(i);
+
+            keys.set(i, key.substring(0, key.lastIndexOf(",") + 1) + random.nextInt(Integer.MAX_VALUE));
+
+        }
+
+        return keys;
+
+    }
+
+    /**
+     * @return [double], lookups (with the contexts) per second
+     */
+    private static double measureLookups(HitSource hitSource, ArrayList<String> keys) {
+
+        long startT = System.nanoTime();
+
+        for (String key : keys) {
+
+            String word = key.substring(0, key.lastIndexOf(","));
+            int docID = Integer.parseInt(key.substring(key.lastIndexOf(",") + 1));
+
+            hitSource.getWordHitList(word, docID, "short");
+
+        }
+
+        return keys.size() / Math.max(1e-9, (System.nanoTime() - startT) / 1e9);
+
+    }
+
+}
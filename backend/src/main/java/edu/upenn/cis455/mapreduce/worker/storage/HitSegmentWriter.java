@@ -0,0 +1,441 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.HitBlock;
+
+/**
+ * Write the short hits of a finished hit shard into an immutable segment
+ * file (read by HitSegment, memory-mapped).
+ *
+ * Layout (all offsets from the start of the file):
+ * 1. data : [keyLen][key][valueLen][value] sorted by key (word,docID),
+ * value = size, then per hit (zigzag position delta, cap, tagID, fontSize,
+ * contextRef), all varints (row by row, so that a hit is decoded in one pass)
+ * 2. contexts : [keyLen][key][valueLen][value] sorted by key (docID,tag),
+ * value = count, then per context [len][UTF-8 bytes]
+ * 3. tags : count, then per tag [len][UTF-8 bytes], by tagID
+ * 4. sparse indexes of data & contexts : every INDEX_INTERVAL-th entry,
+ * [keyLen (int)][key][offset (int)]
+ * 5. footer (FOOTER_SIZE bytes) : the offsets of the sections, the counts,
+ * the interval, the version & the magic number
+ *
+ * The keys are encoded as in the BerkeleyDB StringBinding (modified UTF-8),
+ * so that the key order of the storage is the byte order of the segment and
+ * the export is a single sequential pass.
+ */
+public class HitSegmentWriter {
+
+    final static Logger logger = LogManager.getLogger(HitSegmentWriter.class);
+
+    public static final int MAGIC = 0x48534547; // HSEG
+
+    public static final int VERSION = 1;
+
+    public static final int INDEX_INTERVAL = 64;
+
+    // 7 longs + 3 ints
+    public static final int FOOTER_SIZE = 7 * 8 + 3 * 4;
+
+    private static class SparseIndex {
+
+        private final ArrayList<byte[]> keys = new ArrayList<byte[]>();
+        private final ArrayList<Long> offsets = new ArrayList<Long>();
+
+        private long numEntries = 0;
+        private byte[] previousKey = null;
+
+        void add(byte[] key, long offset) {
+
+            if (previousKey != null && compare(previousKey, key) >= 0) {
+
+                throw new IllegalStateException("Keys are not sorted: " + decodeKey(previousKey) + " >= "
+                        + decodeKey(key));
+
+            }
+
+            if (numEntries % INDEX_INTERVAL == 0) {
+
+                keys.add(key);
+                offsets.add(offset);
+
+            }
+
+            previousKey = key;
+            numEntries++;
+
+        }
+
+        void write(DataOutputStream output) throws IOException {
+
+            for (int i = 0; i < keys.size(); i++) {
+
+                output.writeInt(keys.get(i).length);
+                output.write(keys.get(i));
+                output.writeInt((int) (long) offsets.get(i));
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Export a hit storage (migrated to the columnar blocks) into a segment.
+     * The file is written next to the target and renamed once complete.
+     *
+     * @param hitDB   : [HitStorage], not written meanwhile
+     * @param segment : [File], e.g. indexStorage/hit0.seg
+     * @return [long], number of (word, doc) entries exported
+     * @throws IOException
+     */
+    public static long write(HitStorage hitDB, File segment) throws IOException {
+
+        if (hitDB.getHitBlocks("short").isEmpty() && !hitDB.getHitKeys("short").isEmpty()) {
+
+            throw new IllegalArgumentException(
+                    "The hit storage has not been migrated to the hit blocks yet, run hitMigration first!");
+
+        }
+
+        return write(segment, hitDB.getHitBlocks("short"), hitDB.getContexts(), hitDB.getTagTable());
+
+    }
+
+    /**
+     * @param segment  : [File]
+     * @param blocks   : [Iterable<Map.Entry<String, HitBlock>>], sorted by key
+     *                 (word,docID)
+     * @param contexts : [Iterable<Map.Entry<String, ArrayList<String>>>],
+     *                 sorted by key (docID,tag)
+     * @param tags     : [List<String>], tag by tagID
+     * @return [long], number of (word, doc) entries written
+     * @throws IOException
+     */
+    public static long write(File segment, Iterable<Map.Entry<String, HitBlock>> blocks,
+            Iterable<Map.Entry<String, ArrayList<String>>> contexts, List<String> tags) throws IOException {
+
+        File tmp = new File(segment.getPath() + ".tmp");
+
+        SparseIndex dataIndex = new SparseIndex();
+        SparseIndex contextIndex = new SparseIndex();
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+
+            // 1. data
+            long dataOffset = output.size();
+
+            ByteArray value = new ByteArray();
+
+            for (Map.Entry<String, HitBlock> entry : blocks) {
+
+                byte[] key = encodeKey(entry.getKey());
+
+                dataIndex.add(key, output.size());
+
+                HitBlock block = entry.getValue();
+
+                value.reset();
+                value.writeVarint(block.size());
+
+                int previous = 0;
+
+                for (int i = 0; i < block.size(); i++) {
+
+                    value.writeVarint(zigzag(block.getPos(i) - previous));
+                    value.writeVarint(block.getCap(i));
+                    value.writeVarint(block.getTagID(i));
+                    value.writeVarint(block.getFontSize(i));
+                    value.writeVarint(block.getContextRef(i));
+
+                    previous = block.getPos(i);
+
+                }
+
+                writeEntry(output, key, value);
+                checkSize(output);
+
+            }
+
+            // 2. contexts
+            long contextOffset = output.size();
+
+            for (Map.Entry<String, ArrayList<String>> entry : contexts) {
+
+                byte[] key = encodeKey(entry.getKey());
+
+                contextIndex.add(key, output.size());
+
+                value.reset();
+                value.writeVarint(entry.getValue().size());
+
+                for (String context : entry.getValue()) {
+
+                    value.writeString(context);
+
+                }
+
+                writeEntry(output, key, value);
+                checkSize(output);
+
+            }
+
+            // 3. tags
+            long tagOffset = output.size();
+
+            value.reset();
+            value.writeVarint(tags.size());
+
+            for (String tag : tags) {
+
+                value.writeString((tag == null) ? "" : tag);
+
+            }
+
+            value.writeTo(output);
+
+            // 4. sparse indexes
+            long dataIndexOffset = output.size();
+
+            dataIndex.write(output);
+
+            long contextIndexOffset = output.size();
+
+            contextIndex.write(output);
+
+            long footerOffset = output.size();
+
+            // 5. footer
+            output.writeLong(dataOffset);
+            output.writeLong(contextOffset);
+            output.writeLong(tagOffset);
+            output.writeLong(dataIndexOffset);
+            output.writeLong(contextIndexOffset);
+            output.writeLong(dataIndex.numEntries);
+            output.writeLong(contextIndex.numEntries);
+            output.writeInt(INDEX_INTERVAL);
+            output.writeInt(VERSION);
+            output.writeInt(MAGIC);
+
+            checkSize(output);
+
+            logger.info("(HitSegmentWriter) " + segment + " : " + dataIndex.numEntries + " (n) hit lists, "
+                    + contextIndex.numEntries + " (n) context lists, " + (footerOffset - dataIndexOffset)
+                    + " (bytes) of sparse index, " + (output.size() / 1024) + " (KB) in total");
+
+        } catch (IOException | RuntimeException e) {
+
+            tmp.delete();
+
+            throw e;
+
+        }
+
+        Files.move(tmp.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        return dataIndex.numEntries;
+
+    }
+
+    private static void writeEntry(DataOutputStream output, byte[] key, ByteArray value) throws IOException {
+
+        ByteArray.writeVarint(output, key.length);
+        output.write(key);
+        ByteArray.writeVarint(output, value.size());
+        value.writeTo(output);
+
+    }
+
+    private static void checkSize(DataOutputStream output) throws IOException {
+
+        // a segment is mapped as a single buffer (size() stops at 2 GB too)
+        if (output.size() >= Integer.MAX_VALUE - FOOTER_SIZE) {
+
+            throw new IOException("Hit segment over 2 GB, split the hit shard first!");
+
+        }
+
+    }
+
+    /**
+     * Growable byte array with varint writes (the value of an entry is built
+     * here first, its length goes before it).
+     */
+    static class ByteArray {
+
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        void reset() {
+
+            size = 0;
+
+        }
+
+        int size() {
+
+            return size;
+
+        }
+
+        void write(int b) {
+
+            if (size == bytes.length) {
+
+                bytes = Arrays.copyOf(bytes, size * 2);
+
+            }
+
+            bytes[size++] = (byte) b;
+
+        }
+
+        void writeVarint(int value) {
+
+            while ((value & ~0x7f) != 0) {
+
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+
+            }
+
+            write(value);
+
+        }
+
+        void writeString(String s) {
+
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+
+            writeVarint(utf8.length);
+
+            for (byte b : utf8) {
+
+                write(b);
+
+            }
+
+        }
+
+        void writeTo(OutputStream output) throws IOException {
+
+            output.write(bytes, 0, size);
+
+        }
+
+        static void writeVarint(OutputStream output, int value) throws IOException {
+
+            while ((value & ~0x7f) != 0) {
+
+                output.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+
+            }
+
+            output.write(value);
+
+        }
+
+    }
+
+    static int zigzag(int value) {
+
+        return (value << 1) ^ (value >> 31);
+
+    }
+
+    /**
+     * Modified UTF-8 (as DataOutput.writeUTF, without the length), the
+     * encoding of the BerkeleyDB StringBinding.
+     */
+    static byte[] encodeKey(String key) {
+
+        ByteArray bytes = new ByteArray();
+
+        for (int i = 0; i < key.length(); i++) {
+
+            char c = key.charAt(i);
+
+            if (c >= 0x0001 && c <= 0x007f) {
+
+                bytes.write(c);
+
+            } else if (c <= 0x07ff) {
+
+                bytes.write(0xc0 | (c >> 6));
+                bytes.write(0x80 | (c & 0x3f));
+
+            } else {
+
+                bytes.write(0xe0 | (c >> 12));
+                bytes.write(0x80 | ((c >> 6) & 0x3f));
+                bytes.write(0x80 | (c & 0x3f));
+
+            }
+
+        }
+
+        return Arrays.copyOf(bytes.bytes, bytes.size);
+
+    }
+
+    static String decodeKey(byte[] key) {
+
+        StringBuilder sb = new StringBuilder(key.length);
+
+        int i = 0;
+
+        while (i < key.length) {
+
+            int b = key[i] & 0xff;
+
+            if (b < 0x80) {
+
+                sb.append((char) b);
+                i += 1;
+
+            } else if ((b & 0xe0) == 0xc0) {
+
+                sb.append((char) (((b & 0x1f) << 6) | (key[i + 1] & 0x3f)));
+                i += 2;
+
+            } else {
+
+                sb.append((char) (((b & 0x0f) << 12) | ((key[i + 1] & 0x3f) << 6) | (key[i + 2] & 0x3f)));
+                i += 3;
+
+            }
+
+        }
+
+        return sb.toString();
+
+    }
+
+    /**
+     * Unsigned byte order (the order of the BerkeleyDB keys).
+     */
+    static int compare(byte[] a, byte[] b) {
+
+        return Arrays.compareUnsigned(a, b);
+
+    }
+
+}
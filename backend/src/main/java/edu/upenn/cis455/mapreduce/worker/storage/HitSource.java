@@ -0,0 +1,34 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import java.util.ArrayList;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+/**
+ * Where a hit server reads the hits of a hit group from: the BerkeleyDB
+ * storage (HitStorage, mutable, written by the indexing) or an exported
+ * immutable segment (HitSegment, memory-mapped).
+ */
+public interface HitSource {
+
+    /**
+     * @param word           : [String]
+     * @param docID          : [int]
+     * @param collectionType : [String], either short or plain
+     * @param withContext    : [boolean], false => the hits come with an empty
+     *                       context
+     * @return [ArrayList<WordHit>], empty if not found
+     */
+    public ArrayList<WordHit> getWordHitList(String word, int docID, String collectionType, boolean withContext);
+
+    public ArrayList<WordHit> getWordHitList(String word, int docID, String collectionType);
+
+    /**
+     * @param collectionType : [String], either short or plain
+     * @return [Iterable<String>], the keys (word,docID) in sorted order
+     */
+    public Iterable<String> getHitKeys(String collectionType);
+
+    public void close();
+
+}
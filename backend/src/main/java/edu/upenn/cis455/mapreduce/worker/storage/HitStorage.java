@@ -20,6 +20,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.tuple.IntegerBinding;
+import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
 
 import org.apache.logging.log4j.LogManager;
@@ -27,10 +29,11 @@ import org.apache.logging.log4j.Logger;
 
 import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.DocWord;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.HitBlock;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.Word;
 
-public class HitStorage {
+public class HitStorage implements HitSource {
 
     final static Logger logger = LogManager.getLogger(HitStorage.class);
 
@@ -54,6 +57,12 @@ public class HitStorage {
      * 1. ShortShards DBs & ShortShards Maps: short lexicon's doc hits
      * 2. PlainShards DBs & PlainShards Maps: plain lexicon's doc hits
      * 
+     * Hits are written as columnar HitBlocks (short_hit_blocks &
+     * plain_hit_blocks), with the tags dictionary-coded (hit_tags) and the
+     * contexts kept once per (docID, tag) in a pool (hit_contexts).
+     * The Java-serialized lists (short_hits & plain_hits) are only read for
+     * storages that have not been migrated yet (see HitBlockMigration).
+     * 
      */
 
     // hits
@@ -67,6 +76,24 @@ public class HitStorage {
     private Database plainHitsDB;
     private StoredSortedMap plainHitsMap;
 
+    // columnar hits, key: word,docID => HitBlock
+    private Database shortBlocksDB;
+    private StoredSortedMap shortBlocksMap;
+
+    private Database plainBlocksDB;
+    private StoredSortedMap plainBlocksMap;
+
+    // tag => tagID, docID,tag => [context, ...]
+    private Database tagsDB;
+    private StoredSortedMap tagsMap;
+
+    private Database contextsDB;
+    private StoredSortedMap contextsMap;
+
+    // in-memory copy of the tag dictionary
+    private HashMap<String, Integer> tagIDs = new HashMap<String, Integer>();
+    private ArrayList<String> tagTable = new ArrayList<String>();
+
     public HitStorage(String directory) throws DatabaseException {
 
         // Incoming local directory of a worker (e.g. storage/node1)
@@ -106,6 +133,18 @@ public class HitStorage {
                     new SerialBinding(this.storedClassCatalog, ArrayList.class),
                     true);
 
+            shortBlocksDB = env.openDatabase(null, "short_hit_blocks", this.dbConfig);
+            shortBlocksMap = new StoredSortedMap(shortBlocksDB, new StringBinding(), new HitBlockBinding(), true);
+            plainBlocksDB = env.openDatabase(null, "plain_hit_blocks", this.dbConfig);
+            plainBlocksMap = new StoredSortedMap(plainBlocksDB, new StringBinding(), new HitBlockBinding(), true);
+
+            tagsDB = env.openDatabase(null, "hit_tags", this.dbConfig);
+            tagsMap = new StoredSortedMap(tagsDB, new StringBinding(), new IntegerBinding(), true);
+            contextsDB = env.openDatabase(null, "hit_contexts", this.dbConfig);
+            contextsMap = new StoredSortedMap(contextsDB, new StringBinding(), new ContextListBinding(), true);
+
+            loadTagDictionary();
+
             logger.debug("(HitStorage) current short hits: " + this.shortHitsMap.size());
             logger.debug("(HitStorage) current plain hits: " + this.plainHitsMap.size());
 
@@ -128,6 +167,91 @@ public class HitStorage {
         return "" + word + "," + docID;
     }
 
+    /**
+     * Load the tag dictionary into memory (tagID => tag & tag => tagID).
+     */
+    private void loadTagDictionary() {
+
+        for (Object obj : this.tagsMap.entrySet()) {
+
+            Map.Entry<String, Integer> entry = (Map.Entry<String, Integer>) obj;
+
+            while (tagTable.size() <= entry.getValue()) {
+
+                tagTable.add(null);
+
+            }
+
+            tagTable.set(entry.getValue(), entry.getKey());
+            tagIDs.put(entry.getKey(), entry.getValue());
+
+        }
+
+    }
+
+    /**
+     * Get the id of a tag, registering new tags on the fly.
+     */
+    private synchronized int getTagID(String tag) {
+
+        Integer tagID = tagIDs.get(tag);
+
+        if (tagID == null) {
+
+            tagID = tagTable.size();
+
+            tagTable.add(tag);
+            tagIDs.put(tag, tagID);
+            tagsMap.put(tag, tagID);
+
+        }
+
+        return tagID;
+
+    }
+
+    private synchronized String getTag(int tagID) {
+
+        return tagTable.get(tagID);
+
+    }
+
+    /**
+     * Get the index of the context in the pool list of (docID, tag),
+     * appending it if it is not there yet.
+     */
+    private synchronized int getContextRef(int docID, String tag, String context) {
+
+        String key = docID + "," + tag;
+
+        ArrayList<String> contexts = (ArrayList<String>) contextsMap.get(key);
+
+        if (contexts == null) {
+
+            contexts = new ArrayList<String>();
+
+        }
+
+        int ref = contexts.indexOf(context);
+
+        if (ref == -1) {
+
+            ref = contexts.size();
+            contexts.add(context);
+            contextsMap.put(key, contexts);
+
+        }
+
+        return ref;
+
+    }
+
+    private StoredSortedMap getBlocksMap(String collectionType) {
+
+        return (collectionType.equals("short")) ? this.shortBlocksMap : this.plainBlocksMap;
+
+    }
+
     /**
      * Update the word hits of a given word in a document
      * 
@@ -138,21 +262,28 @@ public class HitStorage {
      */
     public void addWordDocHits(String word, int docID, ArrayList<WordHit> newHits, String collectionType) {
 
-        StoredSortedMap targetMap = (collectionType.equals("short")) ? this.shortHitsMap : this.plainHitsMap;
+        StoredSortedMap targetMap = getBlocksMap(collectionType);
 
         // key : word,docID
         String key = getKey(word, docID);
 
-        if (!targetMap.containsKey(key)) {
-            targetMap.put(key, new ArrayList<WordHit>());
+        HitBlock block = (HitBlock) targetMap.get(key);
+
+        if (block == null) {
+
+            block = new HitBlock(newHits.size());
+
         }
 
-        ArrayList<WordHit> previousHits = (ArrayList<WordHit>) targetMap.get(key);
+        for (WordHit hit : newHits) {
 
-        previousHits.addAll(newHits);
+            block.add(hit.getPos(), hit.getCap(), getTagID(hit.getTag()), hit.getFontSize(),
+                    getContextRef(docID, hit.getTag(), hit.getContext()));
+
+        }
 
         // store it back
-        targetMap.put(key, previousHits);
+        targetMap.put(key, block);
 
     }
 
@@ -166,13 +297,42 @@ public class HitStorage {
      */
     public ArrayList<WordHit> getWordHitList(String word, int docID, String collectionType) {
 
+        return getWordHitList(word, docID, collectionType, true);
+
+    }
+
+    /**
+     * Same as above, the context pool is not read if withContext is false
+     * (the hits then come with an empty context).
+     */
+    public ArrayList<WordHit> getWordHitList(String word, int docID, String collectionType, boolean withContext) {
+
         String key = getKey(word, docID);
 
-        StoredSortedMap targetMap = (collectionType.equals("short")) ? this.shortHitsMap : this.plainHitsMap;
+        HitBlock block = (HitBlock) getBlocksMap(collectionType).get(key);
+
+        if (block != null) {
+
+            return toWordHits(word, docID, block, withContext);
 
-        if (targetMap.containsKey(key)) {
+        }
+
+        // not migrated yet
+        StoredSortedMap legacyMap = (collectionType.equals("short")) ? this.shortHitsMap : this.plainHitsMap;
+
+        if (legacyMap.containsKey(key)) {
+
+            ArrayList<WordHit> hits = (ArrayList<WordHit>) legacyMap.get(key);
+
+            if (!withContext) {
 
-            ArrayList<WordHit> hits = (ArrayList<WordHit>) targetMap.get(key);
+                for (WordHit hit : hits) {
+
+                    hit.setContext("");
+
+                }
+
+            }
 
             return hits;
 
@@ -185,6 +345,140 @@ public class HitStorage {
 
     }
 
+    /**
+     * Rebuild the WordHits of a block, looking up each (docID, tag) context
+     * in the pool only once.
+     */
+    private ArrayList<WordHit> toWordHits(String word, int docID, HitBlock block, boolean withContext) {
+
+        ArrayList<WordHit> hits = new ArrayList<WordHit>(block.size());
+
+        HashMap<Integer, ArrayList<String>> tagContexts = new HashMap<Integer, ArrayList<String>>();
+
+        for (int i = 0; i < block.size(); i++) {
+
+            String tag = getTag(block.getTagID(i));
+
+            if (!withContext) {
+
+                hits.add(new WordHit(docID, word, tag, block.getPos(i), block.getCap(i), block.getFontSize(i), ""));
+                continue;
+
+            }
+
+            ArrayList<String> contexts = tagContexts.get(block.getTagID(i));
+
+            if (contexts == null) {
+
+                contexts = (ArrayList<String>) contextsMap.get(docID + "," + tag);
+                tagContexts.put(block.getTagID(i), contexts);
+
+            }
+
+            String context = (contexts != null && block.getContextRef(i) < contexts.size())
+                    ? contexts.get(block.getContextRef(i))
+                    : "";
+
+            hits.add(new WordHit(docID, word, tag, block.getPos(i), block.getCap(i), block.getFontSize(i), context));
+
+        }
+
+        return hits;
+
+    }
+
+    /**
+     * Copy the Java-serialized hits of this storage into the columnar blocks
+     * of the target storage (may be this storage itself).
+     * 
+     * @param target         : [HitStorage]
+     * @param collectionType : [String], either short or plain
+     * @return [int], number of (word, doc) entries migrated
+     */
+    public int migrateLegacyHits(HitStorage target, String collectionType) {
+
+        StoredSortedMap legacyMap = (collectionType.equals("short")) ? this.shortHitsMap : this.plainHitsMap;
+
+        int migrated = 0;
+
+        for (Object obj : legacyMap.entrySet()) {
+
+            Map.Entry<String, ArrayList<WordHit>> entry = (Map.Entry<String, ArrayList<WordHit>>) obj;
+
+            // key: word,docID
+            String key = entry.getKey();
+            String word = key.substring(0, key.lastIndexOf(","));
+            int docID = Integer.parseInt(key.substring(key.lastIndexOf(",") + 1));
+
+            target.addWordDocHits(word, docID, entry.getValue(), collectionType);
+
+            migrated++;
+
+            if (migrated % 100000 == 0) {
+
+                logger.info("(HitStorage) migrated " + migrated + " (n) " + collectionType + " hit lists ...");
+
+            }
+
+        }
+
+        return migrated;
+
+    }
+
+    /**
+     * Keys (word,docID) of the stored hits: the columnar blocks, or the
+     * Java-serialized lists if the storage has not been migrated.
+     * 
+     * @param collectionType : [String], either short or plain
+     * @return
+     */
+    public Set<String> getHitKeys(String collectionType) {
+
+        StoredSortedMap blocksMap = getBlocksMap(collectionType);
+
+        if (blocksMap.size() > 0) {
+
+            return blocksMap.keySet();
+
+        }
+
+        return ((collectionType.equals("short")) ? this.shortHitsMap : this.plainHitsMap).keySet();
+
+    }
+
+    /**
+     * The columnar blocks in key order (word,docID), for the segment export.
+     * 
+     * @param collectionType : [String], either short or plain
+     * @return
+     */
+    public Set<Map.Entry<String, HitBlock>> getHitBlocks(String collectionType) {
+
+        return getBlocksMap(collectionType).entrySet();
+
+    }
+
+    /**
+     * The context pool in key order (docID,tag), for the segment export.
+     * 
+     * @return
+     */
+    public Set<Map.Entry<String, ArrayList<String>>> getContexts() {
+
+        return contextsMap.entrySet();
+
+    }
+
+    /**
+     * @return [List<String>], tag by tagID
+     */
+    public synchronized List<String> getTagTable() {
+
+        return new ArrayList<String>(tagTable);
+
+    }
+
     /**
      * Show the statistics of the word hit
      * 
@@ -192,6 +486,10 @@ public class HitStorage {
      */
     public void showLocalHitStatistics(boolean verbose) {
 
+        logger.info("Current short hit blocks : " + this.shortBlocksMap.size() + " (n), plain hit blocks : "
+                + this.plainBlocksMap.size() + " (n), tags : " + this.tagsMap.size() + " (n), pooled contexts : "
+                + this.contextsMap.size() + " (n)");
+
         logger.info("Current short hits : " + this.shortHitsMap.size() + " (n)");
 
         int nToShow = 5;
@@ -253,6 +551,11 @@ public class HitStorage {
             this.shortHitsDB.close();
             this.plainHitsDB.close();
 
+            this.shortBlocksDB.close();
+            this.plainBlocksDB.close();
+            this.tagsDB.close();
+            this.contextsDB.close();
+
             this.storedClassCatalog.close();
 
             this.env.close();
@@ -298,6 +298,15 @@ public class IndexStorage {
 
     }
 
+    /**
+     * word => wordID, e.g. to load the lexicon in memory (read only)
+     */
+    public StoredSortedMap getWordIndexMap() {
+
+        return this.wordIndexMap;
+
+    }
+
     public boolean hasWord(String word) {
 
         if (this.wordIndexMap.containsKey(word)) {
@@ -414,6 +423,21 @@ public class IndexStorage {
 
     }
 
+    /**
+     * Empty the doc words of a collection once they are sealed into an index
+     * segment (see SegmentedIndex), so that the next run only holds its own
+     * batch.
+     *
+     * @param collectionType : [String], either short or plain
+     */
+    public void clearDocWords(String collectionType) {
+
+        StoredSortedMap targetMap = (collectionType.equals("short")) ? this.shortDocMap : this.plainDocMap;
+
+        targetMap.clear();
+
+    }
+
     public int getLexiconSize(String collectionType) {
 
         if (collectionType.equals("short")) {
@@ -0,0 +1,123 @@
+package edu.upenn.cis455.mapreduce.worker.storage.entities;
+
+import java.util.Arrays;
+
+/**
+ * The hits of one word in one document, stored column by column:
+ * hit i = (positions[i], caps[i], tagIDs[i], fontSizes[i], contextRefs[i]).
+ *
+ * - tagIDs point into the tag dictionary of the HitStorage
+ * - contextRefs point into the context list of (docID, tag) in the context
+ * pool (usually 0, the element's context is shared by all its words)
+ */
+public class HitBlock {
+
+    private int size;
+
+    private int[] positions;
+    private int[] caps;
+    private int[] tagIDs;
+    private int[] fontSizes;
+    private int[] contextRefs;
+
+    public HitBlock() {
+
+        this(0);
+
+    }
+
+    public HitBlock(int capacity) {
+
+        this.size = 0;
+        this.positions = new int[capacity];
+        this.caps = new int[capacity];
+        this.tagIDs = new int[capacity];
+        this.fontSizes = new int[capacity];
+        this.contextRefs = new int[capacity];
+
+    }
+
+    /**
+     * Wrap already decoded columns (all of the same length).
+     */
+    public HitBlock(int[] positions, int[] caps, int[] tagIDs, int[] fontSizes, int[] contextRefs) {
+
+        this.size = positions.length;
+        this.positions = positions;
+        this.caps = caps;
+        this.tagIDs = tagIDs;
+        this.fontSizes = fontSizes;
+        this.contextRefs = contextRefs;
+
+    }
+
+    /**
+     * Append a hit (the columns grow as needed).
+     */
+    public void add(int pos, int cap, int tagID, int fontSize, int contextRef) {
+
+        if (size == positions.length) {
+
+            int capacity = Math.max(4, size * 2);
+
+            positions = Arrays.copyOf(positions, capacity);
+            caps = Arrays.copyOf(caps, capacity);
+            tagIDs = Arrays.copyOf(tagIDs, capacity);
+            fontSizes = Arrays.copyOf(fontSizes, capacity);
+            contextRefs = Arrays.copyOf(contextRefs, capacity);
+
+        }
+
+        positions[size] = pos;
+        caps[size] = cap;
+        tagIDs[size] = tagID;
+        fontSizes[size] = fontSize;
+        contextRefs[size] = contextRef;
+
+        size++;
+
+    }
+
+    public int size() {
+
+        return size;
+
+    }
+
+    public int getPos(int i) {
+
+        return positions[i];
+
+    }
+
+    public int getCap(int i) {
+
+        return caps[i];
+
+    }
+
+    public int getTagID(int i) {
+
+        return tagIDs[i];
+
+    }
+
+    public int getFontSize(int i) {
+
+        return fontSizes[i];
+
+    }
+
+    public int getContextRef(int i) {
+
+        return contextRefs[i];
+
+    }
+
+    public String toString() {
+
+        return "HitBlock(size = " + size + ", positions = " + Arrays.toString(Arrays.copyOf(positions, size)) + ")";
+
+    }
+
+}
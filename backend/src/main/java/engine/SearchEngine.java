@@ -4,6 +4,7 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import api.http.ServiceHttpClient;
 import engine.database.EngineBdb;
 import engine.database.EngineBdbViews;
 import engine.entity.Feature;
@@ -16,7 +17,9 @@ import engine.handlers.SearchHandler;
 import engine.handlers.SpellcheckHandler;
 import engine.service.ConfigService;
 import engine.service.FeatureService;
+import engine.service.IndexerCluster;
 import engine.service.KeywordCountService;
+import engine.service.KeywordCounter;
 import engine.service.PerformanceService;
 import engine.service.UserService;
 import engine.utils.ServerAddress;
@@ -117,8 +120,33 @@ public class SearchEngine {
         before("/api/shutdown", new AdminFilter());
         before("/api/configs", new AdminFilter());
 
+        // keep-alive client shared by the requests to the indexers & rankers
+        ServiceHttpClient.configure(
+            Integer.parseInt(dotenv.get("INTERNAL_HTTP_CONNECT_TIMEOUT_MS", "1000")),
+            Integer.parseInt(dotenv.get("INTERNAL_HTTP_TIMEOUT_MS", "5000")),
+            Integer.parseInt(dotenv.get("INTERNAL_HTTP_MAX_PER_HOST", "64")));
+
         // search api
-        get("/api/search", new SearchHandler(ServerAddress.parse(dotenv.get("INDEXER_SERVER")), ServerAddress.parse(dotenv.get("RANKER_SERVER")), views));
+        IndexerCluster indexers = new IndexerCluster(
+            ServerAddress.parseShards(dotenv.get("INDEXER_SERVER"), Boolean.parseBoolean(dotenv.get("INDEXER_PARTITIONED", "false"))),
+            Long.parseLong(dotenv.get("INDEXER_SCATTER_TIMEOUT_MS", "3000")),
+            Double.parseDouble(dotenv.get("ENGINE_HEDGE_PERCENTILE", "95")),
+            Long.parseLong(dotenv.get("ENGINE_HEDGE_MIN_DELAY_MS", "20")),
+            // callers: the Spark pool (the snippet stage composes the calls, no pipeline thread waits)
+            16);
+        // popular keywords, counted in memory & flushed in batches
+        KeywordCounter keywordCounter = new KeywordCounter(indexers,
+            Integer.parseInt(dotenv.get("ENGINE_KEYWORD_QUEUE_SIZE", "10000")),
+            Long.parseLong(dotenv.get("ENGINE_KEYWORD_FLUSH_MS", "5000")),
+            Long.parseLong(dotenv.get("ENGINE_KEYWORD_LEXICON_TTL_MS", "600000")));
+        keywordCounter.start();
+        SearchHandler searchHandler = new SearchHandler(indexers, ServerAddress.parse(dotenv.get("RANKER_SERVER")), views, keywordCounter,
+            Long.parseLong(dotenv.get("ENGINE_RANKER_DEADLINE_MS", "1000")),
+            Long.parseLong(dotenv.get("ENGINE_SNIPPET_DEADLINE_MS", "1000")),
+            Integer.parseInt(dotenv.get("ENGINE_PIPELINE_THREADS", "32")),
+            Float.parseFloat(dotenv.get("INDEXER_QUALITY_WEIGHT", "1.0")));
+        get("/api/search", searchHandler);
+        get("/api/snippets", searchHandler::handleSnippets);
 
         // user api
         get("/api/login", new LoginHandler());
@@ -152,6 +180,7 @@ public class SearchEngine {
 
         // shutdown api
         get("/api/shutdown", (req, res) -> {
+            keywordCounter.stop();
             db.close();
             bdb.close();
             stop();
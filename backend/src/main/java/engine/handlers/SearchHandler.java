@@ -1,7 +1,8 @@
 package engine.handlers;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -9,19 +10,33 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.Instant;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import api.data.EngineSearchResult;
 import api.data.IndexerMatch;
 import api.data.RankerResult;
+import api.http.ServiceHttpClient;
 import engine.database.EngineBdbViews;
 import engine.entity.DocRank;
 import engine.entity.Feature;
 import engine.service.FeatureService;
-import engine.service.KeywordCountService;
+import engine.service.IndexerCluster;
+import engine.service.KeywordCounter;
 import engine.service.PerformanceService;
 import engine.service.RankCache;
 import engine.utils.HttpUtils;
@@ -33,123 +48,289 @@ public class SearchHandler implements Route {
     private static String SEARCH_TOTAL = "search_total";
     private static String SEARCH_INDEXER = "search_indexer";
     private static String SEARCH_RANKER = "search_ranker";
-
-    class CountKeywordThread extends Thread {
-        private String query;
-    
-        public CountKeywordThread(String query) {
-            this.query = query;
-        }
-    
-        @Override
-        public void run() {
-            String[] tokens = query.split(" ");
-            for (String token: tokens) {
-                if (token.isBlank()) continue;
-                try {
-                    List<IndexerMatch> indexerMatches = getIndexerMatches(token.toLowerCase(), "doc");
-                    if (!indexerMatches.isEmpty()) {
-                        KeywordCountService.incCount(token.toLowerCase());
-                    }
-                } catch (IOException | SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-    }
+    private static String SEARCH_SNIPPET = "search_snippet";
+    // PageRank stored in the index postings (see indexer.index.DocQuality)
+    private static String INDEXED_RANK = "pageRank";
+    // static quality in [0, 1], added to tfIdf by the indexers (weight INDEXER_QUALITY_WEIGHT)
+    private static String INDEXED_QUALITY = "quality";
+    private static int PAGE_SIZE = 10;
+    private static int MATCH_COUNT = 100;
 
     final static Logger logger = LogManager.getLogger(SearchHandler.class);
-    private List<String> indexers;
+    private IndexerCluster indexers;
     private List<String> rankers;
-    private int nextIndexer;
-    private int nextRanker;
+    private AtomicInteger nextRanker = new AtomicInteger();
     private RankCache rankCache;
+    private KeywordCounter keywordCounter;
+
+    // per-stage deadlines (the indexer stage has the one of the cluster)
+    private long rankerDeadlineMs;
+    private long snippetDeadlineMs;
 
-    public SearchHandler(List<String> indexers, List<String> rankers, EngineBdbViews views) {
+    // same weight as the indexers, so that the shards are merged on their ranking score
+    private float qualityWeight;
+
+    // runs the blocking calls of the pipeline (feature weights, ranker), never queues
+    private ThreadPoolExecutor pipeline;
+
+    public SearchHandler(IndexerCluster indexers, List<String> rankers, EngineBdbViews views, KeywordCounter keywordCounter) {
+        this(indexers, rankers, views, keywordCounter, 1000, 1000, 32, 1.0f);
+    }
+
+    public SearchHandler(IndexerCluster indexers, List<String> rankers, EngineBdbViews views, KeywordCounter keywordCounter,
+            long rankerDeadlineMs, long snippetDeadlineMs, int pipelineThreads, float qualityWeight) {
         this.indexers = indexers;
         this.rankers = rankers;
-        nextIndexer = 0;
-        nextRanker = 0;
+        this.keywordCounter = keywordCounter;
+        this.rankerDeadlineMs = rankerDeadlineMs;
+        this.snippetDeadlineMs = snippetDeadlineMs;
+        this.qualityWeight = qualityWeight;
         rankCache = new RankCache(views);
+        // a full pool rejects the call (=> degraded) rather than spend its deadline in a queue
+        pipeline = new ThreadPoolExecutor(0, pipelineThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "search-pipeline");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
     }
 
+    /**
+     * Search pipeline: indexer (hedged, see IndexerCluster) => ranker => page
+     * snippets, each stage with its own deadline. A ranker that misses its
+     * deadline leaves the results ranked by the indexer features only
+     * (X-Search-Degraded: ranker), late snippets leave the titles.
+     */
     @Override
     public Object handle(Request request, Response response) throws Exception {
         long searchStart = System.currentTimeMillis();
         String searchQuery = request.queryParams("q");
         String searchType = request.queryParams("type");
+        int page = request.queryParams("page") == null ? 1 : Math.max(1, Integer.parseInt(request.queryParams("page")));
 
-        // update popular keyword
-        CountKeywordThread t = new CountKeywordThread(searchQuery);
-        t.setDaemon(true);
-        t.start();
+        // update popular keyword (counted off the search path)
+        keywordCounter.submit(searchQuery);
 
         // ask indexer which documents match the query
         long indexerStart = System.currentTimeMillis();
-        List<IndexerMatch> indexerMatches = new ArrayList<>();
+        CompletableFuture<List<IndexerMatch>> matchesStage = getIndexerMatchesAsync(searchQuery, searchType)
+            .whenComplete((matches, e) -> PerformanceService.saveMetrics(SEARCH_INDEXER, "latency", System.currentTimeMillis() - indexerStart, System.currentTimeMillis()));
+
+        // the feature weights are read while the indexers work
+        CompletableFuture<List<Feature>> featuresStage;
+        try {
+            featuresStage = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return FeatureService.getFeatures();
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, pipeline);
+        } catch (RejectedExecutionException e) {
+            // pipeline full: read them on this thread
+            featuresStage = CompletableFuture.completedFuture(FeatureService.getFeatures());
+        }
+
+        Set<String> degraded = ConcurrentHashMap.newKeySet();
+
+        CompletableFuture<List<EngineSearchResult>> resultsStage = matchesStage
+            .thenCompose(matches -> featuresStage.thenCompose(featureCoeffs -> rankAsync(matches, featureCoeffs, searchType, degraded)))
+            .thenCompose(results -> {
+                // only the requested page gets its snippets here, the other pages ask /api/snippets when rendered
+                long snippetStart = System.currentTimeMillis();
+                List<EngineSearchResult> pageResults = results.subList(Math.min(results.size(), (page - 1) * PAGE_SIZE), Math.min(results.size(), page * PAGE_SIZE));
+                return attachSnippetsAsync(searchQuery, pageResults, degraded).thenApply(done -> {
+                    PerformanceService.saveMetrics(SEARCH_SNIPPET, "latency", System.currentTimeMillis() - snippetStart, System.currentTimeMillis());
+                    return results;
+                });
+            });
+
+        List<EngineSearchResult> results;
         try {
-            indexerMatches = getIndexerMatches(searchQuery, searchType);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw e;
+            results = resultsStage.join();
+        } catch (CompletionException e) {
+            if (!matchesStage.isCompletedExceptionally()) {
+                throw e;
+            }
+            // no indexer answered in time
+            logger.error("Search failed for " + searchQuery + ": " + e.getCause());
+            response.status(503);
+            return "Indexers unavailable";
+        }
+
+        if (!degraded.isEmpty()) {
+            response.header("X-Search-Degraded", String.join(",", degraded));
         }
-        PerformanceService.saveMetrics(SEARCH_INDEXER, "latency", System.currentTimeMillis() - indexerStart, System.currentTimeMillis());
-        
-        // extract the document with rank score in cache
+
+        response.type("application/json");
+        String body = EngineSearchResult.toJson(results);
+        response.body(body);
+
+        PerformanceService.saveMetrics(SEARCH_TOTAL, "latency", System.currentTimeMillis() - searchStart, System.currentTimeMillis());
+
+        return body;
+    }
+
+    /**
+     * Rank stage: PageRank from the indexer, the cache or the ranker (at most
+     * rankerDeadlineMs), then the final score.
+     */
+    private CompletableFuture<List<EngineSearchResult>> rankAsync(List<IndexerMatch> indexerMatches, List<Feature> featureCoeffs,
+            String searchType, Set<String> degraded) {
         long rankStart = System.currentTimeMillis();
-        List<DocRank> docsWithRank = new ArrayList<>();
+        Map<Integer, Float> ranks = new HashMap<>();
         Set<Integer> matcheIdsWithoutRank = new HashSet<>();
 
-        Map<Integer, IndexerMatch> indexerMap = new HashMap<>();
-
-        if (indexerMatches != null) {
-            for (IndexerMatch match: indexerMatches) {
-                int docId = match.getDocId();
-                DocRank cachedRank = rankCache.getRank(docId);
-                indexerMap.put(docId, match);
-                if (cachedRank != null && Instant.now().getMillis() - cachedRank.getLastUpdate() < 5 * 60 * 1000) {  // TODO: get timeout from database
-                    docsWithRank.add(cachedRank);
-                } else {
-                    matcheIdsWithoutRank.add(match.getDocId());
-                }
+        for (IndexerMatch match: indexerMatches) {
+            int docId = match.getDocId();
+            // the indexer already knows the PageRank => no ranker round trip
+            Float indexedRank = match.getFeatures().get(INDEXED_RANK);
+            if (indexedRank != null) {
+                ranks.put(docId, indexedRank);
+                continue;
+            }
+            DocRank cachedRank = rankCache.getRank(docId);
+            if (cachedRank != null && Instant.now().getMillis() - cachedRank.getLastUpdate() < 5 * 60 * 1000) {  // TODO: get timeout from database
+                ranks.put(docId, cachedRank.getScore());
+            } else {
+                matcheIdsWithoutRank.add(docId);
             }
         }
 
+        CompletableFuture<List<RankerResult>> rankerStage = CompletableFuture.completedFuture(new ArrayList<>());
+
         // ask rankers the score of docs
         if (!matcheIdsWithoutRank.isEmpty()) {
-            List<RankerResult> rankerResults = getRankerResults(matcheIdsWithoutRank);
-            for (RankerResult rankerResult: rankerResults) {
-                rankCache.storeRank(rankerResult.getDocid(), rankerResult.getScore());
-                docsWithRank.add(new DocRank(rankerResult.getDocid(), rankerResult.getScore()));
+            CompletableFuture<List<RankerResult>> ranked = new CompletableFuture<>();
+            try {
+                Future<?> call = pipeline.submit(() -> {
+                    try {
+                        ranked.complete(getRankerResults(matcheIdsWithoutRank, (int) rankerDeadlineMs));
+                    } catch (IOException e) {
+                        ranked.completeExceptionally(e);
+                    }
+                });
+                // answer or deadline => the thread is not left blocked on the ranker
+                ranked.whenComplete((rankerResults, e) -> call.cancel(true));
+            } catch (RejectedExecutionException e) {
+                ranked.completeExceptionally(e);
             }
+            rankerStage = ranked
+                .orTimeout(rankerDeadlineMs, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    // degraded (late, failed or no pipeline thread): these docs keep the indexer features only
+                    logger.error("Ranker missed the deadline (" + rankerDeadlineMs + " ms): " + e);
+                    degraded.add("ranker");
+                    return null;
+                });
         }
-        PerformanceService.saveMetrics(SEARCH_RANKER, "latency", System.currentTimeMillis() - rankStart, System.currentTimeMillis());
-
-        // calculate final score from indexer and ranker scores
-        List<EngineSearchResult> results = new ArrayList<>();
-        List<Feature> featureCoeffs = FeatureService.getFeatures();
-        for (DocRank docRank: docsWithRank) {
-            int docId = docRank.getDocId();
-            IndexerMatch indexerMatch = indexerMap.get(docId);
-            EngineSearchResult result = new EngineSearchResult(indexerMatch.getUrl(), searchType, 
-                indexerMatch.getTitle(), indexerMatch.getContext(), 0);
-            for (String feat: indexerMatch.getFeatures().keySet()) {
-                float featScore = indexerMatch.getFeatures().get(feat);
-                result.addFeature(feat, featScore);
+
+        return rankerStage.thenApply(rankerResults -> {
+            if (rankerResults != null) {
+                for (RankerResult rankerResult: rankerResults) {
+                    rankCache.storeRank(rankerResult.getDocid(), rankerResult.getScore());
+                    ranks.put(rankerResult.getDocid(), rankerResult.getScore());
+                }
             }
-            result.addFeature("rankerScore", docRank.getScore());
-            calculateTotalScore(result, featureCoeffs);
-            results.add(result);
-        }
-        results.sort((EngineSearchResult result1, EngineSearchResult result2) -> Float.compare(result2.getTotalScore(), result1.getTotalScore()));
+            PerformanceService.saveMetrics(SEARCH_RANKER, "latency", System.currentTimeMillis() - rankStart, System.currentTimeMillis());
+
+            // calculate final score from indexer and ranker scores
+            List<EngineSearchResult> results = new ArrayList<>();
+            for (IndexerMatch indexerMatch: indexerMatches) {
+                int docId = indexerMatch.getDocId();
+                Float rank = ranks.get(docId);
+                if (rank == null && rankerResults != null) {
+                    // the ranker answered without this doc
+                    continue;
+                }
+                EngineSearchResult result = new EngineSearchResult(docId, indexerMatch.getUrl(), searchType,
+                    indexerMatch.getTitle(), indexerMatch.getContext(), 0);
+                for (String feat: indexerMatch.getFeatures().keySet()) {
+                    if (feat.equals(INDEXED_RANK)) continue;
+                    float featScore = indexerMatch.getFeatures().get(feat);
+                    result.addFeature(feat, featScore);
+                }
+                if (rank != null) {
+                    result.addFeature("rankerScore", rank);
+                }
+                calculateTotalScore(result, featureCoeffs);
+                results.add(result);
+            }
+            results.sort((EngineSearchResult result1, EngineSearchResult result2) -> Float.compare(result2.getTotalScore(), result1.getTotalScore()));
+            return results;
+        });
+    }
 
+    /**
+     * Snippets of the rendered documents only (GET /api/snippets?q=...&docIds=1,2,3).
+     */
+    public Object handleSnippets(Request request, Response response) throws Exception {
+        String searchQuery = request.queryParams("q");
+        String docIdsParam = request.queryParams("docIds");
+        if (searchQuery == null || docIdsParam == null) {
+            response.status(400);
+            return "Please specify both q and docIds";
+        }
+        List<Integer> docIds = new ArrayList<>();
+        for (String docId: docIdsParam.split(",")) {
+            if (docId.isBlank()) continue;
+            docIds.add(Integer.parseInt(docId.trim()));
+        }
         response.type("application/json");
-        String body = EngineSearchResult.toJson(results);
-        response.body(body);
-        
-        PerformanceService.saveMetrics(SEARCH_TOTAL, "latency", System.currentTimeMillis() - searchStart, System.currentTimeMillis());
+        return new ObjectMapper().writeValueAsString(getSnippetsAsync(searchQuery, docIds, indexers.getTimeoutMs()).join());
+    }
 
-        return body;
+    /**
+     * Snippet stage: at most snippetDeadlineMs, the results are still usable
+     * without snippets (the frontend falls back to the title). The calls run
+     * on the indexer cluster, no pipeline thread waits for them.
+     */
+    private CompletableFuture<Void> attachSnippetsAsync(String query, List<EngineSearchResult> page, Set<String> degraded) {
+        if (page.isEmpty()) return CompletableFuture.completedFuture(null);
+        List<Integer> docIds = new ArrayList<>();
+        for (EngineSearchResult result: page) {
+            docIds.add(result.getDocId());
+        }
+        return getSnippetsAsync(query, docIds, snippetDeadlineMs)
+            .orTimeout(snippetDeadlineMs, TimeUnit.MILLISECONDS)
+            .handle((snippets, e) -> {
+                if (e != null) {
+                    logger.error("Cannot fetch snippets: " + e);
+                    degraded.add("snippets");
+                    return null;
+                }
+                for (EngineSearchResult result: page) {
+                    result.setDisplayText(snippets.getOrDefault(result.getDocId(), ""));
+                }
+                return null;
+            });
+    }
+
+    private CompletableFuture<Map<Integer, String>> getSnippetsAsync(String query, List<Integer> docIds, long deadlineMs) {
+        if (indexers.numShards() == 1) {
+            return indexers.call(0, address -> getShardSnippets(address, query, docIds), deadlineMs);
+        }
+        // each shard only answers for the documents of its own range
+        return indexers.scatterAsync(address -> getShardSnippets(address, query, docIds), deadlineMs).thenApply(allShardSnippets -> {
+            Map<Integer, String> snippets = new HashMap<>();
+            for (Map<Integer, String> shardSnippets: allShardSnippets) {
+                snippets.putAll(shardSnippets);
+            }
+            return snippets;
+        });
+    }
+
+    private Map<Integer, String> getShardSnippets(String indexer, String query, List<Integer> docIds) throws IOException {
+        Map<Integer, String> snippets = new HashMap<>();
+        String formattedQuery = URLEncoder.encode(query, StandardCharsets.UTF_8);
+        String formattedDocIds = docIds.toString().replace("[", "").replace("]", "").replace(" ", "");
+        try (ServiceHttpClient.Response resp = HttpUtils.sendRequest(indexer, "GET", "indexer/snippets?docIds=" + formattedDocIds + "&query=" + formattedQuery, null)) {
+            if (resp.getStatus() != 200) {
+                logger.error("Indexer returns error: " + resp.getStatus());
+            } else {
+                snippets = new ObjectMapper().readValue(resp.getBody(), new TypeReference<HashMap<Integer, String>>() {});
+            }
+        }
+        return snippets;
     }
 
     private void calculateTotalScore(EngineSearchResult result, List<Feature> featureCoeffs) {
@@ -168,48 +349,66 @@ public class SearchHandler implements Route {
         result.setTotalScore(totalScore);
     }
 
-    private String getNextIndexer() {
-        synchronized(indexers) {
-            String indexerAddress = indexers.get(nextIndexer);
-            nextIndexer = (nextIndexer + 1) % indexers.size();
-            return indexerAddress;
+    /**
+     * Indexer stage: one hedged call per shard (see IndexerCluster).
+     */
+    private CompletableFuture<List<IndexerMatch>> getIndexerMatchesAsync(String query, String type) {
+        if (indexers.numShards() == 1) {
+            return indexers.call(0, address -> getShardMatches(address, query, type));
         }
+        // document-partitioned: the global top k is within the union of the per-shard top k
+        return indexers.scatterAsync(address -> getShardMatches(address, query, type)).thenApply(allShardMatches -> {
+            List<IndexerMatch> merged = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            for (List<IndexerMatch> shardMatches: allShardMatches) {
+                for (IndexerMatch match: shardMatches) {
+                    if (seen.add(match.getDocId())) {
+                        merged.add(match);
+                    }
+                }
+            }
+            merged.sort((IndexerMatch match1, IndexerMatch match2) -> Float.compare(indexScore(match2), indexScore(match1)));
+            return merged.size() > MATCH_COUNT ? new ArrayList<>(merged.subList(0, MATCH_COUNT)) : merged;
+        });
     }
 
-    private List<IndexerMatch> getIndexerMatches(String query, String type) throws IOException {
+    /**
+     * The score each shard ranked its matches by: tfIdf + weight * quality
+     * (without static quality, the tfIdf alone).
+     */
+    private float indexScore(IndexerMatch match) {
+        Float score = match.getFeatures().get("tfIdf");
+        Float quality = match.getFeatures().get(INDEXED_QUALITY);
+        return (score == null ? 0 : score) + (quality == null ? 0 : qualityWeight * quality);
+    }
+
+    private List<IndexerMatch> getShardMatches(String indexer, String query, String type) throws IOException {
         List<IndexerMatch> results = new ArrayList<>();
-        String indexer = getNextIndexer();
-        String formattedQuery = query.replace(" ", "%20");
-        HttpURLConnection conn = HttpUtils.sendRequest(indexer, "GET", "indexer/match?count=100&type=" + type +"&query=" + formattedQuery, null);
-        if (conn.getResponseCode() != 200) {
-            logger.error("Indexer returns error: " + conn.getResponseMessage());
-        } else {
-            String indexerResp = HttpUtils.readResponse(conn);
-            results = IndexerMatch.deserialize(indexerResp);
+        String formattedQuery = URLEncoder.encode(query, StandardCharsets.UTF_8);
+        try (ServiceHttpClient.Response resp = HttpUtils.sendRequest(indexer, "GET", "indexer/match?count=" + MATCH_COUNT + "&mode=topk&type=" + type +"&query=" + formattedQuery, null)) {
+            if (resp.getStatus() != 200) {
+                logger.error("Indexer returns error: " + resp.getStatus());
+            } else {
+                results = IndexerMatch.deserialize(HttpUtils.readResponse(resp));
+            }
         }
-        conn.disconnect();
         return results;
     }
 
     private String getNextRanker() {
-        synchronized(rankers) {
-            String rankerAddress = rankers.get(nextRanker);
-            nextRanker = (nextRanker + 1) % rankers.size();
-            return rankerAddress;
-        }
+        return rankers.get(Math.floorMod(nextRanker.getAndIncrement(), rankers.size()));
     }
 
-    private List<RankerResult> getRankerResults(Set<Integer> docids) throws IOException {
+    private List<RankerResult> getRankerResults(Set<Integer> docids, int timeoutMs) throws IOException {
         List<RankerResult> results = new ArrayList<>();
         String ranker = getNextRanker();
-        HttpURLConnection conn = HttpUtils.sendRequest(ranker, "POST", "ranker/rank", docids.toString());
-        if (conn.getResponseCode() != 200) {
-            logger.error("Ranker returns error: " + conn.getResponseMessage());
-        } else {
-            String rankerResp = HttpUtils.readResponse(conn);
-            results = RankerResult.deserialize(rankerResp);
+        try (ServiceHttpClient.Response resp = HttpUtils.sendRequest(ranker, "POST", "ranker/rank", docids.toString(), timeoutMs)) {
+            if (resp.getStatus() != 200) {
+                logger.error("Ranker returns error: " + resp.getStatus());
+            } else {
+                results = RankerResult.deserialize(HttpUtils.readResponse(resp));
+            }
         }
-        conn.disconnect();
 
         return results;
     }
@@ -3,11 +3,11 @@ package engine.service;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
 
 import storage.MySQLStorage;
+import storage.PooledConnection;
 
 public class ConfigService {
     private static MySQLStorage storage;
@@ -17,35 +17,37 @@ public class ConfigService {
     }
 
     public static Map<String, Integer> getConfigs() throws SQLException {
-        Statement stmt = storage.conn.createStatement();
-        ResultSet resultSet = stmt.executeQuery("SELECT * FROM streamwork.config");
         Map<String, Integer> configs = new HashMap<>();
-        
-        while (resultSet.next()) {
-            configs.put(resultSet.getString("name"), resultSet.getInt("value"));
+        try (PooledConnection conn = storage.getConnection()) {
+            ResultSet resultSet = conn.prepare("SELECT * FROM streamwork.config").executeQuery();
+            while (resultSet.next()) {
+                configs.put(resultSet.getString("name"), resultSet.getInt("value"));
+            }
+            resultSet.close();
         }
-        resultSet.close();
-        stmt.close();
         return configs;
     }
 
     public static int getConfig(String name) throws SQLException {
-        PreparedStatement stmt = storage.conn.prepareStatement("SELECT * FROM streamwork.config WHERE name = ?");
-        stmt.setString(1, name);
-        ResultSet result = stmt.executeQuery();
-        int value = 0;
-        if (result.next()) {
-            value = result.getInt("value");
+        try (PooledConnection conn = storage.getConnection()) {
+            PreparedStatement stmt = conn.prepare("SELECT * FROM streamwork.config WHERE name = ?");
+            stmt.setString(1, name);
+            ResultSet result = stmt.executeQuery();
+            int value = 0;
+            if (result.next()) {
+                value = result.getInt("value");
+            }
+            result.close();
+            return value;
         }
-        stmt.close();
-        return value;
     }
 
     public static void updateConfig(String name, int value) throws SQLException {
-        PreparedStatement stmt = storage.conn.prepareStatement("UPDATE streamwork.config SET value = ? WHERE name = ?");
-        stmt.setInt(1, value);
-        stmt.setString(2, name);
-        stmt.executeUpdate();
-        stmt.close();
+        try (PooledConnection conn = storage.getConnection()) {
+            PreparedStatement stmt = conn.prepare("UPDATE streamwork.config SET value = ? WHERE name = ?");
+            stmt.setInt(1, value);
+            stmt.setString(2, name);
+            stmt.executeUpdate();
+        }
     }
 }
@@ -0,0 +1,291 @@
+package engine.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The index servers seen by the search engine: a list of shards, each with
+ * its replicas.
+ * - default: one shard, every server holds the whole index (round robin)
+ * - document-partitioned (INDEXER_PARTITIONED=true): every shard owns a
+ * docID range, a query is sent to one replica of each shard and the
+ * per-shard results are merged by the caller
+ *
+ * Every call is asynchronous and has a deadline (timeoutMs). If the replica
+ * has not answered within the percentile of the recent latencies of its
+ * shard (at least hedgeMinDelayMs), the same call is sent to the next
+ * replica and the first answer wins. The other attempt is then cancelled
+ * (its thread interrupted, which aborts its http exchange), as are all the
+ * attempts at the deadline.
+ *
+ * The calls block on the http client, one thread each: the pool has room
+ * for a call and its hedge per concurrent caller and replica, and never
+ * queues, so the deadline is not spent waiting for a thread (a call that
+ * finds no thread fails at once and is hedged).
+ */
+public class IndexerCluster {
+    final static Logger logger = LogManager.getLogger(IndexerCluster.class);
+
+    // recent latencies per shard (for the hedge delay)
+    private static final int WINDOW = 256;
+
+    public interface ShardCall<T> {
+        T call(String address) throws IOException;
+    }
+
+    private final List<List<String>> shards;
+    private final AtomicIntegerArray nextReplica;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final long timeoutMs;
+
+    // hedging: percentile <= 0 => never
+    private final double hedgePercentile;
+    private final long hedgeMinDelayMs;
+    private final AtomicLong hedgedCalls = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    private final long[][] latencies;
+    private final int[] latencyCounts;
+
+    public IndexerCluster(List<List<String>> shards, long timeoutMs) {
+        this(shards, timeoutMs, 0, 0, 16);
+    }
+
+    /**
+     * @param callerThreads : max number of threads calling the cluster at
+     *                      once (e.g. the Spark pool + the pipeline pool)
+     */
+    public IndexerCluster(List<List<String>> shards, long timeoutMs, double hedgePercentile, long hedgeMinDelayMs,
+            int callerThreads) {
+        this.shards = shards;
+        this.nextReplica = new AtomicIntegerArray(shards.size());
+        this.timeoutMs = timeoutMs;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+        this.latencies = new long[shards.size()][WINDOW];
+        this.latencyCounts = new int[shards.size()];
+        int numReplicas = 0;
+        for (List<String> replicas: shards) {
+            numReplicas += replicas.size();
+        }
+        // a call & its hedge per caller and replica, threads created on demand
+        this.executor = new ThreadPoolExecutor(0, Math.max(4, 2 * callerThreads * numReplicas), 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), r -> {
+                Thread t = new Thread(r, "indexer-scatter");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "indexer-hedge");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int numShards() {
+        return shards.size();
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public String nextReplica(int shard) {
+        List<String> replicas = shards.get(shard);
+        return replicas.get(Math.floorMod(nextReplica.getAndIncrement(shard), replicas.size()));
+    }
+
+    public long getHedgedCalls() {
+        return hedgedCalls.get();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * Call one replica of the shard, hedged to the next replica after the
+     * hedge delay (or at once if the first one fails).
+     *
+     * @return the answer of the first replica to succeed, completed
+     *         exceptionally if all failed or after timeoutMs
+     */
+    public <T> CompletableFuture<T> call(int shard, ShardCall<T> call) {
+        return call(shard, call, timeoutMs);
+    }
+
+    /**
+     * Same as call(shard, call), with the deadline of the caller's stage
+     * (the attempts are aborted at this deadline, not the cluster's one).
+     */
+    public <T> CompletableFuture<T> call(int shard, ShardCall<T> call, long deadlineMs) {
+        List<String> replicas = shards.get(shard);
+        String first = nextReplica(shard);
+        String second = replicas.get((replicas.indexOf(first) + 1) % replicas.size());
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicBoolean hedged = new AtomicBoolean(replicas.size() == 1);
+        Queue<Future<?>> attempts = new ConcurrentLinkedQueue<>();
+
+        // first answer, failure or deadline => the attempts still running are aborted
+        result.whenComplete((value, e) -> {
+            for (Future<?> attempt: attempts) {
+                attempt.cancel(true);
+            }
+        });
+
+        Runnable hedge = () -> {
+            if (!result.isDone() && hedged.compareAndSet(false, true)) {
+                pending.incrementAndGet();
+                hedgedCalls.incrementAndGet();
+                logger.debug("Hedging indexer call to " + second + " (no answer from " + first + ")");
+                attempt(shard, second, call, result, pending, attempts, true, null);
+            }
+        };
+
+        attempt(shard, first, call, result, pending, attempts, false, hedge);
+
+        long delay = getHedgeDelay(shard);
+        if (!hedged.get() && delay < deadlineMs) {
+            ScheduledFuture<?> timed = timer.schedule(hedge, delay, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, e) -> timed.cancel(false));
+        }
+
+        return result.orTimeout(deadlineMs, TimeUnit.MILLISECONDS);
+    }
+
+    private <T> void attempt(int shard, String address, ShardCall<T> call, CompletableFuture<T> result,
+            AtomicInteger pending, Queue<Future<?>> attempts, boolean isHedge, Runnable onFailure) {
+        Future<?> attempt;
+        try {
+            attempt = executor.submit(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    T value = call.call(address);
+                    recordLatency(shard, (System.nanoTime() - start) / 1000000);
+                    if (result.complete(value) && isHedge) {
+                        hedgesWon.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    if (result.isDone()) {
+                        // lost to the other attempt or past the deadline, aborted on purpose
+                        return;
+                    }
+                    failed(address, e, result, pending, onFailure);
+                    return;
+                }
+                pending.decrementAndGet();
+            });
+        } catch (RejectedExecutionException e) {
+            // every thread is busy: fail now rather than wait for one
+            failed(address, e, result, pending, onFailure);
+            return;
+        }
+        attempts.add(attempt);
+        if (result.isDone()) {
+            attempt.cancel(true);
+        }
+    }
+
+    private <T> void failed(String address, Exception e, CompletableFuture<T> result, AtomicInteger pending,
+            Runnable onFailure) {
+        logger.error("Indexer " + address + " failed: " + e);
+        if (onFailure != null) {
+            // do not wait for the hedge delay
+            onFailure.run();
+        }
+        if (pending.decrementAndGet() == 0) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void recordLatency(int shard, long latencyMs) {
+        synchronized (latencies[shard]) {
+            latencies[shard][latencyCounts[shard] % WINDOW] = latencyMs;
+            latencyCounts[shard]++;
+        }
+    }
+
+    /**
+     * Percentile of the recent latencies of the shard, timeoutMs (no hedge)
+     * without samples or without hedging.
+     */
+    private long getHedgeDelay(int shard) {
+        if (hedgePercentile <= 0) {
+            return timeoutMs;
+        }
+        long[] samples;
+        synchronized (latencies[shard]) {
+            int n = Math.min(latencyCounts[shard], WINDOW);
+            if (n == 0) {
+                return timeoutMs;
+            }
+            samples = Arrays.copyOf(latencies[shard], n);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(hedgePercentile / 100.0 * samples.length) - 1;
+        return Math.max(hedgeMinDelayMs, samples[Math.max(0, Math.min(samples.length - 1, index))]);
+    }
+
+    /**
+     * Send the call to one replica of every shard at once (each one hedged,
+     * at most timeoutMs). A shard that fails or is late is left out, the
+     * results of the others are still returned.
+     */
+    public <T> CompletableFuture<List<T>> scatterAsync(ShardCall<T> call) {
+        return scatterAsync(call, timeoutMs);
+    }
+
+    public <T> CompletableFuture<List<T>> scatterAsync(ShardCall<T> call, long deadlineMs) {
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            int s = shard;
+            futures.add(call(shard, call, deadlineMs).exceptionally(e -> {
+                logger.error("Indexer shard " + s + " left out: " + e);
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<T> results = new ArrayList<>();
+            for (CompletableFuture<T> future: futures) {
+                T result = future.join();
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Blocking scatterAsync.
+     */
+    public <T> List<T> scatter(ShardCall<T> call) {
+        return scatterAsync(call).join();
+    }
+}
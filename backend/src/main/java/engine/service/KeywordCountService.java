@@ -4,12 +4,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import engine.entity.PopularKeyword;
 import storage.MySQLStorage;
+import storage.PooledConnection;
 
 public class KeywordCountService {
     private static MySQLStorage storage = null;
@@ -18,47 +19,50 @@ public class KeywordCountService {
         storage = db;
     }
 
-    public static void incCount(String keyword) throws SQLException {
-        Connection conn = storage.conn;
-        conn.setAutoCommit(false);
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM streamwork.popularkeyword WHERE keyword = ?");
-        stmt.setString(1, keyword);
-        ResultSet resultSet = stmt.executeQuery();
-        PopularKeyword popularKeyword = null;
-        if (resultSet.next()) {
-            popularKeyword = new PopularKeyword(
-                resultSet.getString("keyword"),
-                resultSet.getInt("count")
-            );
+    /**
+     * Add the counts of a batch of keywords in one transaction (one upsert
+     * per keyword, sent as a single batch). The keyword is the primary key of
+     * streamwork.popularkeyword.
+     */
+    public static void addCounts(Map<String, Long> counts) throws SQLException {
+        if (counts.isEmpty()) {
+            return;
         }
-        PreparedStatement updateStmt = null;
-        if (popularKeyword != null) {
-            updateStmt = conn.prepareStatement("UPDATE streamwork.popularkeyword SET count = ? WHERE keyword = ?");
-            updateStmt.setInt(1, popularKeyword.getCount() + 1);
-            updateStmt.setString(2, popularKeyword.getKeyword());
-        } else {
-            updateStmt = conn.prepareStatement("INSERT INTO streamwork.popularkeyword VALUES (?, ?)");
-            updateStmt.setString(1, keyword);
-            updateStmt.setInt(2, 1);
+        try (PooledConnection pooled = storage.getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = pooled.prepare("INSERT INTO streamwork.popularkeyword (keyword, count) VALUES (?, ?) ON DUPLICATE KEY UPDATE count = count + VALUES(count)");
+            try {
+                for (Map.Entry<String, Long> entry: counts.entrySet()) {
+                    stmt.setString(1, entry.getKey());
+                    stmt.setLong(2, entry.getValue());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                stmt.clearBatch();
+                conn.rollback();
+                throw e;
+            }
         }
-        updateStmt.executeUpdate();
-        conn.commit();
-        updateStmt.close();
-        resultSet.close();
-        stmt.close();
     }
 
     public static List<PopularKeyword> getPopularKeywords(int top) throws SQLException {
         List<PopularKeyword> keywords = new ArrayList<>();
-        Statement stmt = storage.conn.createStatement();
-        ResultSet resultSet = stmt.executeQuery("SELECT * FROM streamwork.popularkeyword ORDER BY count DESC LIMIT " + top);
+        try (PooledConnection conn = storage.getConnection()) {
+            PreparedStatement stmt = conn.prepare("SELECT * FROM streamwork.popularkeyword ORDER BY count DESC LIMIT ?");
+            stmt.setInt(1, top);
+            ResultSet resultSet = stmt.executeQuery();
 
-        while (resultSet.next()) {
-            PopularKeyword popularKeyword = new PopularKeyword(
-                resultSet.getString("keyword"),
-                resultSet.getInt("count")
-            );
-            keywords.add(popularKeyword);
+            while (resultSet.next()) {
+                PopularKeyword popularKeyword = new PopularKeyword(
+                    resultSet.getString("keyword"),
+                    resultSet.getInt("count")
+                );
+                keywords.add(popularKeyword);
+            }
+            resultSet.close();
         }
         return keywords;
     }
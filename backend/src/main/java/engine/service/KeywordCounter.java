@@ -0,0 +1,300 @@
+package engine.service;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import api.http.ServiceHttpClient;
+import engine.utils.HttpUtils;
+
+/**
+ * Popular keyword counting, off the search path:
+ * - the search handler offers the query to a bounded queue (dropped when
+ * the queue is full, a search never waits for the counting)
+ * - a single aggregator thread splits the queries & counts the keywords in
+ * memory, in stripes (the flush only locks one stripe at a time)
+ * - every flushMs the counts are swapped out, the keywords are checked
+ * against the lexicon of the indexers (one batched /indexer/words call for
+ * the keywords missing from the cache, answers cached for lexiconTtlMs) and
+ * the known ones are added with one batched upsert (see
+ * KeywordCountService.addCounts)
+ * Counts that could not be checked or written are retried at the next flush.
+ */
+public class KeywordCounter {
+    final static Logger logger = LogManager.getLogger(KeywordCounter.class);
+
+    private static final int STRIPES = 16;
+    // words per /indexer/words request (url length)
+    private static final int LOOKUP_BATCH = 100;
+    private static final int LEXICON_CACHE_SIZE = 100000;
+    private static final int MAX_RETRY_KEYWORDS = 10000;
+
+    private static class CachedWord {
+        final boolean exists;
+        final long expiresAt;
+
+        CachedWord(boolean exists, long expiresAt) {
+            this.exists = exists;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final IndexerCluster indexers;
+    private final BlockingQueue<String> queue;
+    private final long flushMs;
+    private final long lexiconTtlMs;
+
+    private final Object[] locks = new Object[STRIPES];
+    private final HashMap<String, long[]>[] stripes;
+
+    // only touched by the flush thread
+    private final LinkedHashMap<String, CachedWord> lexiconCache;
+    private final HashMap<String, Long> retry = new HashMap<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+
+    private final Thread aggregator;
+    private final ScheduledExecutorService flusher;
+    private volatile boolean running = true;
+
+    @SuppressWarnings("unchecked")
+    public KeywordCounter(IndexerCluster indexers, int queueSize, long flushMs, long lexiconTtlMs) {
+        this.indexers = indexers;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.flushMs = flushMs;
+        this.lexiconTtlMs = lexiconTtlMs;
+        this.stripes = new HashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            stripes[i] = new HashMap<>();
+        }
+        this.lexiconCache = new LinkedHashMap<String, CachedWord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedWord> eldest) {
+                return size() > LEXICON_CACHE_SIZE;
+            }
+        };
+        this.aggregator = new Thread(this::aggregate, "keyword-aggregator");
+        this.aggregator.setDaemon(true);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "keyword-flush");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        aggregator.start();
+        flusher.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Count the keywords of the query (never blocks).
+     */
+    public void submit(String query) {
+        if (query == null || query.isBlank()) {
+            return;
+        }
+        if (!queue.offer(query)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    /**
+     * Stop the threads & write the counts left (e.g. before the database is
+     * closed).
+     */
+    public void stop() {
+        running = false;
+        aggregator.interrupt();
+        flusher.shutdown();
+        try {
+            aggregator.join(1000);
+            flusher.awaitTermination(flushMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<String> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (String query: left) {
+            count(query);
+        }
+        flush();
+    }
+
+    private void aggregate() {
+        while (running) {
+            try {
+                count(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void count(String query) {
+        for (String keyword: tokenize(query)) {
+            int stripe = Math.floorMod(keyword.hashCode(), STRIPES);
+            synchronized (locks[stripe]) {
+                stripes[stripe].computeIfAbsent(keyword, k -> new long[1])[0]++;
+            }
+        }
+    }
+
+    /**
+     * The keywords of the query: lower cased, split on the spaces & commas,
+     * without the quotes & the punctuation around them.
+     */
+    static List<String> tokenize(String query) {
+        List<String> keywords = new ArrayList<>();
+        for (String token: query.toLowerCase().split("[\\s,]+")) {
+            int start = 0;
+            int end = token.length();
+            while (start < end && !Character.isLetterOrDigit(token.charAt(start))) {
+                start++;
+            }
+            while (end > start && !Character.isLetterOrDigit(token.charAt(end - 1))) {
+                end--;
+            }
+            if (start < end) {
+                keywords.add(token.substring(start, end));
+            }
+        }
+        return keywords;
+    }
+
+    private synchronized void flush() {
+        try {
+            Map<String, Long> counts = new HashMap<>(retry);
+            retry.clear();
+            for (int i = 0; i < STRIPES; i++) {
+                HashMap<String, long[]> stripe;
+                synchronized (locks[i]) {
+                    stripe = stripes[i];
+                    stripes[i] = new HashMap<>();
+                }
+                for (Map.Entry<String, long[]> entry: stripe.entrySet()) {
+                    counts.merge(entry.getKey(), entry.getValue()[0], Long::sum);
+                }
+            }
+            if (counts.isEmpty()) {
+                return;
+            }
+
+            Set<String> unchecked = lookup(counts.keySet());
+            Map<String, Long> known = new HashMap<>();
+            for (Map.Entry<String, Long> entry: counts.entrySet()) {
+                if (unchecked.contains(entry.getKey())) {
+                    addRetry(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                CachedWord cached = lexiconCache.get(entry.getKey());
+                if (cached != null && cached.exists) {
+                    known.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            try {
+                KeywordCountService.addCounts(known);
+                flushed.addAndGet(known.size());
+            } catch (SQLException e) {
+                logger.error("Cannot write the keyword counts: " + e);
+                for (Map.Entry<String, Long> entry: known.entrySet()) {
+                    addRetry(entry.getKey(), entry.getValue());
+                }
+            }
+            logger.debug("Flushed " + known.size() + " keywords (" + counts.size() + " counted, " + dropped.get() + " queries dropped)");
+        } catch (RuntimeException e) {
+            // keeps the schedule going
+            logger.error("Keyword flush failed: " + e);
+        }
+    }
+
+    private void addRetry(String keyword, long count) {
+        if (retry.size() < MAX_RETRY_KEYWORDS || retry.containsKey(keyword)) {
+            retry.merge(keyword, count, Long::sum);
+        }
+    }
+
+    /**
+     * Refresh the lexicon cache for the keywords missing from it (or
+     * expired).
+     *
+     * @return the keywords that could not be checked (indexers unavailable)
+     */
+    private Set<String> lookup(Set<String> keywords) {
+        long now = System.currentTimeMillis();
+        List<String> missing = new ArrayList<>();
+        for (String keyword: keywords) {
+            CachedWord cached = lexiconCache.get(keyword);
+            if (cached == null || cached.expiresAt < now) {
+                missing.add(keyword);
+            }
+        }
+        Set<String> unchecked = new HashSet<>();
+        for (int from = 0; from < missing.size(); from += LOOKUP_BATCH) {
+            List<String> batch = missing.subList(from, Math.min(missing.size(), from + LOOKUP_BATCH));
+            // document-partitioned: a word is known if one of the shards knows it
+            List<List<String>> answers = indexers.scatter(address -> getExistedWords(address, batch));
+            if (answers.isEmpty()) {
+                unchecked.addAll(batch);
+                continue;
+            }
+            Set<String> existed = new HashSet<>();
+            for (List<String> answer: answers) {
+                existed.addAll(answer);
+            }
+            boolean complete = answers.size() == indexers.numShards();
+            for (String keyword: batch) {
+                if (existed.contains(keyword)) {
+                    lexiconCache.put(keyword, new CachedWord(true, now + lexiconTtlMs));
+                } else if (complete) {
+                    lexiconCache.put(keyword, new CachedWord(false, now + lexiconTtlMs));
+                } else {
+                    // the shard left out may know it
+                    unchecked.add(keyword);
+                }
+            }
+        }
+        return unchecked;
+    }
+
+    private List<String> getExistedWords(String indexer, List<String> words) throws IOException {
+        String formattedWords = URLEncoder.encode(String.join(",", words), StandardCharsets.UTF_8);
+        try (ServiceHttpClient.Response resp = HttpUtils.sendRequest(indexer, "GET", "indexer/words?words=" + formattedWords, null)) {
+            if (resp.getStatus() != 200) {
+                throw new IOException("Indexer returns error: " + resp.getStatus());
+            }
+            return new ObjectMapper().readValue(HttpUtils.readResponse(resp), new TypeReference<List<String>>() {});
+        }
+    }
+}
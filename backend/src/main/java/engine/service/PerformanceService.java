@@ -7,6 +7,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import storage.MySQLStorage;
+import storage.PooledConnection;
 
 public class PerformanceService {
 
@@ -20,15 +21,13 @@ public class PerformanceService {
 
     public static void saveMetrics(String name, String metrics, float value, long ts) {
         executor.execute(() -> {
-            PreparedStatement stmt;
-            try {
-                stmt = storage.conn.prepareStatement("INSERT INTO streamwork.dashboard(name, metrics, value, timestamp) VALUES (?, ?, ?, ?)");
+            try (PooledConnection conn = storage.getConnection()) {
+                PreparedStatement stmt = conn.prepare("INSERT INTO streamwork.dashboard(name, metrics, value, timestamp) VALUES (?, ?, ?, ?)");
                 stmt.setString(1, name);
                 stmt.setString(2, metrics);
                 stmt.setFloat(3, value);
                 stmt.setTimestamp(4, new Timestamp(ts));
                 stmt.executeUpdate();
-                stmt.close();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import engine.entity.User;
 import engine.utils.PasswordUtils;
 import storage.MySQLStorage;
+import storage.PooledConnection;
 
 public class UserService {
     private static MySQLStorage storage = null;
@@ -18,30 +19,32 @@ public class UserService {
 
     public static void addUser(String username, String password, boolean isAdmin) throws SQLException {
         String hash = PasswordUtils.hashPassword(password);
-        PreparedStatement stmt = storage.conn.prepareStatement(
-            "INSERT INTO streamwork.user VALUES (?, ?, ?)"
-        );
-        stmt.setString(1, username);
-        stmt.setString(2, hash);
-        stmt.setBoolean(3, isAdmin);
-        stmt.executeUpdate();
-        stmt.close();
+        try (PooledConnection conn = storage.getConnection()) {
+            PreparedStatement stmt = conn.prepare(
+                "INSERT INTO streamwork.user VALUES (?, ?, ?)"
+            );
+            stmt.setString(1, username);
+            stmt.setString(2, hash);
+            stmt.setBoolean(3, isAdmin);
+            stmt.executeUpdate();
+        }
     }
 
     public static User getUser(String username) throws SQLException {
-        PreparedStatement stmt = storage.conn.prepareStatement(
-            "SELECT * FROM streamwork.user WHERE username = ?"
-        );
-        stmt.setString(1, username);
-        ResultSet resultSet = stmt.executeQuery();
-        if (resultSet.next()) {
-            User user = new User(username, resultSet.getString("passwordHash"));
-            user.setIsAdmin(resultSet.getBoolean("isAdmin"));
+        try (PooledConnection conn = storage.getConnection()) {
+            PreparedStatement stmt = conn.prepare(
+                "SELECT * FROM streamwork.user WHERE username = ?"
+            );
+            stmt.setString(1, username);
+            ResultSet resultSet = stmt.executeQuery();
+            User user = null;
+            if (resultSet.next()) {
+                user = new User(username, resultSet.getString("passwordHash"));
+                user.setIsAdmin(resultSet.getBoolean("isAdmin"));
+            }
             resultSet.close();
-            stmt.close();
             return user;
         }
-        return null;
     }
 
     public static boolean isLoginValid(String username, String pwd) throws SQLException {
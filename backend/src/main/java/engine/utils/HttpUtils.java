@@ -1,43 +1,33 @@
 package engine.utils;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.Reader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 
-public class HttpUtils {
-    public static HttpURLConnection sendRequest(String dest, String reqType, String path, String parameters) throws IOException {
-		URL url = new URL(dest + "/" + path);
-
-        System.out.println("Sending request to: " + url.toString());
+import api.http.ServiceHttpClient;
 
-		HttpURLConnection conn = (HttpURLConnection)url.openConnection();
-		conn.setRequestMethod(reqType);
-		
-		if (reqType.equals("POST")) {
-            conn.setDoOutput(true);
-			conn.setRequestProperty("Content-Type", "application/json");
-			OutputStream os = conn.getOutputStream();
-			byte[] toSend = parameters.getBytes();
-			os.write(toSend);
-			os.flush();
-		}
-		return conn;
+public class HttpUtils {
+    /**
+     * Send the request through the shared keep-alive client. The response must
+     * be closed (try-with-resources) to give the connection back to the pool.
+     */
+    public static ServiceHttpClient.Response sendRequest(String dest, String reqType, String path, String parameters) throws IOException {
+        return sendRequest(dest, reqType, path, parameters, ServiceHttpClient.shared().getTimeoutMs());
     }
 
-    public static String readResponse(HttpURLConnection conn) throws IOException {
-        InputStream inputStream = conn.getInputStream();
-        int bufferSize = 1024;
-        char[] buffer = new char[bufferSize];
-        StringBuilder out = new StringBuilder();
-        Reader in = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        for (int numRead; (numRead = in.read(buffer, 0, buffer.length)) > 0; ) {
-            out.append(buffer, 0, numRead);
+    /**
+     * Same as sendRequest, with the deadline of the caller (e.g. its pipeline stage).
+     */
+    public static ServiceHttpClient.Response sendRequest(String dest, String reqType, String path, String parameters,
+            int timeoutMs) throws IOException {
+        String url = dest + "/" + path;
+        if (reqType.equals("POST")) {
+            byte[] toSend = parameters.getBytes(StandardCharsets.UTF_8);
+            return ServiceHttpClient.shared().send(reqType, url, toSend, "application/json", null, timeoutMs);
         }
-        return out.toString();
+        return ServiceHttpClient.shared().send(reqType, url, null, null, null, timeoutMs);
+    }
+
+    public static String readResponse(ServiceHttpClient.Response response) throws IOException {
+        return response.readString();
     }
 }
@@ -7,12 +7,40 @@ public class ServerAddress {
     public static List<String> parse(String addresses) {
         List<String> parsedAddresses = new ArrayList<>();
         for (String address: addresses.split(",")) {
-            if (address.trim().startsWith("http")) {
-                parsedAddresses.add(address.trim());
-            } else {
-                parsedAddresses.add("http://" + address.trim());
-            }
+            parsedAddresses.add(withScheme(address));
         }
         return parsedAddresses;
     }
+
+    /**
+     * Shards of the index servers.
+     * partitioned: "a|b,c" => shard 0 = [a, b] (replicas), shard 1 = [c]
+     * otherwise: every address is a replica of the only shard
+     */
+    public static List<List<String>> parseShards(String addresses, boolean partitioned) {
+        List<List<String>> shards = new ArrayList<>();
+        if (!partitioned) {
+            List<String> replicas = new ArrayList<>();
+            for (String address: addresses.split("[,|]")) {
+                replicas.add(withScheme(address));
+            }
+            shards.add(replicas);
+            return shards;
+        }
+        for (String shard: addresses.split(",")) {
+            List<String> replicas = new ArrayList<>();
+            for (String address: shard.split("\\|")) {
+                replicas.add(withScheme(address));
+            }
+            shards.add(replicas);
+        }
+        return shards;
+    }
+
+    private static String withScheme(String address) {
+        if (address.trim().startsWith("http")) {
+            return address.trim();
+        }
+        return "http://" + address.trim();
+    }
 }
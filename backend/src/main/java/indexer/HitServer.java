@@ -7,6 +7,7 @@ import org.apache.logging.log4j.Logger;
 import static spark.Spark.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -16,27 +17,44 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import edu.upenn.cis455.mapreduce.worker.storage.HitStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.HitSegment;
+import edu.upenn.cis455.mapreduce.worker.storage.HitSource;
 import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
 
+import api.data.WordHitCodec;
+import api.http.GzipFilter;
+import indexer.handlers.HitBloomHandler;
 import indexer.handlers.HitRetrievalHandler;
+import indexer.index.HitBloomFilter;
+import io.github.cdimascio.dotenv.Dotenv;
 
 public class HitServer {
 
     static Logger logger = LogManager.getLogger(HitServer.class);
 
+    // optional on the hit nodes
+    private static Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
     /**
      * This server is used to serve the WordHits in each worker (node)
      * Main api:
      * GET : (/retrieve/hits?word=xxxx&docIDs=[xx,xx,xx,...]&hitGroup=xx)
      * GET : (/retrieve/hitsrange)
      * => to tell the master what is the range of hits it serves
+     * POST : (/retrieve/batch)
+     * => hits of all the word variants of one query in a hit group at once
+     * GET : (/retrieve/bloom/:hitname), POST : (/retrieve/bloom/refresh)
+     * => bloom filter of the (word, docID block) keys of a hit group
+     *
+     * A hit group is served from its exported segment (hitX.seg, see
+     * HitSegmentExport) if there is one, from its BerkeleyDB storage (hitX)
+     * otherwise.
      */
     private final int port;
     private final String hitStorageDirectory;
 
-    // hashmap key: path (i.e. hitx), value: hitDB
-    private HashMap<String, HitStorage> hitDBs = new HashMap<String, HitStorage>();
+    // hashmap key: path (i.e. hitx), value: hitDB (segment or BerkeleyDB)
+    private HashMap<String, HitSource> hitDBs = new HashMap<String, HitSource>();
 
     /**
      * Traverse the hitStorageDirectory to know which hits can be served
@@ -55,8 +73,12 @@ public class HitServer {
             String fn = f.toString();
             fn = fn.replace(hitStorageDirectory, "");
 
-            // hit folder must be named after hitX
-            if (fn.startsWith("/hit")) {
+            // hit folder (or segment) must be named after hitX (hitX.seg)
+            if (fn.startsWith("/hit") && fn.endsWith(".seg") && f.isFile()) {
+
+                shards.add(fn.substring(1, fn.length() - ".seg".length()));
+
+            } else if (fn.startsWith("/hit") && f.isDirectory()) {
 
                 shards.add(fn.substring(1));
 
@@ -68,6 +90,34 @@ public class HitServer {
 
     }
 
+    /**
+     * @param filename : [String], e.g. hit0
+     * @return [HitSource], the mapped segment (hit0.seg) if there is a valid
+     *         one, the BerkeleyDB storage (hit0) otherwise
+     */
+    private HitSource openHitShard(String filename) {
+
+        File segment = new File(this.hitStorageDirectory + "/" + filename + ".seg");
+
+        if (segment.isFile()) {
+
+            try {
+
+                return new HitSegment(segment);
+
+            } catch (IOException e) {
+
+                logger.warn("(HitNode) Unable to map " + segment + ", serving " + filename + " from BerkeleyDB: "
+                        + e.getMessage());
+
+            }
+
+        }
+
+        return StorageFactory.getHitDatabase(this.hitStorageDirectory + "/" + filename);
+
+    }
+
     public HitServer(int port, String hitStorageDirectory) {
 
         this.port = port;
@@ -86,7 +136,7 @@ public class HitServer {
 
         for (String filename : shards) {
 
-            this.hitDBs.put(filename, StorageFactory.getHitDatabase(this.hitStorageDirectory + "/" + filename));
+            this.hitDBs.put(filename, openHitShard(filename));
 
         }
 
@@ -140,7 +190,26 @@ public class HitServer {
 
         });
 
-        post("/retrieve/:hitname/:word", new HitRetrievalHandler(hitDBs));
+        // bloom filters of the (word, docID block) keys, built in the background
+        HitBloomHandler hitBloomHandler = new HitBloomHandler(hitDBs,
+                Double.parseDouble(dotenv.get("INDEXER_HIT_BLOOM_FPP", "0.01")),
+                Integer.parseInt(dotenv.get("INDEXER_HIT_BLOOM_DOC_BLOCK", "16")));
+
+        hitBloomHandler.rebuild();
+
+        get("/retrieve/bloom/:hitname", hitBloomHandler);
+
+        // before /retrieve/:hitname/:word, which would match it too
+        post("/retrieve/bloom/refresh", hitBloomHandler::handleRefresh);
+
+        HitRetrievalHandler hitRetrievalHandler = new HitRetrievalHandler(hitDBs);
+
+        post("/retrieve/batch", hitRetrievalHandler::handleBatch);
+
+        post("/retrieve/:hitname/:word", hitRetrievalHandler);
+
+        // json hits are gzipped for the clients asking for it, the binary ones are not
+        after("/retrieve/*", new GzipFilter(WordHitCodec.CONTENT_TYPE, HitBloomFilter.CONTENT_TYPE));
 
         System.out.println("Index Server started on port: " + this.port);
 
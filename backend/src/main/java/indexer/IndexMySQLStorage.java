@@ -7,8 +7,10 @@ import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.DocWord;
 import storage.MySQLConfig;
 import storage.MySQLStorage;
+import storage.PooledConnection;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.Word;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -31,12 +33,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
         // key: 0or1|docID|wordID
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             for (DocWord docWord : tasks) {
 
@@ -78,12 +80,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
         // key: 0or1|docID|wordID
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             StringBuilder builder = new StringBuilder();
 
@@ -133,12 +135,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
         // key: 0or1|docID|wordID
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert & update into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             for (Map.Entry<String, DocWord> entry : tasks.entrySet()) {
 
@@ -206,12 +208,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
         // tableName: either ShortLexicon or PlainLexicon
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             // return "(" + wordID + "," + "\"" + word + "\"" + "," + df + "," + idf + ")";
             for (Word wd : tasks) {
@@ -246,12 +248,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
         // tableName: either ShortLexicon or PlainLexicon
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             // return "(" + wordID + "," + "\"" + word + "\"" + "," + df + "," + idf + ")";
             StringBuilder builder = new StringBuilder();
@@ -300,12 +302,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
         // tableName: either ShortLexicon or PlainLexicon
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             // return "(" + wordID + "," + "\"" + word + "\"" + "," + df + "," + idf + ")";
             for (Map.Entry<Integer, Word> entry : tasks.entrySet()) {
@@ -338,12 +340,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
     public void updateLexicon(ArrayList<Word> tasks, String tableName) {
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to update " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             for (Word wd : tasks) {
 
@@ -375,10 +377,10 @@ public class IndexMySQLStorage extends MySQLStorage {
 
     public void updateIDF(String docWordTableName, String lexiconTableName) {
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             logger.debug("Sending query to update idf in " + lexiconTableName + " ... ");
 
@@ -416,10 +418,10 @@ public class IndexMySQLStorage extends MySQLStorage {
 
     public void updateTFIDF(String docWordTableName, String lexiconTableName) {
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             logger.debug("Sending query to update TF-IDF ... ");
 
@@ -471,12 +473,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
     public void insertDocInfo(ArrayList<DocInfo> infoTasks, String tableName) {
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             // return "(" + wordID + "," + "\"" + word + "\"" + "," + df + "," + idf + ")";
             for (DocInfo info : infoTasks) {
@@ -509,12 +511,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
     public void insertBulkDocInfo(ArrayList<DocInfo> infoTasks, String tableName) {
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             // return "(" + wordID + "," + "\"" + word + "\"" + "," + df + "," + idf + ")";
             StringBuilder builder = new StringBuilder();
@@ -561,12 +563,12 @@ public class IndexMySQLStorage extends MySQLStorage {
 
     public void insertDocInfo(HashMap<Integer, DocInfo> infoTasks, String tableName) {
 
-        try {
+        try (PooledConnection pooled = getConnection()) {
 
             logger.debug("Sending queries to insert into " + tableName + " ... ");
 
             // docID, wordID, word, tf
-            Statement batchUpdates = conn.createStatement();
+            Statement batchUpdates = pooled.createStatement();
 
             // return "(" + wordID + "," + "\"" + word + "\"" + "," + df + "," + idf + ")";
             for (Map.Entry<Integer, DocInfo> entry : infoTasks.entrySet()) {
@@ -596,4 +598,137 @@ public class IndexMySQLStorage extends MySQLStorage {
         }
 
     }
+
+    /**
+     * Materialize the per-term scores (same score as the match query:
+     * AVG(ntf) * AVG(idf) per word & doc) into an impact-ordered table, so
+     * that the index server reads the best postings of a term with
+     * ORDER BY score DESC LIMIT n instead of aggregating the whole posting
+     * list per query.
+     * The table is built aside and swapped in with one RENAME, the index
+     * servers never see a half-built table.
+     * 
+     * @param docWordTableName : [String], e.g. ShortDocWords
+     * @param lexiconTableName : [String], e.g. ShortLexicon
+     * @param impactTableName  : [String], e.g. ShortImpacts
+     * @return [long], number of postings written, -1 if failed
+     */
+    public long buildImpactTable(String docWordTableName, String lexiconTableName, String impactTableName) {
+
+        String buildTable = impactTableName + "_build";
+        String oldTable = impactTableName + "_old";
+
+        try (PooledConnection pooled = getConnection()) {
+
+            Statement statement = pooled.createStatement();
+
+            logger.debug("Building the impact table " + impactTableName + " ... ");
+
+            statement.executeUpdate("DROP TABLE IF EXISTS " + buildTable);
+            statement.executeUpdate("DROP TABLE IF EXISTS " + oldTable);
+
+            // (word, score DESC) => the postings of a term are read in impact order
+            statement.executeUpdate("CREATE TABLE " + buildTable
+                    + " (PRIMARY KEY (word, docID), INDEX impact_order (word, score DESC, docID))"
+                    + " SELECT D.word AS word, D.docID AS docID, CAST(AVG(D.ntf) * AVG(L.idf) AS FLOAT) AS score"
+                    + " FROM " + docWordTableName + " D JOIN " + lexiconTableName + " L ON D.word = L.word"
+                    + " GROUP BY D.word, D.docID");
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + impactTableName + " LIKE " + buildTable);
+
+            statement.executeUpdate("RENAME TABLE " + impactTableName + " TO " + oldTable
+                    + ", " + buildTable + " TO " + impactTableName);
+
+            statement.executeUpdate("DROP TABLE " + oldTable);
+
+            ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) AS n FROM " + impactTableName);
+
+            long numPostings = resultSet.next() ? resultSet.getLong("n") : 0;
+
+            resultSet.close();
+            statement.close();
+
+            logger.debug("Successfully built the impact table " + impactTableName + " : " + numPostings
+                    + " (n) postings");
+
+            return numPostings;
+
+        } catch (SQLException ex) {
+
+            logger.debug("Exception: " + impactTableName);
+            logger.debug("SQLException: " + ex.getMessage());
+            logger.debug("SQLState: " + ex.getSQLState());
+            logger.debug("VendorError: " + ex.getErrorCode());
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Bump the index generation (one row table, created if needed) after a
+     * sync, so that the index servers drop their cached results.
+     * 
+     * @param tableName : [String], e.g. IndexGeneration
+     * @return [long], the new generation, -1 if failed
+     */
+    public long bumpIndexGeneration(String tableName) {
+
+        try (PooledConnection pooled = getConnection()) {
+
+            Statement statement = pooled.createStatement();
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + tableName
+                    + " (id INT PRIMARY KEY, generation BIGINT NOT NULL)");
+
+            statement.executeUpdate("INSERT INTO " + tableName + " (id, generation) VALUES (0, 1)"
+                    + " ON DUPLICATE KEY UPDATE generation = generation + 1");
+
+            statement.close();
+
+        } catch (SQLException ex) {
+
+            logger.debug("Exception: " + tableName);
+            logger.debug("SQLException: " + ex.getMessage());
+            logger.debug("SQLState: " + ex.getSQLState());
+            logger.debug("VendorError: " + ex.getErrorCode());
+
+            return -1;
+
+        }
+
+        return getIndexGeneration(tableName);
+
+    }
+
+    /**
+     * @param tableName : [String], e.g. IndexGeneration
+     * @return [long], the current index generation, 0 if never synced, -1 if
+     *         failed
+     */
+    public long getIndexGeneration(String tableName) {
+
+        try (PooledConnection pooled = getConnection()) {
+
+            ResultSet resultSet = pooled.prepare("SELECT generation FROM " + tableName + " WHERE id = 0")
+                    .executeQuery();
+
+            long generation = resultSet.next() ? resultSet.getLong("generation") : 0;
+
+            resultSet.close();
+
+            return generation;
+
+        } catch (SQLException ex) {
+
+            // e.g. the table does not exist yet
+            logger.debug("SQLException: " + ex.getMessage());
+
+        }
+
+        return -1;
+
+    }
+
 }
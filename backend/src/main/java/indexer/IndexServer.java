@@ -9,6 +9,7 @@ import static spark.Spark.*;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -18,11 +19,23 @@ import java.util.Map;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
+import api.http.GzipFilter;
+import api.http.ServiceHttpClient;
 import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
 import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
 
 import indexer.handlers.MatchHandler;
 import indexer.handlers.IndexHitMonitorHandler;
+import indexer.handlers.SnippetHandler;
+import indexer.index.DocQuality;
+import indexer.index.DocRange;
+import indexer.index.InvertedIndex;
+import indexer.index.InvertedIndexLoader;
+import indexer.index.Lexicon;
+import indexer.index.ResultCache;
+import indexer.index.RetrievalStats;
+import indexer.index.SegmentedIndex;
+import indexer.nlp.QueryAnalyzer;
 import indexer.scorer.IndexScorer;
 
 import storage.MySQLConfig;
@@ -42,6 +55,10 @@ public class IndexServer {
     private final String indexStorageDirectory;
     private final IndexStorage indexDB;
 
+    // in-memory lexicon (case-folded word => variants, wordIDs, df), plus the
+    // words of the index segments if any
+    private Lexicon lexicon;
+
     private final String hitStorageDirectory;
 
     private boolean distributedHits = true;
@@ -52,6 +69,35 @@ public class IndexServer {
     // scorer for match handler
     private IndexScorer indexScorer;
 
+    // in-memory postings (null => match with SQL queries)
+    private InvertedIndex memoryIndex;
+
+    // where the in-memory postings are loaded from (INDEXER_POSTINGS_SOURCE)
+    private String postingsSource;
+
+    private MatchHandler matchHandler;
+
+    // LSM-style index segments (INDEXER_POSTINGS_SOURCE=segments), null otherwise
+    private SegmentedIndex segmentedIndex;
+    private List<IndexStorage> segmentDocInfoDBs;
+
+    // PageRank of the docs fused into the in-memory postings, null => none
+    private DocQuality docQuality;
+    private float qualityWeight;
+
+    private RetrievalStats retrievalStats = new RetrievalStats();
+
+    // match results of the current index generation (see IndexSynchronizer)
+    private ResultCache resultCache;
+
+    private String generationTable;
+
+    // query lemmatization shared by the match & snippet handlers
+    private QueryAnalyzer queryAnalyzer;
+
+    // docIDs owned by this server (document-partitioned mode), ALL by default
+    private DocRange docRange;
+
     public IndexServer(int port, String indexStorageDirectory, String hitStorageDirectory, boolean distributedHits) {
 
         this.port = port;
@@ -63,6 +109,9 @@ public class IndexServer {
         // DBs init
         indexDB = StorageFactory.getIndexDatabase(this.indexStorageDirectory);
 
+        // the lexicon is read only while serving => load it once
+        lexicon = Lexicon.load(indexDB);
+
         // remote DB
         Dotenv dotenv = Dotenv.configure().load();
         MySQLConfig conf = new MySQLConfig(
@@ -73,8 +122,56 @@ public class IndexServer {
                 dotenv.get("INDEXER_MYSQL_PORT"));
         remoteDB = new IndexMySQLStorage(conf);
 
+        // result cache, tagged with the index generation bumped by each sync
+        this.generationTable = dotenv.get("INDEXER_GENERATION_TABLE", "IndexGeneration");
+        this.resultCache = new ResultCache(
+                Long.parseLong(dotenv.get("INDEXER_RESULT_CACHE_MB", "64")) * 1024 * 1024,
+                remoteDB.getIndexGeneration(this.generationTable));
+
+        // document-partitioned mode: only the postings of this range are served
+        this.docRange = DocRange.parse(dotenv.get("INDEXER_DOC_RANGE", ""));
+
+        logger.info("(IndexServer) Serving the documents of the range : " + this.docRange);
+
+        // the lexicon of the index storage, extended at each reload of the segments
+        final Lexicon baseLexicon = this.lexicon;
+
+        // static quality of the docs (PageRank scores written by the ranker)
+        String pageRankDirectory = dotenv.get("INDEXER_PAGERANK_DIR", "");
+        this.qualityWeight = Float.parseFloat(dotenv.get("INDEXER_QUALITY_WEIGHT", "1.0"));
+
+        if (!pageRankDirectory.isEmpty()) {
+
+            this.docQuality = DocQuality.load(pageRankDirectory, this.docRange);
+
+        }
+
+        // in-memory postings: mysql (default), local, segments or none
+        this.postingsSource = dotenv.get("INDEXER_POSTINGS_SOURCE", "mysql");
+        this.memoryIndex = withQuality(loadMemoryIndex(this.postingsSource));
+
+        // pooled query lemmatization
+        this.queryAnalyzer = new QueryAnalyzer(
+                Integer.parseInt(dotenv.get("INDEXER_LEMMATIZER_POOL_SIZE", "2")),
+                Integer.parseInt(dotenv.get("INDEXER_QUERY_CACHE_SIZE", "4096")),
+                Boolean.parseBoolean(dotenv.get("INDEXER_QUERY_FAST_PATH", "true")));
+
+        // keep-alive client shared by the requests to the hit servers
+        ServiceHttpClient.configure(
+                Integer.parseInt(dotenv.get("INTERNAL_HTTP_CONNECT_TIMEOUT_MS", "1000")),
+                Integer.parseInt(dotenv.get("INTERNAL_HTTP_TIMEOUT_MS", "5000")),
+                Integer.parseInt(dotenv.get("INTERNAL_HTTP_MAX_PER_HOST", "64")));
+
         // init scorer for hit storage
-        this.indexScorer = new IndexScorer(this.indexDB, this.hitStorageDirectory, this.distributedHits);
+        this.indexScorer = new IndexScorer(this.indexDB, this.lexicon, this.hitStorageDirectory, this.distributedHits);
+
+        // the hit filters prune only in the index generation they were fetched in
+        if (remoteDB != null) {
+
+            this.indexScorer.getHitFilters()
+                    .setGenerationSource(() -> remoteDB.getIndexGeneration(this.generationTable));
+
+        }
 
         // Set up server configuration with spark
         port(this.port);
@@ -82,11 +179,42 @@ public class IndexServer {
         threadPool(10);
 
         // Set up monitor page
-        get("/monitor", new IndexHitMonitorHandler(this.indexScorer));
-        get("/", new IndexHitMonitorHandler(this.indexScorer));
+        get("/monitor", new IndexHitMonitorHandler(this.indexScorer, this.retrievalStats, this.queryAnalyzer,
+                this.resultCache, remoteDB != null ? remoteDB.getPool() : null, this.segmentedIndex));
+        get("/", new IndexHitMonitorHandler(this.indexScorer, this.retrievalStats, this.queryAnalyzer,
+                this.resultCache, remoteDB != null ? remoteDB.getPool() : null, this.segmentedIndex));
 
         // Set up APIs
-        get("/indexer/match", new MatchHandler(remoteDB, indexDB, this.indexScorer, distributedHits));
+        this.matchHandler = new MatchHandler(remoteDB, this.lexicon, this.indexScorer, this.memoryIndex,
+                this.retrievalStats, this.resultCache, this.queryAnalyzer, this.docRange);
+
+        get("/indexer/match", matchHandler);
+
+        // lexicon lookups of the popular keywords (search engine)
+        get("/indexer/words", matchHandler::handleWords);
+
+        if (this.segmentedIndex != null) {
+
+            // new runs & merges are swapped in without a restart
+            this.segmentedIndex.start(Long.parseLong(dotenv.get("INDEXER_SEGMENT_POLL_MS", "30000")),
+                    this.docRange, this.segmentDocInfoDBs, snapshot -> {
+
+                        Lexicon segmentLexicon = baseLexicon.withSurfaces(snapshot.getSurfaceDfs());
+
+                        matchHandler.setIndex(withQuality(snapshot.getIndex()), segmentLexicon);
+                        this.indexScorer.setLexicon(segmentLexicon);
+
+                        this.resultCache.invalidate();
+
+                    });
+
+        }
+
+        // snippets of the rendered documents only (not part of /indexer/match)
+        get("/indexer/snippets", new SnippetHandler(this.queryAnalyzer, this.indexScorer, this.docRange));
+
+        // matches & snippets are gzipped for the clients asking for it
+        after("/indexer/*", new GzipFilter());
 
         // TODO: implement shutdown if needed
         get("/shutdown", (req, res) -> {
@@ -104,6 +232,12 @@ public class IndexServer {
 
             }
 
+            if (this.segmentedIndex != null) {
+
+                this.segmentedIndex.stop();
+
+            }
+
             // remote
             remoteDB.close();
 
@@ -117,6 +251,9 @@ public class IndexServer {
 
             }
 
+            // hit request threads
+            this.indexScorer.shutdownHitRequests();
+
             // stop server
             stop();
 
@@ -134,6 +271,148 @@ public class IndexServer {
 
     }
 
+    /**
+     * Load the in-memory postings used to answer /indexer/match.
+     * 
+     * @param source : [String], mysql (the durable source), local (build from
+     *               the docWordX storages under the hit storage directory),
+     *               segments (the sealed index segments, see SegmentedIndex)
+     *               or none (keep matching with SQL queries)
+     * @return [InvertedIndex], null if disabled or failed
+     */
+    private InvertedIndex loadMemoryIndex(String source) {
+
+        if (source.equals("mysql")) {
+
+            Dotenv dotenv = Dotenv.configure().load();
+
+            return InvertedIndexLoader.loadFromMySQL(remoteDB,
+                    dotenv.get("INDEXER_SHORT_DOCWORDS"),
+                    dotenv.get("INDEXER_SHORT_LEXICON"),
+                    dotenv.get("INDEXER_DOCINFO"),
+                    this.docRange);
+
+        } else if (source.equals("local")) {
+
+            List<IndexStorage> docWordDBs = new ArrayList<IndexStorage>();
+
+            File[] files = new File(this.hitStorageDirectory).listFiles();
+
+            for (File f : files) {
+
+                // doc word folder must be named after docWordX (see IndexReduceBolt)
+                if (f.isDirectory() && f.getName().startsWith("docWord")) {
+
+                    docWordDBs.add(StorageFactory.getIndexDatabase(f.getPath()));
+
+                }
+
+            }
+
+            List<IndexStorage> docInfoDBs = new ArrayList<IndexStorage>(docWordDBs);
+            docInfoDBs.add(indexDB);
+
+            return InvertedIndexLoader.loadFromIndexStorage(docWordDBs, docInfoDBs, this.docRange);
+
+        } else if (source.equals("segments")) {
+
+            Dotenv dotenv = Dotenv.configure().load();
+
+            this.segmentedIndex = new SegmentedIndex(
+                    new File(dotenv.get("INDEXER_SEGMENT_DIR", this.hitStorageDirectory + "/segments")),
+                    Integer.parseInt(dotenv.get("INDEXER_SEGMENT_MERGE_FACTOR", "4")));
+
+            // url & title of the docs sealed without them
+            this.segmentDocInfoDBs = new ArrayList<IndexStorage>();
+            this.segmentDocInfoDBs.add(indexDB);
+
+            try {
+
+                SegmentedIndex.Snapshot snapshot = this.segmentedIndex.load(this.docRange, this.segmentDocInfoDBs);
+
+                this.lexicon = this.lexicon.withSurfaces(snapshot.getSurfaceDfs());
+
+                return snapshot.getIndex();
+
+            } catch (IOException e) {
+
+                logger.error("(IndexServer) Fail to load the index segments! " + e.getMessage());
+
+                // the poller retries
+                return null;
+
+            }
+
+        }
+
+        logger.info("(IndexServer) In-memory postings disabled, matching with SQL queries ...");
+
+        return null;
+
+    }
+
+    /**
+     * Renumber the in-memory postings by the quality of the docs (see
+     * InvertedIndex.withQuality), when the PageRank scores are loaded.
+     *
+     * @param index : [InvertedIndex], may be null
+     * @return [InvertedIndex], the same index without quality
+     */
+    private InvertedIndex withQuality(InvertedIndex index) {
+
+        if (index == null || this.docQuality == null) {
+
+            return index;
+
+        }
+
+        long orderStartT = System.nanoTime();
+
+        InvertedIndex ordered = index.withQuality(this.docQuality, this.qualityWeight);
+
+        logger.info("(IndexServer) Ordered " + ordered.toString() + " by quality in "
+                + ((System.nanoTime() - orderStartT) / 1000000) + " (ms)");
+
+        return ordered;
+
+    }
+
+    /**
+     * Reload the in-memory postings after an index sync (new generation) and
+     * swap them in. Only the mysql source is rewritten by the sync (the
+     * segments have their own poller, see SegmentedIndex).
+     * If the reload fails, the in-memory path is turned off: the SQL queries
+     * see the synced index, the old postings would not.
+     */
+    private void reloadMemoryIndex() {
+
+        if (!this.postingsSource.equals("mysql") || this.matchHandler == null) {
+
+            return;
+
+        }
+
+        long reloadStartT = System.nanoTime();
+
+        InvertedIndex reloaded = withQuality(loadMemoryIndex(this.postingsSource));
+
+        if (reloaded == null) {
+
+            logger.warn("(IndexServer) Fail to reload the in-memory postings, matching with SQL queries ...");
+
+        } else {
+
+            logger.info("(IndexServer) Reloaded " + reloaded.toString() + " after an index sync in "
+                    + ((System.nanoTime() - reloadStartT) / 1000000) + " (ms)");
+
+        }
+
+        this.memoryIndex = reloaded;
+
+        this.matchHandler.setIndex(reloaded, this.lexicon);
+
+    }
+
     // TODO: set up a daemon thread to keep connected
     Runnable connectionKeeper = new Runnable() {
 
@@ -153,6 +432,22 @@ public class IndexServer {
                         logger.debug(
                                 "(IndexServer) Successfully send the dummy query ... trying to keep connected ...");
 
+                        // drop the cached results if an index sync happened
+                        long generation = remoteDB.getIndexGeneration(generationTable);
+
+                        if (generation >= 0 && generation != resultCache.getGeneration()) {
+
+                            // the postings first: the results computed on the old ones are
+                            // then tagged with the old generation & never cached
+                            reloadMemoryIndex();
+
+                            resultCache.setGeneration(generation);
+
+                            // the hit servers rebuild their filters for the new generation
+                            indexScorer.getHitFilters().invalidate(generation);
+
+                        }
+
                     }
 
                     // sleep 30 s
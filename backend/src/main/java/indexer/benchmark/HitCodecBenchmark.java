@@ -0,0 +1,186 @@
+package indexer.benchmark;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.upenn.cis455.mapreduce.worker.storage.HitStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+import api.data.WordHitCodec;
+
+/**
+ * Compare the json & binary (WordHitCodec) encodings of /retrieve/batch
+ * responses: bytes on the wire, encode & decode time.
+ * The batches are built from the short hits of a local hit shard, every
+ * batch holds the hits of `docs per batch` documents of one word.
+ */
+public class HitCodecBenchmark {
+
+    static Logger logger = LogManager.getLogger(HitCodecBenchmark.class);
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 3) {
+
+            System.out.println("Usage: [hit storage directory] [number of batches] [docs per batch] [iterations]");
+            System.exit(1);
+
+        }
+
+        int numBatches = Integer.parseInt(args[1]);
+        int docsPerBatch = Integer.parseInt(args[2]);
+        int iterations = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+
+        HitStorage hitDB = StorageFactory.getHitDatabase(args[0]);
+
+        ArrayList<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>> batches = loadBatches(hitDB, numBatches,
+                docsPerBatch);
+
+        hitDB.close();
+
+        ObjectMapper mapper = new ObjectMapper();
+
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        long numHits = 0;
+
+        long jsonEncodeT = 0;
+        long jsonDecodeT = 0;
+        long binaryEncodeT = 0;
+        long binaryDecodeT = 0;
+
+        for (int it = 0; it < iterations; it++) {
+
+            for (HashMap<String, HashMap<Integer, ArrayList<WordHit>>> batch : batches) {
+
+                long startT = System.nanoTime();
+                byte[] json = mapper.writeValueAsString(batch).getBytes(StandardCharsets.UTF_8);
+                long encodedT = System.nanoTime();
+                HashMap<String, HashMap<Integer, ArrayList<WordHit>>> fromJson = mapper.readValue(
+                        new String(json, StandardCharsets.UTF_8),
+                        new TypeReference<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>() {
+                        });
+                long decodedT = System.nanoTime();
+
+                jsonEncodeT += encodedT - startT;
+                jsonDecodeT += decodedT - encodedT;
+
+                startT = System.nanoTime();
+                byte[] binary = WordHitCodec.encode(batch);
+                encodedT = System.nanoTime();
+                HashMap<String, HashMap<Integer, ArrayList<WordHit>>> fromBinary = WordHitCodec.decode(binary);
+                decodedT = System.nanoTime();
+
+                binaryEncodeT += encodedT - startT;
+                binaryDecodeT += decodedT - encodedT;
+
+                if (it == 0) {
+
+                    jsonBytes += json.length;
+                    binaryBytes += binary.length;
+                    numHits += countHits(fromJson);
+
+                    if (countHits(fromBinary) != countHits(fromJson)) {
+
+                        logger.warn("(HitCodecBenchmark) binary round trip lost hits!");
+
+                    }
+
+                }
+
+            }
+
+        }
+
+        int runs = Math.max(1, iterations * batches.size());
+
+        logger.info("(HitCodecBenchmark) " + batches.size() + " batches, " + numHits + " hits, " + iterations
+                + " iterations");
+        logger.info(String.format("(HitCodecBenchmark) json   : %d bytes, encode %.3f (ms), decode %.3f (ms) per batch",
+                jsonBytes, jsonEncodeT / 1e6 / runs, jsonDecodeT / 1e6 / runs));
+        logger.info(String.format("(HitCodecBenchmark) binary : %d bytes, encode %.3f (ms), decode %.3f (ms) per batch",
+                binaryBytes, binaryEncodeT / 1e6 / runs, binaryDecodeT / 1e6 / runs));
+        logger.info(String.format("(HitCodecBenchmark) binary / json : %.1f%% bytes, %.1f%% decode time",
+                100.0 * binaryBytes / Math.max(1, jsonBytes), 100.0 * binaryDecodeT / Math.max(1, jsonDecodeT)));
+
+    }
+
+    /**
+     * Group the first hits of the shard into batches (word => docID => hits),
+     * the shape returned by /retrieve/batch.
+     */
+    private static ArrayList<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>> loadBatches(HitStorage hitDB,
+            int numBatches, int docsPerBatch) {
+
+        ArrayList<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>> batches = new ArrayList<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>();
+
+        HashMap<Integer, ArrayList<WordHit>> current = new HashMap<Integer, ArrayList<WordHit>>();
+        String currentWord = null;
+
+        for (String key : hitDB.getHitKeys("short")) {
+
+            // key: word,docID
+            String word = key.substring(0, key.lastIndexOf(","));
+            int docID = Integer.parseInt(key.substring(key.lastIndexOf(",") + 1));
+
+            if (currentWord != null && (!currentWord.equals(word) || current.size() == docsPerBatch)) {
+
+                HashMap<String, HashMap<Integer, ArrayList<WordHit>>> batch = new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>();
+                batch.put(currentWord, current);
+                batches.add(batch);
+
+                current = new HashMap<Integer, ArrayList<WordHit>>();
+
+                if (batches.size() == numBatches) {
+
+                    return batches;
+
+                }
+
+            }
+
+            currentWord = word;
+            current.put(docID, hitDB.getWordHitList(word, docID, "short"));
+
+        }
+
+        if (currentWord != null) {
+
+            HashMap<String, HashMap<Integer, ArrayList<WordHit>>> batch = new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>();
+            batch.put(currentWord, current);
+            batches.add(batch);
+
+        }
+
+        return batches;
+
+    }
+
+    private static long countHits(HashMap<String, HashMap<Integer, ArrayList<WordHit>>> batch) {
+
+        long count = 0;
+
+        for (HashMap<Integer, ArrayList<WordHit>> docHits : batch.values()) {
+
+            for (ArrayList<WordHit> hits : docHits.values()) {
+
+                count += hits.size();
+
+            }
+
+        }
+
+        return count;
+
+    }
+
+}
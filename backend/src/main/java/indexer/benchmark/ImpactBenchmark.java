@@ -0,0 +1,233 @@
+package indexer.benchmark;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import indexer.IndexMySQLStorage;
+import indexer.index.DocRange;
+import indexer.index.ImpactRetriever;
+import indexer.index.ScoredDoc;
+import storage.MySQLConfig;
+import storage.PooledConnection;
+
+/**
+ * Compare the top-k latency of the aggregating join query (per term
+ * AVG(ntf) * AVG(idf) GROUP BY docID, as sent by MatchHandler without the
+ * impact table) against the impact-ordered table (ImpactRetriever) on the
+ * largest terms of the lexicon (highest df), alone and in pairs.
+ * Uses the INDEXER_* tables of the .env file.
+ */
+public class ImpactBenchmark {
+
+    static Logger logger = LogManager.getLogger(ImpactBenchmark.class);
+
+    private static Dotenv dotenv = Dotenv.configure().load();
+
+    public static void main(String[] args) throws SQLException {
+
+        if (args.length < 2) {
+
+            System.out.println("Usage: [number of largest terms] [k] [iterations]");
+            System.exit(1);
+
+        }
+
+        int numTerms = Integer.parseInt(args[0]);
+        int k = Integer.parseInt(args[1]);
+        int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        String lexiconTable = dotenv.get("INDEXER_SHORT_LEXICON");
+        String docWordsTable = dotenv.get("INDEXER_SHORT_DOCWORDS");
+        String impactTable = dotenv.get("INDEXER_SHORT_IMPACTS", "ShortImpacts");
+
+        IndexMySQLStorage remoteDB = new IndexMySQLStorage(new MySQLConfig(
+                dotenv.get("INDEXER_MYSQL_DBNAME"),
+                dotenv.get("INDEXER_MYSQL_USERNAME"),
+                dotenv.get("INDEXER_MYSQL_PASSWORD"),
+                dotenv.get("INDEXER_MYSQL_HOSTNAME"),
+                dotenv.get("INDEXER_MYSQL_PORT")));
+
+        List<String> largest = getLargestTerms(remoteDB, lexiconTable, numTerms);
+
+        logger.info("(ImpactBenchmark) largest terms : " + largest);
+
+        ArrayList<List<String>> queries = new ArrayList<List<String>>();
+
+        for (String term : largest) {
+
+            queries.add(Arrays.asList(term));
+
+        }
+
+        for (int i = 0; i + 1 < largest.size(); i++) {
+
+            queries.add(Arrays.asList(largest.get(i), largest.get(i + 1)));
+
+        }
+
+        ImpactRetriever retriever = new ImpactRetriever(remoteDB, impactTable,
+                Integer.parseInt(dotenv.get("INDEXER_IMPACT_PAGE_SIZE", "100")), DocRange.ALL);
+
+        long totalJoinT = 0;
+        long totalImpactT = 0;
+
+        for (List<String> terms : queries) {
+
+            String joinQuery = makeJoinQuery(terms.size(), docWordsTable, lexiconTable, k);
+
+            long joinT = 0;
+            long impactT = 0;
+
+            List<Integer> joinTop = null;
+            List<ScoredDoc> impactTop = null;
+
+            for (int it = 0; it < iterations; it++) {
+
+                long startT = System.nanoTime();
+                joinTop = runJoinQuery(remoteDB, joinQuery, terms);
+                joinT += System.nanoTime() - startT;
+
+                startT = System.nanoTime();
+                impactTop = retriever.retrieve(terms, k);
+                impactT += System.nanoTime() - startT;
+
+            }
+
+            HashSet<Integer> overlap = new HashSet<Integer>(joinTop);
+            int same = 0;
+
+            for (ScoredDoc doc : impactTop) {
+
+                if (overlap.contains(doc.getDocID())) {
+
+                    same++;
+
+                }
+
+            }
+
+            logger.info(String.format(
+                    "(ImpactBenchmark) %s : join %.2f (ms), impact %.2f (ms) reading %d (n) postings, top %d overlap %d/%d",
+                    terms, joinT / 1e6 / iterations, impactT / 1e6 / iterations, retriever.getNumEvaluated(), k, same,
+                    joinTop.size()));
+
+            totalJoinT += joinT;
+            totalImpactT += impactT;
+
+        }
+
+        int runs = Math.max(1, queries.size() * iterations);
+
+        logger.info(String.format("(ImpactBenchmark) %d queries, avg join %.2f (ms), avg impact %.2f (ms)",
+                queries.size(), totalJoinT / 1e6 / runs, totalImpactT / 1e6 / runs));
+
+        remoteDB.close();
+
+    }
+
+    private static List<String> getLargestTerms(IndexMySQLStorage remoteDB, String lexiconTable, int numTerms)
+            throws SQLException {
+
+        List<String> terms = new ArrayList<String>();
+
+        try (PooledConnection pooled = remoteDB.getConnection()) {
+
+            PreparedStatement statement = pooled
+                    .prepare("SELECT word FROM " + lexiconTable + " ORDER BY df DESC LIMIT ?");
+
+            statement.setInt(1, numTerms);
+
+            ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+
+                terms.add(resultSet.getString("word"));
+
+            }
+
+            resultSet.close();
+
+        }
+
+        return terms;
+
+    }
+
+    /**
+     * The per-term aggregation joined on docID (same shape as
+     * MatchHandler.makeKeyWordsQuery), ranked and cut at k.
+     */
+    private static String makeJoinQuery(int numTerms, String docWordsTable, String lexiconTable, int k) {
+
+        String query = null;
+
+        for (int loc = 0; loc < numTerms; loc++) {
+
+            String wordQuery = "(SELECT D.docID, AVG(D.ntf) * AVG(L.idf) AS score"
+                    + " FROM " + docWordsTable + " D JOIN " + lexiconTable
+                    + " L ON D.word = L.word WHERE D.word = ?"
+                    + " GROUP BY D.docID) K" + loc;
+
+            if (query == null) {
+
+                query = wordQuery;
+
+            } else {
+
+                query = "(SELECT K" + loc + ".docID, K" + (loc - 1) + ".score + K" + loc + ".score AS score"
+                        + " FROM " + query + " JOIN " + wordQuery
+                        + " ON K" + (loc - 1) + ".docID = K" + loc + ".docID) K" + loc;
+
+            }
+
+        }
+
+        int last = numTerms - 1;
+
+        return "SELECT K" + last + ".docID, K" + last + ".score FROM " + query
+                + " ORDER BY K" + last + ".score DESC LIMIT " + k;
+
+    }
+
+    private static List<Integer> runJoinQuery(IndexMySQLStorage remoteDB, String query, List<String> terms)
+            throws SQLException {
+
+        List<Integer> docIDs = new ArrayList<Integer>();
+
+        try (PooledConnection pooled = remoteDB.getConnection()) {
+
+            PreparedStatement statement = pooled.prepare(query);
+
+            for (int i = 0; i < terms.size(); i++) {
+
+                statement.setString(i + 1, terms.get(i));
+
+            }
+
+            ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+
+                docIDs.add(resultSet.getInt("docID"));
+
+            }
+
+            resultSet.close();
+
+        }
+
+        return docIDs;
+
+    }
+
+}
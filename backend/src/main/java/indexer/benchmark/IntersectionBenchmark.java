@@ -0,0 +1,304 @@
+package indexer.benchmark;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+
+import indexer.index.InvertedIndex;
+import indexer.index.PostingList;
+import indexer.index.QueryEvaluator;
+
+/**
+ * Compare the conjunctive matching of skewed term pairs (a rare term & a
+ * stopword, typed in that order or the other way round) on synthetic
+ * postings:
+ * 1. merge : both docID lists walked one posting at a time (what the SQL
+ * join chain does)
+ * 2. typed / planned : leapfrog over the compressed postings with galloping
+ * skips, led by the first typed term / by the rarest term (matches counted
+ * only)
+ * 3. exhaustive : QueryEvaluator.matchAll (planned, scored & ranked)
+ * 4. first : QueryEvaluator.matchFirst, planned plus the early stop at count
+ */
+public class IntersectionBenchmark {
+
+    static Logger logger = LogManager.getLogger(IntersectionBenchmark.class);
+
+    // df of each term, as a fraction of the docs
+    private static final String[] TERMS = { "rare", "uncommon", "common", "stopword" };
+    private static final double[] FRACTIONS = { 0.0005, 0.01, 0.1, 0.6 };
+
+    private static final String[][] PAIRS = { { "rare", "stopword" }, { "stopword", "rare" },
+            { "uncommon", "stopword" }, { "stopword", "uncommon" }, { "common", "stopword" },
+            { "rare", "common" } };
+
+    public static void main(String[] args) {
+
+        if (args.length < 1) {
+
+            System.out.println("Usage: [number of docs] [count] [iterations]");
+            System.exit(1);
+
+        }
+
+        int numDocs = Integer.parseInt(args[0]);
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+
+        Random random = new Random(455);
+
+        HashMap<String, int[]> docLists = new HashMap<String, int[]>();
+        HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+
+        for (int t = 0; t < TERMS.length; t++) {
+
+            int[] docIDs = sample(random, numDocs, Math.max(1, (int) (numDocs * FRACTIONS[t])));
+
+            float[] weights = new float[docIDs.length];
+
+            for (int i = 0; i < weights.length; i++) {
+
+                weights[i] = random.nextFloat();
+
+            }
+
+            docLists.put(TERMS[t], docIDs);
+            postings.put(TERMS[t], PostingList.compress(docIDs, weights, docIDs.length));
+
+        }
+
+        HashMap<Integer, DocInfo> docInfos = new HashMap<Integer, DocInfo>();
+
+        for (int docID = 0; docID < numDocs; docID++) {
+
+            docInfos.put(docID, new DocInfo(docID, "", "", ""));
+
+        }
+
+        InvertedIndex index = new InvertedIndex(postings, docInfos);
+
+        logger.info("(IntersectionBenchmark) " + index.toString() + ", count " + count + ", " + iterations
+                + " iterations");
+
+        for (String[] pair : PAIRS) {
+
+            List<String> terms = Arrays.asList(pair);
+
+            // warm up
+            for (int it = 0; it < Math.min(10, iterations); it++) {
+
+                merge(docLists.get(pair[0]), docLists.get(pair[1]));
+                leapfrog(postings.get(pair[0]), postings.get(pair[1]));
+                new QueryEvaluator(index).matchAll(terms, count);
+                new QueryEvaluator(index).matchFirst(terms, count);
+
+            }
+
+            int numMatches = 0;
+            int evaluatedAll = 0;
+            int evaluatedFirst = 0;
+
+            long startT = System.nanoTime();
+
+            for (int it = 0; it < iterations; it++) {
+
+                numMatches = merge(docLists.get(pair[0]), docLists.get(pair[1]));
+
+            }
+
+            long mergeT = System.nanoTime() - startT;
+
+            startT = System.nanoTime();
+
+            for (int it = 0; it < iterations; it++) {
+
+                leapfrog(postings.get(pair[0]), postings.get(pair[1]));
+
+            }
+
+            long typedT = System.nanoTime() - startT;
+
+            PostingList rarer = postings.get(pair[0]);
+            PostingList other = postings.get(pair[1]);
+
+            if (other.size() < rarer.size()) {
+
+                rarer = postings.get(pair[1]);
+                other = postings.get(pair[0]);
+
+            }
+
+            startT = System.nanoTime();
+
+            for (int it = 0; it < iterations; it++) {
+
+                leapfrog(rarer, other);
+
+            }
+
+            long plannedT = System.nanoTime() - startT;
+
+            startT = System.nanoTime();
+
+            for (int it = 0; it < iterations; it++) {
+
+                QueryEvaluator evaluator = new QueryEvaluator(index);
+
+                evaluator.matchAll(terms, count);
+                evaluatedAll = evaluator.getNumEvaluated();
+
+            }
+
+            long allT = System.nanoTime() - startT;
+
+            startT = System.nanoTime();
+
+            for (int it = 0; it < iterations; it++) {
+
+                QueryEvaluator evaluator = new QueryEvaluator(index);
+
+                evaluator.matchFirst(terms, count);
+                evaluatedFirst = evaluator.getNumEvaluated();
+
+            }
+
+            long firstT = System.nanoTime() - startT;
+
+            if (evaluatedAll != numMatches || leapfrog(rarer, other) != numMatches) {
+
+                logger.warn("(IntersectionBenchmark) " + terms + " : " + evaluatedAll + " matches, expected "
+                        + numMatches);
+
+            }
+
+            logger.info(String.format(
+                    "(IntersectionBenchmark) %s (df %d, %d) => %d matches | merge %.3f | typed %.3f | planned %.3f | exhaustive %.3f | first %.3f (ms), %d evaluated",
+                    terms, docLists.get(pair[0]).length, docLists.get(pair[1]).length, numMatches,
+                    mergeT / 1e6 / iterations, typedT / 1e6 / iterations, plannedT / 1e6 / iterations,
+                    allT / 1e6 / iterations, firstT / 1e6 / iterations, evaluatedFirst));
+
+        }
+
+    }
+
+    /**
+     * @return [int[]], size distinct docIDs out of [0, numDocs), sorted
+     */
+    private static int[] sample(Random random, int numDocs, int size) {
+
+        boolean[] picked = new boolean[numDocs];
+
+        int n = 0;
+
+        while (n < size) {
+
+            int docID = random.nextInt(numDocs);
+
+            if (!picked[docID]) {
+
+                picked[docID] = true;
+                n++;
+
+            }
+
+        }
+
+        int[] docIDs = new int[size];
+
+        n = 0;
+
+        for (int docID = 0; docID < numDocs; docID++) {
+
+            if (picked[docID]) {
+
+                docIDs[n++] = docID;
+
+            }
+
+        }
+
+        return docIDs;
+
+    }
+
+    /**
+     * Leapfrog of two posting lists, led by the first one.
+     *
+     * @return [int], number of common docIDs
+     */
+    private static int leapfrog(PostingList lead, PostingList other) {
+
+        PostingList.Cursor leadCursor = lead.cursor();
+        PostingList.Cursor otherCursor = other.cursor();
+
+        int numMatches = 0;
+
+        int candidate = leadCursor.next();
+
+        while (candidate != PostingList.NO_MORE_DOCS) {
+
+            int docID = otherCursor.advance(candidate);
+
+            if (docID == candidate) {
+
+                numMatches++;
+
+                candidate = leadCursor.next();
+
+            } else {
+
+                candidate = leadCursor.advance(docID);
+
+            }
+
+        }
+
+        return numMatches;
+
+    }
+
+    /**
+     * Linear merge of two docID lists (the baseline).
+     *
+     * @return [int], number of common docIDs
+     */
+    private static int merge(int[] first, int[] second) {
+
+        ArrayList<Integer> matches = new ArrayList<Integer>();
+
+        int i = 0;
+        int j = 0;
+
+        while (i < first.length && j < second.length) {
+
+            if (first[i] < second[j]) {
+
+                i++;
+
+            } else if (first[i] > second[j]) {
+
+                j++;
+
+            } else {
+
+                matches.add(first[i]);
+
+                i++;
+                j++;
+
+            }
+
+        }
+
+        return matches.size();
+
+    }
+
+}
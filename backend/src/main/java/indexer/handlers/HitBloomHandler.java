@@ -0,0 +1,235 @@
+package indexer.handlers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import spark.HaltException;
+import static spark.Spark.*;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import edu.upenn.cis455.mapreduce.worker.storage.HitSource;
+
+import indexer.index.HitBloomFilter;
+
+/**
+ * Publish a Bloom filter over the (word, docID block) keys of each served
+ * hit group.
+ * GET : (/retrieve/bloom/:hitname) => the filter (HitBloomFilter.toBytes),
+ * with an ETag (If-None-Match => 304), 503 while it is (re)built
+ * POST : (/retrieve/bloom/refresh) => rebuild every filter (after an
+ * indexing run), the stale filters are withdrawn at once
+ */
+public class HitBloomHandler implements Route {
+
+    static Logger logger = LogManager.getLogger(HitBloomHandler.class);
+
+    private static class PublishedFilter {
+
+        private final byte[] bytes;
+        private final String etag;
+
+        PublishedFilter(byte[] bytes, String etag) {
+
+            this.bytes = bytes;
+            this.etag = etag;
+
+        }
+
+    }
+
+    private final HashMap<String, HitSource> hitDBs;
+
+    private final double fpp;
+
+    private final int blockSize;
+
+    // hit group => filter, missing while (re)building
+    private final ConcurrentHashMap<String, PublishedFilter> filters = new ConcurrentHashMap<String, PublishedFilter>();
+
+    private Thread builder = null;
+
+    private boolean rebuildRequested = false;
+
+    /**
+     * @param hitDBs    : [HashMap<String, HitSource>], hit group => storage
+     * @param fpp       : [double], target false positive rate
+     * @param blockSize : [int], docIDs per block
+     */
+    public HitBloomHandler(HashMap<String, HitSource> hitDBs, double fpp, int blockSize) {
+
+        this.hitDBs = hitDBs;
+        this.fpp = fpp;
+        this.blockSize = blockSize;
+
+    }
+
+    /**
+     * Withdraw the current filters and build them again in the background (a
+     * refresh requested during a build runs once that build is over).
+     */
+    public synchronized void rebuild() {
+
+        filters.clear();
+
+        if (builder != null && builder.isAlive()) {
+
+            rebuildRequested = true;
+
+            return;
+
+        }
+
+        builder = new Thread(this::buildAll, "hit-bloom-builder");
+        builder.setDaemon(true);
+        builder.start();
+
+    }
+
+    private void buildAll() {
+
+        while (true) {
+
+            for (Map.Entry<String, HitSource> entry : hitDBs.entrySet()) {
+
+                long startT = System.currentTimeMillis();
+
+                HitBloomFilter filter = build(entry.getValue());
+
+                synchronized (this) {
+
+                    if (rebuildRequested) {
+
+                        // outdated already
+                        break;
+
+                    }
+
+                    filters.put(entry.getKey(), new PublishedFilter(filter.toBytes(), "\"" + entry.getKey() + "-"
+                            + System.currentTimeMillis() + "\""));
+
+                }
+
+                logger.info("(HitBloomHandler) " + entry.getKey() + " : " + filter.getNumKeys() + " (n) keys in "
+                        + filter.getSizeInBytes() / 1024 + " (KB), built in "
+                        + (System.currentTimeMillis() - startT) + " (ms)");
+
+            }
+
+            synchronized (this) {
+
+                if (!rebuildRequested) {
+
+                    return;
+
+                }
+
+                rebuildRequested = false;
+                filters.clear();
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Two passes over the keys (word,docID) of the short hits: count the
+     * distinct (word, block) keys to size the filter, then fill it.
+     */
+    private HitBloomFilter build(HitSource hitDB) {
+
+        Iterable<String> keys = hitDB.getHitKeys("short");
+
+        long numKeys = 0;
+
+        String currentWord = null;
+        HashSet<Integer> blocks = new HashSet<Integer>();
+
+        // the keys are sorted, so the docs of a word are next to each other
+        for (String key : keys) {
+
+            int split = key.lastIndexOf(",");
+            String word = key.substring(0, split);
+
+            if (!word.equals(currentWord)) {
+
+                numKeys += blocks.size();
+
+                blocks.clear();
+                currentWord = word;
+
+            }
+
+            blocks.add(Math.floorDiv(Integer.parseInt(key.substring(split + 1)), blockSize));
+
+        }
+
+        numKeys += blocks.size();
+
+        HitBloomFilter filter = new HitBloomFilter(numKeys, fpp, blockSize);
+
+        for (String key : keys) {
+
+            int split = key.lastIndexOf(",");
+
+            filter.add(key.substring(0, split), Integer.parseInt(key.substring(split + 1)));
+
+        }
+
+        return filter;
+
+    }
+
+    @Override
+    public Object handle(Request req, Response resp) throws HaltException {
+
+        String hitGroup = req.params(":hitname");
+
+        if (!hitDBs.containsKey(hitGroup)) {
+
+            halt(404, "Hit group not found here!");
+
+        }
+
+        PublishedFilter filter = filters.get(hitGroup);
+
+        if (filter == null) {
+
+            halt(503, "Bloom filter of " + hitGroup + " is being built!");
+
+        }
+
+        resp.header("ETag", filter.etag);
+
+        if (filter.etag.equals(req.headers("If-None-Match"))) {
+
+            resp.status(304);
+
+            return "";
+
+        }
+
+        resp.type(HitBloomFilter.CONTENT_TYPE);
+
+        return filter.bytes;
+
+    }
+
+    public Object handleRefresh(Request req, Response resp) {
+
+        rebuild();
+
+        resp.status(202);
+
+        return "Rebuilding the bloom filters of " + hitDBs.keySet();
+
+    }
+
+}
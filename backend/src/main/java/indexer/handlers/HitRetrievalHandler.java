@@ -20,17 +20,20 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import edu.upenn.cis455.mapreduce.worker.storage.HitStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.HitSource;
 import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.*;
 
+import api.data.HitBatchRequest;
+import api.data.WordHitCodec;
+
 public class HitRetrievalHandler implements Route {
 
     static Logger logger = LogManager.getLogger(HitRetrievalHandler.class);
 
-    private HashMap<String, HitStorage> hitDBs;
+    private HashMap<String, HitSource> hitDBs;
 
-    public HitRetrievalHandler(HashMap<String, HitStorage> hitDBs) {
+    public HitRetrievalHandler(HashMap<String, HitSource> hitDBs) {
 
         this.hitDBs = hitDBs;
 
@@ -96,4 +99,95 @@ public class HitRetrievalHandler implements Route {
         return "";
     }
 
+    /**
+     * Serve the hits of several words of the same hit group in one round trip.
+     * POST: /retrieve/batch
+     * Body : HitBatchRequest (hitGroup, words, docIDs, contexts)
+     * Output : {word : {docID : [WordHit, ...]}}, docs without hits are left out,
+     * encoded by WordHitCodec if the Accept header asks for it, json otherwise
+     * 
+     * @param req
+     * @param resp
+     * @return
+     * @throws HaltException
+     */
+    public Object handleBatch(Request req, Response resp) throws HaltException {
+
+        HitBatchRequest batch = null;
+
+        try {
+
+            batch = HitBatchRequest.deserialize(req.body());
+
+        } catch (IOException e) {
+
+            halt(400, "Bad Request: Unable to parse the batch!");
+
+        }
+
+        String hitGroup = batch.getHitGroup();
+
+        logger.debug("(HitRetrievalHandler) get batch: " + batch.toString());
+
+        // make sure this hitGroup is here
+        if (!this.hitDBs.containsKey(hitGroup)) {
+
+            halt(400, "Bad Request: This hit group: " + hitGroup + " is not here!");
+        }
+
+        HitSource hitDB = hitDBs.get(hitGroup);
+
+        HashMap<String, HashMap<Integer, ArrayList<WordHit>>> collectors = new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>();
+
+        for (String word : batch.getWords()) {
+
+            HashMap<Integer, ArrayList<WordHit>> wordCollector = new HashMap<Integer, ArrayList<WordHit>>();
+
+            for (int docID : batch.getDocIDs()) {
+
+                ArrayList<WordHit> singleHits = hitDB.getWordHitList(word, docID, "short", batch.isContexts());
+
+                if (singleHits.size() > 0) {
+
+                    wordCollector.put(docID, singleHits);
+
+                }
+
+            }
+
+            collectors.put(word, wordCollector);
+
+        }
+
+        // binary encoding if the caller accepts it, json otherwise
+        String accept = req.headers("Accept");
+
+        if (accept != null && accept.contains(WordHitCodec.CONTENT_TYPE)) {
+
+            resp.type(WordHitCodec.CONTENT_TYPE);
+
+            return WordHitCodec.encode(collectors);
+
+        }
+
+        try {
+
+            ObjectMapper mapper = new ObjectMapper();
+
+            resp.type("application/json");
+
+            return mapper.writeValueAsString(collectors);
+
+        } catch (JsonProcessingException e) {
+
+            e.printStackTrace();
+
+        }
+
+        halt(500, "JSON parsed error!");
+
+        return "";
+
+    }
+
 }
@@ -3,57 +3,49 @@ package indexer.handlers;
 import spark.HaltException;
 import static spark.Spark.*;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 
 import spark.Request;
 import spark.Response;
 import spark.Route;
 
+import api.http.LatencyHistogram;
+import api.http.ServiceHttpClient;
+import indexer.index.ResultCache;
+import indexer.index.RetrievalStats;
+import indexer.index.SegmentedIndex;
+import indexer.nlp.QueryAnalyzer;
+import indexer.scorer.HitFilterCache;
 import indexer.scorer.IndexScorer;
+import indexer.scorer.ReplicaHealth;
+import indexer.scorer.ReplicaSelector;
+import storage.MySQLConnectionPool;
 
 public class IndexHitMonitorHandler implements Route {
 
     private IndexScorer indexScorer;
 
-    public IndexHitMonitorHandler(IndexScorer indexScorer) {
+    private RetrievalStats retrievalStats;
 
-        this.indexScorer = indexScorer;
-
-    }
-
-    public boolean isAccessible(String ipAddress, String hitGroup) {
-
-        // API: /access/:hitname
-        try {
-
-            URL url = new URL("http://" + ipAddress + "/access/" + hitGroup);
-
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-            if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
-
-                // check response
-
-                return true;
+    private QueryAnalyzer queryAnalyzer;
 
-            }
-
-        } catch (java.net.ConnectException | java.net.MalformedURLException e) {
+    private ResultCache resultCache;
 
-            // e.printStackTrace();
-            System.out.println("Address: " + ipAddress + " not acccessible for " + hitGroup + " ! ");
+    private MySQLConnectionPool mysqlPool;
 
-        } catch (IOException e) {
+    // null unless the postings come from the index segments
+    private SegmentedIndex segmentedIndex;
 
-            System.out.println("Address: " + ipAddress + " not acccessible for " + hitGroup + " ! ");
+    public IndexHitMonitorHandler(IndexScorer indexScorer, RetrievalStats retrievalStats,
+            QueryAnalyzer queryAnalyzer, ResultCache resultCache, MySQLConnectionPool mysqlPool,
+            SegmentedIndex segmentedIndex) {
 
-        }
-
-        return false;
+        this.indexScorer = indexScorer;
+        this.retrievalStats = retrievalStats;
+        this.queryAnalyzer = queryAnalyzer;
+        this.resultCache = resultCache;
+        this.mysqlPool = mysqlPool;
+        this.segmentedIndex = segmentedIndex;
 
     }
 
@@ -71,10 +63,10 @@ public class IndexHitMonitorHandler implements Route {
         builder.append(
                 "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Node ID</th><th>Node State</th></tr>");
 
-        // content
-        HashMap<String, ArrayList<String>> remoteHitAddresses = this.indexScorer.getRemoteHitAdddresses();
+        // content (cached by the health checker, nothing is probed here)
+        ReplicaHealth replicaHealth = this.indexScorer.getReplicaHealth();
 
-        int nShards = remoteHitAddresses.size();
+        int nShards = this.indexScorer.getRemoteHitAdddresses().size();
 
         for (int i = 0; i < nShards; i++) {
 
@@ -83,15 +75,13 @@ public class IndexHitMonitorHandler implements Route {
 
             builder.append("<td style=\"text-align:center \">" + "hit" + i + "</td>");
 
-            ArrayList<String> targetAddresses = remoteHitAddresses.get("hit" + i);
+            List<ReplicaHealth.Circuit> circuits = replicaHealth.getCircuits("hit" + i);
 
             builder.append("<td style=\"text-align:center \">");
 
             builder.append("[");
 
-            for (int j = 0; j < targetAddresses.size(); j++) {
-
-                boolean accessible = isAccessible(targetAddresses.get(j), "hit" + i);
+            for (int j = 0; j < circuits.size(); j++) {
 
                 if (j > 0) {
 
@@ -99,17 +89,9 @@ public class IndexHitMonitorHandler implements Route {
 
                 }
 
-                if (accessible) {
-
-                    // green
-                    builder.append("<span style=\"color:green\">" + targetAddresses.get(j) + "</span>");
-
-                } else {
-
-                    // red
-                    builder.append("<span style=\"color:red\">" + targetAddresses.get(j) + "</span>");
-
-                }
+                // green: up, orange: half-open, red: down
+                builder.append("<span style=\"color:" + stateColor(circuits.get(j).getState()) + "\">"
+                        + circuits.get(j).getAddress() + "</span>");
 
             }
 
@@ -124,6 +106,30 @@ public class IndexHitMonitorHandler implements Route {
         // table end
         builder.append("</table>");
 
+        renderCircuits(builder);
+
+        renderReplicaStats(builder);
+
+        renderHttpStats(builder);
+
+        renderRetrievalStats(builder);
+
+        renderAnalysisStats(builder);
+
+        renderResultCacheStats(builder);
+
+        if (segmentedIndex != null) {
+
+            renderSegmentStats(builder);
+
+        }
+
+        if (mysqlPool != null) {
+
+            renderPoolStats(builder);
+
+        }
+
         builder.append("</div>");
         builder.append("</body>");
         builder.append("</html>");
@@ -132,6 +138,286 @@ public class IndexHitMonitorHandler implements Route {
 
     }
 
+    private static String stateColor(ReplicaHealth.State state) {
+
+        switch (state) {
+
+        case UP:
+            return "green";
+
+        case HALF_OPEN:
+            return "orange";
+
+        default:
+            return "red";
+
+        }
+
+    }
+
+    /**
+     * Circuit breaker of each hit replica, as left by the last check.
+     * 
+     * @param builder
+     */
+    private void renderCircuits(StringBuilder builder) {
+
+        List<ReplicaHealth.Circuit> circuits = indexScorer.getReplicaHealth().getAllCircuits();
+
+        if (circuits.isEmpty()) {
+
+            return;
+
+        }
+
+        long now = System.currentTimeMillis();
+
+        builder.append("<h2>Hit Replica Health</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Hit Group</th><th>Replica</th><th>State</th><th>Consecutive Failures</th><th>Trips</th><th>Last Probe (ms)</th><th>Checked (s ago)</th></tr>");
+
+        for (ReplicaHealth.Circuit circuit : circuits) {
+
+            long lastCheckT = circuit.getLastCheckT();
+
+            builder.append("<tr bgcolor=\"#ffffff\">");
+            builder.append("<td style=\"text-align:center \">" + circuit.getHitGroup() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + circuit.getAddress() + "</td>");
+            builder.append("<td style=\"text-align:center;color:" + stateColor(circuit.getState()) + " \">"
+                    + circuit.getState() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + circuit.getConsecutiveFailures() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + circuit.getTrips() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.2f", Math.max(0, circuit.getLastProbeMs())) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + ((lastCheckT == 0) ? "-" : String.format("%.1f", (now - lastCheckT) / 1000.0)) + "</td>");
+            builder.append("</tr>");
+
+        }
+
+        builder.append("</table>");
+
+    }
+
+    /**
+     * Latency & load of each hit replica, as seen by the replica selection.
+     * 
+     * @param builder
+     */
+    private void renderReplicaStats(StringBuilder builder) {
+
+        List<ReplicaSelector.ReplicaStats> replicas = indexScorer.getReplicaSelector().getAllStats();
+
+        if (replicas.isEmpty()) {
+
+            return;
+
+        }
+
+        HitFilterCache hitFilters = indexScorer.getHitFilters();
+
+        builder.append("<h2>Hit Replicas (hedged requests: " + indexScorer.getHedgedRequests() + ")</h2>");
+
+        builder.append("<p>Bloom filters: " + hitFilters.getNumFilters() + " (n), "
+                + hitFilters.getSizeInBytes() / 1024 + " (KB), skipped requests: " + hitFilters.getSkippedRequests()
+                + ", skipped (variant, doc) lookups: " + hitFilters.getSkippedLookups() + "</p>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Hit Group</th><th>Replica</th><th>EWMA Latency (ms)</th><th>In Flight</th><th>Requests</th><th>Failures</th><th>Hedges Won</th></tr>");
+
+        for (ReplicaSelector.ReplicaStats replica : replicas) {
+
+            builder.append("<tr bgcolor=\"#ffffff\">");
+            builder.append("<td style=\"text-align:center \">" + replica.getHitGroup() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + replica.getAddress() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.2f", replica.getEwmaMs()) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + replica.getInFlight() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + replica.getRequests() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + replica.getFailures() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + replica.getHedgesWon() + "</td>");
+            builder.append("</tr>");
+
+        }
+
+        builder.append("</table>");
+
+    }
+
+    /**
+     * Latency histogram of the outgoing requests per destination (shared
+     * keep-alive client).
+     * 
+     * @param builder
+     */
+    private void renderHttpStats(StringBuilder builder) {
+
+        List<LatencyHistogram> histograms = ServiceHttpClient.shared().getHistograms();
+
+        if (histograms.isEmpty()) {
+
+            return;
+
+        }
+
+        builder.append("<h2>Outgoing Requests</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Destination</th><th>Requests</th><th>Errors</th><th>Mean (ms)</th><th>p50 (ms)</th><th>p95 (ms)</th><th>p99 (ms)</th><th>Max (ms)</th></tr>");
+
+        for (LatencyHistogram histogram : histograms) {
+
+            builder.append("<tr bgcolor=\"#ffffff\">");
+            builder.append("<td style=\"text-align:center \">" + histogram.getDestination() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + histogram.getCount() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + histogram.getErrors() + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.2f", histogram.getMeanMs()) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.0f", histogram.getPercentileMs(50)) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.0f", histogram.getPercentileMs(95)) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.0f", histogram.getPercentileMs(99)) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + String.format("%.2f", histogram.getMaxMs()) + "</td>");
+            builder.append("</tr>");
+
+        }
+
+        builder.append("</table>");
+
+    }
+
+    /**
+     * Number of documents scored per query by each retrieval mode.
+     * 
+     * @param builder
+     */
+    private void renderRetrievalStats(StringBuilder builder) {
+
+        builder.append("<h2>Retrieval</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Mode</th><th>Queries</th><th>Evaluated Docs</th><th>Avg Evaluated Docs</th></tr>");
+
+        for (String mode : RetrievalStats.MODES) {
+
+            builder.append("<tr bgcolor=\"#ffffff\">");
+            builder.append("<td style=\"text-align:center \">" + mode + "</td>");
+            builder.append("<td style=\"text-align:center \">" + retrievalStats.getQueries(mode) + "</td>");
+            builder.append("<td style=\"text-align:center \">" + retrievalStats.getEvaluated(mode) + "</td>");
+            builder.append(
+                    "<td style=\"text-align:center \">" + String.format("%.1f", retrievalStats.getAverageEvaluated(mode))
+                            + "</td>");
+            builder.append("</tr>");
+
+        }
+
+        builder.append("</table>");
+
+    }
+
+    /**
+     * Query analysis latency per path (cache, fast path, pipeline).
+     * 
+     * @param builder
+     */
+    private void renderAnalysisStats(StringBuilder builder) {
+
+        builder.append("<h2>Query Analysis</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Path</th><th>Queries</th><th>Avg Latency (ms)</th></tr>");
+
+        for (String path : QueryAnalyzer.PATHS) {
+
+            builder.append("<tr bgcolor=\"#ffffff\">");
+            builder.append("<td style=\"text-align:center \">" + path + "</td>");
+            builder.append("<td style=\"text-align:center \">" + queryAnalyzer.getQueries(path) + "</td>");
+            builder.append("<td style=\"text-align:center \">"
+                    + String.format("%.3f", queryAnalyzer.getAverageLatency(path)) + "</td>");
+            builder.append("</tr>");
+
+        }
+
+        builder.append("</table>");
+
+        builder.append("<p>Cached queries: " + queryAnalyzer.getCachedQueries() + "</p>");
+
+    }
+
+    /**
+     * Result cache counters of the current index generation.
+     * 
+     * @param builder
+     */
+    private void renderResultCacheStats(StringBuilder builder) {
+
+        builder.append("<h2>Result Cache (generation " + resultCache.getGeneration() + ")</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Hits</th><th>Misses</th><th>Evictions</th><th>Invalidations</th><th>Entries</th><th>Size (MB)</th></tr>");
+
+        builder.append("<tr bgcolor=\"#ffffff\">");
+        builder.append("<td style=\"text-align:center \">" + resultCache.getHits() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + resultCache.getMisses() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + resultCache.getEvictions() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + resultCache.getInvalidations() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + resultCache.size() + "</td>");
+        builder.append("<td style=\"text-align:center \">"
+                + String.format("%.2f / %.2f", resultCache.getBytes() / 1048576.0, resultCache.getMaxBytes() / 1048576.0)
+                + "</td>");
+        builder.append("</tr>");
+
+        builder.append("</table>");
+
+    }
+
+    /**
+     * Live index segments (see SegmentedIndex).
+     * 
+     * @param builder
+     */
+    private void renderSegmentStats(StringBuilder builder) {
+
+        builder.append("<h2>Index Segments (version " + segmentedIndex.getLoadedVersion() + ")</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>Segments</th><th>Live Docs</th><th>Live Postings</th><th>Merges</th><th>Last Load (ms)</th></tr>");
+
+        builder.append("<tr bgcolor=\"#ffffff\">");
+        builder.append("<td style=\"text-align:center \">" + segmentedIndex.getNumSegments() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + segmentedIndex.getNumDocs() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + segmentedIndex.getNumPostings() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + segmentedIndex.getNumMerges() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + segmentedIndex.getLastLoadMs() + "</td>");
+        builder.append("</tr>");
+
+        builder.append("</table>");
+
+    }
+
+    /**
+     * MySQL connection pool usage.
+     * 
+     * @param builder
+     */
+    private void renderPoolStats(StringBuilder builder) {
+
+        builder.append("<h2>MySQL Connection Pool</h2>");
+
+        builder.append(
+                "<table style=\"border:1px solid black;margin-left:auto;margin-right:auto;\" cellspacing=\"3\" bgcolor=\"#000000\"><tr bgcolor=\"#ffffff\"><th>In Use</th><th>Idle</th><th>Opened</th><th>Checkouts</th><th>Timeouts</th><th>Broken</th><th>Avg Wait (ms)</th></tr>");
+
+        builder.append("<tr bgcolor=\"#ffffff\">");
+        builder.append("<td style=\"text-align:center \">" + mysqlPool.getInUse() + " / " + mysqlPool.getMaxSize() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + mysqlPool.getIdle() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + mysqlPool.getOpened() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + mysqlPool.getCheckouts() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + mysqlPool.getTimeouts() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + mysqlPool.getBroken() + "</td>");
+        builder.append("<td style=\"text-align:center \">" + String.format("%.3f", mysqlPool.getAverageWaitMillis())
+                + "</td>");
+        builder.append("</tr>");
+
+        builder.append("</table>");
+
+    }
+
     @Override
     public Object handle(Request req, Response resp) throws HaltException {
 
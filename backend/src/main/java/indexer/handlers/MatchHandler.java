@@ -3,6 +3,7 @@ package indexer.handlers;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -30,20 +31,35 @@ import edu.stanford.nlp.pipeline.*;
 import io.github.cdimascio.dotenv.Dotenv;
 
 import edu.upenn.cis455.mapreduce.scheduler.IndexSyncScheduler;
-import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
 import edu.upenn.cis455.mapreduce.worker.storage.HitStorage;
 import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
 
 import api.data.IndexerMatch;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+
 import indexer.IndexMySQLStorage;
-import indexer.nlp.Lemmatizer;
+import indexer.index.DocQuality;
+import indexer.index.DocRange;
+import indexer.index.ImpactRetriever;
+import indexer.index.InvertedIndex;
+import indexer.index.Lexicon;
+import indexer.index.QueryEvaluator;
+import indexer.index.ResultCache;
+import indexer.index.RetrievalStats;
+import indexer.index.ScoredDoc;
+import indexer.index.TopKRetriever;
+import indexer.nlp.PhraseQuery;
+import indexer.nlp.QueryAnalyzer;
 import indexer.scorer.IndexScorer;
 
+import storage.PooledConnection;
+
 public class MatchHandler implements Route {
 
     static Logger logger = LogManager.getLogger(MatchHandler.class);
 
-    private static Lemmatizer lemmatizer = new Lemmatizer();
+    // shared with the snippet handler (pooled pipelines + query cache)
+    private QueryAnalyzer queryAnalyzer;
 
     private static Dotenv dotenv = Dotenv.configure().load();
     private String shortLexiconTable = dotenv.get("INDEXER_SHORT_LEXICON");
@@ -51,9 +67,12 @@ public class MatchHandler implements Route {
     private String shortDocWordsTable = dotenv.get("INDEXER_SHORT_DOCWORDS");
     private String plainDocWordsTable = dotenv.get("INDEXER_PLAIN_DOCWORDS");
     private String docInfoTable = dotenv.get("INDEXER_DOCINFO");
+    private String shortImpactTable = dotenv.get("INDEXER_SHORT_IMPACTS", "");
+    private int impactPageSize = Integer.parseInt(dotenv.get("INDEXER_IMPACT_PAGE_SIZE", "100"));
 
-    // index storage
-    private final IndexStorage indexDB;
+    // in-memory lexicon (replaces the per-variant hasWord lookups), swapped
+    // with the index segments (see setIndex)
+    private volatile Lexicon lexicon;
 
     // remote storage
     private IndexMySQLStorage remoteDB;
@@ -62,12 +81,116 @@ public class MatchHandler implements Route {
     // scorer contains the way to fetch hits either from local or remote nodes
     private IndexScorer indexScorer;
 
-    public MatchHandler(IndexMySQLStorage remoteDB, IndexStorage indexDB, IndexScorer scorer,
-            boolean distributedHits) {
+    // in-memory postings, null => fall back to the SQL join chain
+    private volatile InvertedIndex memoryIndex;
+
+    // number of evaluated docs per retrieval mode (shown on /monitor)
+    private RetrievalStats retrievalStats;
+
+    // json output per (lemma set, count, type, mode) of the current index generation
+    private ResultCache resultCache;
+
+    // top-k over the impact-ordered postings table, null => SQL join chain only
+    private ImpactRetriever impactRetriever;
+
+    // docIDs owned by this server (document-partitioned mode)
+    private DocRange docRange;
+
+    public MatchHandler(IndexMySQLStorage remoteDB, Lexicon lexicon, IndexScorer scorer,
+            InvertedIndex memoryIndex, RetrievalStats retrievalStats, ResultCache resultCache,
+            QueryAnalyzer queryAnalyzer, DocRange docRange) {
 
         this.remoteDB = remoteDB;
-        this.indexDB = indexDB;
+        this.lexicon = lexicon;
+        this.queryAnalyzer = queryAnalyzer;
         this.indexScorer = scorer;
+        this.memoryIndex = memoryIndex;
+        this.retrievalStats = retrievalStats;
+        this.resultCache = resultCache;
+        this.docRange = docRange;
+
+        if (remoteDB != null && !shortImpactTable.isEmpty()) {
+
+            this.impactRetriever = new ImpactRetriever(remoteDB, shortImpactTable, impactPageSize, docRange);
+
+        }
+
+    }
+
+    /**
+     * Swap the in-memory postings & the lexicon (a new set of index segments
+     * was loaded, see SegmentedIndex). The queries in flight finish on the
+     * previous ones.
+     *
+     * @param memoryIndex : [InvertedIndex]
+     * @param lexicon     : [Lexicon]
+     */
+    public void setIndex(InvertedIndex memoryIndex, Lexicon lexicon) {
+
+        this.lexicon = lexicon;
+        this.memoryIndex = memoryIndex;
+
+    }
+
+    /**
+     * Existence check of a batch of words (API: /indexer/words), e.g. for the
+     * popular keywords counted by the search engine: no retrieval, only the
+     * lemmatizer & the in-memory lexicon.
+     *
+     * @param req  : [Request]
+     *             queryParams:
+     *             -words: comma separated words
+     * @param resp : [Response]
+     * @return [String], json list of the given words whose lemmas are in the
+     *         lexicon
+     */
+    public Object handleWords(Request req, Response resp) throws HaltException {
+
+        String words = req.queryParams("words");
+
+        if (words == null) {
+
+            halt(400, "No words in the request!");
+
+        }
+
+        Lexicon lexicon = this.lexicon;
+
+        ArrayList<String> existedWords = new ArrayList<String>();
+
+        for (String word : words.split(",")) {
+
+            if (word.isBlank()) {
+
+                continue;
+
+            }
+
+            for (CoreLabel lemma : queryAnalyzer.getLemmas(word)) {
+
+                if (lexicon.hasWord(lemma.lemma())) {
+
+                    existedWords.add(word);
+
+                    break;
+
+                }
+
+            }
+
+        }
+
+        try {
+
+            return new ObjectMapper().writeValueAsString(existedWords);
+
+        } catch (JsonProcessingException e) {
+
+            halt(500, "Index server error in the middle of handling json output!");
+
+        }
+
+        return "[]";
 
     }
 
@@ -82,9 +205,17 @@ public class MatchHandler implements Route {
      * 
      * @param request  : [Request]
      *                 queryParams:
-     *                 -query: keywords,
-     *                 -count: max n docs,
+     *                 -query: keywords, a quoted part ("new york") must
+     *                 appear as an exact sequence (verified on the
+     *                 conjunctive matches only, with the hit positions)
+     *                 -count: max n docs (without in-memory postings, the
+     *                 top count docs are read from the impact table if
+     *                 INDEXER_SHORT_IMPACTS is set)
      *                 -type: doc, pdf
+     *                 -mode: exhaustive (default), topk (block-max pruning,
+     *                 in-memory postings only) or first (the first count
+     *                 matches in docID order, no ranking, in-memory postings
+     *                 only)
      *                 -location: TODO
      * 
      * @param response
@@ -112,9 +243,17 @@ public class MatchHandler implements Route {
 
         String docType = req.queryParams("type");
 
-        // 1. Lemmatize
+        String mode = (req.queryParams("mode") == null) ? RetrievalStats.EXHAUSTIVE : req.queryParams("mode");
+
+        // lets the coordinator check which documents the answer covers
+        resp.header("X-Doc-Range", docRange.toString());
+
+        // 0. Query syntax: quoted phrases, before the lemmatizer
+        PhraseQuery phraseQuery = PhraseQuery.parse(query);
+
+        // 1. Lemmatize (all the words, phrases included)
         // CoreLabel.word() - the original word, CoreLabel.lemma() - the lemma
-        List<CoreLabel> lemmas = lemmatizer.getLemmas(query);
+        List<CoreLabel> lemmas = queryAnalyzer.getLemmas(phraseQuery.getText());
 
         // 2. Word to WordID
         lemmas = getExistedLemmas(lemmas);
@@ -124,12 +263,51 @@ public class MatchHandler implements Route {
             return "[]";
         }
 
+        // same lemma set, count & type on the same index => same output
+        ArrayList<String> lemmaWords = new ArrayList<String>();
+
+        for (CoreLabel lemma : lemmas) {
+
+            lemmaWords.add(lemma.lemma());
+
+        }
+
+        List<PhraseQuery.Phrase> phrases = getPhrases(phraseQuery);
+
+        for (PhraseQuery.Phrase phrase : phrases) {
+
+            lemmaWords.add(phrase.getKey());
+
+        }
+
+        String cacheKey = ResultCache.makeKey(lemmaWords, maxDocCount, docType, mode);
+        long generation = resultCache.getGeneration();
+        long epoch = resultCache.getEpoch();
+
+        String cached = resultCache.get(cacheKey);
+
+        if (cached != null) {
+
+            logger.debug("(MatchHandler) result cache hit for " + cacheKey);
+
+            return cached;
+
+        }
+
         // TODO: distributed hits
         // note: matched doc ids are retrieved in matchKeyWords to save time
         ArrayList<Integer> matchedDocIDs = new ArrayList<Integer>();
 
         // TODO: send parameters to remote server
-        List<IndexerMatch> matches = matchKeywords(lemmas, matchedDocIDs, maxDocCount);
+        // phrases: all the candidates, verified in rank order until count docs pass
+        List<IndexerMatch> matches = matchKeywords(lemmas, matchedDocIDs, phrases.isEmpty() ? maxDocCount : -1,
+                mode, resp);
+
+        if (!phrases.isEmpty()) {
+
+            matches = indexScorer.matchPhrases(phrases, matches, matchedDocIDs, maxDocCount);
+
+        }
 
         // hitDBs.get(hitGroupID).getWordHitList(word, docID, "short");
 
@@ -141,6 +319,8 @@ public class MatchHandler implements Route {
 
             String jsonOutput = IndexerMatch.serialize(matches);
 
+            resultCache.put(cacheKey, jsonOutput, generation, epoch);
+
             long handleEndT = System.nanoTime();
 
             logger.debug("(MatchHandler) execution time : " + ((handleEndT - handleStartT) / 1000000) + " (ms) for "
@@ -160,23 +340,6 @@ public class MatchHandler implements Route {
 
     }
 
-    private List<String> getSimpleWordVariants(String word) {
-
-        HashSet<String> variants = new HashSet<String>();
-
-        variants.add(word);
-
-        // original, first capital, all lower, all capital
-
-        String capitalized = word.substring(0, 1).toUpperCase() + word.substring(1);
-        variants.add(capitalized);
-        variants.add(word.toLowerCase());
-        variants.add(word.toUpperCase());
-
-        return new ArrayList<String>(variants);
-
-    }
-
     /**
      * Retrieve the words which are in the lexicon
      * 
@@ -191,18 +354,13 @@ public class MatchHandler implements Route {
 
             String word = lemma.lemma();
 
-            // Integer wordID = -1;
-            for (String variant : getSimpleWordVariants(word)) {
+            // one lookup for all the case variants
+            if (lexicon.hasWord(word)) {
 
-                if (indexDB.hasWord(variant)) {
+                existedLemmas.add(lemma);
 
-                    existedLemmas.add(lemma);
-
-                    logger.debug("(MatchHandler) The lemma " + word + " existed in the form of " + variant);
-
-                    break;
-
-                }
+                logger.debug("(MatchHandler) The lemma " + word + " existed in the form of "
+                        + lexicon.getVariants(word));
 
             }
 
@@ -213,56 +371,96 @@ public class MatchHandler implements Route {
     }
 
     /**
-     * Retrieve the wordID from local index storage.
-     * Note: if id not found, that word will not be in the map.
-     * 
-     * @param lemmas : [List<CoreLabel>]
-     * @return [HashMap<CoreLabel, Integer>], lemma to wordID
+     * Lemmatize the quoted phrases. The words missing from the lexicon are not
+     * checked (like the other keywords) but keep their place in the sequence.
+     *
+     * @param phraseQuery : [PhraseQuery]
+     * @return [List<PhraseQuery.Phrase>], the phrases with at least two words
+     *         to check
      */
-    private HashMap<CoreLabel, Integer> getWordIDsMap(List<CoreLabel> lemmas) {
+    private List<PhraseQuery.Phrase> getPhrases(PhraseQuery phraseQuery) {
 
-        HashMap<CoreLabel, Integer> wordToWordID = new HashMap<CoreLabel, Integer>();
+        List<PhraseQuery.Phrase> phrases = new ArrayList<PhraseQuery.Phrase>();
 
-        // boolean noMatchedWordIDs = true;
+        for (String text : phraseQuery.getPhrases()) {
 
-        for (CoreLabel lemma : lemmas) {
+            List<CoreLabel> tokens = queryAnalyzer.getLemmas(text);
+            List<Boolean> keep = new ArrayList<Boolean>();
 
-            String word = lemma.lemma();
+            for (CoreLabel token : tokens) {
 
-            // Integer wordID = -1;
+                keep.add(lexicon.hasWord(token.lemma()));
 
-            if (indexDB.hasWord(word)) {
+            }
 
-                // only retrieve the wordID when it exists in the lexicon
-                int wordID = indexDB.getWordID(word);
+            PhraseQuery.Phrase phrase = new PhraseQuery.Phrase(text, tokens, keep);
 
-                // noMatchedWordIDs = false;
-                wordToWordID.put(lemma, wordID);
+            if (phrase.size() > 1) {
 
-                logger.debug("(MatchHandler) Retrieve wordID for " + word + " : " + wordID);
+                phrases.add(phrase);
 
             }
 
         }
 
-        return wordToWordID;
+        return phrases;
 
     }
 
     public List<IndexerMatch> matchKeywords(List<CoreLabel> lemmas, ArrayList<Integer> matchedDocIDs,
-            int maxDocCount) {
+            int maxDocCount, String mode, Response resp) {
+
+        if (this.memoryIndex != null) {
+
+            return matchKeywordsInMemory(lemmas, matchedDocIDs, maxDocCount, mode, resp);
+
+        }
 
-        // construct SQL
+        if (this.impactRetriever != null && maxDocCount > 0) {
 
-        String query = this.makeKeyWordsQuery(lemmas);
+            // only the best postings of each term are read
+            List<IndexerMatch> matches = matchKeywordsByImpact(lemmas, matchedDocIDs, maxDocCount, resp);
+
+            if (matches != null) {
+
+                return matches;
+
+            }
+
+            logger.warn("(MatchHandler) impact table " + shortImpactTable + " failed, falling back to the join query");
+
+            matchedDocIDs.clear();
+
+        }
+
+        // construct SQL (rarest term first, see planByDf)
+        List<CoreLabel> plannedLemmas = planByDf(lemmas);
+
+        String query = this.makeKeyWordsQuery(plannedLemmas);
 
         logger.debug("Query for keywords: \r\n" + query);
 
-        try {
+        try (PooledConnection pooled = remoteDB.getConnection()) {
+
+            // same number of keywords => same statement (cached per connection)
+            PreparedStatement queryStatement = pooled.prepare(query);
+
+            int param = 1;
+
+            for (int i = 0; i < plannedLemmas.size(); i++) {
+
+                queryStatement.setString(param++, plannedLemmas.get(i).lemma());
+
+                if (!docRange.isAll()) {
+
+                    queryStatement.setInt(param++, docRange.getFrom());
+                    queryStatement.setInt(param++, docRange.getTo());
 
-            Statement queryStatement = remoteDB.conn.createStatement();
+                }
+
+            }
 
-            ResultSet resultSet = queryStatement.executeQuery(query);
+            ResultSet resultSet = queryStatement.executeQuery();
 
             ArrayList<IndexerMatch> matches = new ArrayList<IndexerMatch>();
 
@@ -295,6 +493,21 @@ public class MatchHandler implements Route {
 
             }
 
+            resultSet.close();
+
+            // the join has no ORDER BY: rank the candidates by score, so that the
+            // phrases (maxDocCount -1) are verified best first, as on the other paths
+            matches.sort(Comparator.comparing((IndexerMatch match) -> match.getFeatures().get("tfIdf"))
+                    .reversed().thenComparingInt(IndexerMatch::getDocId));
+
+            matchedDocIDs.clear();
+
+            for (IndexerMatch match : matches) {
+
+                matchedDocIDs.add(match.getDocId());
+
+            }
+
             return matches;
 
         } catch (SQLException e) {
@@ -307,6 +520,268 @@ public class MatchHandler implements Route {
 
     }
 
+    /**
+     * Match the keywords (conjunctively) against the impact-ordered postings
+     * table: the top maxDocCount documents by summed score, reading only the
+     * best postings of each term (see ImpactRetriever), then their url & title.
+     * 
+     * @param lemmas        : [List<CoreLabel>], a list of lemmas (must exist)
+     * @param matchedDocIDs : [ArrayList<Integer>], collects the matched docIDs
+     * @param maxDocCount   : [int], must be > 0
+     * @param resp          : [Response]
+     * @return [List<IndexerMatch>], null if the impact table can not be read
+     */
+    private List<IndexerMatch> matchKeywordsByImpact(List<CoreLabel> lemmas, ArrayList<Integer> matchedDocIDs,
+            int maxDocCount, Response resp) {
+
+        List<String> terms = new ArrayList<String>();
+
+        for (CoreLabel lemma : lemmas) {
+
+            terms.add(lemma.lemma());
+
+        }
+
+        try {
+
+            List<ScoredDoc> scoredDocs = impactRetriever.retrieve(terms, maxDocCount);
+            int numEvaluated = impactRetriever.getNumEvaluated();
+
+            this.retrievalStats.record(RetrievalStats.IMPACT, numEvaluated);
+
+            resp.header("X-Docs-Evaluated", "" + numEvaluated);
+
+            ArrayList<IndexerMatch> matches = new ArrayList<IndexerMatch>();
+
+            if (scoredDocs.isEmpty()) {
+
+                return matches;
+
+            }
+
+            HashMap<Integer, String[]> infos = getDocInfos(scoredDocs);
+
+            for (ScoredDoc scoredDoc : scoredDocs) {
+
+                String[] info = infos.get(scoredDoc.getDocID());
+
+                if (info == null) {
+
+                    continue;
+
+                }
+
+                IndexerMatch match = new IndexerMatch(scoredDoc.getDocID(), info[0], info[1]);
+
+                match.addFeature("tfIdf", scoredDoc.getScore());
+
+                matches.add(match);
+
+                matchedDocIDs.add(scoredDoc.getDocID());
+
+            }
+
+            return matches;
+
+        } catch (SQLException e) {
+
+            e.printStackTrace();
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Url & title of the given documents (one query).
+     * 
+     * @param scoredDocs : [List<ScoredDoc>]
+     * @return [HashMap<Integer, String[]>], docID => {url, title}
+     * @throws SQLException
+     */
+    private HashMap<Integer, String[]> getDocInfos(List<ScoredDoc> scoredDocs) throws SQLException {
+
+        StringBuilder query = new StringBuilder("SELECT docID, url, title FROM " + docInfoTable + " WHERE docID IN (");
+
+        for (int i = 0; i < scoredDocs.size(); i++) {
+
+            query.append((i == 0) ? "?" : ",?");
+
+        }
+
+        query.append(")");
+
+        HashMap<Integer, String[]> infos = new HashMap<Integer, String[]>();
+
+        try (PooledConnection pooled = remoteDB.getConnection()) {
+
+            PreparedStatement statement = pooled.prepare(query.toString());
+
+            for (int i = 0; i < scoredDocs.size(); i++) {
+
+                statement.setInt(i + 1, scoredDocs.get(i).getDocID());
+
+            }
+
+            ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+
+                infos.put(resultSet.getInt("docID"),
+                        new String[] { resultSet.getString("url"), resultSet.getString("title") });
+
+            }
+
+            resultSet.close();
+
+        }
+
+        return infos;
+
+    }
+
+    /**
+     * Match the keywords (conjunctively) against the in-memory postings.
+     * Same scores as the SQL query, but ranked by tf-idf (plus the weighted
+     * PageRank quality if the index holds it) before taking the first
+     * maxDocCount documents.
+     * The number of scored documents is sent back in the X-Docs-Evaluated
+     * header and recorded in the retrieval stats.
+     * 
+     * @param lemmas        : [List<CoreLabel>], a list of lemmas (must exist)
+     * @param matchedDocIDs : [ArrayList<Integer>], collects the matched docIDs
+     * @param maxDocCount   : [int], -1 for all
+     * @param mode          : [String], exhaustive, topk or first
+     * @param resp          : [Response]
+     * @return [List<IndexerMatch>]
+     */
+    private List<IndexerMatch> matchKeywordsInMemory(List<CoreLabel> lemmas, ArrayList<Integer> matchedDocIDs,
+            int maxDocCount, String mode, Response resp) {
+
+        // the same index for the whole query (it may be swapped meanwhile)
+        InvertedIndex index = this.memoryIndex;
+
+        List<String> terms = new ArrayList<String>();
+
+        for (CoreLabel lemma : lemmas) {
+
+            terms.add(lemma.lemma());
+
+        }
+
+        List<ScoredDoc> scoredDocs;
+        int numEvaluated;
+
+        if (mode.equals(RetrievalStats.TOPK) && maxDocCount > 0) {
+
+            TopKRetriever retriever = new TopKRetriever(index);
+
+            scoredDocs = retriever.retrieve(terms, maxDocCount);
+            numEvaluated = retriever.getNumEvaluated();
+
+        } else if (mode.equals(RetrievalStats.FIRST) && maxDocCount > 0) {
+
+            // stop the intersection once count docs matched
+            QueryEvaluator evaluator = new QueryEvaluator(index);
+
+            scoredDocs = evaluator.matchFirst(terms, maxDocCount);
+            numEvaluated = evaluator.getNumEvaluated();
+
+        } else {
+
+            // topk / first without count fall back to exhaustive evaluation
+            mode = RetrievalStats.EXHAUSTIVE;
+
+            QueryEvaluator evaluator = new QueryEvaluator(index);
+
+            scoredDocs = evaluator.matchAll(terms, maxDocCount);
+            numEvaluated = evaluator.getNumEvaluated();
+
+        }
+
+        this.retrievalStats.record(mode, numEvaluated);
+
+        resp.header("X-Docs-Evaluated", "" + numEvaluated);
+
+        logger.debug("(MatchHandler) mode " + mode + " evaluated " + numEvaluated + " (n) docs!");
+
+        ArrayList<IndexerMatch> matches = new ArrayList<IndexerMatch>();
+
+        DocQuality quality = index.getDocQuality();
+
+        for (ScoredDoc scoredDoc : scoredDocs) {
+
+            DocInfo info = index.getDocInfo(scoredDoc.getDocID());
+
+            IndexerMatch match = new IndexerMatch(scoredDoc.getDocID(), info.getURL(), info.getTitle());
+
+            // the ranking score holds the weighted quality, the features keep them apart
+            match.addFeature("tfIdf",
+                    scoredDoc.getScore() - index.getQualityWeight() * DocQuality.toUnit(scoredDoc.getQuality()));
+
+            if (quality != null) {
+
+                // PageRank of the doc (quantized), the search engine skips the ranker for it
+                match.addFeature("pageRank", quality.toScore(scoredDoc.getQuality()));
+
+                // quality in [0, 1], the search engine merges the shards on tfIdf + weight * quality
+                match.addFeature("quality", DocQuality.toUnit(scoredDoc.getQuality()));
+
+            }
+
+            matches.add(match);
+
+            matchedDocIDs.add(scoredDoc.getDocID());
+
+        }
+
+        return matches;
+
+    }
+
+    /**
+     * Order the lemmas from the rarest to the most common one (df of the
+     * lexicon, summed over the case variants), so that the join chain starts
+     * from the shortest posting list and every join only keeps the docs of
+     * the rarer terms, whatever the order the words were typed in.
+     *
+     * @param lemmas : [List<CoreLabel>]
+     * @return [List<CoreLabel>], a sorted copy (ties keep the query order)
+     */
+    private List<CoreLabel> planByDf(List<CoreLabel> lemmas) {
+
+        Lexicon lexicon = this.lexicon;
+
+        int[] dfs = new int[lemmas.size()];
+        List<Integer> order = new ArrayList<Integer>();
+
+        for (int i = 0; i < lemmas.size(); i++) {
+
+            for (String variant : lexicon.getVariants(lemmas.get(i).lemma())) {
+
+                dfs[i] += lexicon.getDf(variant);
+
+            }
+
+            order.add(i);
+
+        }
+
+        order.sort((a, b) -> Integer.compare(dfs[a], dfs[b]));
+
+        List<CoreLabel> planned = new ArrayList<CoreLabel>();
+
+        for (int i : order) {
+
+            planned.add(lemmas.get(i));
+
+        }
+
+        return planned;
+
+    }
+
     /**
      * Construct the SQL query based on the lemmas
      * 
@@ -329,7 +804,8 @@ public class MatchHandler implements Route {
         // complete the query
         query = this.joinDocInfo(lemmas.size() - 1, query);
 
-        query = query + ";"; // ORDER BY K" + (lemmas.size() - 1) + ".score DESC;";
+        // note: no trailing ";" (prepared statement), the lemmas are bound in order
+        // ORDER BY K" + (lemmas.size() - 1) + ".score DESC;";
 
         return query;
     }
@@ -338,7 +814,8 @@ public class MatchHandler implements Route {
      * Create a query for a given search word
      * 
      * @param loc   : [int], the index / location of the word in the keyword
-     * @param lemma : [String], the lemma created by CoreNLP
+     * @param lemma : [String], the lemma created by CoreNLP (bound in order,
+     *              followed by the doc range if this server owns one)
      * @return
      */
     private String addWordQuery(int loc, CoreLabel lemma) {
@@ -358,7 +835,8 @@ public class MatchHandler implements Route {
         String query = "(SELECT K" + loc + ".docID, K" + loc + ".score "
                 + " FROM (SELECT D.docID, AVG(D.ntf) * AVG(L.idf) AS score "
                 + " FROM " + shortDocWordsTable + " D JOIN " + shortLexiconTable
-                + " L ON D.word = L.word WHERE D.word = \"" + lemma.lemma() + "\" "
+                + " L ON D.word = L.word WHERE D.word = ? "
+                + (docRange.isAll() ? "" : " AND D.docID BETWEEN ? AND ? ")
                 + " GROUP BY D.docID) AS K" + loc + ") K" + loc;
 
         // situation: no wordID in docWord table
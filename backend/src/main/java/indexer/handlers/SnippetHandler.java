@@ -0,0 +1,140 @@
+package indexer.handlers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import spark.HaltException;
+import static spark.Spark.*;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.stanford.nlp.ling.*;
+
+import indexer.index.DocRange;
+import indexer.nlp.PhraseQuery;
+import indexer.nlp.QueryAnalyzer;
+import indexer.scorer.IndexScorer;
+
+public class SnippetHandler implements Route {
+
+    static Logger logger = LogManager.getLogger(SnippetHandler.class);
+
+    // upper bound of docs per request (a page is 10)
+    private static final int MAX_DOCS = 50;
+
+    private QueryAnalyzer queryAnalyzer;
+
+    private IndexScorer indexScorer;
+
+    // docIDs owned by this server, the others are left to their own server
+    private DocRange docRange;
+
+    public SnippetHandler(QueryAnalyzer queryAnalyzer, IndexScorer scorer, DocRange docRange) {
+
+        this.queryAnalyzer = queryAnalyzer;
+        this.indexScorer = scorer;
+        this.docRange = docRange;
+
+    }
+
+    /**
+     * Build the snippets of the rendered documents (API: /indexer/snippets).
+     * The match endpoint does not return any context, the snippets are
+     * requested lazily for the documents of the current page.
+     *
+     * @param request : [Request]
+     *                queryParams:
+     *                -docIds: comma separated docIDs, e.g. 1,2,3 (the docIDs
+     *                out of the range of this server are skipped)
+     *                -query: keywords (same as /indexer/match)
+     *
+     * @param response
+     * @return [String], json object: docID => snippet
+     * @throws HaltException
+     */
+    @Override
+    public Object handle(Request req, Response resp) throws HaltException {
+
+        long handleStartT = System.nanoTime();
+
+        String query = req.queryParams("query");
+        String docIdsParam = req.queryParams("docIds");
+
+        if (query == null || docIdsParam == null) {
+
+            logger.debug("(SnippetHandler) No query or docIds in the incoming request!");
+
+            halt(400, "Please specify both the keywords (query) and the documents (docIds)!");
+
+        }
+
+        List<Integer> docIDs = new ArrayList<Integer>();
+
+        try {
+
+            for (String docID : docIdsParam.split(",")) {
+
+                if (!docID.trim().isEmpty() && docRange.contains(Integer.parseInt(docID.trim()))) {
+
+                    docIDs.add(Integer.parseInt(docID.trim()));
+
+                }
+
+            }
+
+        } catch (NumberFormatException e) {
+
+            halt(400, "Bad Request: docIds must be comma separated integers!");
+
+        }
+
+        if (docIDs.size() > MAX_DOCS) {
+
+            halt(400, "Bad Request: at most " + MAX_DOCS + " docIds per request!");
+
+        }
+
+        // same words as the match (quotes of the phrases dropped)
+        // CoreLabel.word() - the original word, CoreLabel.lemma() - the lemma
+        List<CoreLabel> lemmas = queryAnalyzer.getLemmas(PhraseQuery.parse(query).getText());
+
+        HashMap<Integer, String> snippets = new HashMap<Integer, String>();
+
+        if (lemmas.size() > 0 && docIDs.size() > 0) {
+
+            snippets = indexScorer.generateSnippets(lemmas, docIDs);
+
+        }
+
+        try {
+
+            resp.type("application/json");
+
+            String jsonOutput = new ObjectMapper().writeValueAsString(snippets);
+
+            logger.debug("(SnippetHandler) execution time : " + ((System.nanoTime() - handleStartT) / 1000000)
+                    + " (ms) for " + docIDs.size() + " (n) docs!");
+
+            return jsonOutput;
+
+        } catch (JsonProcessingException e) {
+
+            e.printStackTrace();
+
+            halt(500, "Index server error in the middle of handling json output!");
+
+        }
+
+        return "{}";
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package indexer.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import pagerank.RankScoreDatabase;
+
+/**
+ * Static quality of the documents: the PageRank score of each docID,
+ * quantized into one byte (0 - 255) on a log scale between the smallest and
+ * the largest score (PageRank is heavy tailed), 0 for the documents without
+ * a score.
+ * The byte is stored alongside each posting (see PostingList) and orders the
+ * docIDs of the in-memory index (see InvertedIndex.withQuality).
+ */
+public class DocQuality {
+
+    static Logger logger = LogManager.getLogger(DocQuality.class);
+
+    public static final int LEVELS = 255;
+
+    // docID => quantized score
+    private final HashMap<Integer, Byte> qualities;
+
+    private final double logMin;
+    private final double logMax;
+
+    private DocQuality(HashMap<Integer, Byte> qualities, double logMin, double logMax) {
+
+        this.qualities = qualities;
+        this.logMin = logMin;
+        this.logMax = logMax;
+
+    }
+
+    /**
+     * Read the PageRank scores written by the PageRank server (keyed by docID).
+     * Note: the BerkeleyDB environment can only be opened by one process, use
+     * a copy of the ranker's storage while the ranker is up.
+     *
+     * @param directory : [String], storage directory of the RankScoreDatabase
+     * @param docRange  : [DocRange], the documents owned by this server
+     * @return [DocQuality], null if the scores can not be read
+     */
+    public static DocQuality load(String directory, DocRange docRange) {
+
+        long loadStartT = System.nanoTime();
+
+        RankScoreDatabase rankDB = null;
+
+        try {
+
+            rankDB = new RankScoreDatabase(directory);
+
+            HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+
+            for (Map.Entry<Integer, Double> entry : rankDB.getScoreMap().entrySet()) {
+
+                if (docRange.contains(entry.getKey())) {
+
+                    scores.put(entry.getKey(), entry.getValue());
+
+                }
+
+            }
+
+            DocQuality quality = fromScores(scores);
+
+            logger.info("(DocQuality) loaded " + quality.size() + " (n) PageRank scores from " + directory + " in "
+                    + ((System.nanoTime() - loadStartT) / 1000000) + " (ms)");
+
+            return quality;
+
+        } catch (Exception e) {
+
+            logger.error("(DocQuality) Fail to read the PageRank scores in " + directory + "! " + e.getMessage());
+
+            return null;
+
+        } finally {
+
+            if (rankDB != null) {
+
+                rankDB.close();
+
+            }
+
+        }
+
+    }
+
+    /**
+     * @param scores : [Map<Integer, Double>], docID => PageRank score (the
+     *               scores <= 0 are left out)
+     * @return [DocQuality]
+     */
+    public static DocQuality fromScores(Map<Integer, Double> scores) {
+
+        double logMin = Double.MAX_VALUE;
+        double logMax = -Double.MAX_VALUE;
+
+        for (double score : scores.values()) {
+
+            if (score > 0) {
+
+                logMin = Math.min(logMin, Math.log(score));
+                logMax = Math.max(logMax, Math.log(score));
+
+            }
+
+        }
+
+        HashMap<Integer, Byte> qualities = new HashMap<Integer, Byte>();
+
+        for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+
+            if (entry.getValue() <= 0) {
+
+                continue;
+
+            }
+
+            // the lowest score still ranks above the docs without a score
+            int quality = (logMax > logMin)
+                    ? 1 + (int) Math.round((LEVELS - 1) * (Math.log(entry.getValue()) - logMin) / (logMax - logMin))
+                    : LEVELS;
+
+            qualities.put(entry.getKey(), (byte) quality);
+
+        }
+
+        return new DocQuality(qualities, logMin, logMax);
+
+    }
+
+    /**
+     * @return [int], quantized quality of the doc (0 - 255), 0 if no score
+     */
+    public int getQuality(int docID) {
+
+        Byte quality = qualities.get(docID);
+
+        return (quality == null) ? 0 : (quality & 0xFF);
+
+    }
+
+    /**
+     * @return [float], the quantized quality scaled to [0, 1]
+     */
+    public static float toUnit(int quality) {
+
+        return (float) quality / LEVELS;
+
+    }
+
+    /**
+     * Approximate PageRank score of the quantized quality (the same scale as
+     * the ranker's answer), 0 if no score.
+     */
+    public float toScore(int quality) {
+
+        if (quality == 0) {
+
+            return 0;
+
+        }
+
+        if (logMax <= logMin) {
+
+            return (float) Math.exp(logMax);
+
+        }
+
+        return (float) Math.exp(logMin + (quality - 1) * (logMax - logMin) / (LEVELS - 1));
+
+    }
+
+    public int size() {
+
+        return qualities.size();
+
+    }
+
+}
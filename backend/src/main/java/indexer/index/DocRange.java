@@ -0,0 +1,87 @@
+package indexer.index;
+
+/**
+ * The docIDs owned by an index server in the document-partitioned mode
+ * (INDEXER_DOC_RANGE, e.g. 0-49999, both ends included).
+ * Every server keeps the postings of its own documents only, the search
+ * engine merges the top k of each range.
+ */
+public class DocRange {
+
+    // the whole collection (no partitioning)
+    public static final DocRange ALL = new DocRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    private final int from;
+    private final int to;
+
+    public DocRange(int from, int to) {
+
+        this.from = from;
+        this.to = to;
+
+    }
+
+    /**
+     * @param range : [String], from-to (e.g. 0-49999), empty or null => ALL
+     * @return [DocRange]
+     */
+    public static DocRange parse(String range) {
+
+        if (range == null || range.trim().isEmpty()) {
+
+            return ALL;
+
+        }
+
+        String[] bounds = range.trim().split("-");
+
+        if (bounds.length != 2) {
+
+            throw new IllegalArgumentException("Doc range must be formatted as from-to, got " + range);
+
+        }
+
+        int from = Integer.parseInt(bounds[0].trim());
+        int to = Integer.parseInt(bounds[1].trim());
+
+        if (from > to) {
+
+            throw new IllegalArgumentException("Empty doc range " + range);
+
+        }
+
+        return new DocRange(from, to);
+
+    }
+
+    public boolean isAll() {
+
+        return this == ALL || (from == Integer.MIN_VALUE && to == Integer.MAX_VALUE);
+
+    }
+
+    public boolean contains(int docID) {
+
+        return docID >= from && docID <= to;
+
+    }
+
+    public int getFrom() {
+
+        return from;
+
+    }
+
+    public int getTo() {
+
+        return to;
+
+    }
+
+    public String toString() {
+
+        return isAll() ? "all" : from + "-" + to;
+
+    }
+
+}
@@ -0,0 +1,284 @@
+package indexer.index;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Bloom filter over the (word, docID block) keys of a hit shard, published
+ * by the hit servers (/retrieve/bloom/:hitname) so that the index servers
+ * can skip the hit requests which would certainly return nothing.
+ *
+ * A docID block is docID / blockSize: a coarser key keeps the filter small,
+ * and a doc of a block containing the word is only a false positive.
+ * The bit positions are h1 + i * h2 (i < numHashes) over a 64-bit FNV-1a hash
+ * of the word & the block, which only depends on the key (same positions on
+ * every JVM).
+ */
+public class HitBloomFilter {
+
+    public static final String CONTENT_TYPE = "application/x-hit-bloom";
+
+    public static final int VERSION = 1;
+
+    private final long[] bits;
+
+    private final long numBits;
+
+    private final int numHashes;
+
+    private final int blockSize;
+
+    private long numKeys = 0;
+
+    private HitBloomFilter(long[] bits, int numHashes, int blockSize) {
+
+        this.bits = bits;
+        this.numBits = (long) bits.length * 64;
+        this.numHashes = numHashes;
+        this.blockSize = blockSize;
+
+    }
+
+    /**
+     * @param expectedKeys : [long], number of distinct (word, block) keys
+     * @param fpp          : [double], target false positive rate, e.g. 0.01
+     * @param blockSize    : [int], docIDs per block
+     */
+    public HitBloomFilter(long expectedKeys, double fpp, int blockSize) {
+
+        this(new long[numWords(expectedKeys, fpp)], numHashes(expectedKeys, fpp), Math.max(1, blockSize));
+
+    }
+
+    private static int numWords(long expectedKeys, double fpp) {
+
+        // m = -n ln(p) / ln(2)^2
+        double m = -Math.max(1, expectedKeys) * Math.log(fpp) / (Math.log(2) * Math.log(2));
+
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (long) Math.ceil(m / 64)));
+
+    }
+
+    private static int numHashes(long expectedKeys, double fpp) {
+
+        // k = ln(2) * m / n = -log2(p)
+        return Math.max(1, (int) Math.round(-Math.log(fpp) / Math.log(2)));
+
+    }
+
+    public int getBlockSize() {
+
+        return blockSize;
+
+    }
+
+    public long getNumKeys() {
+
+        return numKeys;
+
+    }
+
+    public long getSizeInBytes() {
+
+        return (long) bits.length * 8;
+
+    }
+
+    public int getBlock(int docID) {
+
+        return Math.floorDiv(docID, blockSize);
+
+    }
+
+    public void add(String word, int docID) {
+
+        long hash = hash(word, getBlock(docID));
+
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < numHashes; i++) {
+
+            long bit = position(h1, h2, i);
+
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+
+        }
+
+        numKeys++;
+
+    }
+
+    /**
+     * @return [boolean], false if the shard certainly has no hit of the word
+     *         in the block of the doc
+     */
+    public boolean mightContain(String word, int docID) {
+
+        long hash = hash(word, getBlock(docID));
+
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < numHashes; i++) {
+
+            long bit = position(h1, h2, i);
+
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+
+                return false;
+
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * @return [boolean], false if the shard certainly has no hit of the word
+     *         in any of the docs
+     */
+    public boolean mightContainAny(String word, Collection<Integer> docIDs) {
+
+        for (int docID : docIDs) {
+
+            if (mightContain(word, docID)) {
+
+                return true;
+
+            }
+
+        }
+
+        return false;
+
+    }
+
+    private long position(int h1, int h2, int i) {
+
+        long combined = h1 + (long) i * h2;
+
+        return ((combined < 0) ? ~combined : combined) % numBits;
+
+    }
+
+    private static long hash(String word, int block) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < word.length(); i++) {
+
+            hash ^= word.charAt(i);
+            hash *= 0x100000001b3L;
+
+        }
+
+        // separator, then the block
+        hash ^= 0xff;
+        hash *= 0x100000001b3L;
+
+        for (int shift = 0; shift < 32; shift += 8) {
+
+            hash ^= (block >>> shift) & 0xff;
+            hash *= 0x100000001b3L;
+
+        }
+
+        // final mix (FNV alone spreads the high bits poorly)
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+
+    }
+
+    /**
+     * Layout: version, block size, number of hashes, number of keys, number of
+     * longs, then the longs.
+     *
+     * @return [byte[]]
+     */
+    public byte[] toBytes() {
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + 8 + 4 + bits.length * 8);
+
+        buffer.putInt(VERSION);
+        buffer.putInt(blockSize);
+        buffer.putInt(numHashes);
+        buffer.putLong(numKeys);
+        buffer.putInt(bits.length);
+
+        for (long word : bits) {
+
+            buffer.putLong(word);
+
+        }
+
+        return buffer.array();
+
+    }
+
+    /**
+     * @param bytes : [byte[]], as written by toBytes
+     * @return [HitBloomFilter]
+     * @throws IllegalArgumentException on an unknown version or truncated bytes
+     */
+    public static HitBloomFilter fromBytes(byte[] bytes) {
+
+        try {
+
+            return read(ByteBuffer.wrap(bytes));
+
+        } catch (BufferUnderflowException e) {
+
+            throw new IllegalArgumentException("Truncated bloom filter (" + bytes.length + " bytes)");
+
+        }
+
+    }
+
+    private static HitBloomFilter read(ByteBuffer buffer) {
+
+        int version = buffer.getInt();
+
+        if (version != VERSION) {
+
+            throw new IllegalArgumentException("Unsupported bloom filter version " + version);
+
+        }
+
+        int blockSize = buffer.getInt();
+        int numHashes = buffer.getInt();
+        long numKeys = buffer.getLong();
+
+        int numLongs = buffer.getInt();
+
+        if (numLongs <= 0 || numHashes <= 0 || blockSize <= 0 || numLongs > buffer.remaining() / 8) {
+
+            throw new IllegalArgumentException("Malformed bloom filter");
+
+        }
+
+        long[] bits = new long[numLongs];
+
+        for (int i = 0; i < bits.length; i++) {
+
+            bits[i] = buffer.getLong();
+
+        }
+
+        HitBloomFilter filter = new HitBloomFilter(bits, numHashes, blockSize);
+
+        filter.numKeys = numKeys;
+
+        return filter;
+
+    }
+
+}
@@ -0,0 +1,369 @@
+package indexer.index;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import indexer.IndexMySQLStorage;
+import storage.PooledConnection;
+
+/**
+ * Conjunctive top-k retrieval over the impact-ordered postings table
+ * (IndexMySQLStorage.buildImpactTable: word, docID, score sorted by score
+ * descending per word).
+ *
+ * The postings of every term are read page by page in impact order (LIMIT,
+ * the page doubles each round), without random access (NRA):
+ * - a doc seen in every list has its final score
+ * - a doc seen in some lists is bounded by its partial score + the last
+ * score read from each list it is missing from
+ * - a doc not seen yet is bounded by the sum of the last scores read
+ * Once k docs are complete and the k-th score beats every bound, the rest of
+ * the lists can not change the top k and is never read.
+ * A list that ran out proves that a doc missing from it does not match.
+ */
+public class ImpactRetriever {
+
+    static Logger logger = LogManager.getLogger(ImpactRetriever.class);
+
+    private final IndexMySQLStorage remoteDB;
+
+    private final String impactTable;
+
+    // first page per term, then doubled
+    private final int pageSize;
+
+    // documents owned by this server
+    private final DocRange docRange;
+
+    // number of postings read by the last call of retrieve
+    private int numEvaluated = 0;
+
+    /**
+     * @param remoteDB    : [IndexMySQLStorage]
+     * @param impactTable : [String], e.g. ShortImpacts
+     * @param pageSize    : [int], number of postings of the first page per
+     *                    term
+     * @param docRange    : [DocRange], only these documents are retrieved
+     */
+    public ImpactRetriever(IndexMySQLStorage remoteDB, String impactTable, int pageSize, DocRange docRange) {
+
+        this.remoteDB = remoteDB;
+        this.impactTable = impactTable;
+        this.pageSize = Math.max(1, pageSize);
+        this.docRange = docRange;
+
+    }
+
+    public int getNumEvaluated() {
+
+        return numEvaluated;
+
+    }
+
+    /**
+     * A page of the impact-ordered postings of one term (the SQL table, or
+     * in-memory lists in the tests).
+     */
+    interface PageReader {
+
+        /**
+         * @param term   : [int], index of the term in the query
+         * @param offset : [int], number of postings already read
+         * @param limit  : [int], max n postings
+         * @return [List<ScoredDoc>], docID & score, by score in descending order
+         */
+        List<ScoredDoc> read(int term, int offset, int limit) throws SQLException;
+
+    }
+
+    /**
+     * Retrieve the k best documents containing all the terms.
+     *
+     * @param terms : [List<String>], the (existed) lemmas of the query
+     * @param k     : [int], number of documents to return (must be > 0)
+     * @return [List<ScoredDoc>], sorted by score in descending order
+     * @throws SQLException
+     */
+    public List<ScoredDoc> retrieve(List<String> terms, int k) throws SQLException {
+
+        String sql = "SELECT docID, score FROM " + impactTable + " WHERE word = ?"
+                + (docRange.isAll() ? "" : " AND docID BETWEEN ? AND ?")
+                + " ORDER BY score DESC, docID LIMIT ? OFFSET ?";
+
+        try (PooledConnection pooled = remoteDB.getConnection()) {
+
+            PreparedStatement statement = pooled.prepare(sql);
+
+            List<ScoredDoc> topK = retrieve(terms.size(), k, (term, offset, limit) -> {
+
+                int param = 1;
+
+                statement.setString(param++, terms.get(term));
+
+                if (!docRange.isAll()) {
+
+                    statement.setInt(param++, docRange.getFrom());
+                    statement.setInt(param++, docRange.getTo());
+
+                }
+
+                statement.setInt(param++, limit);
+                statement.setInt(param++, offset);
+
+                ArrayList<ScoredDoc> page = new ArrayList<ScoredDoc>();
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+
+                    while (resultSet.next()) {
+
+                        page.add(new ScoredDoc(resultSet.getInt("docID"), resultSet.getFloat("score")));
+
+                    }
+
+                }
+
+                return page;
+
+            });
+
+            logger.debug("(ImpactRetriever) " + terms + " : " + numEvaluated + " (n) postings read for top " + k);
+
+            return topK;
+
+        }
+
+    }
+
+    /**
+     * NRA over n impact-ordered lists (see above).
+     *
+     * @param n     : [int], number of terms
+     * @param k     : [int], number of documents to return (must be > 0)
+     * @param pages : [PageReader]
+     * @return [List<ScoredDoc>], sorted by score in descending order
+     * @throws SQLException
+     */
+    List<ScoredDoc> retrieve(int n, int k, PageReader pages) throws SQLException {
+
+        numEvaluated = 0;
+
+        // per list: next offset, last score read, exhausted
+        int[] offsets = new int[n];
+        float[] lastScores = new float[n];
+        boolean[] exhausted = new boolean[n];
+
+        // docID => score per list (NaN = not seen yet)
+        HashMap<Integer, float[]> candidates = new HashMap<Integer, float[]>();
+
+        int limit = Math.max(pageSize, k);
+
+        while (true) {
+
+            for (int i = 0; i < n; i++) {
+
+                if (exhausted[i]) {
+
+                    continue;
+
+                }
+
+                List<ScoredDoc> page = pages.read(i, offsets[i], limit);
+
+                for (ScoredDoc posting : page) {
+
+                    float[] scores = candidates.get(posting.getDocID());
+
+                    lastScores[i] = posting.getScore();
+
+                    if (scores == null) {
+
+                        if (anyExhausted(exhausted)) {
+
+                            // missing from a list that ran out => can not match
+                            continue;
+
+                        }
+
+                        scores = newScores(n);
+                        candidates.put(posting.getDocID(), scores);
+
+                    }
+
+                    scores[i] = posting.getScore();
+
+                }
+
+                numEvaluated += page.size();
+                offsets[i] += page.size();
+
+                if (page.size() < limit) {
+
+                    exhausted[i] = true;
+                    lastScores[i] = 0;
+
+                }
+
+            }
+
+            List<ScoredDoc> topK = collect(candidates, exhausted, lastScores, k);
+
+            if (topK != null) {
+
+                return topK;
+
+            }
+
+            limit *= 2;
+
+        }
+
+    }
+
+    private static boolean anyExhausted(boolean[] exhausted) {
+
+        for (boolean e : exhausted) {
+
+            if (e) {
+
+                return true;
+
+            }
+
+        }
+
+        return false;
+
+    }
+
+    private static float[] newScores(int n) {
+
+        float[] scores = new float[n];
+
+        for (int i = 0; i < n; i++) {
+
+            scores[i] = Float.NaN;
+
+        }
+
+        return scores;
+
+    }
+
+    /**
+     * Drop the candidates which can not match anymore and check the stop
+     * condition.
+     *
+     * @return [List<ScoredDoc>], the top k if it can not change anymore, null
+     *         if more postings are needed
+     */
+    private static List<ScoredDoc> collect(HashMap<Integer, float[]> candidates, boolean[] exhausted,
+            float[] lastScores, int k) {
+
+        PriorityQueue<ScoredDoc> heap = new PriorityQueue<ScoredDoc>(k + 1,
+                (a, b) -> Float.compare(a.getScore(), b.getScore()));
+
+        // any list ran out => an unseen doc is missing from it
+        boolean unseenPossible = true;
+        float unseenBound = 0;
+
+        for (int i = 0; i < exhausted.length; i++) {
+
+            if (exhausted[i]) {
+
+                unseenPossible = false;
+
+            }
+
+            unseenBound += lastScores[i];
+
+        }
+
+        float maxIncompleteBound = Float.NEGATIVE_INFINITY;
+
+        Iterator<Map.Entry<Integer, float[]>> it = candidates.entrySet().iterator();
+
+        while (it.hasNext()) {
+
+            Map.Entry<Integer, float[]> entry = it.next();
+            float[] scores = entry.getValue();
+
+            float score = 0;
+            float bound = 0;
+            boolean complete = true;
+            boolean possible = true;
+
+            for (int i = 0; i < scores.length; i++) {
+
+                if (Float.isNaN(scores[i])) {
+
+                    complete = false;
+
+                    if (exhausted[i]) {
+
+                        possible = false;
+                        break;
+
+                    }
+
+                    bound += lastScores[i];
+
+                } else {
+
+                    score += scores[i];
+
+                }
+
+            }
+
+            if (!possible) {
+
+                it.remove();
+
+            } else if (complete) {
+
+                heap.add(new ScoredDoc(entry.getKey(), score));
+
+                if (heap.size() > k) {
+
+                    heap.poll();
+
+                }
+
+            } else {
+
+                maxIncompleteBound = Math.max(maxIncompleteBound, score + bound);
+
+            }
+
+        }
+
+        float bestRemaining = Math.max(maxIncompleteBound, unseenPossible ? unseenBound : Float.NEGATIVE_INFINITY);
+
+        boolean done = (heap.size() == k && heap.peek().getScore() >= bestRemaining)
+                || bestRemaining == Float.NEGATIVE_INFINITY;
+
+        if (!done) {
+
+            return null;
+
+        }
+
+        ArrayList<ScoredDoc> topK = new ArrayList<ScoredDoc>(heap);
+
+        topK.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+
+        return topK;
+
+    }
+
+}
@@ -0,0 +1,242 @@
+package indexer.index;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+
+/**
+ * Sequential reader of an immutable index segment (see IndexSegmentWriter).
+ * The docs are read at once when the segment is opened, then the words are
+ * walked in ascending order with nextWord.
+ */
+public class IndexSegment implements Closeable {
+
+    private final File file;
+
+    private final DataInputStream input;
+
+    private final int[] docIDs;
+    private final long[] sumSquares;
+    private final DocInfo[] infos;
+
+    // current word
+    private String word = null;
+    private int size = 0;
+    private int[] postingDocIDs = new int[16];
+    private int[] postingTfs = new int[16];
+
+    /**
+     * @param file : [File]
+     * @throws IOException if it is not a segment
+     */
+    public IndexSegment(File file) throws IOException {
+
+        this.file = file;
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+        try {
+
+            if (input.readInt() != IndexSegmentWriter.MAGIC) {
+
+                throw new IOException("Not an index segment: " + file);
+
+            }
+
+            if (input.readInt() != IndexSegmentWriter.VERSION) {
+
+                throw new IOException("Unsupported index segment version: " + file);
+
+            }
+
+            int numDocs = input.readInt();
+
+            this.docIDs = new int[numDocs];
+            this.sumSquares = new long[numDocs];
+            this.infos = new DocInfo[numDocs];
+
+            for (int i = 0; i < numDocs; i++) {
+
+                docIDs[i] = input.readInt();
+                sumSquares[i] = input.readLong();
+
+                if (input.readByte() == 1) {
+
+                    infos[i] = new DocInfo(docIDs[i], readString(), readString(), "");
+
+                }
+
+            }
+
+        } catch (IOException e) {
+
+            input.close();
+
+            throw e;
+
+        }
+
+    }
+
+    public File getFile() {
+
+        return file;
+
+    }
+
+    public int numDocs() {
+
+        return docIDs.length;
+
+    }
+
+    public int getDocID(int i) {
+
+        return docIDs[i];
+
+    }
+
+    public long getSumSquares(int i) {
+
+        return sumSquares[i];
+
+    }
+
+    /**
+     * @return [DocInfo], null if the url & title were unknown when written
+     */
+    public DocInfo getDocInfo(int i) {
+
+        return infos[i];
+
+    }
+
+    /**
+     * @param docID : [int]
+     * @return [int], index of the doc in this segment, -1 if not in it
+     */
+    public int findDoc(int docID) {
+
+        int i = Arrays.binarySearch(docIDs, docID);
+
+        return (i < 0) ? -1 : i;
+
+    }
+
+    /**
+     * Move to the next word.
+     *
+     * @return [boolean], false at the end of the segment
+     * @throws IOException
+     */
+    public boolean nextWord() throws IOException {
+
+        if (input.readByte() == 0) {
+
+            word = null;
+            size = 0;
+
+            return false;
+
+        }
+
+        word = readString();
+        size = readVarint();
+
+        if (size > postingDocIDs.length) {
+
+            postingDocIDs = new int[Math.max(size, postingDocIDs.length * 2)];
+            postingTfs = new int[postingDocIDs.length];
+
+        }
+
+        int previous = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            previous += readVarint();
+
+            postingDocIDs[i] = previous;
+            postingTfs[i] = readVarint();
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Current word, null before the first or after the last one.
+     */
+    public String word() {
+
+        return word;
+
+    }
+
+    public int numPostings() {
+
+        return size;
+
+    }
+
+    /**
+     * DocIDs of the current word (valid up to numPostings, reused by the
+     * next call of nextWord).
+     */
+    public int[] docIDs() {
+
+        return postingDocIDs;
+
+    }
+
+    public int[] tfs() {
+
+        return postingTfs;
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        input.close();
+
+    }
+
+    private String readString() throws IOException {
+
+        byte[] utf8 = new byte[readVarint()];
+
+        input.readFully(utf8);
+
+        return new String(utf8, StandardCharsets.UTF_8);
+
+    }
+
+    private int readVarint() throws IOException {
+
+        int value = 0;
+
+        for (int shift = 0;; shift += 7) {
+
+            byte b = input.readByte();
+
+            value |= (b & 0x7F) << shift;
+
+            if (b >= 0) {
+
+                return value;
+
+            }
+
+        }
+
+    }
+
+}
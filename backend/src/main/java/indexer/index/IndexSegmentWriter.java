@@ -0,0 +1,211 @@
+package indexer.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+
+/**
+ * Write an immutable index segment (read by IndexSegment), sequentially:
+ * 1. header : magic, version
+ * 2. docs (ascending docID) : number of docs, then per doc docID, sum of
+ * tf^2 over its words (the norm of its ntf), whether it has an info, then
+ * url & title
+ * 3. words (ascending) : per word a 1, the word, the number of postings,
+ * then per posting the docID delta & the tf (varints), a 0 at the end
+ *
+ * Postings are kept per surface word (not per case-folded term), so that the
+ * df of each variant, and so the idf, can be recomputed over the live
+ * segments.
+ * The file is written next to the target and renamed once committed.
+ */
+public class IndexSegmentWriter {
+
+    public static final int MAGIC = 0x49534547; // ISEG
+
+    public static final int VERSION = 1;
+
+    private final File file;
+    private final File tmp;
+
+    private final DataOutputStream output;
+
+    private String previousWord = null;
+
+    private int numDocs = 0;
+    private long numPostings = 0;
+
+    /**
+     * @param file : [File], the segment to write
+     * @throws IOException
+     */
+    public IndexSegmentWriter(File file) throws IOException {
+
+        this.file = file;
+        this.tmp = new File(file.getPath() + ".tmp");
+
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+
+    }
+
+    /**
+     * @param docIDs      : [int[]], ascending
+     * @param sumSquares  : [long[]], sum of tf^2 of each doc
+     * @param infos       : [DocInfo[]], url & title of each doc (null if
+     *                    unknown)
+     * @param size        : [int], number of valid entries
+     * @throws IOException
+     */
+    public void writeDocs(int[] docIDs, long[] sumSquares, DocInfo[] infos, int size) throws IOException {
+
+        output.writeInt(size);
+
+        for (int i = 0; i < size; i++) {
+
+            if (i > 0 && docIDs[i] <= docIDs[i - 1]) {
+
+                throw new IllegalStateException("(IndexSegmentWriter) docIDs are not sorted at " + docIDs[i]);
+
+            }
+
+            output.writeInt(docIDs[i]);
+            output.writeLong(sumSquares[i]);
+
+            if (infos[i] == null) {
+
+                output.writeByte(0);
+
+            } else {
+
+                output.writeByte(1);
+                writeString(infos[i].getURL());
+                writeString(infos[i].getTitle());
+
+            }
+
+        }
+
+        numDocs = size;
+
+    }
+
+    /**
+     * Append the postings of a word (words in ascending order).
+     *
+     * @param word   : [String]
+     * @param docIDs : [int[]], ascending
+     * @param tfs    : [int[]], tf of the word in each doc
+     * @param size   : [int], number of valid entries
+     * @throws IOException
+     */
+    public void addWord(String word, int[] docIDs, int[] tfs, int size) throws IOException {
+
+        if (size == 0) {
+
+            return;
+
+        }
+
+        if (previousWord != null && previousWord.compareTo(word) >= 0) {
+
+            throw new IllegalStateException("(IndexSegmentWriter) words are not sorted at " + word);
+
+        }
+
+        output.writeByte(1);
+        writeString(word);
+        writeVarint(size);
+
+        int previous = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            writeVarint(docIDs[i] - previous);
+            writeVarint(tfs[i]);
+
+            previous = docIDs[i];
+
+        }
+
+        previousWord = word;
+        numPostings += size;
+
+    }
+
+    /**
+     * End marker, then rename the file into place.
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+
+        output.writeByte(0);
+        output.close();
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /**
+     * Drop the partial file.
+     */
+    public void abort() {
+
+        try {
+
+            output.close();
+
+        } catch (IOException e) {
+
+            // deleted anyway
+        }
+
+        tmp.delete();
+
+    }
+
+    public int getNumDocs() {
+
+        return numDocs;
+
+    }
+
+    public long getNumPostings() {
+
+        return numPostings;
+
+    }
+
+    private void writeString(String s) throws IOException {
+
+        byte[] utf8 = (s == null) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+
+        writeVarint(utf8.length);
+        output.write(utf8);
+
+    }
+
+    private void writeVarint(int value) throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+
+        }
+
+        output.writeByte(value);
+
+    }
+
+}
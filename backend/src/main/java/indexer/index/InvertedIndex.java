@@ -0,0 +1,246 @@
+package indexer.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+
+/**
+ * In-memory inverted index used by /indexer/match.
+ * Terms are case-folded (as the MySQL collation does when joining D.word =
+ * L.word), each term owning a compressed, docID-sorted PostingList with the
+ * precomputed tf-idf weights.
+ * The index is immutable once built: a reload creates a new instance.
+ *
+ * With the static quality of the documents (see withQuality), the postings
+ * are renumbered by descending quality: the ids of the postings are then
+ * ordinals (0 = best doc), mapped back to the docIDs by toDocID, so that the
+ * first matches of an intersection are the best docs and the top-k retrieval
+ * can stop early (see TopKRetriever).
+ */
+public class InvertedIndex {
+
+    private final HashMap<String, PostingList> postings;
+
+    // docID => (docID, url, title), context is not kept in memory
+    private final HashMap<Integer, DocInfo> docInfos;
+
+    // ordinal => docID, null => the postings hold the docIDs
+    private final int[] docIDs;
+
+    // null => no static quality
+    private final DocQuality quality;
+
+    // score = tf-idf + qualityWeight * quality (in [0, 1])
+    private final float qualityWeight;
+
+    public InvertedIndex(HashMap<String, PostingList> postings, HashMap<Integer, DocInfo> docInfos) {
+
+        this(postings, docInfos, null, null, 0);
+
+    }
+
+    private InvertedIndex(HashMap<String, PostingList> postings, HashMap<Integer, DocInfo> docInfos, int[] docIDs,
+            DocQuality quality, float qualityWeight) {
+
+        this.postings = postings;
+        this.docInfos = docInfos;
+        this.docIDs = docIDs;
+        this.quality = quality;
+        this.qualityWeight = qualityWeight;
+
+    }
+
+    /**
+     * Renumber the docs of the index by descending quality (ties by docID)
+     * and store the quality byte alongside each posting.
+     * The postings of the docs without doc info are dropped (they are never
+     * returned).
+     *
+     * @param quality       : [DocQuality]
+     * @param qualityWeight : [float], weight of the quality (in [0, 1]) added to
+     *                      the tf-idf score of a doc
+     * @return [InvertedIndex], a new index (this one is not changed)
+     */
+    public InvertedIndex withQuality(DocQuality quality, float qualityWeight) {
+
+        Integer[] order = docInfos.keySet().toArray(new Integer[0]);
+
+        Arrays.sort(order, (a, b) -> {
+
+            int cmp = Integer.compare(quality.getQuality(b), quality.getQuality(a));
+
+            return (cmp != 0) ? cmp : Integer.compare(a, b);
+
+        });
+
+        int[] docIDs = new int[order.length];
+        HashMap<Integer, Integer> ordinals = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < order.length; i++) {
+
+            docIDs[i] = order[i];
+            ordinals.put(order[i], i);
+
+        }
+
+        HashMap<String, PostingList> renumbered = new HashMap<String, PostingList>();
+
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+
+            PostingList list = entry.getValue();
+            PostingList.Cursor cursor = list.cursor();
+
+            // (ordinal << 32 | position in the list), sorted => ordinal order
+            long[] keys = new long[list.size()];
+            float[] weights = new float[list.size()];
+
+            int n = 0;
+
+            for (int docID = cursor.next(); docID != PostingList.NO_MORE_DOCS; docID = cursor.next()) {
+
+                Integer ordinal = ordinals.get(toDocID(docID));
+
+                if (ordinal != null) {
+
+                    weights[n] = cursor.weight();
+                    keys[n] = ((long) ordinal << 32) | n;
+                    n++;
+
+                }
+
+            }
+
+            if (n == 0) {
+
+                continue;
+
+            }
+
+            Arrays.sort(keys, 0, n);
+
+            int[] outDocs = new int[n];
+            float[] outWeights = new float[n];
+            byte[] outQualities = new byte[n];
+
+            for (int i = 0; i < n; i++) {
+
+                int ordinal = (int) (keys[i] >>> 32);
+
+                outDocs[i] = ordinal;
+                outWeights[i] = weights[(int) keys[i]];
+                outQualities[i] = (byte) quality.getQuality(docIDs[ordinal]);
+
+            }
+
+            renumbered.put(entry.getKey(), PostingList.compress(outDocs, outWeights, outQualities, n));
+
+        }
+
+        return new InvertedIndex(renumbered, docInfos, docIDs, quality, qualityWeight);
+
+    }
+
+    /**
+     * Normalize a word into the key of the postings.
+     *
+     * @param word : [String]
+     * @return [String]
+     */
+    public static String foldTerm(String word) {
+
+        return word.toLowerCase();
+
+    }
+
+    /**
+     * Get the postings of the word (any case variant).
+     *
+     * @param word : [String]
+     * @return [PostingList], null if the term is not indexed
+     */
+    public PostingList getPostings(String word) {
+
+        return postings.get(foldTerm(word));
+
+    }
+
+    public DocInfo getDocInfo(int docID) {
+
+        return docInfos.get(docID);
+
+    }
+
+    /**
+     * @param id : [int], id of a posting
+     * @return [int], the docID
+     */
+    public int toDocID(int id) {
+
+        return (docIDs == null) ? id : docIDs[id];
+
+    }
+
+    /**
+     * Whether the postings are numbered by descending quality, i.e. the
+     * quality of the docs only decreases along every posting list.
+     */
+    public boolean isQualityOrdered() {
+
+        return docIDs != null;
+
+    }
+
+    /**
+     * @return [DocQuality], null without static quality
+     */
+    public DocQuality getDocQuality() {
+
+        return quality;
+
+    }
+
+    public float getQualityWeight() {
+
+        return qualityWeight;
+
+    }
+
+    public int numTerms() {
+
+        return postings.size();
+
+    }
+
+    public int numDocs() {
+
+        return docInfos.size();
+
+    }
+
+    /**
+     * Approximate heap usage of all the postings.
+     */
+    public long sizeInBytes() {
+
+        long total = 0;
+
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+
+            total += entry.getKey().length() * 2 + entry.getValue().sizeInBytes();
+
+        }
+
+        return total;
+
+    }
+
+    public String toString() {
+
+        return "InvertedIndex(terms = " + numTerms() + ", docs = " + numDocs() + ", bytes = " + sizeInBytes()
+                + (isQualityOrdered() ? ", quality ordered" : "") + ")";
+
+    }
+
+}
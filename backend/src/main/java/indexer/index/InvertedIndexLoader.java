@@ -0,0 +1,287 @@
+package indexer.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sleepycat.collections.StoredSortedMap;
+
+import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocWord;
+
+import indexer.IndexMySQLStorage;
+
+import storage.PooledConnection;
+
+/**
+ * Build an InvertedIndex either from the remote MySQL tables (the durable
+ * source) or directly from the local IndexStorage doc-word maps.
+ */
+public class InvertedIndexLoader {
+
+    static Logger logger = LogManager.getLogger(InvertedIndexLoader.class);
+
+    /**
+     * Load the postings from MySQL.
+     * Weight of (term, doc) = AVG(ntf) * AVG(idf) over the case variants of the
+     * term, the same value the per-query SQL computes.
+     *
+     * @param remoteDB       : [IndexMySQLStorage]
+     * @param docWordsTable  : [String], e.g. ShortDocWords
+     * @param lexiconTable   : [String], e.g. ShortLexicon
+     * @param docInfoTable   : [String], e.g. DocInfo
+     * @param docRange       : [DocRange], the documents owned by this server
+     *                       (the idf stays the one of the whole collection,
+     *                       so that the scores of all the ranges compare)
+     * @return [InvertedIndex], null if the tables can not be read
+     */
+    public static InvertedIndex loadFromMySQL(IndexMySQLStorage remoteDB, String docWordsTable,
+            String lexiconTable, String docInfoTable, DocRange docRange) {
+
+        long loadStartT = System.nanoTime();
+
+        // one pooled connection for the whole load
+        try (PooledConnection pooled = remoteDB.getConnection()) {
+
+            // 1. idf of each folded term
+            HashMap<String, float[]> idfs = new HashMap<String, float[]>();
+
+            Statement lexiconStatement = createStreamingStatement(pooled);
+            ResultSet lexiconRows = lexiconStatement.executeQuery("SELECT word, idf FROM " + lexiconTable);
+
+            while (lexiconRows.next()) {
+
+                String term = InvertedIndex.foldTerm(lexiconRows.getString("word"));
+
+                // [sum of idf, count]
+                float[] idf = idfs.computeIfAbsent(term, k -> new float[2]);
+                idf[0] += lexiconRows.getFloat("idf");
+                idf[1] += 1;
+
+            }
+
+            lexiconRows.close();
+            lexiconStatement.close();
+
+            // 2. postings
+            HashMap<String, PostingListBuilder> builders = new HashMap<String, PostingListBuilder>();
+
+            Statement docWordStatement = createStreamingStatement(pooled);
+            ResultSet docWordRows = docWordStatement
+                    .executeQuery("SELECT docID, word, ntf FROM " + docWordsTable + rangeFilter(docRange)
+                            + " ORDER BY docID");
+
+            while (docWordRows.next()) {
+
+                String term = InvertedIndex.foldTerm(docWordRows.getString("word"));
+
+                if (!idfs.containsKey(term)) {
+
+                    // the JOIN with the lexicon would drop it as well
+                    continue;
+
+                }
+
+                builders.computeIfAbsent(term, k -> new PostingListBuilder())
+                        .add(docWordRows.getInt("docID"), docWordRows.getFloat("ntf"));
+
+            }
+
+            docWordRows.close();
+            docWordStatement.close();
+
+            // 3. doc info (url & title)
+            HashMap<Integer, DocInfo> docInfos = new HashMap<Integer, DocInfo>();
+
+            Statement docInfoStatement = createStreamingStatement(pooled);
+            ResultSet docInfoRows = docInfoStatement.executeQuery("SELECT docID, url, title FROM " + docInfoTable
+                    + rangeFilter(docRange));
+
+            while (docInfoRows.next()) {
+
+                int docID = docInfoRows.getInt("docID");
+
+                docInfos.put(docID, new DocInfo(docID, docInfoRows.getString("url"), docInfoRows.getString("title"), ""));
+
+            }
+
+            docInfoRows.close();
+            docInfoStatement.close();
+
+            HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+
+            for (Map.Entry<String, PostingListBuilder> entry : builders.entrySet()) {
+
+                float[] idf = idfs.get(entry.getKey());
+
+                postings.put(entry.getKey(), entry.getValue().build(idf[0] / idf[1]));
+
+            }
+
+            InvertedIndex index = new InvertedIndex(postings, docInfos);
+
+            logger.info("(InvertedIndexLoader) Loaded " + index.toString() + " from MySQL in "
+                    + ((System.nanoTime() - loadStartT) / 1000000) + " (ms)");
+
+            return index;
+
+        } catch (SQLException ex) {
+
+            logger.warn("(InvertedIndexLoader) Unable to load the postings from MySQL!");
+            logger.debug("SQLException: " + ex.getMessage());
+            logger.debug("SQLState: " + ex.getSQLState());
+            logger.debug("VendorError: " + ex.getErrorCode());
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Build the postings from the local doc-word maps (docWord0, docWord1, ...)
+     * written by IndexReduceBolt, computing ntf & idf the same way
+     * IndexMySQLStorage.updateTFIDF does:
+     * ntf = tf / sqrt(sum(tf^2) of the doc), idf = ln(numDocs / df).
+     *
+     * @param docWordDBs : [List<IndexStorage>], the doc-word storages
+     * @param docInfoDBs : [List<IndexStorage>], storages holding DocInfo
+     * @param docRange   : [DocRange], the documents owned by this server
+     *                   (ntf & idf are computed over all the local documents)
+     * @return [InvertedIndex]
+     */
+    public static InvertedIndex loadFromIndexStorage(List<IndexStorage> docWordDBs, List<IndexStorage> docInfoDBs,
+            DocRange docRange) {
+
+        long loadStartT = System.nanoTime();
+
+        // pass 1: doc L2 norm & df
+        HashMap<Integer, Double> docL2Sums = new HashMap<Integer, Double>();
+        HashMap<String, Integer> dfs = new HashMap<String, Integer>();
+
+        for (IndexStorage db : docWordDBs) {
+
+            StoredSortedMap docWordMap = db.getDocWordMap("short");
+
+            for (Object value : docWordMap.values()) {
+
+                DocWord docWord = (DocWord) value;
+
+                docL2Sums.merge(docWord.getDocID(), Math.pow(docWord.getTf(), 2), Double::sum);
+                dfs.merge(docWord.getWord(), 1, Integer::sum);
+
+            }
+
+        }
+
+        int numDocs = docL2Sums.size();
+
+        // idf per folded term (average over the case variants)
+        HashMap<String, float[]> idfs = new HashMap<String, float[]>();
+
+        for (Map.Entry<String, Integer> entry : dfs.entrySet()) {
+
+            float[] idf = idfs.computeIfAbsent(InvertedIndex.foldTerm(entry.getKey()), k -> new float[2]);
+            idf[0] += (float) Math.log((double) numDocs / entry.getValue());
+            idf[1] += 1;
+
+        }
+
+        // pass 2: postings
+        HashMap<String, PostingListBuilder> builders = new HashMap<String, PostingListBuilder>();
+
+        for (IndexStorage db : docWordDBs) {
+
+            StoredSortedMap docWordMap = db.getDocWordMap("short");
+
+            for (Object value : docWordMap.values()) {
+
+                DocWord docWord = (DocWord) value;
+
+                if (!docRange.contains(docWord.getDocID())) {
+
+                    continue;
+
+                }
+
+                float ntf = (float) (docWord.getTf() / Math.sqrt(docL2Sums.get(docWord.getDocID())));
+
+                builders.computeIfAbsent(InvertedIndex.foldTerm(docWord.getWord()), k -> new PostingListBuilder())
+                        .add(docWord.getDocID(), ntf);
+
+            }
+
+        }
+
+        HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+
+        for (Map.Entry<String, PostingListBuilder> entry : builders.entrySet()) {
+
+            float[] idf = idfs.get(entry.getKey());
+
+            postings.put(entry.getKey(), entry.getValue().build(idf[0] / idf[1]));
+
+        }
+
+        HashMap<Integer, DocInfo> docInfos = new HashMap<Integer, DocInfo>();
+
+        for (IndexStorage db : docInfoDBs) {
+
+            for (Object value : db.getDocInfoMap().values()) {
+
+                DocInfo info = (DocInfo) value;
+
+                if (!docRange.contains(info.getDocID())) {
+
+                    continue;
+
+                }
+
+                docInfos.put(info.getDocID(), new DocInfo(info.getDocID(), info.getURL(), info.getTitle(), ""));
+
+            }
+
+        }
+
+        InvertedIndex index = new InvertedIndex(postings, docInfos);
+
+        logger.info("(InvertedIndexLoader) Built " + index.toString() + " from local storage in "
+                + ((System.nanoTime() - loadStartT) / 1000000) + " (ms)");
+
+        return index;
+
+    }
+
+    private static String rangeFilter(DocRange docRange) {
+
+        if (docRange.isAll()) {
+
+            return "";
+
+        }
+
+        return " WHERE docID BETWEEN " + docRange.getFrom() + " AND " + docRange.getTo();
+
+    }
+
+    /**
+     * MySQL Connector/J only streams rows (instead of buffering the whole
+     * table) for forward-only statements with fetch size Integer.MIN_VALUE.
+     */
+    private static Statement createStreamingStatement(PooledConnection pooled) throws SQLException {
+
+        Statement statement = pooled.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+
+        return statement;
+
+    }
+
+}
@@ -0,0 +1,299 @@
+package indexer.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sleepycat.collections.StoredSortedMap;
+
+import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.Word;
+
+/**
+ * Read-only, in-memory lexicon loaded once at startup.
+ * Sorted string table over the case-folded words (see InvertedIndex.foldTerm):
+ * keys[k] owns the surface variants in [offsets[k], offsets[k + 1]) of the
+ * parallel arrays surfaces / wordIDs / dfs, so a single binary search resolves
+ * every case variant of a word (e.g. apple => apple, Apple, APPLE).
+ */
+public class Lexicon {
+
+    static Logger logger = LogManager.getLogger(Lexicon.class);
+
+    public static final Lexicon EMPTY = new Lexicon(new String[0], new int[] { 0 }, new String[0], new int[0],
+            new int[0]);
+
+    // sorted, case-folded
+    private final String[] keys;
+    private final int[] offsets;
+
+    // surface variants grouped by key
+    private final String[] surfaces;
+    private final int[] wordIDs;
+    private final int[] dfs;
+
+    private Lexicon(String[] keys, int[] offsets, String[] surfaces, int[] wordIDs, int[] dfs) {
+
+        this.keys = keys;
+        this.offsets = offsets;
+        this.surfaces = surfaces;
+        this.wordIDs = wordIDs;
+        this.dfs = dfs;
+
+    }
+
+    /**
+     * Load the word => wordID map & the short lexicon (df) of the index storage.
+     *
+     * @param indexDB : [IndexStorage]
+     * @return [Lexicon], EMPTY if the storage can not be read
+     */
+    public static Lexicon load(IndexStorage indexDB) {
+
+        long loadStartT = System.nanoTime();
+
+        try {
+
+            // df by wordID (short collection, as used by the match handler)
+            HashMap<Integer, Integer> dfByID = new HashMap<Integer, Integer>();
+
+            StoredSortedMap lexiconMap = indexDB.getLexiconMap("short");
+
+            for (Object value : lexiconMap.values()) {
+
+                Word word = (Word) value;
+                dfByID.put(word.getWordID(), word.getDf());
+
+            }
+
+            ArrayList<Row> rows = new ArrayList<Row>();
+
+            for (Object entry : indexDB.getWordIndexMap().entrySet()) {
+
+                Map.Entry<?, ?> wordEntry = (Map.Entry<?, ?>) entry;
+
+                int wordID = (Integer) wordEntry.getValue();
+
+                rows.add(new Row((String) wordEntry.getKey(), wordID, dfByID.getOrDefault(wordID, 0)));
+
+            }
+
+            Lexicon lexicon = build(rows);
+
+            logger.info("(Lexicon) loaded " + lexicon.numWords() + " (n) words / " + lexicon.numKeys()
+                    + " (n) folded keys in " + ((System.nanoTime() - loadStartT) / 1000000) + " (ms)");
+
+            return lexicon;
+
+        } catch (Exception e) {
+
+            logger.error("(Lexicon) Fail to load the lexicon from the index storage! " + e.getMessage());
+
+            return EMPTY;
+
+        }
+
+    }
+
+    /**
+     * This lexicon plus the surface words of the index segments (see
+     * SegmentedIndex) it does not know yet, with no wordID (-1). The df of a
+     * surface word is the one of the segments when given.
+     *
+     * @param surfaceDfs : [Map<String, Integer>], surface word => df
+     * @return [Lexicon], a new lexicon (this one is not changed)
+     */
+    public Lexicon withSurfaces(Map<String, Integer> surfaceDfs) {
+
+        ArrayList<Row> rows = new ArrayList<Row>();
+
+        for (int i = 0; i < surfaces.length; i++) {
+
+            rows.add(new Row(surfaces[i], wordIDs[i], surfaceDfs.getOrDefault(surfaces[i], dfs[i])));
+
+        }
+
+        for (Map.Entry<String, Integer> entry : surfaceDfs.entrySet()) {
+
+            if (findSurface(entry.getKey()) < 0) {
+
+                rows.add(new Row(entry.getKey(), -1, entry.getValue()));
+
+            }
+
+        }
+
+        return build(rows);
+
+    }
+
+    private static class Row {
+
+        final String key;
+        final String surface;
+        final int wordID;
+        final int df;
+
+        Row(String surface, int wordID, int df) {
+
+            this.key = InvertedIndex.foldTerm(surface);
+            this.surface = surface;
+            this.wordID = wordID;
+            this.df = df;
+
+        }
+
+    }
+
+    private static Lexicon build(ArrayList<Row> rows) {
+
+        // sorted by folded key then surface
+        Collections.sort(rows, (r1, r2) -> {
+
+            int cmp = r1.key.compareTo(r2.key);
+
+            return (cmp != 0) ? cmp : r1.surface.compareTo(r2.surface);
+
+        });
+
+        int n = rows.size();
+
+        String[] surfaces = new String[n];
+        int[] wordIDs = new int[n];
+        int[] dfs = new int[n];
+
+        ArrayList<String> keys = new ArrayList<String>();
+        int[] offsets = new int[n + 1];
+
+        for (int i = 0; i < n; i++) {
+
+            Row row = rows.get(i);
+
+            if (keys.isEmpty() || !keys.get(keys.size() - 1).equals(row.key)) {
+
+                offsets[keys.size()] = i;
+                keys.add(row.key);
+
+            }
+
+            surfaces[i] = row.surface;
+            wordIDs[i] = row.wordID;
+            dfs[i] = row.df;
+
+        }
+
+        offsets[keys.size()] = n;
+
+        return new Lexicon(keys.toArray(new String[0]), Arrays.copyOf(offsets, keys.size() + 1), surfaces, wordIDs,
+                dfs);
+
+    }
+
+    /**
+     * @return [int], index of the folded key, -1 if not in the lexicon
+     */
+    private int findKey(String word) {
+
+        int k = Arrays.binarySearch(keys, InvertedIndex.foldTerm(word));
+
+        return (k < 0) ? -1 : k;
+
+    }
+
+    /**
+     * @return [int], index of the exact surface form, -1 if not in the lexicon
+     */
+    private int findSurface(String surface) {
+
+        int k = findKey(surface);
+
+        if (k < 0) {
+
+            return -1;
+
+        }
+
+        for (int i = offsets[k]; i < offsets[k + 1]; i++) {
+
+            if (surfaces[i].equals(surface)) {
+
+                return i;
+
+            }
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Whether any case variant of the word is in the lexicon.
+     */
+    public boolean hasWord(String word) {
+
+        return findKey(word) >= 0;
+
+    }
+
+    /**
+     * All the surface variants of the word that exist in the lexicon.
+     *
+     * @param word : [String], any case
+     * @return [List<String>], empty if the word is not in the lexicon
+     */
+    public List<String> getVariants(String word) {
+
+        int k = findKey(word);
+
+        if (k < 0) {
+
+            return Collections.emptyList();
+
+        }
+
+        return Arrays.asList(surfaces).subList(offsets[k], offsets[k + 1]);
+
+    }
+
+    /**
+     * @return [int], wordID of the exact surface form, -1 if not in the lexicon
+     */
+    public int getWordID(String surface) {
+
+        int i = findSurface(surface);
+
+        return (i < 0) ? -1 : wordIDs[i];
+
+    }
+
+    /**
+     * @return [int], df of the exact surface form, 0 if not in the lexicon
+     */
+    public int getDf(String surface) {
+
+        int i = findSurface(surface);
+
+        return (i < 0) ? 0 : dfs[i];
+
+    }
+
+    public int numKeys() {
+
+        return keys.length;
+
+    }
+
+    public int numWords() {
+
+        return surfaces.length;
+
+    }
+
+}
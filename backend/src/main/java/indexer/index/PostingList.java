@@ -0,0 +1,478 @@
+package indexer.index;
+
+/**
+ * An immutable, docID-sorted posting list of a single term.
+ *
+ * Layout:
+ * - docIDs are split into blocks of BLOCK_SIZE postings, each block is
+ * delta-encoded against the last docID of the previous block and then
+ * varint-compressed into one byte array.
+ * - blockLastDocs / blockOffsets act as skip pointers, so that a cursor can
+ * jump over whole blocks without decoding them.
+ * - blockMaxWeights keep the largest weight inside each block, the upper
+ * bound used by block-max top-k retrieval.
+ * - weights keep the precomputed tf-idf of each posting (same order as docIDs).
+ * - qualities (optional) keep the quantized static quality of the document of
+ * each posting (see DocQuality), blockMaxQualities the largest one of each
+ * block.
+ */
+public class PostingList {
+
+    public static final int BLOCK_SIZE = 128;
+
+    // returned by Cursor.docID() once the list is exhausted
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final int size;
+
+    private final byte[] docs;
+    private final float[] weights;
+
+    // null => no static quality
+    private final byte[] qualities;
+    private final byte[] blockMaxQualities;
+
+    private final int[] blockLastDocs;
+    private final int[] blockOffsets;
+    private final float[] blockMaxWeights;
+
+    private final float maxWeight;
+
+    PostingList(int size, byte[] docs, float[] weights, byte[] qualities, int[] blockLastDocs, int[] blockOffsets,
+            float[] blockMaxWeights, byte[] blockMaxQualities) {
+
+        this.size = size;
+        this.docs = docs;
+        this.weights = weights;
+        this.qualities = qualities;
+        this.blockMaxQualities = blockMaxQualities;
+        this.blockLastDocs = blockLastDocs;
+        this.blockOffsets = blockOffsets;
+        this.blockMaxWeights = blockMaxWeights;
+
+        float max = 0;
+
+        for (float w : blockMaxWeights) {
+
+            max = Math.max(max, w);
+
+        }
+
+        this.maxWeight = max;
+
+    }
+
+    /**
+     * Compress a docID-sorted list of postings.
+     *
+     * @param docIDs  : [int[]], strictly increasing docIDs
+     * @param weights : [float[]], the tf-idf weight of each docID
+     * @param size    : [int], number of valid entries in both arrays
+     * @return [PostingList]
+     */
+    public static PostingList compress(int[] docIDs, float[] weights, int size) {
+
+        return compress(docIDs, weights, null, size);
+
+    }
+
+    /**
+     * Compress a docID-sorted list of postings with the quality of their docs.
+     *
+     * @param docIDs    : [int[]], strictly increasing docIDs
+     * @param weights   : [float[]], the tf-idf weight of each docID
+     * @param qualities : [byte[]], the quantized quality of each docID (see
+     *                  DocQuality), null for none
+     * @param size      : [int], number of valid entries in the arrays
+     * @return [PostingList]
+     */
+    public static PostingList compress(int[] docIDs, float[] weights, byte[] qualities, int size) {
+
+        int numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        int[] blockLastDocs = new int[numBlocks];
+        int[] blockOffsets = new int[numBlocks];
+        float[] blockMaxWeights = new float[numBlocks];
+        byte[] blockMaxQualities = (qualities == null) ? null : new byte[numBlocks];
+
+        // worst case: 5 bytes per docID
+        byte[] buffer = new byte[Math.max(1, size * 5)];
+        int offset = 0;
+
+        int previous = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            if (i % BLOCK_SIZE == 0) {
+
+                blockOffsets[i / BLOCK_SIZE] = offset;
+
+            }
+
+            offset = writeVarint(buffer, offset, docIDs[i] - previous);
+            previous = docIDs[i];
+
+            blockMaxWeights[i / BLOCK_SIZE] = Math.max(blockMaxWeights[i / BLOCK_SIZE], weights[i]);
+
+            if (qualities != null && (qualities[i] & 0xFF) > (blockMaxQualities[i / BLOCK_SIZE] & 0xFF)) {
+
+                blockMaxQualities[i / BLOCK_SIZE] = qualities[i];
+
+            }
+
+            if (i % BLOCK_SIZE == BLOCK_SIZE - 1 || i == size - 1) {
+
+                blockLastDocs[i / BLOCK_SIZE] = docIDs[i];
+
+            }
+
+        }
+
+        byte[] docs = new byte[offset];
+        System.arraycopy(buffer, 0, docs, 0, offset);
+
+        float[] ws = new float[size];
+        System.arraycopy(weights, 0, ws, 0, size);
+
+        byte[] qs = null;
+
+        if (qualities != null) {
+
+            qs = new byte[size];
+            System.arraycopy(qualities, 0, qs, 0, size);
+
+        }
+
+        return new PostingList(size, docs, ws, qs, blockLastDocs, blockOffsets, blockMaxWeights, blockMaxQualities);
+
+    }
+
+    private static int writeVarint(byte[] buffer, int offset, int value) {
+
+        while ((value & ~0x7F) != 0) {
+
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+
+        }
+
+        buffer[offset++] = (byte) value;
+
+        return offset;
+
+    }
+
+    /**
+     * Number of documents containing the term.
+     */
+    public int size() {
+
+        return size;
+
+    }
+
+    public int numBlocks() {
+
+        return blockLastDocs.length;
+
+    }
+
+    /**
+     * Largest weight of the whole list.
+     */
+    public float getMaxWeight() {
+
+        return maxWeight;
+
+    }
+
+    public float getBlockMaxWeight(int block) {
+
+        return blockMaxWeights[block];
+
+    }
+
+    /**
+     * Largest quality (0 - 255) of the docs in the block, 0 without qualities.
+     */
+    public int getBlockMaxQuality(int block) {
+
+        return (blockMaxQualities == null) ? 0 : (blockMaxQualities[block] & 0xFF);
+
+    }
+
+    public boolean hasQualities() {
+
+        return qualities != null;
+
+    }
+
+    public int getBlockLastDoc(int block) {
+
+        return blockLastDocs[block];
+
+    }
+
+    /**
+     * Approximate heap usage of the compressed list (for monitoring).
+     */
+    public long sizeInBytes() {
+
+        long qualityBytes = (qualities == null) ? 0 : qualities.length + blockMaxQualities.length;
+
+        return docs.length + (long) weights.length * 4 + (long) blockLastDocs.length * 12 + qualityBytes;
+
+    }
+
+    public Cursor cursor() {
+
+        return new Cursor();
+
+    }
+
+    /**
+     * A forward-only iterator over the posting list.
+     * Note: not thread-safe, create one cursor per query.
+     */
+    public class Cursor {
+
+        private final int[] buffer = new int[BLOCK_SIZE];
+
+        // current block & position inside the decoded buffer
+        private int block = -1;
+        private int blockLength = 0;
+        private int index = -1;
+
+        private int docID = -1;
+
+        /**
+         * Current docID (-1 before the first call to next/advance).
+         */
+        public int docID() {
+
+            return docID;
+
+        }
+
+        /**
+         * Weight (tf-idf) of the current posting.
+         */
+        public float weight() {
+
+            return weights[block * BLOCK_SIZE + index];
+
+        }
+
+        /**
+         * Quantized quality (0 - 255) of the doc of the current posting, 0
+         * without qualities.
+         */
+        public int quality() {
+
+            return (qualities == null) ? 0 : (qualities[block * BLOCK_SIZE + index] & 0xFF);
+
+        }
+
+        /**
+         * Position of the current posting in the whole list.
+         */
+        public int ordinal() {
+
+            return block * BLOCK_SIZE + index;
+
+        }
+
+        /**
+         * Move to the next posting.
+         *
+         * @return [int], the new docID or NO_MORE_DOCS
+         */
+        public int next() {
+
+            if (docID == NO_MORE_DOCS) {
+
+                return docID;
+
+            }
+
+            index++;
+
+            if (index >= blockLength) {
+
+                if (!decodeBlock(block + 1)) {
+
+                    docID = NO_MORE_DOCS;
+                    return docID;
+
+                }
+
+            }
+
+            docID = buffer[index];
+
+            return docID;
+
+        }
+
+        /**
+         * Move to the first posting whose docID >= target.
+         * Whole blocks are skipped by their last docID without decoding, the
+         * block & the posting inside it are found by galloping (exponential
+         * then binary search), so a jump costs O(log distance) whatever the
+         * length of the list.
+         *
+         * @param target : [int]
+         * @return [int], the new docID or NO_MORE_DOCS
+         */
+        public int advance(int target) {
+
+            if (docID >= target) {
+
+                return docID;
+
+            }
+
+            // skip blocks
+            int b = gallop(blockLastDocs, Math.max(block, 0), blockLastDocs.length, target);
+
+            if (b == blockLastDocs.length) {
+
+                docID = NO_MORE_DOCS;
+                return docID;
+
+            }
+
+            if (b != block) {
+
+                decodeBlock(b);
+
+            } else {
+
+                index++;
+
+            }
+
+            // the last docID of the block is >= target
+            index = gallop(buffer, index, blockLength, target);
+
+            docID = buffer[index];
+
+            return docID;
+
+        }
+
+        /**
+         * Find the block that may hold target, without decoding it
+         * (a.k.a. shallow advance; the cursor does not move).
+         *
+         * @param target : [int]
+         * @return [int], the block index, -1 if target is beyond the list
+         */
+        public int findBlock(int target) {
+
+            int b = gallop(blockLastDocs, Math.max(block, 0), blockLastDocs.length, target);
+
+            return (b == blockLastDocs.length) ? -1 : b;
+
+        }
+
+        /**
+         * Upper docID bound of the block that holds the current posting.
+         */
+        public int blockLastDoc() {
+
+            return blockLastDocs[block];
+
+        }
+
+        /**
+         * First position in [from, to) of the sorted values whose value >=
+         * target: probe from, from + 1, from + 3, from + 7, ... then binary
+         * search the last gap.
+         *
+         * @return [int], to if every value is < target
+         */
+        private int gallop(int[] values, int from, int to, int target) {
+
+            if (from >= to || values[from] >= target) {
+
+                return from;
+
+            }
+
+            // values[low] < target
+            int low = from;
+            int step = 1;
+
+            while (low + step < to && values[low + step] < target) {
+
+                low += step;
+                step <<= 1;
+
+            }
+
+            int high = Math.min(low + step, to);
+
+            // values[low] < target <= values[high] (or high == to)
+            while (high - low > 1) {
+
+                int mid = (low + high) >>> 1;
+
+                if (values[mid] < target) {
+
+                    low = mid;
+
+                } else {
+
+                    high = mid;
+
+                }
+
+            }
+
+            return high;
+
+        }
+
+        private boolean decodeBlock(int b) {
+
+            if (b >= blockLastDocs.length) {
+
+                return false;
+
+            }
+
+            int offset = blockOffsets[b];
+            int previous = (b == 0) ? 0 : blockLastDocs[b - 1];
+
+            blockLength = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+
+            for (int i = 0; i < blockLength; i++) {
+
+                int value = 0;
+                int shift = 0;
+                byte current;
+
+                do {
+
+                    current = docs[offset++];
+                    value |= (current & 0x7F) << shift;
+                    shift += 7;
+
+                } while ((current & 0x80) != 0);
+
+                previous += value;
+                buffer[i] = previous;
+
+            }
+
+            block = b;
+            index = 0;
+
+            return true;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+package indexer.index;
+
+import java.util.Arrays;
+
+/**
+ * Collect the postings of one term before compressing them into a PostingList.
+ * Postings may arrive in any docID order; several postings of the same docID
+ * (e.g. case variants of the same word) are averaged, which mirrors the
+ * AVG(D.ntf) used by the SQL matcher.
+ */
+public class PostingListBuilder {
+
+    private int[] docIDs = new int[8];
+    private float[] ntfs = new float[8];
+    private int[] counts = new int[8];
+
+    private int size = 0;
+
+    private boolean sorted = true;
+
+    /**
+     * Add a posting
+     *
+     * @param docID : [int]
+     * @param ntf   : [float], the normalized term frequency of the term in docID
+     */
+    public void add(int docID, float ntf) {
+
+        if (size > 0 && docIDs[size - 1] == docID) {
+
+            ntfs[size - 1] += ntf;
+            counts[size - 1]++;
+
+            return;
+
+        }
+
+        if (size > 0 && docIDs[size - 1] > docID) {
+
+            sorted = false;
+
+        }
+
+        if (size == docIDs.length) {
+
+            docIDs = Arrays.copyOf(docIDs, size * 2);
+            ntfs = Arrays.copyOf(ntfs, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+
+        }
+
+        docIDs[size] = docID;
+        ntfs[size] = ntf;
+        counts[size] = 1;
+
+        size++;
+
+    }
+
+    public int size() {
+
+        return size;
+
+    }
+
+    /**
+     * Sort (if needed), merge duplicates and compress.
+     *
+     * @param idf : [float], the idf of the term, multiplied into every weight
+     * @return [PostingList]
+     */
+    public PostingList build(float idf) {
+
+        if (!sorted) {
+
+            sortByDocID();
+
+        }
+
+        int[] outDocs = new int[size];
+        float[] outWeights = new float[size];
+
+        int n = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            int j = i;
+            float ntfSum = ntfs[i];
+            int count = counts[i];
+
+            // duplicates only become adjacent after sorting
+            while (j + 1 < size && docIDs[j + 1] == docIDs[i]) {
+
+                j++;
+                ntfSum += ntfs[j];
+                count += counts[j];
+
+            }
+
+            outDocs[n] = docIDs[i];
+            outWeights[n] = (ntfSum / count) * idf;
+            n++;
+
+            i = j;
+
+        }
+
+        return PostingList.compress(outDocs, outWeights, n);
+
+    }
+
+    private void sortByDocID() {
+
+        Integer[] order = new Integer[size];
+
+        for (int i = 0; i < size; i++) {
+
+            order[i] = i;
+
+        }
+
+        Arrays.sort(order, (a, b) -> Integer.compare(docIDs[a], docIDs[b]));
+
+        int[] newDocIDs = new int[size];
+        float[] newNtfs = new float[size];
+        int[] newCounts = new int[size];
+
+        for (int i = 0; i < size; i++) {
+
+            newDocIDs[i] = docIDs[order[i]];
+            newNtfs[i] = ntfs[order[i]];
+            newCounts[i] = counts[order[i]];
+
+        }
+
+        docIDs = newDocIDs;
+        ntfs = newNtfs;
+        counts = newCounts;
+
+        sorted = true;
+
+    }
+
+}
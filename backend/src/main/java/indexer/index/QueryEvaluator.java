@@ -0,0 +1,219 @@
+package indexer.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Evaluate conjunctive (AND) keyword queries over an InvertedIndex.
+ * Score of a document = sum of the tf-idf weights of every query term,
+ * i.e. the same score the SQL self-join chain produces.
+ * The postings are intersected rarest term first, with galloping skips
+ * (see PostingList.Cursor.advance).
+ * With the static quality of the docs, the weighted quality is added to the
+ * score, and the index order is the quality order (see
+ * InvertedIndex.withQuality).
+ */
+public class QueryEvaluator {
+
+    static Logger logger = LogManager.getLogger(QueryEvaluator.class);
+
+    private final InvertedIndex index;
+
+    // number of documents scored by the last call of matchAll
+    private int numEvaluated = 0;
+
+    public QueryEvaluator(InvertedIndex index) {
+
+        this.index = index;
+
+    }
+
+    public int getNumEvaluated() {
+
+        return numEvaluated;
+
+    }
+
+    /**
+     * Exhaustively match the documents containing all the terms.
+     *
+     * @param terms       : [List<String>], the (existed) lemmas of the query
+     * @param maxDocCount : [int], max number of docs to return (-1 for all)
+     * @return [List<ScoredDoc>], sorted by score in descending order
+     */
+    public List<ScoredDoc> matchAll(List<String> terms, int maxDocCount) {
+
+        ArrayList<ScoredDoc> matches = intersect(terms, -1);
+
+        matches.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+
+        if (maxDocCount >= 0 && matches.size() > maxDocCount) {
+
+            return new ArrayList<ScoredDoc>(matches.subList(0, maxDocCount));
+
+        }
+
+        return matches;
+
+    }
+
+    /**
+     * Match the first maxDocCount documents (in index order, i.e. docID order
+     * or the best quality first) containing all the terms, the intersection
+     * stops as soon as they are found (the same early exit as the SQL join
+     * chain, no ranking).
+     *
+     * @param terms       : [List<String>], the (existed) lemmas of the query
+     * @param maxDocCount : [int], number of docs wanted (-1 for all)
+     * @return [List<ScoredDoc>], sorted by score in descending order
+     */
+    public List<ScoredDoc> matchFirst(List<String> terms, int maxDocCount) {
+
+        ArrayList<ScoredDoc> matches = intersect(terms, maxDocCount);
+
+        matches.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+
+        return matches;
+
+    }
+
+    /**
+     * Intersect the postings of the terms, rarest first.
+     *
+     * @param terms : [List<String>]
+     * @param limit : [int], stop after this number of matches (-1 for all)
+     * @return [ArrayList<ScoredDoc>], in index order
+     */
+    private ArrayList<ScoredDoc> intersect(List<String> terms, int limit) {
+
+        numEvaluated = 0;
+
+        ArrayList<ScoredDoc> matches = new ArrayList<ScoredDoc>();
+
+        PostingList.Cursor[] cursors = openCursors(terms);
+
+        if (cursors == null || limit == 0) {
+
+            return matches;
+
+        }
+
+        // leapfrog: the rarest term proposes the candidates, the others
+        // gallop to them
+        int candidate = cursors[0].next();
+
+        while (candidate != PostingList.NO_MORE_DOCS) {
+
+            boolean aligned = true;
+
+            for (int i = 1; i < cursors.length; i++) {
+
+                int docID = cursors[i].advance(candidate);
+
+                if (docID != candidate) {
+
+                    // restart from the larger docID
+                    candidate = cursors[0].advance(docID);
+                    aligned = false;
+                    break;
+
+                }
+
+            }
+
+            if (!aligned) {
+
+                continue;
+
+            }
+
+            numEvaluated++;
+
+            int docID = index.toDocID(candidate);
+
+            if (index.getDocInfo(docID) != null) {
+
+                float score = 0;
+
+                for (PostingList.Cursor cursor : cursors) {
+
+                    score += cursor.weight();
+
+                }
+
+                int quality = cursors[0].quality();
+
+                score += index.getQualityWeight() * DocQuality.toUnit(quality);
+
+                matches.add(new ScoredDoc(docID, score, quality));
+
+                if (limit > 0 && matches.size() == limit) {
+
+                    break;
+
+                }
+
+            }
+
+            candidate = cursors[0].next();
+
+        }
+
+        return matches;
+
+    }
+
+    /**
+     * Open a cursor per term, null if any term has no postings
+     * (then the conjunction is empty).
+     * The cursors are ordered from the rarest term (shortest postings, i.e.
+     * lowest df) to the most common one, whatever the order of the query:
+     * the number of candidates is bounded by the rarest term, and the common
+     * terms are only probed at those candidates.
+     */
+    private PostingList.Cursor[] openCursors(List<String> terms) {
+
+        if (terms.size() == 0) {
+
+            return null;
+
+        }
+
+        PostingList[] lists = new PostingList[terms.size()];
+
+        for (int i = 0; i < terms.size(); i++) {
+
+            PostingList postings = index.getPostings(terms.get(i));
+
+            if (postings == null) {
+
+                logger.debug("(QueryEvaluator) No postings for term " + terms.get(i));
+
+                return null;
+
+            }
+
+            lists[i] = postings;
+
+        }
+
+        // stable => ties keep the order of the query
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.length];
+
+        for (int i = 0; i < lists.length; i++) {
+
+            cursors[i] = lists[i].cursor();
+
+        }
+
+        return cursors;
+
+    }
+
+}
@@ -0,0 +1,299 @@
+package indexer.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, size-aware cache of /indexer/match responses, shown on /monitor.
+ * Key: the sorted, case-folded lemma set + count + type + mode, so that
+ * queries with the same lemmas share one entry (e.g. "cats dog" & "dog cat").
+ * Value: the json output, weighted by its length (LRU eviction by bytes).
+ *
+ * Every entry is tagged with the index generation it was computed on; the
+ * generation is bumped by IndexSynchronizer.execute after each sync, and an
+ * entry of an older generation is never served.
+ */
+public class ResultCache {
+
+    static Logger logger = LogManager.getLogger(ResultCache.class);
+
+    private static class Entry {
+
+        final String json;
+        final long generation;
+
+        Entry(String json, long generation) {
+
+            this.json = json;
+            this.generation = generation;
+
+        }
+
+        long bytes() {
+
+            // chars + key & object overhead (rough)
+            return 2L * json.length() + 64;
+
+        }
+
+    }
+
+    private final long maxBytes;
+
+    private long currentBytes = 0;
+
+    private volatile long generation;
+
+    // bumped by invalidate (the index changed without a new generation)
+    private volatile long epoch = 0;
+
+    // access ordered => LRU (guarded by this)
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxBytes   : [long], upper bound of the cached responses (0 =>
+     *                   disabled)
+     * @param generation : [long], index generation at startup
+     */
+    public ResultCache(long maxBytes, long generation) {
+
+        this.maxBytes = maxBytes;
+        this.generation = generation;
+
+    }
+
+    /**
+     * Normalized key of a query.
+     *
+     * @param lemmas : [Collection<String>], the (existed) lemmas of the query
+     * @param count  : [int], max n docs
+     * @param type   : [String], doc, pdf
+     * @param mode   : [String], exhaustive or topk
+     * @return [String]
+     */
+    public static String makeKey(Collection<String> lemmas, int count, String type, String mode) {
+
+        TreeSet<String> sorted = new TreeSet<String>();
+
+        for (String lemma : lemmas) {
+
+            sorted.add(InvertedIndex.foldTerm(lemma));
+
+        }
+
+        return String.join(" ", sorted) + "|" + count + "|" + type + "|" + mode;
+
+    }
+
+    /**
+     * @return [String], the cached json, null if missing or stale
+     */
+    public String get(String key) {
+
+        if (maxBytes <= 0) {
+
+            return null;
+
+        }
+
+        synchronized (this) {
+
+            Entry entry = entries.get(key);
+
+            if (entry != null && entry.generation == generation) {
+
+                hits.incrementAndGet();
+
+                return entry.json;
+
+            }
+
+            if (entry != null) {
+
+                // computed on an older index
+                remove(key);
+                invalidations.incrementAndGet();
+
+            }
+
+        }
+
+        misses.incrementAndGet();
+
+        return null;
+
+    }
+
+    /**
+     * Cache the json computed at the given generation (dropped if the index
+     * moved on in the meantime).
+     */
+    public void put(String key, String json, long computedGeneration) {
+
+        put(key, json, computedGeneration, epoch);
+
+    }
+
+    /**
+     * Same as above, also dropped if the cache was invalidated since the
+     * given epoch (see getEpoch).
+     */
+    public void put(String key, String json, long computedGeneration, long computedEpoch) {
+
+        Entry entry = new Entry(json, computedGeneration);
+
+        if (maxBytes <= 0 || entry.bytes() > maxBytes) {
+
+            return;
+
+        }
+
+        synchronized (this) {
+
+            if (computedGeneration != generation || computedEpoch != epoch) {
+
+                return;
+
+            }
+
+            remove(key);
+
+            entries.put(key, entry);
+            currentBytes += entry.bytes();
+
+            // evict least recently used
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+            while (currentBytes > maxBytes && it.hasNext()) {
+
+                Entry eldest = it.next().getValue();
+
+                it.remove();
+                currentBytes -= eldest.bytes();
+                evictions.incrementAndGet();
+
+            }
+
+        }
+
+    }
+
+    private void remove(String key) {
+
+        Entry previous = entries.remove(key);
+
+        if (previous != null) {
+
+            currentBytes -= previous.bytes();
+
+        }
+
+    }
+
+    /**
+     * Observe the current index generation, drop every entry if it changed.
+     */
+    public synchronized void setGeneration(long newGeneration) {
+
+        if (newGeneration == generation) {
+
+            return;
+
+        }
+
+        logger.info("(ResultCache) index generation " + generation + " => " + newGeneration + ", dropping "
+                + entries.size() + " (n) entries");
+
+        invalidations.addAndGet(entries.size());
+
+        entries.clear();
+        currentBytes = 0;
+
+        generation = newGeneration;
+
+    }
+
+    /**
+     * Drop every entry, the generation is kept (the in-memory index was
+     * swapped, e.g. a new index segment, see SegmentedIndex).
+     */
+    public synchronized void invalidate() {
+
+        logger.info("(ResultCache) index reloaded, dropping " + entries.size() + " (n) entries");
+
+        invalidations.addAndGet(entries.size());
+
+        entries.clear();
+        currentBytes = 0;
+
+        epoch++;
+
+    }
+
+    public long getEpoch() {
+
+        return epoch;
+
+    }
+
+    public long getGeneration() {
+
+        return generation;
+
+    }
+
+    public long getHits() {
+
+        return hits.get();
+
+    }
+
+    public long getMisses() {
+
+        return misses.get();
+
+    }
+
+    public long getEvictions() {
+
+        return evictions.get();
+
+    }
+
+    public long getInvalidations() {
+
+        return invalidations.get();
+
+    }
+
+    public synchronized int size() {
+
+        return entries.size();
+
+    }
+
+    public synchronized long getBytes() {
+
+        return currentBytes;
+
+    }
+
+    public long getMaxBytes() {
+
+        return maxBytes;
+
+    }
+
+}
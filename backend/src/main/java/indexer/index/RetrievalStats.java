@@ -0,0 +1,83 @@
+package indexer.index;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the retrieval, shown on /monitor.
+ * Used to compare mode=topk (in-memory block-max) and the impact-ordered SQL
+ * retrieval against the exhaustive evaluation.
+ */
+public class RetrievalStats {
+
+    public static final String EXHAUSTIVE = "exhaustive";
+    public static final String TOPK = "topk";
+    // first count conjunctive matches in docID order (early stop)
+    public static final String FIRST = "first";
+    // impact-ordered postings table (SQL path)
+    public static final String IMPACT = "impact";
+
+    public static final String[] MODES = { EXHAUSTIVE, TOPK, FIRST, IMPACT };
+
+    // per mode: [0] number of queries, [1] evaluated docs
+    private final Map<String, AtomicLong[]> counters = new LinkedHashMap<String, AtomicLong[]>();
+
+    public RetrievalStats() {
+
+        for (String mode : MODES) {
+
+            counters.put(mode, new AtomicLong[] { new AtomicLong(), new AtomicLong() });
+
+        }
+
+    }
+
+    private AtomicLong[] get(String mode) {
+
+        AtomicLong[] counter = counters.get(mode);
+
+        return (counter == null) ? counters.get(EXHAUSTIVE) : counter;
+
+    }
+
+    /**
+     * Record one query
+     *
+     * @param mode         : [String], exhaustive, topk, first or impact
+     * @param numEvaluated : [int], number of documents (postings) scored by the
+     *                     query
+     */
+    public void record(String mode, int numEvaluated) {
+
+        AtomicLong[] counter = get(mode);
+
+        counter[0].incrementAndGet();
+        counter[1].addAndGet(numEvaluated);
+
+    }
+
+    public long getQueries(String mode) {
+
+        return get(mode)[0].get();
+
+    }
+
+    public long getEvaluated(String mode) {
+
+        return get(mode)[1].get();
+
+    }
+
+    /**
+     * Average number of documents scored per query.
+     */
+    public float getAverageEvaluated(String mode) {
+
+        long queries = getQueries(mode);
+
+        return (queries == 0) ? 0 : (float) getEvaluated(mode) / queries;
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package indexer.index;
+
+/**
+ * A matched document with its (summed) tf-idf score, plus the weighted
+ * static quality of the doc if the index has one (see DocQuality).
+ */
+public class ScoredDoc {
+
+    private final int docID;
+    private final float score;
+
+    // quantized quality (0 - 255), 0 without static quality
+    private final int quality;
+
+    public ScoredDoc(int docID, float score) {
+
+        this(docID, score, 0);
+
+    }
+
+    public ScoredDoc(int docID, float score, int quality) {
+
+        this.docID = docID;
+        this.score = score;
+        this.quality = quality;
+
+    }
+
+    public int getDocID() {
+
+        return docID;
+
+    }
+
+    public float getScore() {
+
+        return score;
+
+    }
+
+    public int getQuality() {
+
+        return quality;
+
+    }
+
+    public String toString() {
+
+        return "(" + docID + "," + score + ")";
+
+    }
+
+}
@@ -0,0 +1,1087 @@
+package indexer.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.sleepycat.collections.StoredSortedMap;
+
+import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocWord;
+
+/**
+ * LSM-style index: every indexing run (MapReduce job) is sealed into a new
+ * immutable segment (seg_000000, seg_000001, ...), the queries run over all
+ * the live segments, and small segments are merged in the background. A new
+ * batch becomes searchable without rebuilding (or re-syncing) the whole
+ * corpus.
+ *
+ * The live segments are listed, oldest first, in the MANIFEST of the
+ * directory:
+ * version N
+ * next N
+ * seg_000003 numDocs numPostings
+ * ...
+ * The MANIFEST is replaced atomically, under the LOCK file (the seal tool &
+ * the index server may run in different processes).
+ *
+ * A doc indexed again (e.g. recrawled) belongs to the newest segment holding
+ * it, its older postings are dropped at load & merge time.
+ *
+ * Merge policy (log-structured, adjacent segments only so that the
+ * newest-wins order is kept): the level of a segment is
+ * floor(log(numPostings) / log(mergeFactor)), and the first run of
+ * mergeFactor consecutive segments of the same level is merged into one.
+ */
+public class SegmentedIndex {
+
+    static Logger logger = LogManager.getLogger(SegmentedIndex.class);
+
+    public static final String MANIFEST = "MANIFEST";
+
+    private static final String LOCK = "LOCK";
+
+    private final File directory;
+
+    private final int mergeFactor;
+
+    private ScheduledExecutorService poller = null;
+
+    // last loaded manifest version
+    private volatile long loadedVersion = -1;
+
+    // stats (shown on /monitor)
+    private volatile int numSegments = 0;
+    private volatile int numDocs = 0;
+    private volatile long numPostings = 0;
+    private volatile long lastLoadMs = 0;
+    private final AtomicLong merges = new AtomicLong();
+
+    /**
+     * Entry of the manifest.
+     */
+    private static class SegmentMeta {
+
+        final String name;
+        final int numDocs;
+        final long numPostings;
+
+        SegmentMeta(String name, int numDocs, long numPostings) {
+
+            this.name = name;
+            this.numDocs = numDocs;
+            this.numPostings = numPostings;
+
+        }
+
+    }
+
+    private static class Manifest {
+
+        long version = 0;
+        int next = 0;
+        ArrayList<SegmentMeta> segments = new ArrayList<SegmentMeta>();
+
+    }
+
+    /**
+     * The postings & the words of the live segments, at a manifest version.
+     */
+    public static class Snapshot {
+
+        private final InvertedIndex index;
+
+        // surface word => df over the live docs
+        private final HashMap<String, Integer> surfaceDfs;
+
+        private final long version;
+
+        Snapshot(InvertedIndex index, HashMap<String, Integer> surfaceDfs, long version) {
+
+            this.index = index;
+            this.surfaceDfs = surfaceDfs;
+            this.version = version;
+
+        }
+
+        public InvertedIndex getIndex() {
+
+            return index;
+
+        }
+
+        public HashMap<String, Integer> getSurfaceDfs() {
+
+            return surfaceDfs;
+
+        }
+
+        public long getVersion() {
+
+            return version;
+
+        }
+
+    }
+
+    /**
+     * @param directory   : [File], e.g. indexStorage/segments
+     * @param mergeFactor : [int], number of segments of a level merged at once
+     */
+    public SegmentedIndex(File directory, int mergeFactor) {
+
+        this.directory = directory;
+        this.mergeFactor = Math.max(2, mergeFactor);
+
+        directory.mkdirs();
+
+    }
+
+    /**
+     * Seal the doc words of an indexing run into a new segment.
+     *
+     * @param docWordDBs : [List<IndexStorage>], the doc-word storages of the
+     *                   run (docWord0, docWord1, ...)
+     * @param docInfoDBs : [List<IndexStorage>], storages holding DocInfo
+     * @return [String], name of the new segment, null if the run is empty
+     * @throws IOException
+     */
+    public String seal(List<IndexStorage> docWordDBs, List<IndexStorage> docInfoDBs) throws IOException {
+
+        long sealStartT = System.nanoTime();
+
+        // word => (docID, tf) packed as docID << 32 | tf, sorted by docID below
+        HashMap<String, LongList> postings = new HashMap<String, LongList>();
+        HashMap<Integer, Long> sumSquares = new HashMap<Integer, Long>();
+
+        for (IndexStorage db : docWordDBs) {
+
+            StoredSortedMap docWordMap = db.getDocWordMap("short");
+
+            for (Object value : docWordMap.values()) {
+
+                DocWord docWord = (DocWord) value;
+
+                postings.computeIfAbsent(docWord.getWord(), k -> new LongList())
+                        .add(((long) docWord.getDocID() << 32) | (docWord.getTf() & 0xffffffffL));
+
+                sumSquares.merge(docWord.getDocID(), (long) docWord.getTf() * docWord.getTf(), Long::sum);
+
+            }
+
+        }
+
+        if (sumSquares.isEmpty()) {
+
+            logger.info("(SegmentedIndex) Nothing to seal, no doc word in the run");
+
+            return null;
+
+        }
+
+        int[] docIDs = new int[sumSquares.size()];
+        int n = 0;
+
+        for (int docID : sumSquares.keySet()) {
+
+            docIDs[n++] = docID;
+
+        }
+
+        Arrays.sort(docIDs);
+
+        long[] docSums = new long[docIDs.length];
+        DocInfo[] infos = new DocInfo[docIDs.length];
+
+        for (int i = 0; i < docIDs.length; i++) {
+
+            docSums[i] = sumSquares.get(docIDs[i]);
+            infos[i] = findDocInfo(docInfoDBs, docIDs[i]);
+
+        }
+
+        String[] words = postings.keySet().toArray(new String[0]);
+
+        Arrays.sort(words);
+
+        String name = reserveName();
+
+        IndexSegmentWriter writer = new IndexSegmentWriter(new File(directory, name));
+
+        try {
+
+            writer.writeDocs(docIDs, docSums, infos, docIDs.length);
+
+            int[] wordDocIDs = new int[16];
+            int[] wordTfs = new int[16];
+
+            for (String word : words) {
+
+                LongList list = postings.get(word);
+
+                list.sort();
+
+                if (list.size > wordDocIDs.length) {
+
+                    wordDocIDs = new int[list.size];
+                    wordTfs = new int[list.size];
+
+                }
+
+                for (int i = 0; i < list.size; i++) {
+
+                    wordDocIDs[i] = (int) (list.values[i] >> 32);
+                    wordTfs[i] = (int) list.values[i];
+
+                }
+
+                writer.addWord(word, wordDocIDs, wordTfs, list.size);
+
+            }
+
+            writer.commit();
+
+        } catch (IOException | RuntimeException e) {
+
+            writer.abort();
+
+            throw e;
+
+        }
+
+        SegmentMeta meta = new SegmentMeta(name, writer.getNumDocs(), writer.getNumPostings());
+
+        synchronized (this) {
+
+            try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+
+                Manifest manifest = readManifest();
+
+                manifest.segments.add(meta);
+                manifest.version++;
+
+                writeManifest(manifest);
+
+            }
+
+        }
+
+        logger.info("(SegmentedIndex) Sealed " + name + " : " + meta.numDocs + " (n) docs, " + meta.numPostings
+                + " (n) postings in " + ((System.nanoTime() - sealStartT) / 1000000) + " (ms)");
+
+        return name;
+
+    }
+
+    private static DocInfo findDocInfo(List<IndexStorage> docInfoDBs, int docID) {
+
+        for (IndexStorage db : docInfoDBs) {
+
+            DocInfo info = db.getDocInfo(docID);
+
+            if (info != null) {
+
+                return info;
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Build the in-memory postings of the live segments, computing ntf & idf
+     * as InvertedIndexLoader.loadFromIndexStorage does (over all the live
+     * docs): ntf = tf / sqrt(sum(tf^2) of the doc), idf = ln(numDocs / df).
+     *
+     * @param docRange   : [DocRange], the documents owned by this server
+     * @param docInfoDBs : [List<IndexStorage>], url & title of the docs
+     *                   sealed without them
+     * @return [Snapshot]
+     * @throws IOException
+     */
+    public Snapshot load(DocRange docRange, List<IndexStorage> docInfoDBs) throws IOException {
+
+        long loadStartT = System.nanoTime();
+
+        Manifest manifest = null;
+        ArrayList<IndexSegment> segments = null;
+
+        // a merge may delete a segment between the read of the manifest & its
+        // opening => read the new manifest (once opened, a segment stays
+        // readable even if deleted)
+        for (int attempt = 0; segments == null; attempt++) {
+
+            manifest = readManifest();
+
+            try {
+
+                segments = open(manifest.segments);
+
+            } catch (FileNotFoundException e) {
+
+                if (attempt >= 3) {
+
+                    throw e;
+
+                }
+
+            }
+
+        }
+
+        try {
+
+            // docID => index of the (newest) segment owning the doc
+            HashMap<Integer, Integer> owners = new HashMap<Integer, Integer>();
+            HashMap<Integer, Long> sumSquares = new HashMap<Integer, Long>();
+            HashMap<Integer, DocInfo> docInfos = new HashMap<Integer, DocInfo>();
+
+            for (int s = 0; s < segments.size(); s++) {
+
+                IndexSegment segment = segments.get(s);
+
+                for (int i = 0; i < segment.numDocs(); i++) {
+
+                    int docID = segment.getDocID(i);
+
+                    owners.put(docID, s);
+                    sumSquares.put(docID, segment.getSumSquares(i));
+
+                    DocInfo info = segment.getDocInfo(i);
+
+                    if (info != null && docRange.contains(docID)) {
+
+                        docInfos.put(docID, info);
+
+                    }
+
+                }
+
+            }
+
+            for (int docID : owners.keySet()) {
+
+                if (docRange.contains(docID) && !docInfos.containsKey(docID)) {
+
+                    DocInfo info = findDocInfo(docInfoDBs, docID);
+
+                    if (info != null) {
+
+                        docInfos.put(docID, new DocInfo(docID, info.getURL(), info.getTitle(), ""));
+
+                    }
+
+                }
+
+            }
+
+            HashMap<String, PostingListBuilder> builders = new HashMap<String, PostingListBuilder>();
+            HashMap<String, Integer> surfaceDfs = new HashMap<String, Integer>();
+
+            long livePostings = 0;
+
+            for (int s = 0; s < segments.size(); s++) {
+
+                IndexSegment segment = segments.get(s);
+
+                while (segment.nextWord()) {
+
+                    int[] docIDs = segment.docIDs();
+                    int[] tfs = segment.tfs();
+
+                    int df = 0;
+
+                    PostingListBuilder builder = null;
+
+                    for (int i = 0; i < segment.numPostings(); i++) {
+
+                        if (owners.get(docIDs[i]) != s) {
+
+                            // superseded by a newer segment
+                            continue;
+
+                        }
+
+                        df++;
+
+                        if (!docRange.contains(docIDs[i])) {
+
+                            continue;
+
+                        }
+
+                        if (builder == null) {
+
+                            builder = builders.computeIfAbsent(InvertedIndex.foldTerm(segment.word()),
+                                    k -> new PostingListBuilder());
+
+                        }
+
+                        builder.add(docIDs[i], (float) (tfs[i] / Math.sqrt(sumSquares.get(docIDs[i]))));
+
+                    }
+
+                    if (df > 0) {
+
+                        surfaceDfs.merge(segment.word(), df, Integer::sum);
+                        livePostings += df;
+
+                    }
+
+                }
+
+            }
+
+            int liveDocs = owners.size();
+
+            // idf per folded term (average over the case variants)
+            HashMap<String, float[]> idfs = new HashMap<String, float[]>();
+
+            for (Map.Entry<String, Integer> entry : surfaceDfs.entrySet()) {
+
+                float[] idf = idfs.computeIfAbsent(InvertedIndex.foldTerm(entry.getKey()), k -> new float[2]);
+                idf[0] += (float) Math.log((double) liveDocs / entry.getValue());
+                idf[1] += 1;
+
+            }
+
+            HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+
+            for (Map.Entry<String, PostingListBuilder> entry : builders.entrySet()) {
+
+                float[] idf = idfs.get(entry.getKey());
+
+                postings.put(entry.getKey(), entry.getValue().build(idf[0] / idf[1]));
+
+            }
+
+            InvertedIndex index = new InvertedIndex(postings, docInfos);
+
+            this.numSegments = segments.size();
+            this.numDocs = liveDocs;
+            this.numPostings = livePostings;
+            this.lastLoadMs = (System.nanoTime() - loadStartT) / 1000000;
+            this.loadedVersion = manifest.version;
+
+            logger.info("(SegmentedIndex) Loaded " + index.toString() + " from " + segments.size()
+                    + " (n) segments (version " + manifest.version + ") in " + lastLoadMs + " (ms)");
+
+            return new Snapshot(index, surfaceDfs, manifest.version);
+
+        } finally {
+
+            close(segments);
+
+        }
+
+    }
+
+    /**
+     * Merge the first run of mergeFactor consecutive segments of the same
+     * level, if any.
+     *
+     * @return [boolean], whether a merge was done
+     * @throws IOException
+     */
+    public boolean maybeMerge() throws IOException {
+
+        List<SegmentMeta> members = pickMerge(readManifest().segments);
+
+        if (members == null) {
+
+            return false;
+
+        }
+
+        long mergeStartT = System.nanoTime();
+
+        String name = reserveName();
+        File output = new File(directory, name);
+
+        SegmentMeta merged;
+
+        try {
+
+            merged = merge(members, name);
+
+        } catch (FileNotFoundException e) {
+
+            // merged or deleted by another process meanwhile
+            output.delete();
+
+            return false;
+
+        }
+
+        boolean committed = false;
+
+        synchronized (this) {
+
+            try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+
+                Manifest manifest = readManifest();
+
+                int start = indexOf(manifest.segments, members.get(0).name);
+
+                if (start >= 0 && start + members.size() <= manifest.segments.size()) {
+
+                    committed = true;
+
+                    for (int i = 0; i < members.size(); i++) {
+
+                        if (!manifest.segments.get(start + i).name.equals(members.get(i).name)) {
+
+                            committed = false;
+
+                        }
+
+                    }
+
+                }
+
+                if (committed) {
+
+                    manifest.segments.subList(start, start + members.size()).clear();
+                    manifest.segments.add(start, merged);
+                    manifest.version++;
+
+                    writeManifest(manifest);
+
+                }
+
+            }
+
+        }
+
+        if (!committed) {
+
+            logger.info("(SegmentedIndex) The segments of " + name + " changed meanwhile, dropping the merge");
+
+            output.delete();
+
+            return false;
+
+        }
+
+        for (SegmentMeta member : members) {
+
+            new File(directory, member.name).delete();
+
+        }
+
+        merges.incrementAndGet();
+
+        logger.info("(SegmentedIndex) Merged " + members.size() + " (n) segments into " + name + " : "
+                + merged.numDocs + " (n) docs, " + merged.numPostings + " (n) postings in "
+                + ((System.nanoTime() - mergeStartT) / 1000000) + " (ms)");
+
+        return true;
+
+    }
+
+    private List<SegmentMeta> pickMerge(List<SegmentMeta> segments) {
+
+        int runStart = 0;
+
+        for (int i = 1; i <= segments.size(); i++) {
+
+            if (i == segments.size() || level(segments.get(i)) != level(segments.get(runStart))) {
+
+                runStart = i;
+
+                continue;
+
+            }
+
+            if (i - runStart + 1 == mergeFactor) {
+
+                return new ArrayList<SegmentMeta>(segments.subList(runStart, i + 1));
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    private int level(SegmentMeta segment) {
+
+        if (segment.numPostings <= 1) {
+
+            return 0;
+
+        }
+
+        return (int) Math.floor(Math.log(segment.numPostings) / Math.log(mergeFactor));
+
+    }
+
+    /**
+     * K-way merge of the words of adjacent segments (oldest first), a doc
+     * being kept from the newest segment holding it.
+     */
+    private SegmentMeta merge(List<SegmentMeta> members, String name) throws IOException {
+
+        ArrayList<IndexSegment> segments = open(members);
+
+        IndexSegmentWriter writer = new IndexSegmentWriter(new File(directory, name));
+
+        try {
+
+            // docs: the newest wins
+            HashMap<Integer, Integer> owners = new HashMap<Integer, Integer>();
+
+            for (int s = 0; s < segments.size(); s++) {
+
+                for (int i = 0; i < segments.get(s).numDocs(); i++) {
+
+                    owners.put(segments.get(s).getDocID(i), s);
+
+                }
+
+            }
+
+            int[] docIDs = new int[owners.size()];
+            int n = 0;
+
+            for (int docID : owners.keySet()) {
+
+                docIDs[n++] = docID;
+
+            }
+
+            Arrays.sort(docIDs);
+
+            long[] sumSquares = new long[docIDs.length];
+            DocInfo[] infos = new DocInfo[docIDs.length];
+
+            for (int i = 0; i < docIDs.length; i++) {
+
+                IndexSegment owner = segments.get(owners.get(docIDs[i]));
+                int position = owner.findDoc(docIDs[i]);
+
+                sumSquares[i] = owner.getSumSquares(position);
+                infos[i] = owner.getDocInfo(position);
+
+                // url & title known by an older copy only
+                for (int s = owners.get(docIDs[i]) - 1; infos[i] == null && s >= 0; s--) {
+
+                    int older = segments.get(s).findDoc(docIDs[i]);
+
+                    if (older >= 0) {
+
+                        infos[i] = segments.get(s).getDocInfo(older);
+
+                    }
+
+                }
+
+            }
+
+            writer.writeDocs(docIDs, sumSquares, infos, docIDs.length);
+
+            // words: segments ordered by their current word
+            PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                    (a, b) -> segments.get(a).word().compareTo(segments.get(b).word()));
+
+            for (int s = 0; s < segments.size(); s++) {
+
+                if (segments.get(s).nextWord()) {
+
+                    queue.add(s);
+
+                }
+
+            }
+
+            LongList postings = new LongList();
+
+            int[] wordDocIDs = new int[16];
+            int[] wordTfs = new int[16];
+
+            while (!queue.isEmpty()) {
+
+                String word = segments.get(queue.peek()).word();
+
+                postings.size = 0;
+
+                while (!queue.isEmpty() && segments.get(queue.peek()).word().equals(word)) {
+
+                    int s = queue.poll();
+
+                    IndexSegment segment = segments.get(s);
+
+                    for (int i = 0; i < segment.numPostings(); i++) {
+
+                        if (owners.get(segment.docIDs()[i]) == s) {
+
+                            postings.add(((long) segment.docIDs()[i] << 32) | (segment.tfs()[i] & 0xffffffffL));
+
+                        }
+
+                    }
+
+                    if (segment.nextWord()) {
+
+                        queue.add(s);
+
+                    }
+
+                }
+
+                postings.sort();
+
+                if (postings.size > wordDocIDs.length) {
+
+                    wordDocIDs = new int[postings.size];
+                    wordTfs = new int[postings.size];
+
+                }
+
+                for (int i = 0; i < postings.size; i++) {
+
+                    wordDocIDs[i] = (int) (postings.values[i] >> 32);
+                    wordTfs[i] = (int) postings.values[i];
+
+                }
+
+                writer.addWord(word, wordDocIDs, wordTfs, postings.size);
+
+            }
+
+            writer.commit();
+
+        } catch (IOException | RuntimeException e) {
+
+            writer.abort();
+
+            throw e;
+
+        } finally {
+
+            close(segments);
+
+        }
+
+        return new SegmentMeta(name, writer.getNumDocs(), writer.getNumPostings());
+
+    }
+
+    /**
+     * Merge & reload in the background: every pollMs, merge what the policy
+     * picks, then hand a new snapshot to the listener if the manifest changed
+     * (e.g. a run was sealed). A failed load keeps the previous snapshot and
+     * is retried at the next poll.
+     *
+     * @param pollMs     : [long]
+     * @param docRange   : [DocRange]
+     * @param docInfoDBs : [List<IndexStorage>]
+     * @param listener   : [Consumer<Snapshot>], e.g. swaps the index of the
+     *                   match handler
+     */
+    public synchronized void start(long pollMs, DocRange docRange, List<IndexStorage> docInfoDBs,
+            Consumer<Snapshot> listener) {
+
+        if (poller != null) {
+
+            return;
+
+        }
+
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+
+            Thread t = new Thread(r, "index-segment-poller");
+            t.setDaemon(true);
+
+            return t;
+
+        });
+
+        poller.scheduleWithFixedDelay(() -> {
+
+            try {
+
+                while (maybeMerge()) {
+
+                    // cascade to the next level
+                }
+
+                if (readManifest().version != loadedVersion) {
+
+                    listener.accept(load(docRange, docInfoDBs));
+
+                }
+
+            } catch (IOException | RuntimeException e) {
+
+                logger.error("(SegmentedIndex) Fail to merge / reload the segments! " + e.getMessage());
+
+            }
+
+        }, pollMs, pollMs, TimeUnit.MILLISECONDS);
+
+    }
+
+    public synchronized void stop() {
+
+        if (poller != null) {
+
+            poller.shutdownNow();
+
+        }
+
+    }
+
+    public File getDirectory() {
+
+        return directory;
+
+    }
+
+    public int getNumSegments() {
+
+        return numSegments;
+
+    }
+
+    public int getNumDocs() {
+
+        return numDocs;
+
+    }
+
+    public long getNumPostings() {
+
+        return numPostings;
+
+    }
+
+    public long getNumMerges() {
+
+        return merges.get();
+
+    }
+
+    public long getLastLoadMs() {
+
+        return lastLoadMs;
+
+    }
+
+    public long getLoadedVersion() {
+
+        return loadedVersion;
+
+    }
+
+    private ArrayList<IndexSegment> open(List<SegmentMeta> metas) throws IOException {
+
+        ArrayList<IndexSegment> segments = new ArrayList<IndexSegment>();
+
+        try {
+
+            for (SegmentMeta meta : metas) {
+
+                segments.add(new IndexSegment(new File(directory, meta.name)));
+
+            }
+
+        } catch (IOException e) {
+
+            close(segments);
+
+            throw e;
+
+        }
+
+        return segments;
+
+    }
+
+    private static void close(List<IndexSegment> segments) {
+
+        for (IndexSegment segment : segments) {
+
+            try {
+
+                segment.close();
+
+            } catch (IOException e) {
+
+                logger.debug("(SegmentedIndex) Fail to close " + segment.getFile());
+
+            }
+
+        }
+
+    }
+
+    private static int indexOf(List<SegmentMeta> segments, String name) {
+
+        for (int i = 0; i < segments.size(); i++) {
+
+            if (segments.get(i).name.equals(name)) {
+
+                return i;
+
+            }
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Name of a new segment (the counter is kept in the manifest).
+     */
+    private synchronized String reserveName() throws IOException {
+
+        try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+
+            Manifest manifest = readManifest();
+
+            String name = String.format("seg_%06d", manifest.next);
+
+            manifest.next++;
+
+            writeManifest(manifest);
+
+            return name;
+
+        }
+
+    }
+
+    private FileChannel openLock() throws IOException {
+
+        return FileChannel.open(new File(directory, LOCK).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+
+    }
+
+    private Manifest readManifest() throws IOException {
+
+        Manifest manifest = new Manifest();
+
+        File file = new File(directory, MANIFEST);
+
+        if (!file.exists()) {
+
+            return manifest;
+
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                String[] fields = line.trim().split("\\s+");
+
+                if (fields[0].equals("version")) {
+
+                    manifest.version = Long.parseLong(fields[1]);
+
+                } else if (fields[0].equals("next")) {
+
+                    manifest.next = Integer.parseInt(fields[1]);
+
+                } else if (fields.length == 3) {
+
+                    manifest.segments.add(
+                            new SegmentMeta(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+
+                }
+
+            }
+
+        }
+
+        return manifest;
+
+    }
+
+    /**
+     * Written next to the manifest, then renamed over it (the readers never
+     * see a partial manifest).
+     */
+    private void writeManifest(Manifest manifest) throws IOException {
+
+        File tmp = new File(directory, MANIFEST + ".tmp");
+
+        try (PrintWriter writer = new PrintWriter(tmp)) {
+
+            writer.println("version " + manifest.version);
+            writer.println("next " + manifest.next);
+
+            for (SegmentMeta segment : manifest.segments) {
+
+                writer.println(segment.name + " " + segment.numDocs + " " + segment.numPostings);
+
+            }
+
+        }
+
+        Files.move(tmp.toPath(), new File(directory, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /**
+     * Growable array of packed (docID, tf) postings.
+     */
+    private static class LongList {
+
+        long[] values = new long[8];
+        int size = 0;
+
+        void add(long value) {
+
+            if (size == values.length) {
+
+                values = Arrays.copyOf(values, size * 2);
+
+            }
+
+            values[size++] = value;
+
+        }
+
+        void sort() {
+
+            Arrays.sort(values, 0, size);
+
+        }
+
+    }
+
+}
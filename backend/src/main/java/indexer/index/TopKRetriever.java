@@ -0,0 +1,218 @@
+package indexer.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Conjunctive top-k retrieval with block-max dynamic pruning.
+ *
+ * Once the heap holds k documents, its minimum score is the threshold a new
+ * document has to beat. Before aligning the cursors on a candidate, the
+ * block-max weights of the blocks that may hold it are summed up: if the sum
+ * can not beat the threshold, every docID up to the nearest block end is
+ * skipped without decoding or scoring those documents.
+ *
+ * With the static quality of the docs, the weighted block-max quality is
+ * added to the bounds. Once the index is ordered by quality, the quality of
+ * the docs only decreases along the lists, so the retrieval stops as soon as
+ * the best tf-idf sum plus the current block quality can not beat the
+ * threshold (early termination).
+ */
+public class TopKRetriever {
+
+    static Logger logger = LogManager.getLogger(TopKRetriever.class);
+
+    private final InvertedIndex index;
+
+    // number of documents fully scored by the last call of retrieve
+    private int numEvaluated = 0;
+
+    public TopKRetriever(InvertedIndex index) {
+
+        this.index = index;
+
+    }
+
+    public int getNumEvaluated() {
+
+        return numEvaluated;
+
+    }
+
+    /**
+     * Retrieve the k best documents containing all the terms.
+     *
+     * @param terms : [List<String>], the (existed) lemmas of the query
+     * @param k     : [int], number of documents to return (must be > 0)
+     * @return [List<ScoredDoc>], sorted by score in descending order
+     */
+    public List<ScoredDoc> retrieve(List<String> terms, int k) {
+
+        numEvaluated = 0;
+
+        PriorityQueue<ScoredDoc> heap = new PriorityQueue<ScoredDoc>(k + 1,
+                (a, b) -> Float.compare(a.getScore(), b.getScore()));
+
+        PostingList[] lists = new PostingList[terms.size()];
+        PostingList.Cursor[] cursors = new PostingList.Cursor[terms.size()];
+
+        float maxScore = 0;
+
+        float qualityWeight = index.getQualityWeight();
+
+        for (int i = 0; i < terms.size(); i++) {
+
+            lists[i] = index.getPostings(terms.get(i));
+
+            if (lists[i] == null) {
+
+                return new ArrayList<ScoredDoc>();
+
+            }
+
+            cursors[i] = lists[i].cursor();
+            maxScore += lists[i].getMaxWeight();
+
+        }
+
+        int candidate = 0;
+
+        while (candidate != PostingList.NO_MORE_DOCS) {
+
+            if (heap.size() == k) {
+
+                float threshold = heap.peek().getScore();
+
+                // no document at all can enter the heap
+                if (maxScore + qualityWeight <= threshold) {
+
+                    break;
+
+                }
+
+                // block-max check on the candidate
+                float blockBound = 0;
+                int blockQuality = DocQuality.LEVELS;
+                int nearestBlockEnd = PostingList.NO_MORE_DOCS;
+
+                for (int i = 0; i < cursors.length; i++) {
+
+                    int b = cursors[i].findBlock(candidate);
+
+                    if (b == -1) {
+
+                        nearestBlockEnd = PostingList.NO_MORE_DOCS;
+                        blockBound = -1;
+                        break;
+
+                    }
+
+                    blockBound += lists[i].getBlockMaxWeight(b);
+                    blockQuality = Math.min(blockQuality, lists[i].getBlockMaxQuality(b));
+                    nearestBlockEnd = Math.min(nearestBlockEnd, lists[i].getBlockLastDoc(b));
+
+                }
+
+                if (blockBound < 0) {
+
+                    // one of the lists is exhausted
+                    break;
+
+                }
+
+                float qualityBound = qualityWeight * DocQuality.toUnit(blockQuality);
+
+                // quality ordered: no doc from here on is better than the block
+                if (index.isQualityOrdered() && maxScore + qualityBound <= threshold) {
+
+                    break;
+
+                }
+
+                if (blockBound + qualityBound <= threshold) {
+
+                    candidate = nearestBlockEnd + 1;
+                    continue;
+
+                }
+
+            }
+
+            // align every cursor on the same docID (leapfrog)
+            int docID = cursors[0].advance(candidate);
+
+            if (docID == PostingList.NO_MORE_DOCS) {
+
+                break;
+
+            }
+
+            boolean aligned = true;
+
+            for (int i = 1; i < cursors.length; i++) {
+
+                int other = cursors[i].advance(docID);
+
+                if (other != docID) {
+
+                    candidate = other;
+                    aligned = false;
+                    break;
+
+                }
+
+            }
+
+            if (!aligned) {
+
+                continue;
+
+            }
+
+            numEvaluated++;
+
+            float score = 0;
+
+            for (PostingList.Cursor cursor : cursors) {
+
+                score += cursor.weight();
+
+            }
+
+            int quality = cursors[0].quality();
+
+            score += qualityWeight * DocQuality.toUnit(quality);
+
+            if (index.getDocInfo(index.toDocID(docID)) != null
+                    && (heap.size() < k || score > heap.peek().getScore())) {
+
+                heap.add(new ScoredDoc(index.toDocID(docID), score, quality));
+
+                if (heap.size() > k) {
+
+                    heap.poll();
+
+                }
+
+            }
+
+            candidate = docID + 1;
+
+        }
+
+        ArrayList<ScoredDoc> results = new ArrayList<ScoredDoc>(heap);
+
+        results.sort((a, b) -> (a.getScore() != b.getScore()) ? Float.compare(b.getScore(), a.getScore())
+                : Integer.compare(a.getDocID(), b.getDocID()));
+
+        logger.debug("(TopKRetriever) evaluated " + numEvaluated + " (n) docs for top " + k);
+
+        return results;
+
+    }
+
+}
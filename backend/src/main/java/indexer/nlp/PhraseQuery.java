@@ -0,0 +1,242 @@
+package indexer.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.stanford.nlp.ling.*;
+
+/**
+ * Query syntax, parsed from the raw query before the lemmatizer.
+ * A quoted part ("new york") is a phrase: its words must appear in this
+ * order, next to each other, inside the same tag of the document. The words
+ * of the phrases still take part in the conjunctive match (see getText), the
+ * phrases are only verified on the matched documents (see
+ * IndexScorer.matchPhrases).
+ * An unclosed quote runs to the end of the query.
+ */
+public class PhraseQuery {
+
+    private final String text;
+
+    private final List<String> phrases;
+
+    private PhraseQuery(String text, List<String> phrases) {
+
+        this.text = text;
+        this.phrases = phrases;
+
+    }
+
+    /**
+     * @param query : [String], the raw query (e.g. "new york" pizza)
+     * @return [PhraseQuery]
+     */
+    public static PhraseQuery parse(String query) {
+
+        StringBuilder text = new StringBuilder();
+        StringBuilder phrase = null;
+
+        ArrayList<String> phrases = new ArrayList<String>();
+
+        for (int i = 0; i < query.length(); i++) {
+
+            char c = query.charAt(i);
+
+            if (c == '"' || c == '\u201C' || c == '\u201D') {
+
+                if (phrase == null) {
+
+                    phrase = new StringBuilder();
+
+                } else {
+
+                    addPhrase(phrases, phrase.toString());
+
+                    phrase = null;
+
+                }
+
+                // keeps the words apart once the quotes are gone
+                text.append(' ');
+
+                continue;
+
+            }
+
+            text.append(c);
+
+            if (phrase != null) {
+
+                phrase.append(c);
+
+            }
+
+        }
+
+        if (phrase != null) {
+
+            addPhrase(phrases, phrase.toString());
+
+        }
+
+        return new PhraseQuery(text.toString(), phrases);
+
+    }
+
+    private static void addPhrase(List<String> phrases, String phrase) {
+
+        String normalized = phrase.trim().replaceAll("\\s+", " ");
+
+        // a single word is not a sequence
+        if (normalized.indexOf(' ') > 0) {
+
+            phrases.add(normalized);
+
+        }
+
+    }
+
+    /**
+     * @return [String], the query without the quotes (all the words, to be
+     *         lemmatized as before)
+     */
+    public String getText() {
+
+        return text;
+
+    }
+
+    /**
+     * @return [List<String>], the quoted phrases of more than one word
+     */
+    public List<String> getPhrases() {
+
+        return Collections.unmodifiableList(phrases);
+
+    }
+
+    public boolean hasPhrases() {
+
+        return !phrases.isEmpty();
+
+    }
+
+    /**
+     * A lemmatized phrase: its lemmas & their token offsets from the first one.
+     * The offsets follow the tokens of the lemmatizer, which also gives the
+     * hit positions (see ShortDocIndex), so a word at offset k must sit at
+     * pos + k of the first word.
+     */
+    public static class Phrase {
+
+        private final String text;
+        private final List<CoreLabel> lemmas;
+        private final int[] offsets;
+
+        /**
+         * @param text   : [String], the phrase as typed
+         * @param tokens : [List<CoreLabel>], the lemmatized phrase
+         * @param keep   : [List<Boolean>], whether the token is checked (e.g.
+         *               in the lexicon), the other ones only hold their place
+         */
+        public Phrase(String text, List<CoreLabel> tokens, List<Boolean> keep) {
+
+            this.text = text;
+            this.lemmas = new ArrayList<CoreLabel>();
+
+            int[] offsets = new int[tokens.size()];
+            int first = -1;
+
+            for (int i = 0; i < tokens.size(); i++) {
+
+                if (!keep.get(i)) {
+
+                    continue;
+
+                }
+
+                if (first < 0) {
+
+                    first = i;
+
+                }
+
+                offsets[lemmas.size()] = i - first;
+                lemmas.add(tokens.get(i));
+
+            }
+
+            this.offsets = Arrays.copyOf(offsets, lemmas.size());
+
+        }
+
+        public String getText() {
+
+            return text;
+
+        }
+
+        public List<CoreLabel> getLemmas() {
+
+            return lemmas;
+
+        }
+
+        /**
+         * @return [int], position of the lemma i minus the one of the first
+         *         lemma
+         */
+        public int getOffset(int i) {
+
+            return offsets[i];
+
+        }
+
+        public int size() {
+
+            return lemmas.size();
+
+        }
+
+        /**
+         * @return [String], the lemmas in order, "_" for each skipped token
+         *         (same key => same phrase, e.g. for the result cache)
+         */
+        public String getKey() {
+
+            StringBuilder key = new StringBuilder("\"");
+
+            for (int i = 0; i < lemmas.size(); i++) {
+
+                if (i > 0) {
+
+                    for (int gap = offsets[i - 1] + 1; gap < offsets[i]; gap++) {
+
+                        key.append(" _");
+
+                    }
+
+                    key.append(' ');
+
+                }
+
+                key.append(lemmas.get(i).lemma());
+
+            }
+
+            return key.append('"').toString();
+
+        }
+
+        @Override
+        public String toString() {
+
+            return "\"" + text + "\"";
+
+        }
+
+    }
+
+}
@@ -0,0 +1,283 @@
+package indexer.nlp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import edu.stanford.nlp.ling.*;
+import edu.stanford.nlp.process.Morphology;
+
+/**
+ * Query analysis shared by the Spark worker threads (match & snippet handlers).
+ * 1. bounded LRU: normalized query => lemmas
+ * 2. fast path: short alphanumeric queries are lemmatized token by token
+ * (Morphology), without tokenize / ssplit / pos
+ * 3. otherwise: a Lemmatizer (full CoreNLP pipeline) is checked out of a
+ * fixed pool, so that at most poolSize queries are POS tagged at once
+ *
+ * The analysis latency of each path is kept for /monitor.
+ */
+public class QueryAnalyzer {
+
+    static Logger logger = LogManager.getLogger(QueryAnalyzer.class);
+
+    public static final String CACHE = "cache";
+    public static final String FAST = "fast";
+    public static final String PIPELINE = "pipeline";
+
+    public static final String[] PATHS = { CACHE, FAST, PIPELINE };
+
+    // queries of at most this many alphanumeric tokens skip the pipeline
+    private static final int FAST_PATH_MAX_TOKENS = 3;
+
+    private static final Pattern ALPHANUMERIC = Pattern.compile("[A-Za-z0-9]+");
+
+    private final BlockingQueue<Lemmatizer> pipelines;
+
+    private final int cacheSize;
+
+    private final boolean fastPath;
+
+    // access ordered => LRU (guarded by itself)
+    private final LinkedHashMap<String, List<CoreLabel>> cache;
+
+    // Morphology is not thread safe => one per worker thread
+    private final ThreadLocal<Morphology> morphology = ThreadLocal.withInitial(Morphology::new);
+
+    // per path: [0] number of queries, [1] total nanos
+    private final Map<String, AtomicLong[]> latencies = new LinkedHashMap<String, AtomicLong[]>();
+
+    /**
+     * @param poolSize  : [int], number of pipelines (concurrent POS tagging)
+     * @param cacheSize : [int], max number of cached queries (0 => no cache)
+     * @param fastPath  : [boolean], lemmatize short alphanumeric queries
+     *                  without the pipeline
+     */
+    public QueryAnalyzer(int poolSize, int cacheSize, boolean fastPath) {
+
+        this.pipelines = new ArrayBlockingQueue<Lemmatizer>(Math.max(1, poolSize));
+
+        for (int i = 0; i < Math.max(1, poolSize); i++) {
+
+            this.pipelines.add(new Lemmatizer());
+
+        }
+
+        this.cacheSize = cacheSize;
+        this.fastPath = fastPath;
+
+        this.cache = new LinkedHashMap<String, List<CoreLabel>>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<CoreLabel>> eldest) {
+
+                return size() > QueryAnalyzer.this.cacheSize;
+
+            }
+
+        };
+
+        for (String path : PATHS) {
+
+            latencies.put(path, new AtomicLong[] { new AtomicLong(), new AtomicLong() });
+
+        }
+
+    }
+
+    /**
+     * Lemmatize the query.
+     * CoreLabel.word() - the original word, CoreLabel.lemma() - the lemma
+     *
+     * @param query : [String]
+     * @return [List<CoreLabel>], a new list (the labels are shared, do not
+     *         modify them)
+     */
+    public List<CoreLabel> getLemmas(String query) {
+
+        long startT = System.nanoTime();
+
+        String normalized = normalize(query);
+
+        List<CoreLabel> lemmas = null;
+
+        synchronized (cache) {
+
+            lemmas = cache.get(normalized);
+
+        }
+
+        if (lemmas != null) {
+
+            record(CACHE, startT);
+
+            return new ArrayList<CoreLabel>(lemmas);
+
+        }
+
+        String path = PIPELINE;
+
+        if (fastPath && isShortAlphanumeric(normalized)) {
+
+            lemmas = lemmatizeTokens(normalized);
+            path = FAST;
+
+        } else {
+
+            lemmas = lemmatizePipeline(normalized);
+
+        }
+
+        if (cacheSize > 0 && !lemmas.isEmpty()) {
+
+            synchronized (cache) {
+
+                cache.put(normalized, lemmas);
+
+            }
+
+        }
+
+        long elapsed = record(path, startT);
+
+        logger.debug("(QueryAnalyzer) " + path + " analysis of \"" + normalized + "\" : " + (elapsed / 1000) + " (us)");
+
+        return new ArrayList<CoreLabel>(lemmas);
+
+    }
+
+    private String normalize(String query) {
+
+        return query.trim().replaceAll("\\s+", " ");
+
+    }
+
+    private boolean isShortAlphanumeric(String query) {
+
+        if (query.isEmpty()) {
+
+            return false;
+
+        }
+
+        String[] tokens = query.split(" ");
+
+        if (tokens.length > FAST_PATH_MAX_TOKENS) {
+
+            return false;
+
+        }
+
+        for (String token : tokens) {
+
+            if (!ALPHANUMERIC.matcher(token).matches()) {
+
+                return false;
+
+            }
+
+        }
+
+        return true;
+
+    }
+
+    private List<CoreLabel> lemmatizeTokens(String query) {
+
+        List<CoreLabel> lemmas = new ArrayList<CoreLabel>();
+
+        for (String token : query.split(" ")) {
+
+            CoreLabel label = new CoreLabel();
+
+            label.setWord(token);
+            label.setValue(token);
+            label.setOriginalText(token);
+            label.setLemma(morphology.get().stem(token));
+
+            lemmas.add(label);
+
+        }
+
+        return lemmas;
+
+    }
+
+    private List<CoreLabel> lemmatizePipeline(String query) {
+
+        Lemmatizer lemmatizer = null;
+
+        try {
+
+            lemmatizer = pipelines.take();
+
+            return lemmatizer.getLemmas(query);
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            logger.warn("(QueryAnalyzer) Interrupted while waiting for a pipeline!");
+
+            return new ArrayList<CoreLabel>();
+
+        } finally {
+
+            if (lemmatizer != null) {
+
+                pipelines.offer(lemmatizer);
+
+            }
+
+        }
+
+    }
+
+    private long record(String path, long startT) {
+
+        long elapsed = System.nanoTime() - startT;
+
+        AtomicLong[] latency = latencies.get(path);
+        latency[0].incrementAndGet();
+        latency[1].addAndGet(elapsed);
+
+        return elapsed;
+
+    }
+
+    public long getQueries(String path) {
+
+        return latencies.get(path)[0].get();
+
+    }
+
+    /**
+     * Average analysis latency of the path in ms.
+     */
+    public float getAverageLatency(String path) {
+
+        long queries = getQueries(path);
+
+        return (queries == 0) ? 0 : (float) (latencies.get(path)[1].get() / 1e6 / queries);
+
+    }
+
+    public int getCachedQueries() {
+
+        synchronized (cache) {
+
+            return cache.size();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package indexer.scorer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+/**
+ * The word hits retrieved for a single query: lemma => docID => hits.
+ * Built once per request and never modified afterwards, so that concurrent
+ * queries served by IndexScorer do not share any mutable hit state.
+ */
+public class HitBundle {
+
+    public static final HitBundle EMPTY = new HitBundle(new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>());
+
+    private final Map<String, Map<Integer, List<WordHit>>> hits;
+
+    /**
+     * @param hits : [HashMap], lemma => docID => hits, copied into read-only maps
+     */
+    public HitBundle(HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits) {
+
+        HashMap<String, Map<Integer, List<WordHit>>> copied = new HashMap<String, Map<Integer, List<WordHit>>>();
+
+        for (Map.Entry<String, HashMap<Integer, ArrayList<WordHit>>> wordEntry : hits.entrySet()) {
+
+            HashMap<Integer, List<WordHit>> docHits = new HashMap<Integer, List<WordHit>>();
+
+            for (Map.Entry<Integer, ArrayList<WordHit>> docEntry : wordEntry.getValue().entrySet()) {
+
+                docHits.put(docEntry.getKey(), Collections.unmodifiableList(new ArrayList<WordHit>(docEntry.getValue())));
+
+            }
+
+            copied.put(wordEntry.getKey(), Collections.unmodifiableMap(docHits));
+
+        }
+
+        this.hits = Collections.unmodifiableMap(copied);
+
+    }
+
+    /**
+     * Hits of the lemma in the document (empty if there is none).
+     *
+     * @param word  : [String], the lemma
+     * @param docID : [int]
+     * @return [List<WordHit>], read-only
+     */
+    public List<WordHit> getWordHits(String word, int docID) {
+
+        Map<Integer, List<WordHit>> docHits = hits.get(word);
+
+        if (docHits == null || !docHits.containsKey(docID)) {
+
+            return Collections.emptyList();
+
+        }
+
+        return docHits.get(docID);
+
+    }
+
+    public int numWords() {
+
+        return hits.size();
+
+    }
+
+}
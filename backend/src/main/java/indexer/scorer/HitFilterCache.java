@@ -0,0 +1,421 @@
+package indexer.scorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import api.http.ServiceHttpClient;
+import indexer.index.HitBloomFilter;
+
+/**
+ * The Bloom filters published by the hit servers (/retrieve/bloom/:hitname),
+ * one per hit group, fetched from an available replica in the background
+ * and refreshed every refreshMs (If-None-Match, unchanged filters are not
+ * sent again).
+ *
+ * A hit group without a filter (not fetched yet, being rebuilt, no replica
+ * answered) is never pruned. Every filter is tagged with the index generation
+ * it was fetched in, and only a filter of the current generation prunes: the
+ * synchronization asks the hit servers to rebuild (which withdraws their
+ * filters) before it bumps the generation, and each refresh reads the
+ * generation first (setGenerationSource), so a filter fetched before a sync
+ * prunes at most until the next refresh or keep-alive poll sees the new
+ * generation. A fetch that was in flight while the filters were dropped
+ * (invalidate) is discarded.
+ */
+public class HitFilterCache {
+
+    static Logger logger = LogManager.getLogger(HitFilterCache.class);
+
+    private static class CachedFilter {
+
+        private final HitBloomFilter filter;
+        private final String address;
+        private final String etag;
+        private final long generation;
+
+        CachedFilter(HitBloomFilter filter, String address, String etag, long generation) {
+
+            this.filter = filter;
+            this.address = address;
+            this.etag = etag;
+            this.generation = generation;
+
+        }
+
+    }
+
+    private final Map<String, ArrayList<String>> hitAddresses;
+
+    private final ReplicaHealth replicaHealth;
+
+    private final long refreshMs;
+
+    private final int timeoutMs;
+
+    // hit group => filter
+    private final ConcurrentHashMap<String, CachedFilter> filters = new ConcurrentHashMap<String, CachedFilter>();
+
+    // index generation of the prunable filters, -1 => not known yet
+    private volatile long generation = -1;
+
+    // reads the current index generation, null => a single generation
+    private volatile LongSupplier generationSource = null;
+
+    // bumped by invalidate (guarded by this)
+    private long epoch = 0;
+
+    // requests not sent, (variant, doc) lookups not sent
+    private final AtomicLong skippedRequests = new AtomicLong();
+    private final AtomicLong skippedLookups = new AtomicLong();
+
+    private ScheduledExecutorService refresher = null;
+
+    /**
+     * @param hitAddresses  : [Map<String, ArrayList<String>>], hit group =>
+     *                      replica addresses
+     * @param replicaHealth : [ReplicaHealth], the filters are fetched from an
+     *                      available replica
+     * @param refreshMs     : [long], time between two refreshes
+     * @param timeoutMs     : [int], deadline of a fetch
+     */
+    public HitFilterCache(Map<String, ArrayList<String>> hitAddresses, ReplicaHealth replicaHealth, long refreshMs,
+            int timeoutMs) {
+
+        this.hitAddresses = hitAddresses;
+        this.replicaHealth = replicaHealth;
+        this.refreshMs = refreshMs;
+        this.timeoutMs = timeoutMs;
+
+    }
+
+    /**
+     * Start the refresher thread (no-op without any hit group or with
+     * refreshMs <= 0, i.e. no pruning).
+     */
+    public synchronized void start() {
+
+        if (refresher != null || hitAddresses.isEmpty() || refreshMs <= 0) {
+
+            return;
+
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+
+            Thread t = new Thread(r, "hit-bloom-refresher");
+            t.setDaemon(true);
+
+            return t;
+
+        });
+
+        refresher.scheduleWithFixedDelay(this::refreshAll, 0, refreshMs, TimeUnit.MILLISECONDS);
+
+    }
+
+    public synchronized void stop() {
+
+        if (refresher != null) {
+
+            refresher.shutdownNow();
+
+        }
+
+    }
+
+    /**
+     * @param generationSource : [LongSupplier], current index generation (e.g.
+     *                         IndexMySQLStorage.getIndexGeneration), read at
+     *                         the start of every refresh, < 0 if unknown
+     */
+    public void setGenerationSource(LongSupplier generationSource) {
+
+        this.generationSource = generationSource;
+
+        refreshNow();
+
+    }
+
+    /**
+     * New index generation: drop every filter and fetch them again (the
+     * fetches in flight are discarded).
+     *
+     * @param newGeneration : [long]
+     */
+    public synchronized void invalidate(long newGeneration) {
+
+        filters.clear();
+
+        generation = newGeneration;
+        epoch++;
+
+        refreshNow();
+
+    }
+
+    private synchronized void refreshNow() {
+
+        if (refresher != null) {
+
+            refresher.execute(this::refreshAll);
+
+        }
+
+    }
+
+    private void refreshAll() {
+
+        LongSupplier source = generationSource;
+
+        if (source != null) {
+
+            long current = source.getAsLong();
+
+            synchronized (this) {
+
+                if (current >= 0 && current != generation) {
+
+                    logger.info("(HitFilterCache) index generation " + generation + " => " + current
+                            + ", dropping " + filters.size() + " (n) filters");
+
+                    filters.clear();
+
+                    generation = current;
+                    epoch++;
+
+                }
+
+            }
+
+        }
+
+        for (String hitGroup : hitAddresses.keySet()) {
+
+            refresh(hitGroup);
+
+        }
+
+    }
+
+    /**
+     * Keep a fetched filter unless the filters were dropped since the fetch
+     * started.
+     */
+    private synchronized void store(String hitGroup, CachedFilter fetched, long fetchEpoch) {
+
+        if (fetchEpoch == epoch && fetched.generation == generation) {
+
+            filters.put(hitGroup, fetched);
+
+        }
+
+    }
+
+    private void refresh(String hitGroup) {
+
+        long fetchGeneration;
+        long fetchEpoch;
+
+        synchronized (this) {
+
+            fetchGeneration = generation;
+            fetchEpoch = epoch;
+
+        }
+
+        CachedFilter cached = filters.get(hitGroup);
+
+        for (String address : hitAddresses.get(hitGroup)) {
+
+            if (!replicaHealth.isAvailable(hitGroup, address)) {
+
+                continue;
+
+            }
+
+            HashMap<String, String> headers = new HashMap<String, String>();
+
+            if (cached != null && cached.address.equals(address)) {
+
+                headers.put("If-None-Match", cached.etag);
+
+            }
+
+            try (ServiceHttpClient.Response resp = ServiceHttpClient.shared()
+                    .get("http://" + address + "/retrieve/bloom/" + hitGroup, headers, timeoutMs)) {
+
+                if (resp.getStatus() == 304) {
+
+                    return;
+
+                }
+
+                if (resp.getStatus() == 200) {
+
+                    HitBloomFilter filter = HitBloomFilter.fromBytes(resp.getBody().readAllBytes());
+
+                    store(hitGroup, new CachedFilter(filter, address, resp.getHeader("ETag"), fetchGeneration),
+                            fetchEpoch);
+
+                    logger.debug("(HitFilterCache) " + hitGroup + " : " + filter.getNumKeys() + " (n) keys from "
+                            + address);
+
+                } else {
+
+                    // being rebuilt (503) or not served => no pruning
+                    filters.remove(hitGroup);
+
+                }
+
+                return;
+
+            } catch (IOException | IllegalArgumentException e) {
+
+                logger.debug("(HitFilterCache) unable to fetch the filter of " + hitGroup + " from " + address);
+
+            }
+
+        }
+
+        // no replica answered => the cached filter can not be checked anymore
+        if (filters.remove(hitGroup) != null) {
+
+            logger.debug("(HitFilterCache) no replica of " + hitGroup + " answered, filter dropped");
+
+        }
+
+    }
+
+    /**
+     * @param hitGroup : [String], e.g. hit0
+     * @return [HitBloomFilter], null if the group can not be pruned (no
+     *         filter or one of an older index generation)
+     */
+    public HitBloomFilter get(String hitGroup) {
+
+        CachedFilter cached = filters.get(hitGroup);
+
+        return (cached == null || cached.generation != generation) ? null : cached.filter;
+
+    }
+
+    /**
+     * Keep the variants which might have hits in the docs, and the docs which
+     * might hold one of them.
+     *
+     * @param hitGroup : [String]
+     * @param variants : [List<String>], the variants sent to the group
+     * @param docIDs   : [List<Integer>], the matched docs
+     * @return [List<Integer>], the docs to ask for (empty => no request), the
+     *         variants are pruned in place
+     */
+    public List<Integer> prune(String hitGroup, List<String> variants, List<Integer> docIDs) {
+
+        HitBloomFilter filter = get(hitGroup);
+
+        if (filter == null) {
+
+            return docIDs;
+
+        }
+
+        long numLookups = (long) variants.size() * docIDs.size();
+
+        ArrayList<String> keptVariants = new ArrayList<String>();
+        ArrayList<Integer> keptDocIDs = new ArrayList<Integer>();
+
+        boolean[] keptDoc = new boolean[docIDs.size()];
+
+        for (String variant : variants) {
+
+            boolean any = false;
+
+            for (int i = 0; i < docIDs.size(); i++) {
+
+                if (filter.mightContain(variant, docIDs.get(i))) {
+
+                    keptDoc[i] = true;
+                    any = true;
+
+                }
+
+            }
+
+            if (any) {
+
+                keptVariants.add(variant);
+
+            }
+
+        }
+
+        for (int i = 0; i < docIDs.size(); i++) {
+
+            if (keptDoc[i]) {
+
+                keptDocIDs.add(docIDs.get(i));
+
+            }
+
+        }
+
+        variants.clear();
+        variants.addAll(keptVariants);
+
+        if (keptVariants.isEmpty()) {
+
+            skippedRequests.incrementAndGet();
+
+        }
+
+        skippedLookups.addAndGet(numLookups - (long) keptVariants.size() * keptDocIDs.size());
+
+        return keptDocIDs;
+
+    }
+
+    public long getSkippedRequests() {
+
+        return skippedRequests.get();
+
+    }
+
+    public long getSkippedLookups() {
+
+        return skippedLookups.get();
+
+    }
+
+    public int getNumFilters() {
+
+        return filters.size();
+
+    }
+
+    public long getSizeInBytes() {
+
+        long size = 0;
+
+        for (CachedFilter cached : filters.values()) {
+
+            size += cached.filter.getSizeInBytes();
+
+        }
+
+        return size;
+
+    }
+
+}
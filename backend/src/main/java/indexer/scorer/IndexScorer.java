@@ -6,14 +6,26 @@ import org.apache.logging.log4j.Logger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import java.net.URL;
 import java.net.ConnectException;
-import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 import javax.swing.plaf.metal.MetalBorders.ScrollPaneBorder;
 
@@ -27,14 +39,19 @@ import edu.stanford.nlp.ling.*;
 import edu.stanford.nlp.pipeline.*;
 import io.github.cdimascio.dotenv.Dotenv;
 
+import api.data.HitBatchRequest;
 import api.data.IndexerMatch;
-import engine.utils.HttpUtils;
+import api.data.WordHitCodec;
+import api.http.ServiceHttpClient;
 
 import edu.upenn.cis455.mapreduce.worker.storage.IndexStorage;
 import edu.upenn.cis455.mapreduce.worker.storage.HitStorage;
 import edu.upenn.cis455.mapreduce.worker.storage.StorageFactory;
 import edu.upenn.cis455.mapreduce.worker.storage.entities.*;
 
+import indexer.index.Lexicon;
+import indexer.nlp.PhraseQuery;
+
 public class IndexScorer {
 
     static Logger logger = LogManager.getLogger(IndexScorer.class);
@@ -48,22 +65,74 @@ public class IndexScorer {
 
     private final IndexStorage indexDB;
 
+    // in-memory lexicon: word => indexed case variants (swapped with the
+    // index segments)
+    private volatile Lexicon lexicon;
+
     private static Dotenv dotenv = Dotenv.configure().load();
     private HashMap<String, ArrayList<String>> remoteHitAddresses = new HashMap<String, ArrayList<String>>();
 
     private ArrayList<HitStorage> localHitDBs = new ArrayList<HitStorage>();
 
-    private HashMap<String, HashMap<Integer, ArrayList<WordHit>>> remoteHits = new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>();
+    // bounded pool shared by all the queries to fan out the hit requests
+    // (once the queue is full, the query thread sends the request itself)
+    private final ThreadPoolExecutor hitRequestExecutor;
+
+    // deadline of the whole fan-out, also used as connect / read timeout
+    private final int hitRequestTimeout;
+
+    // ask the hit servers for the binary hit encoding (json otherwise)
+    private final boolean binaryHits;
+
+    // replica choice by latency & load, shown on /monitor
+    private ReplicaSelector replicaSelector;
+
+    // background health checks & circuit breakers, shown on /monitor
+    private ReplicaHealth replicaHealth;
 
-    public IndexScorer(IndexStorage indexDB, String hitStorageDirectory, boolean distributedHits) {
+    // bloom filters of the hit groups, to skip the requests with no hit
+    private HitFilterCache hitFilters;
+
+    // hedged requests: sent to the next replica once the percentile (of the
+    // recent latencies) is over, 0 => no hedging
+    private final double hedgePercentile;
+    private final long hedgeMinDelay;
+    private final ExecutorService hedgeExecutor;
+    private final AtomicLong hedgedRequests = new AtomicLong();
+
+    // min number of candidates verified per hit request (phrase queries)
+    private static final int PHRASE_BATCH = 50;
+
+    public IndexScorer(IndexStorage indexDB, Lexicon lexicon, String hitStorageDirectory, boolean distributedHits) {
 
         this.indexDB = indexDB;
+        this.lexicon = lexicon;
 
         this.hitStorageDirectory = hitStorageDirectory;
         this.distributedHits = distributedHits;
 
         this.numHitShards = Integer.parseInt(dotenv.get("INDEXER_NUM_HIT_SHARDS"));
 
+        int hitRequestThreads = Integer.parseInt(dotenv.get("INDEXER_HIT_REQUEST_THREADS", "16"));
+
+        this.hitRequestTimeout = Integer.parseInt(dotenv.get("INDEXER_HIT_REQUEST_TIMEOUT_MS", "3000"));
+
+        this.binaryHits = !dotenv.get("INDEXER_HIT_WIRE_FORMAT", "binary").equals("json");
+
+        // a saturated pool rejects the request (the hit group is then scored as timed out)
+        // instead of running it on the query thread, out of the query deadline
+        this.hitRequestExecutor = new ThreadPoolExecutor(hitRequestThreads, hitRequestThreads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(hitRequestThreads * 16),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.hedgePercentile = Double.parseDouble(dotenv.get("INDEXER_HEDGE_PERCENTILE", "95"));
+        this.hedgeMinDelay = Long.parseLong(dotenv.get("INDEXER_HEDGE_MIN_DELAY_MS", "5"));
+
+        // at most two attempts per hit request thread: bounded, a rejected attempt
+        // runs on the hit request thread (primary) or is not hedged (secondary)
+        this.hedgeExecutor = new ThreadPoolExecutor(0, 2 * hitRequestThreads, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.AbortPolicy());
+
         // TODO: decide whether to load local whatever or not
         if (!this.distributedHits) {
 
@@ -75,6 +144,32 @@ public class IndexScorer {
 
         }
 
+        this.replicaSelector = new ReplicaSelector(this.remoteHitAddresses);
+
+        this.replicaHealth = new ReplicaHealth(this.remoteHitAddresses,
+                Long.parseLong(dotenv.get("INDEXER_HEALTH_CHECK_INTERVAL_MS", "2000")),
+                Long.parseLong(dotenv.get("INDEXER_CIRCUIT_OPEN_MS", "5000")),
+                Integer.parseInt(dotenv.get("INDEXER_CIRCUIT_FAILURES", "3")),
+                Integer.parseInt(dotenv.get("INDEXER_HEALTH_CHECK_TIMEOUT_MS", "1000")));
+
+        this.replicaHealth.start();
+
+        this.hitFilters = new HitFilterCache(this.remoteHitAddresses, this.replicaHealth,
+                Long.parseLong(dotenv.get("INDEXER_HIT_BLOOM_REFRESH_MS", "60000")),
+                Integer.parseInt(dotenv.get("INDEXER_HEALTH_CHECK_TIMEOUT_MS", "1000")));
+
+        this.hitFilters.start();
+
+    }
+
+    /**
+     * @param lexicon : [Lexicon], e.g. extended with the words of new index
+     *                segments (see SegmentedIndex)
+     */
+    public void setLexicon(Lexicon lexicon) {
+
+        this.lexicon = lexicon;
+
     }
 
     /**
@@ -103,6 +198,42 @@ public class IndexScorer {
 
     }
 
+    /**
+     * Stop the hit request threads, used in /shutdown (called by IndexServer)
+     */
+    public void shutdownHitRequests() {
+
+        hitRequestExecutor.shutdownNow();
+        hedgeExecutor.shutdownNow();
+        replicaHealth.stop();
+        hitFilters.stop();
+
+    }
+
+    public ReplicaSelector getReplicaSelector() {
+
+        return replicaSelector;
+
+    }
+
+    public ReplicaHealth getReplicaHealth() {
+
+        return replicaHealth;
+
+    }
+
+    public HitFilterCache getHitFilters() {
+
+        return hitFilters;
+
+    }
+
+    public long getHedgedRequests() {
+
+        return hedgedRequests.get();
+
+    }
+
     /**
      * An access method for IndexServer to know the current remote hit addresses.
      * 
@@ -172,186 +303,514 @@ public class IndexScorer {
     }
 
     /**
-     * Prepare the wordhits by sending request to the api
-     * (/retrieve/:hitname/:word).
+     * Prepare the wordhits by sending request to the api (/retrieve/batch).
+     * The variants of all the lemmas are grouped by hit group first, so that
+     * each hit group receives at most one request per query. The requests are
+     * sent concurrently and share one deadline, hit groups that do not answer
+     * in time are left out of the bundle.
      * 
      * @param lemmas
      * @param matchedDocIDs
+     * @param withContexts  : [boolean], whether the hits should carry their
+     *                      contexts (only needed for the snippets)
+     * @return [HitBundle], the hits of this query only
      */
-    private void prepareWordHits(List<CoreLabel> lemmas, ArrayList<Integer> matchedDocIDs) {
+    private HitBundle prepareWordHits(List<CoreLabel> lemmas, List<Integer> matchedDocIDs, boolean withContexts) {
 
         if (!this.distributedHits) {
 
-            return;
+            return HitBundle.EMPTY;
 
         }
 
-        // reset
-        remoteHits.clear();
+        // lemma => docID => hits
+        HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>();
 
-        ObjectMapper mapper = new ObjectMapper();
+        // hit group => variants, variant => lemmas (a variant may be shared by lemmas)
+        HashMap<Integer, ArrayList<String>> groupedVariants = new HashMap<Integer, ArrayList<String>>();
+        HashMap<String, ArrayList<String>> variantLemmas = new HashMap<String, ArrayList<String>>();
 
-        try {
+        for (CoreLabel lemma : lemmas) {
 
-            String docIDsJson = mapper.writeValueAsString(matchedDocIDs);
+            String word = lemma.lemma();
 
-            // loop through the words
+            hits.put(word, new HashMap<Integer, ArrayList<WordHit>>());
 
-            for (CoreLabel lemma : lemmas) {
+            // one lexicon lookup => all the indexed case variants
+            for (String variant : lexicon.getVariants(word)) {
 
-                String word = lemma.lemma();
+                if (!variantLemmas.containsKey(variant)) {
+
+                    variantLemmas.put(variant, new ArrayList<String>());
+                    groupedVariants.computeIfAbsent(getHitGroup(variant), k -> new ArrayList<String>()).add(variant);
+
+                }
+
+                if (!variantLemmas.get(variant).contains(word)) {
+
+                    variantLemmas.get(variant).add(word);
+
+                }
+
+            }
+
+        }
+
+        long deadline = System.currentTimeMillis() + this.hitRequestTimeout;
+
+        // fan out
+        LinkedHashMap<Integer, Future<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>> responses = new LinkedHashMap<Integer, Future<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>>();
+
+        for (Map.Entry<Integer, ArrayList<String>> group : groupedVariants.entrySet()) {
+
+            int hitGroupID = group.getKey();
+
+            // the variants & docs with certainly no hit on this group are not asked for
+            List<Integer> groupDocIDs = this.hitFilters.prune("hit" + hitGroupID, group.getValue(), matchedDocIDs);
+
+            if (group.getValue().isEmpty()) {
+
+                continue;
+
+            }
+
+            try {
+
+                String batchJson = HitBatchRequest
+                        .serialize(new HitBatchRequest("hit" + hitGroupID, group.getValue(), groupDocIDs, withContexts));
+
+                responses.put(hitGroupID, hitRequestExecutor.submit(() -> sendHitBatchRequest(hitGroupID, batchJson)));
+
+            } catch (JsonProcessingException e) {
+
+                e.printStackTrace();
+
+            } catch (RejectedExecutionException e) {
+
+                logger.warn("(IndexScorer) hit request pool is full, hit" + hitGroupID
+                        + " is scored as timed out (no hits)");
+
+            }
+
+        }
+
+        // gather & merge (on the query thread only)
+        for (Map.Entry<Integer, Future<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>> response : responses
+                .entrySet()) {
+
+            int hitGroupID = response.getKey();
+
+            try {
+
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+
+                HashMap<String, HashMap<Integer, ArrayList<WordHit>>> retrievedHits = response.getValue()
+                        .get(remaining, TimeUnit.MILLISECONDS);
+
+                logger.debug("(IndexScorer) retrieved hits for variants " + groupedVariants.get(hitGroupID)
+                        + " from hit" + hitGroupID + " ... ");
+
+                if (retrievedHits == null) {
+
+                    continue;
+
+                }
+
+                // merge the variants back into their lemmas
+                for (Map.Entry<String, HashMap<Integer, ArrayList<WordHit>>> variantHits : retrievedHits.entrySet()) {
+
+                    for (String word : variantLemmas.getOrDefault(variantHits.getKey(), new ArrayList<String>())) {
 
-                // variants ...
-                HashMap<Integer, ArrayList<WordHit>> hits = new HashMap<Integer, ArrayList<WordHit>>();
+                        HashMap<Integer, ArrayList<WordHit>> wordHits = hits.get(word);
 
-                for (String variant : getSimpleWordVariants(word)) {
+                        for (Map.Entry<Integer, ArrayList<WordHit>> entry : variantHits.getValue().entrySet()) {
 
-                    if (!indexDB.hasWord(variant)) {
+                            if (!wordHits.containsKey(entry.getKey())) {
 
-                        continue;
+                                wordHits.put(entry.getKey(), new ArrayList<WordHit>());
+
+                            }
+
+                            wordHits.get(entry.getKey()).addAll(entry.getValue());
+
+                        }
 
                     }
 
-                    int hitGroupID = getHitGroup(variant);
+                }
+
+            } catch (TimeoutException e) {
+
+                response.getValue().cancel(true);
+
+                logger.warn("(IndexScorer) hit" + hitGroupID + " missed the deadline of " + this.hitRequestTimeout
+                        + " (ms), scoring without its hits");
+
+            } catch (ExecutionException e) {
+
+                logger.warn("(IndexScorer) unable to retrieve hits from hit" + hitGroupID + " : "
+                        + e.getCause().getMessage());
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                break;
+
+            }
+
+        }
+
+        return new HitBundle(hits);
+
+    }
+
+    /**
+     * Resolve where to retrieve the hits with fault tolerance.
+     * The replicas are tried from the best to the worst (see
+     * ReplicaSelector), the ones whose circuit is not closed are skipped (see
+     * ReplicaHealth). If the best one has not answered once the hedge
+     * delay (a percentile of the recent latencies of the hit group) is over,
+     * the same request is sent to the next replica as well, and the first
+     * answer wins; the other connection is closed.
+     * The response is decoded here (i.e. on the request thread), either from
+     * the binary encoding or from json, depending on its content type.
+     * 
+     * @param hitGroupID : [int]
+     * @param json       : [String], the json string of the HitBatchRequest
+     * @return [HashMap], variant => docID => hits, null if no replica answers
+     */
+    private HashMap<String, HashMap<Integer, ArrayList<WordHit>>> sendHitBatchRequest(int hitGroupID, String json)
+            throws IOException {
+
+        String hitGroup = "hit" + hitGroupID;
+
+        List<String> candidates = new ArrayList<String>();
+
+        for (String address : this.replicaSelector.rank(hitGroup)) {
+
+            if (this.replicaHealth.isAvailable(hitGroup, address)) {
+
+                candidates.add(address);
+
+            }
+
+        }
+
+        if (candidates.isEmpty()) {
+
+            // every circuit is open => fail fast instead of waiting on timeouts
+            logger.debug("(IndexScorer) no available replica for " + hitGroup + " !");
+
+            return null;
 
-                    String respJson = this.sendHitRetrievalRequest(hitGroupID, variant, docIDsJson);
+        }
+
+        int next = 0;
+
+        while (next < candidates.size()) {
+
+            String primary = candidates.get(next++);
+
+            HitAttempt primaryAttempt = new HitAttempt(hitGroup, primary, json);
+
+            if (this.hedgePercentile <= 0 || next >= candidates.size()) {
 
-                    logger.debug("(IndexScorer) retrieved hits for word " + word + " & variant " + variant + " ... ");
+                // no hedging => plain attempt on this thread
+                HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = primaryAttempt.call();
 
-                    if (respJson == null) {
+                if (hits != null) {
+
+                    return hits;
+
+                }
+
+                continue;
+
+            }
 
-                        continue;
+            ExecutorCompletionService<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>> race = new ExecutorCompletionService<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>(
+                    this.hedgeExecutor);
+
+            HashMap<Future<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>, HitAttempt> attempts = new HashMap<Future<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>, HitAttempt>();
+
+            try {
+
+                attempts.put(race.submit(primaryAttempt), primaryAttempt);
+
+            } catch (RejectedExecutionException e) {
+
+                // hedge pool full => plain attempt on this thread
+                HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = primaryAttempt.call();
+
+                if (hits != null) {
+
+                    return hits;
+
+                }
+
+                continue;
+
+            }
+
+            long hedgeDelay = getHedgeDelay(hitGroup);
+
+            try {
+
+                Future<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>> done = race.poll(hedgeDelay,
+                        TimeUnit.MILLISECONDS);
+
+                if (done == null || done.get() == null) {
+
+                    // slow or failed => race the next replica
+                    String secondary = candidates.get(next++);
+
+                    HitAttempt hedgeAttempt = new HitAttempt(hitGroup, secondary, json);
+
+                    logger.debug("(IndexScorer) hedging " + hitGroup + " to " + secondary + " after " + hedgeDelay
+                            + " (ms)");
+
+                    try {
+
+                        attempts.put(race.submit(hedgeAttempt), hedgeAttempt);
+
+                        this.hedgedRequests.incrementAndGet();
+
+                    } catch (RejectedExecutionException e) {
+
+                        // hedge pool full => no hedge, the replica is tried after the primary
+                        logger.debug("(IndexScorer) hedge pool is full, not hedging " + hitGroup);
+
+                        next--;
+
+                    }
+
+                    if (done != null) {
+
+                        attempts.remove(done);
 
                     }
 
-                    HashMap<Integer, ArrayList<WordHit>> retrievedHits = mapper.readValue(respJson,
-                            new TypeReference<HashMap<Integer, ArrayList<WordHit>>>() {
-                            });
+                    while (!attempts.isEmpty()) {
 
-                    // merge
-                    for (Map.Entry<Integer, ArrayList<WordHit>> entry : retrievedHits.entrySet()) {
+                        done = race.poll(this.hitRequestTimeout, TimeUnit.MILLISECONDS);
 
-                        if (!hits.containsKey(entry.getKey())) {
+                        if (done == null) {
 
-                            hits.put(entry.getKey(), new ArrayList<WordHit>());
+                            break;
 
                         }
 
-                        hits.get(entry.getKey()).addAll(entry.getValue());
+                        HitAttempt finished = attempts.remove(done);
+
+                        if (done.get() != null) {
+
+                            if (finished == hedgeAttempt) {
+
+                                this.replicaSelector.wonHedge(hitGroup, secondary);
+
+                            }
+
+                            return done.get();
+
+                        }
 
                     }
 
+                } else {
+
+                    attempts.remove(done);
+
+                    return done.get();
+
                 }
 
-                remoteHits.put(word, hits);
+            } catch (InterruptedException e) {
 
-            }
+                Thread.currentThread().interrupt();
 
-        } catch (IOException e) {
+                return null;
 
-            e.printStackTrace();
+            } catch (ExecutionException e) {
+
+                logger.debug("(IndexScorer) hit request failed : " + e.getCause());
+
+            } finally {
+
+                // the losers stop reading
+                for (HitAttempt attempt : attempts.values()) {
+
+                    attempt.abort();
+
+                }
+
+            }
 
         }
 
+        // should not have error as the lemma should have hits
+        logger.debug("(IndexerScore) unable to find any valid addresses for hit group: " + hitGroupID + " !!!");
+
+        // null (must be not null => for error detection)
+        return null;
+
     }
 
-    private List<String> getSimpleWordVariants(String word) {
+    /**
+     * Delay before hedging: the configured percentile of the recent latencies
+     * of the hit group (the request timeout until there are samples).
+     */
+    private long getHedgeDelay(String hitGroup) {
 
-        HashSet<String> variants = new HashSet<String>();
+        double percentile = this.replicaSelector.getLatencyPercentile(hitGroup, this.hedgePercentile);
 
-        variants.add(word);
+        if (percentile < 0) {
 
-        // original, first capital, all lower, all capital
+            return this.hitRequestTimeout;
 
-        String capitalized = word.substring(0, 1).toUpperCase() + word.substring(1);
-        variants.add(capitalized);
-        variants.add(word.toLowerCase());
-        variants.add(word.toUpperCase());
+        }
 
-        return new ArrayList<String>(variants);
+        return Math.max(this.hedgeMinDelay, (long) Math.ceil(percentile));
 
     }
 
     /**
-     * Resolve where to retrieve the hit with fault tolerance.
-     * 
-     * @param hitGroupID : [int]
-     * @param json       : [String], the json string of matched docIDs
-     * @return
+     * One request to one replica, timed for the replica selector.
      */
-    private String sendHitRetrievalRequest(int hitGroupID, String word, String json) throws IOException {
+    private class HitAttempt implements Callable<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>> {
+
+        private final String hitGroup;
+        private final String address;
+        private final String json;
 
-        // look for the ipaddress that contains the hitGroupID
-        ArrayList<String> targetAddresses = this.remoteHitAddresses.get("hit" + hitGroupID);
+        private ServiceHttpClient.Response response;
+        private volatile boolean aborted = false;
 
-        for (int i = 0; i < targetAddresses.size(); i++) {
+        HitAttempt(String hitGroup, String address, String json) {
 
-            // always use the first
-            // (if the first one is disconnected, pop and append it to the last pos)
-            String address = targetAddresses.get(0);
+            this.hitGroup = hitGroup;
+            this.address = address;
+            this.json = json;
 
-            String dest = "http://" + address + "/retrieve/hit" + hitGroupID + "/" + word;
+        }
 
-            // logger.debug("(IndexScorer) Sending request to " + dest + " with json :" +
-            // json);
-            logger.debug("(IndexScorer) Sending request to " + dest + " ... ");
+        /**
+         * @return [HashMap], the decoded hits, null if the replica failed
+         */
+        @Override
+        public HashMap<String, HashMap<Integer, ArrayList<WordHit>>> call() {
 
-            try {
+            String dest = "http://" + address + "/retrieve/batch";
+
+            logger.debug("(IndexScorer) Sending request to " + dest + " for " + hitGroup + " ... ");
+
+            replicaSelector.begin(hitGroup, address);
+
+            long startT = System.nanoTime();
+
+            HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = null;
+
+            try (ServiceHttpClient.Response resp = sendRequest(dest, json)) {
+
+                // not started => aborted while waiting for the headers
+                if (started(resp) && resp.getStatus() == 200) {
+
+                    String contentType = resp.getContentType();
 
-                HttpURLConnection conn = this.sendRequest(dest, json);
+                    if (contentType != null && contentType.startsWith(WordHitCodec.CONTENT_TYPE)) {
 
-                if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                        // the body is read whole, then decoded in one pass over the bytes
+                        hits = WordHitCodec.decode(resp.getBody());
 
-                    String respJson = HttpUtils.readResponse(conn);
+                    } else {
 
-                    return respJson;
+                        // json fallback (e.g. hit servers without the binary encoding)
+                        ObjectMapper mapper = new ObjectMapper();
+
+                        hits = mapper.readValue(resp.getBody(),
+                                new TypeReference<HashMap<String, HashMap<Integer, ArrayList<WordHit>>>>() {
+                                });
+
+                    }
+
+                }
+
+            } catch (IOException e) {
+
+                if (!aborted) {
+
+                    logger.debug("Get conneciton exeception from " + address + " ...! Try next one");
 
                 }
 
-            } catch (ConnectException e) {
+            }
+
+            double latencyMs = (System.nanoTime() - startT) / 1e6;
+
+            if (aborted && hits == null) {
+
+                // lost the race: only the elapsed time is known, not a failure
+                replicaSelector.end(hitGroup, address, latencyMs, true);
 
-                logger.debug("Get conneciton exeception from " + address + " ...! Try next one");
+            } else {
+
+                replicaSelector.end(hitGroup, address, latencyMs, hits != null);
+                replicaHealth.record(hitGroup, address, hits != null);
 
             }
 
-            // pop out and append it to the last position
-            String failedAddress = targetAddresses.remove(0);
-            targetAddresses.add(failedAddress);
+            return hits;
 
         }
 
-        // should not have error as the lemma should have hits
-        logger.debug("(IndexerScore) unable to find any valid addresses for target word: " + word + " !!!");
+        /**
+         * @return [boolean], false if the attempt was aborted meanwhile (the
+         *         response is then given up)
+         */
+        private synchronized boolean started(ServiceHttpClient.Response resp) {
 
-        // null (must be not null => for error detection)
-        return null;
+            if (aborted) {
+
+                resp.abort();
+
+                return false;
+
+            }
+
+            response = resp;
+
+            return true;
+
+        }
+
+        synchronized void abort() {
+
+            aborted = true;
+
+            if (response != null) {
+
+                // drop the connection instead of reading the rest
+                response.abort();
+
+            }
+
+        }
 
     }
 
     /**
-     * Send a request for hit retrieval.
+     * Send a request for hit retrieval through the shared keep-alive client.
      * 
      * @param dest : [String], address with api
      * @param json : [String], json format of a list of document IDs
-     * @return
+     * @return [ServiceHttpClient.Response], to be closed by the caller
      * @throws IOException
      */
-    private HttpURLConnection sendRequest(String dest, String json) throws IOException {
-
-        URL url = new URL(dest);
-
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setDoOutput(true);
-        conn.setRequestMethod("POST");
+    private ServiceHttpClient.Response sendRequest(String dest, String json) throws IOException {
 
-        conn.setRequestProperty("Content-Type", "application/json");
+        String accept = this.binaryHits ? WordHitCodec.CONTENT_TYPE + ", application/json;q=0.5" : "application/json";
 
-        OutputStream os = conn.getOutputStream();
-        byte[] toSend = json.getBytes();
-        os.write(toSend);
-        os.flush();
-
-        return conn;
+        return ServiceHttpClient.shared().send("POST", dest, json.getBytes(StandardCharsets.UTF_8), "application/json",
+                accept, this.hitRequestTimeout);
 
     }
 
@@ -360,17 +819,18 @@ public class IndexScorer {
      * 
      * @return
      */
-    private ArrayList<WordHit> getWordHits(int hitGroupID, String word, int docID) {
+    private List<WordHit> getWordHits(HitBundle bundle, int hitGroupID, String word, int docID,
+            boolean withContexts) {
 
         if (!this.distributedHits) {
 
             ArrayList<WordHit> localHits = new ArrayList<WordHit>();
 
-            for (String variant : getSimpleWordVariants(word)) {
+            for (String variant : lexicon.getVariants(word)) {
 
                 int variantHitGroupID = getHitGroup(variant);
 
-                localHits.addAll(localHitDBs.get(variantHitGroupID).getWordHitList(variant, docID, "short"));
+                localHits.addAll(localHitDBs.get(variantHitGroupID).getWordHitList(variant, docID, "short", withContexts));
 
             }
 
@@ -378,7 +838,7 @@ public class IndexScorer {
 
         } else {
 
-            return this.remoteHits.get(word).get(docID);
+            return bundle.getWordHits(word, docID);
 
         }
 
@@ -433,7 +893,8 @@ public class IndexScorer {
         long assignStartT = System.nanoTime();
 
         // prepare the remote hits if it is in disributed hit mode
-        prepareWordHits(lemmas, matchedDocIDs);
+        // (scoring only needs tags & positions, the contexts stay on the hit nodes)
+        HitBundle bundle = prepareWordHits(lemmas, matchedDocIDs, false);
 
         for (int i = 0; i < matches.size(); i++) {
 
@@ -441,7 +902,7 @@ public class IndexScorer {
 
             // look up word hit by lemma,docID
             // k (existed) keywords => k lists of word hits
-            HashMap<String, ArrayList<WordHit>> wordHits = new HashMap<String, ArrayList<WordHit>>();
+            HashMap<String, List<WordHit>> wordHits = new HashMap<String, List<WordHit>>();
 
             for (CoreLabel lemma : lemmas) {
 
@@ -453,7 +914,7 @@ public class IndexScorer {
                 // logger.debug("(IndexScorer) Get hit group - Word: " + word + " => group: " +
                 // hitGroupID);
 
-                ArrayList<WordHit> singleHits = this.getWordHits(hitGroupID, word, docID);
+                List<WordHit> singleHits = this.getWordHits(bundle, hitGroupID, word, docID, false);
 
                 // ArrayList<WordHit> singleHits = hitDBs.get(hitGroupID).getWordHitList(word,
                 // docID, "short");
@@ -467,7 +928,7 @@ public class IndexScorer {
             }
 
             // evaluate
-            evaluateAndGetContext(matches.get(i), lemmas, wordHits, numWords);
+            evaluate(matches.get(i), lemmas, wordHits, numWords);
 
         }
 
@@ -478,8 +939,172 @@ public class IndexScorer {
     }
 
     /**
-     * Evaluate the document & get the context from the document for the keyword.
-     * Note: directly update in the match object.
+     * Keep the matched documents that contain every phrase (see
+     * PhraseVerifier). The documents are verified in their rank order, one
+     * batch at a time, so that only the hits of the batch are fetched and
+     * the verification stops once maxDocCount documents passed.
+     *
+     * @param phrases       : [List<PhraseQuery.Phrase>], lemmatized phrases
+     * @param matches       : [List<IndexerMatch>], the intersection
+     *                      candidates, ranked
+     * @param matchedDocIDs : [ArrayList<Integer>], rewritten to the kept docIDs
+     * @param maxDocCount   : [int], -1 for all
+     * @return [List<IndexerMatch>], the kept matches (same order)
+     */
+    public List<IndexerMatch> matchPhrases(List<PhraseQuery.Phrase> phrases, List<IndexerMatch> matches,
+            ArrayList<Integer> matchedDocIDs, int maxDocCount) {
+
+        long phraseStartT = System.nanoTime();
+
+        // distinct lemmas of all the phrases (one hit request per hit group)
+        ArrayList<CoreLabel> phraseLemmas = new ArrayList<CoreLabel>();
+        HashSet<String> seen = new HashSet<String>();
+
+        for (PhraseQuery.Phrase phrase : phrases) {
+
+            for (CoreLabel lemma : phrase.getLemmas()) {
+
+                if (seen.add(lemma.lemma())) {
+
+                    phraseLemmas.add(lemma);
+
+                }
+
+            }
+
+        }
+
+        int batchSize = (maxDocCount > 0) ? Math.max(maxDocCount, PHRASE_BATCH) : matches.size();
+
+        ArrayList<IndexerMatch> kept = new ArrayList<IndexerMatch>();
+
+        int verified = 0;
+
+        while (verified < matches.size() && (maxDocCount < 0 || kept.size() < maxDocCount)) {
+
+            List<IndexerMatch> batch = matches.subList(verified, Math.min(verified + batchSize, matches.size()));
+
+            ArrayList<Integer> batchDocIDs = new ArrayList<Integer>();
+
+            for (IndexerMatch match : batch) {
+
+                batchDocIDs.add(match.getDocId());
+
+            }
+
+            HitBundle bundle = prepareWordHits(phraseLemmas, batchDocIDs, false);
+
+            for (IndexerMatch match : batch) {
+
+                int docID = match.getDocId();
+
+                boolean found = true;
+
+                for (int p = 0; p < phrases.size() && found; p++) {
+
+                    PhraseQuery.Phrase phrase = phrases.get(p);
+
+                    List<List<WordHit>> hits = new ArrayList<List<WordHit>>();
+
+                    for (CoreLabel lemma : phrase.getLemmas()) {
+
+                        String word = lemma.lemma();
+
+                        hits.add(this.getWordHits(bundle, getHitGroup(word), word, docID, false));
+
+                    }
+
+                    found = PhraseVerifier.contains(phrase, hits);
+
+                }
+
+                if (found && (maxDocCount < 0 || kept.size() < maxDocCount)) {
+
+                    kept.add(match);
+
+                }
+
+            }
+
+            verified += batch.size();
+
+        }
+
+        matchedDocIDs.clear();
+
+        for (IndexerMatch match : kept) {
+
+            matchedDocIDs.add(match.getDocId());
+
+        }
+
+        logger.debug("(IndexScorer) phrases " + phrases + " : " + kept.size() + " (n) of " + verified
+                + " (n) verified docs in " + ((System.nanoTime() - phraseStartT) / 1000000) + " (ms)");
+
+        return kept;
+
+    }
+
+    /**
+     * Generate the snippets (contexts) of the given documents for the keywords.
+     * Only called for the documents that are actually rendered (one page),
+     * so the contexts are fetched from the hit nodes for these documents only.
+     *
+     * @param lemmas : [List<CoreLabel>], existed lemmas (words)
+     * @param docIDs : [List<Integer>], the documents to build the snippets for
+     * @return [HashMap<Integer, String>], docID => snippet
+     */
+    public HashMap<Integer, String> generateSnippets(List<CoreLabel> lemmas, List<Integer> docIDs) {
+
+        long snippetStartT = System.nanoTime();
+
+        HitBundle bundle = prepareWordHits(lemmas, docIDs, true);
+
+        HashMap<Integer, String> snippets = new HashMap<Integer, String>();
+
+        for (int docID : docIDs) {
+
+            // unique tag : [context, context, context ...]
+            HashMap<String, ArrayList<String>> plainContexts = new HashMap<String, ArrayList<String>>();
+            HashMap<String, ArrayList<String>> titleContexts = new HashMap<String, ArrayList<String>>();
+
+            for (CoreLabel lemma : lemmas) {
+
+                String word = lemma.lemma();
+
+                for (WordHit h : this.getWordHits(bundle, getHitGroup(word), word, docID, true)) {
+
+                    String tname = h.getTag();
+
+                    if (tname.startsWith("h")) {
+
+                        titleContexts.computeIfAbsent(tname, k -> new ArrayList<String>()).add(h.getContext());
+
+                    } else if (tname.startsWith("p")) {
+
+                        plainContexts.computeIfAbsent(tname, k -> new ArrayList<String>()).add(h.getContext());
+
+                    }
+
+                }
+
+            }
+
+            snippets.put(docID, assignContext(titleContexts, plainContexts, lemmas));
+
+        }
+
+        logger.debug("(IndexScorer) snippets of " + docIDs.size() + " (n) docs : "
+                + ((System.nanoTime() - snippetStartT) / 1000000) + " (ms)");
+
+        return snippets;
+
+    }
+
+    /**
+     * Evaluate the document (tag & proximity scores).
+     * Note: directly update in the match object, the context is left empty
+     * (see generateSnippets).
      * 
      * @param match
      * @param lemmas   : [List<CoreLabel>],
@@ -490,8 +1115,8 @@ public class IndexScorer {
      *                 document.
      *                 each hit: (docID, -1, lemma, tag, pos, cap, 12, context)
      */
-    private void evaluateAndGetContext(IndexerMatch match, List<CoreLabel> lemmas,
-            HashMap<String, ArrayList<WordHit>> wordHits, int numWords) {
+    private void evaluate(IndexerMatch match, List<CoreLabel> lemmas,
+            HashMap<String, List<WordHit>> wordHits, int numWords) {
 
         // ratio: number of matched words / number of key words
         float kwRatio = (float) lemmas.size() / numWords;
@@ -510,16 +1135,13 @@ public class IndexScorer {
             }
         };
 
-        // unique tag : [pos, pos, ...]
-        HashMap<String, ArrayList<Integer>> proximityCnts = new HashMap<String, ArrayList<Integer>>();
-
-        // unique tag : [context, context, context ...]
-        // corresponding to each pos
-        HashMap<String, ArrayList<String>> plainContexts = new HashMap<String, ArrayList<String>>();
-        HashMap<String, ArrayList<String>> titleContexts = new HashMap<String, ArrayList<String>>();
+        // unique tag : [[pos, pos, ...] of keyword 0, [pos, pos, ...] of keyword 1, ...]
+        HashMap<String, ArrayList<ArrayList<Integer>>> proximityPositions = new HashMap<String, ArrayList<ArrayList<Integer>>>();
 
         // collect tag counts
-        for (ArrayList<WordHit> singleHits : wordHits.values()) {
+        int wordIndex = 0;
+
+        for (List<WordHit> singleHits : wordHits.values()) {
 
             for (WordHit h : singleHits) {
 
@@ -529,38 +1151,28 @@ public class IndexScorer {
 
                 tagCnts.put(tgroup, tagCnts.get(tgroup) + 1);
 
-                if (!proximityCnts.containsKey(tname)) {
-
-                    proximityCnts.put(tname, new ArrayList<Integer>());
-
-                    if (tname.startsWith("h")) {
+                if (!proximityPositions.containsKey(tname)) {
 
-                        titleContexts.put(tname, new ArrayList<String>());
+                    ArrayList<ArrayList<Integer>> wordPositions = new ArrayList<ArrayList<Integer>>(wordHits.size());
 
-                    } else if (tname.startsWith("p")) {
+                    for (int i = 0; i < wordHits.size(); i++) {
 
-                        plainContexts.put(tname, new ArrayList<String>());
+                        wordPositions.add(new ArrayList<Integer>());
 
                     }
 
-                }
-
-                proximityCnts.get(tname).add(h.getPos());
-
-                if (tname.startsWith("h")) {
-
-                    titleContexts.get(tname).add(h.getContext());
-
-                } else if (tname.startsWith("p")) {
-
-                    plainContexts.get(tname).add(h.getContext());
+                    proximityPositions.put(tname, wordPositions);
 
                 }
 
+                proximityPositions.get(tname).get(wordIndex).add(h.getPos());
+
                 nTotalTags++;
 
             }
 
+            wordIndex++;
+
         }
 
         float tagScore = assignTagScore(tagCnts, nTotalTags);
@@ -570,8 +1182,7 @@ public class IndexScorer {
         // match.setTagScore(tagScore * kwRatio);
 
         // Part 2 => proximity score :
-        // 1. based on tag overlap
-        // 2. if have the same tag => consider position in the tag
+        // minimal window covering the keywords inside the same tag
         // Note: no effect if it is one keyword search
         if (numWords == 1) {
 
@@ -580,22 +1191,13 @@ public class IndexScorer {
 
         } else {
 
-            float proximityScore = assignProximityScore(proximityCnts, lemmas.size());
+            float proximityScore = assignProximityScore(proximityPositions, lemmas.size());
 
             // match.setProximityScore(proximityScore * kwRatio);
             match.addFeature("proximityScore", proximityScore * kwRatio);
         }
 
-        // Part 3 => fetch context:
-        // retrieve the overlapped <p> or <span> ...
-        String matchedContext = assignContext(titleContexts, plainContexts, lemmas);
-        // new ArrayList<CoreLabel>(lemmaMap.keySet()));
-
-        // logger.debug("(IndexScorer) Get context : " + matchedContext);
-
-        match.setContext(matchedContext);
-
-        // Part 4 => adjust the score
+        // Part 3 => adjust the score
         // match.setIndexerScore(match.getTfIdf() + (match.getTagScore() *
         // match.getProximityScore()));
 
@@ -656,56 +1258,80 @@ public class IndexScorer {
     }
 
     /**
-     * Basically, consider overlap at first, then check the position values inside
-     * the tag.
-     * Conditions: allIn, twoOrMore, alone
-     * TODO: look into the positions!
+     * Score the tag where the keywords are the closest to each other.
+     * For each tag, the minimal window covering (the positions of) the
+     * keywords found in it gives closeness = (found / existed words) *
+     * (found / window), i.e. 1 when all the keywords are adjacent.
+     * Tag score = tagW * (alone + (allIn - alone) * closeness), averaged
+     * over the unique tags (as the counts-based score did).
+     * Cost: O(total hits * log(number of keywords)).
      * 
+     * @param proximityPositions : [HashMap], unique tag => positions of each keyword
+     * @param numExistedWords    : [int]
      * @return
      */
-    private float assignProximityScore(HashMap<String, ArrayList<Integer>> proximityCounts, int numExistedWords) {
+    private float assignProximityScore(HashMap<String, ArrayList<ArrayList<Integer>>> proximityPositions,
+            int numExistedWords) {
+
+        if (proximityPositions.size() == 0) {
+
+            return 1;
+
+        }
 
         float score = 0;
 
-        for (String uniqueTag : proximityCounts.keySet()) {
+        for (Map.Entry<String, ArrayList<ArrayList<Integer>>> entry : proximityPositions.entrySet()) {
+
+            float tagW = weights.get(entry.getKey().substring(0, 1));
 
-            float tagW = weights.get(uniqueTag.substring(0, 1));
+            int nInTag = 0;
 
-            int nInTag = proximityCounts.get(uniqueTag).size();
+            for (ArrayList<Integer> positions : entry.getValue()) {
 
-            if (nInTag == numExistedWords && numExistedWords >= 2) {
+                if (positions.size() > 0) {
 
-                // use allIn
-                score += tagW * weights.get("allIn");
+                    nInTag++;
+                    sortIfNeeded(positions);
 
-                // TODO: look into pos
+                }
 
             }
 
-            else if (nInTag >= 2) {
+            float closeness = 0;
 
-                score += tagW * weights.get("twoOrMore");
+            if (nInTag >= 2) {
 
-            } else {
+                int window = ProximityWindow.minimalWindow(entry.getValue());
 
-                score += tagW * weights.get("alone");
+                closeness = ((float) nInTag / numExistedWords) * Math.min(1, (float) nInTag / window);
 
             }
 
+            score += tagW * (weights.get("alone") + (weights.get("allIn") - weights.get("alone")) * closeness);
+
         }
 
-        if (proximityCounts.size() > 0) {
+        // normalize with the number of unique tags
+        return score / proximityPositions.size();
 
-            // normalize with the number of unique tags
-            score = score / proximityCounts.size();
+    }
 
-        } else {
+    /**
+     * Hits are stored in document order, sort only if they are not.
+     */
+    private void sortIfNeeded(ArrayList<Integer> positions) {
 
-            score = 1;
+        for (int i = 1; i < positions.size(); i++) {
 
-        }
+            if (positions.get(i) < positions.get(i - 1)) {
 
-        return score;
+                positions.sort(null);
+                return;
+
+            }
+
+        }
 
     }
 
@@ -0,0 +1,82 @@
+package indexer.scorer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+import indexer.nlp.PhraseQuery;
+
+/**
+ * Exact sequence check over the word hits of one document.
+ * A phrase occurs if some hit of its first lemma (tag t, pos p) is followed
+ * by a hit of every other lemma i at (tag t, pos p + offset i). The hit
+ * positions of the other lemmas are hashed per tag, so the cost is
+ * O(total hits) per phrase.
+ */
+public class PhraseVerifier {
+
+    /**
+     * @param phrase : [PhraseQuery.Phrase]
+     * @param hits   : [List<List<WordHit>>], the hits of each lemma of the
+     *               phrase (same order, case variants merged)
+     * @return [boolean], whether the phrase occurs in the document
+     */
+    public static boolean contains(PhraseQuery.Phrase phrase, List<List<WordHit>> hits) {
+
+        if (phrase.size() == 0) {
+
+            return true;
+
+        }
+
+        // lemma i => tag => positions
+        ArrayList<HashMap<String, HashSet<Integer>>> positions = new ArrayList<HashMap<String, HashSet<Integer>>>();
+
+        for (int i = 1; i < phrase.size(); i++) {
+
+            HashMap<String, HashSet<Integer>> tagPositions = new HashMap<String, HashSet<Integer>>();
+
+            for (WordHit h : hits.get(i)) {
+
+                tagPositions.computeIfAbsent(h.getTag(), k -> new HashSet<Integer>()).add(h.getPos());
+
+            }
+
+            if (tagPositions.isEmpty()) {
+
+                return false;
+
+            }
+
+            positions.add(tagPositions);
+
+        }
+
+        for (WordHit h : hits.get(0)) {
+
+            boolean found = true;
+
+            for (int i = 1; i < phrase.size() && found; i++) {
+
+                HashSet<Integer> tagPositions = positions.get(i - 1).get(h.getTag());
+
+                found = (tagPositions != null) && tagPositions.contains(h.getPos() + phrase.getOffset(i));
+
+            }
+
+            if (found) {
+
+                return true;
+
+            }
+
+        }
+
+        return false;
+
+    }
+
+}
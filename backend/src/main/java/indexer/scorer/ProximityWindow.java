@@ -0,0 +1,133 @@
+package indexer.scorer;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Minimal covering window over the position lists of several keywords,
+ * i.e. the shortest span [first pos, last pos] that holds at least one
+ * position of every keyword.
+ *
+ * The sorted lists are merged into one position-ordered sequence (a heap of
+ * the list heads), and a single sliding window sweeps that sequence: the
+ * right end takes the next position, the left end moves forward while the
+ * window still covers every keyword. Every position enters and leaves the
+ * window once, so the cost is O(total positions * log(number of keywords)).
+ */
+public class ProximityWindow {
+
+    public static final int NO_WINDOW = Integer.MAX_VALUE;
+
+    /**
+     * @param positions : [List<List<Integer>>], ascending positions of each
+     *                  keyword, empty lists are ignored
+     * @return [int], length of the minimal window (last - first + 1),
+     *         NO_WINDOW if all the lists are empty
+     */
+    public static int minimalWindow(List<? extends List<Integer>> positions) {
+
+        int numLists = 0;
+        int total = 0;
+
+        for (List<Integer> list : positions) {
+
+            if (list.size() > 0) {
+
+                numLists++;
+                total += list.size();
+
+            }
+
+        }
+
+        if (numLists == 0) {
+
+            return NO_WINDOW;
+
+        }
+
+        // keep the non-empty lists only
+        List<?>[] lists = new List<?>[numLists];
+        int[] heads = new int[numLists];
+
+        int n = 0;
+
+        for (List<Integer> list : positions) {
+
+            if (list.size() > 0) {
+
+                lists[n++] = list;
+
+            }
+
+        }
+
+        // 1. merge: list index ordered by the position of its head
+        PriorityQueue<Integer> merge = new PriorityQueue<Integer>(numLists,
+                (a, b) -> Integer.compare((Integer) lists[a].get(heads[a]), (Integer) lists[b].get(heads[b])));
+
+        for (int i = 0; i < numLists; i++) {
+
+            merge.add(i);
+
+        }
+
+        int[] mergedPos = new int[total];
+        int[] mergedList = new int[total];
+
+        n = 0;
+
+        while (!merge.isEmpty()) {
+
+            int i = merge.poll();
+
+            mergedPos[n] = (Integer) lists[i].get(heads[i]);
+            mergedList[n] = i;
+            n++;
+
+            heads[i]++;
+
+            if (heads[i] < lists[i].size()) {
+
+                merge.add(i);
+
+            }
+
+        }
+
+        // 2. sweep: positions of each keyword inside [left, right]
+        int[] inWindow = new int[numLists];
+        int covered = 0;
+        int left = 0;
+
+        int best = NO_WINDOW;
+
+        for (int right = 0; right < total; right++) {
+
+            if (inWindow[mergedList[right]]++ == 0) {
+
+                covered++;
+
+            }
+
+            while (covered == numLists) {
+
+                best = Math.min(best, mergedPos[right] - mergedPos[left] + 1);
+
+                if (--inWindow[mergedList[left]] == 0) {
+
+                    covered--;
+
+                }
+
+                left++;
+
+            }
+
+        }
+
+        return best;
+
+    }
+
+}
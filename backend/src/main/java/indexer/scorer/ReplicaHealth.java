@@ -0,0 +1,372 @@
+package indexer.scorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import api.http.ServiceHttpClient;
+
+/**
+ * Health of the hit replicas, tracked in the background with a circuit
+ * breaker per replica:
+ * - UP (closed): the replica takes queries
+ * - DOWN (open): failureThreshold consecutive failures (of probes or of
+ * queries), the queries skip it at once
+ * - HALF_OPEN: openMs after it went down, the next probe is the trial, a
+ * success closes the circuit (UP), a failure opens it again (DOWN)
+ *
+ * A checker thread probes every replica (GET /access/:hitname) each
+ * intervalMs, the probes of a round run in parallel, so that the queries
+ * never pay for a trial and /monitor only reads the cached states.
+ */
+public class ReplicaHealth {
+
+    static Logger logger = LogManager.getLogger(ReplicaHealth.class);
+
+    public enum State {
+        UP, DOWN, HALF_OPEN
+    }
+
+    public static class Circuit {
+
+        private final String hitGroup;
+        private final String address;
+
+        private State state = State.UP;
+        private int consecutiveFailures = 0;
+        private long openedT = 0;
+        private long lastCheckT = 0;
+        private double lastProbeMs = -1;
+        private long trips = 0;
+
+        // a probe of this replica is still running
+        private boolean probing = false;
+
+        Circuit(String hitGroup, String address) {
+
+            this.hitGroup = hitGroup;
+            this.address = address;
+
+        }
+
+        synchronized boolean isAvailable() {
+
+            return state == State.UP;
+
+        }
+
+        /**
+         * @return [boolean], true if a probe should be sent now (and is then
+         *         marked as running)
+         */
+        synchronized boolean startProbe(long now, long openMs) {
+
+            if (probing) {
+
+                return false;
+
+            }
+
+            if (state == State.DOWN) {
+
+                if (now - openedT < openMs) {
+
+                    // still open, no trial yet
+                    return false;
+
+                }
+
+                state = State.HALF_OPEN;
+
+            }
+
+            probing = true;
+
+            return true;
+
+        }
+
+        synchronized void endProbe(double latencyMs, boolean success, int failureThreshold) {
+
+            probing = false;
+            lastProbeMs = latencyMs;
+            lastCheckT = System.currentTimeMillis();
+
+            record(success, failureThreshold);
+
+        }
+
+        synchronized void record(boolean success, int failureThreshold) {
+
+            if (success) {
+
+                consecutiveFailures = 0;
+                state = State.UP;
+
+                return;
+
+            }
+
+            consecutiveFailures++;
+
+            if (state == State.HALF_OPEN || (state == State.UP && consecutiveFailures >= failureThreshold)) {
+
+                state = State.DOWN;
+                openedT = System.currentTimeMillis();
+                trips++;
+
+                logger.info("(ReplicaHealth) " + address + " is down for " + hitGroup + " after "
+                        + consecutiveFailures + " failures");
+
+            }
+
+        }
+
+        public String getHitGroup() {
+
+            return hitGroup;
+
+        }
+
+        public String getAddress() {
+
+            return address;
+
+        }
+
+        public synchronized State getState() {
+
+            return state;
+
+        }
+
+        public synchronized int getConsecutiveFailures() {
+
+            return consecutiveFailures;
+
+        }
+
+        public synchronized long getLastCheckT() {
+
+            return lastCheckT;
+
+        }
+
+        public synchronized double getLastProbeMs() {
+
+            return lastProbeMs;
+
+        }
+
+        public synchronized long getTrips() {
+
+            return trips;
+
+        }
+
+    }
+
+    // hit group => address => circuit
+    private final Map<String, LinkedHashMap<String, Circuit>> circuits = new LinkedHashMap<String, LinkedHashMap<String, Circuit>>();
+
+    private final long intervalMs;
+    private final long openMs;
+    private final int failureThreshold;
+    private final int probeTimeoutMs;
+
+    private ScheduledExecutorService checker = null;
+    private ExecutorService probes = null;
+
+    /**
+     * @param hitAddresses     : [Map<String, ArrayList<String>>], hit group =>
+     *                         replica addresses
+     * @param intervalMs       : [long], time between two probes of a replica
+     * @param openMs           : [long], time a circuit stays open before the
+     *                         trial probe
+     * @param failureThreshold : [int], consecutive failures opening the
+     *                         circuit
+     * @param probeTimeoutMs   : [int], deadline of a probe
+     */
+    public ReplicaHealth(Map<String, ArrayList<String>> hitAddresses, long intervalMs, long openMs,
+            int failureThreshold, int probeTimeoutMs) {
+
+        for (Map.Entry<String, ArrayList<String>> entry : hitAddresses.entrySet()) {
+
+            LinkedHashMap<String, Circuit> groupCircuits = new LinkedHashMap<String, Circuit>();
+
+            for (String address : entry.getValue()) {
+
+                groupCircuits.put(address, new Circuit(entry.getKey(), address));
+
+            }
+
+            circuits.put(entry.getKey(), groupCircuits);
+
+        }
+
+        this.intervalMs = intervalMs;
+        this.openMs = openMs;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.probeTimeoutMs = probeTimeoutMs;
+
+    }
+
+    /**
+     * Start the checker thread (no-op without any replica).
+     */
+    public synchronized void start() {
+
+        if (checker != null || circuits.isEmpty()) {
+
+            return;
+
+        }
+
+        int numReplicas = getAllCircuits().size();
+
+        probes = Executors.newFixedThreadPool(Math.min(numReplicas, 8), r -> {
+
+            Thread t = new Thread(r, "hit-probe");
+            t.setDaemon(true);
+
+            return t;
+
+        });
+
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+
+            Thread t = new Thread(r, "hit-health-checker");
+            t.setDaemon(true);
+
+            return t;
+
+        });
+
+        checker.scheduleWithFixedDelay(this::checkAll, 0, intervalMs, TimeUnit.MILLISECONDS);
+
+    }
+
+    public synchronized void stop() {
+
+        if (checker != null) {
+
+            checker.shutdownNow();
+            probes.shutdownNow();
+
+        }
+
+    }
+
+    private void checkAll() {
+
+        long now = System.currentTimeMillis();
+
+        for (Circuit circuit : getAllCircuits()) {
+
+            if (circuit.startProbe(now, openMs)) {
+
+                probes.submit(() -> probe(circuit));
+
+            }
+
+        }
+
+    }
+
+    private void probe(Circuit circuit) {
+
+        long startT = System.nanoTime();
+
+        boolean success = false;
+
+        // API: /access/:hitname
+        try (ServiceHttpClient.Response resp = ServiceHttpClient.shared()
+                .get("http://" + circuit.getAddress() + "/access/" + circuit.getHitGroup(), probeTimeoutMs)) {
+
+            success = resp.getStatus() == 200;
+
+        } catch (IOException | IllegalArgumentException e) {
+
+            logger.debug("(ReplicaHealth) " + circuit.getAddress() + " not accessible for " + circuit.getHitGroup());
+
+        }
+
+        circuit.endProbe((System.nanoTime() - startT) / 1e6, success, failureThreshold);
+
+    }
+
+    /**
+     * @return [boolean], false if the circuit of the replica is not closed
+     *         (the query should skip it)
+     */
+    public boolean isAvailable(String hitGroup, String address) {
+
+        Circuit circuit = getCircuit(hitGroup, address);
+
+        return circuit == null || circuit.isAvailable();
+
+    }
+
+    /**
+     * Outcome of a query request (the queries count as checks too).
+     */
+    public void record(String hitGroup, String address, boolean success) {
+
+        Circuit circuit = getCircuit(hitGroup, address);
+
+        if (circuit != null) {
+
+            circuit.record(success, failureThreshold);
+
+        }
+
+    }
+
+    private Circuit getCircuit(String hitGroup, String address) {
+
+        LinkedHashMap<String, Circuit> groupCircuits = circuits.get(hitGroup);
+
+        return (groupCircuits == null) ? null : groupCircuits.get(address);
+
+    }
+
+    /**
+     * @param hitGroup : [String], e.g. hit0
+     * @return [List<Circuit>], the circuits of the replicas of the group, in
+     *         the configured order
+     */
+    public List<Circuit> getCircuits(String hitGroup) {
+
+        LinkedHashMap<String, Circuit> groupCircuits = circuits.get(hitGroup);
+
+        return (groupCircuits == null) ? new ArrayList<Circuit>() : new ArrayList<Circuit>(groupCircuits.values());
+
+    }
+
+    /**
+     * @return [List<Circuit>], every replica of every hit group
+     */
+    public List<Circuit> getAllCircuits() {
+
+        ArrayList<Circuit> all = new ArrayList<Circuit>();
+
+        for (LinkedHashMap<String, Circuit> groupCircuits : circuits.values()) {
+
+            all.addAll(groupCircuits.values());
+
+        }
+
+        return all;
+
+    }
+
+}
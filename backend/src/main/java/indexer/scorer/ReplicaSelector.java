@@ -0,0 +1,306 @@
+package indexer.scorer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency-aware choice among the replicas of a hit group.
+ * Every replica keeps an EWMA of its latency and its number of in-flight
+ * requests; the replicas are tried by increasing ewma * (inFlight + 1), so
+ * that a slow (but alive) replica and a busy one both lose traffic.
+ * A replica without any sample for a while is tried first again (probe), so
+ * that a replica which recovered gets back its share.
+ *
+ * Each hit group also keeps its recent latencies, whose percentile is the
+ * delay before a hedged request goes to the next replica.
+ */
+public class ReplicaSelector {
+
+    // weight of the last sample in the ewma
+    private static final double ALPHA = 0.2;
+
+    // latency charged to a failed request (the ewma then ranks it last)
+    private static final double FAILURE_PENALTY_MS = 10000;
+
+    // a replica without any sample for this long is probed again
+    private static final long PROBE_AFTER_MS = 10000;
+
+    // recent latencies per hit group (for the hedge delay)
+    private static final int WINDOW = 256;
+
+    public static class ReplicaStats {
+
+        private final String hitGroup;
+        private final String address;
+
+        private double ewmaMs = -1;
+        private long lastSampleT = 0;
+        private int inFlight = 0;
+        private long requests = 0;
+        private long failures = 0;
+        private long hedgesWon = 0;
+
+        ReplicaStats(String hitGroup, String address) {
+
+            this.hitGroup = hitGroup;
+            this.address = address;
+
+        }
+
+        synchronized double cost(long now) {
+
+            if (ewmaMs < 0 || now - lastSampleT > PROBE_AFTER_MS) {
+
+                // unknown or stale => probe (busy probes still wait their turn)
+                return inFlight;
+
+            }
+
+            return ewmaMs * (inFlight + 1);
+
+        }
+
+        synchronized void begin() {
+
+            inFlight++;
+            requests++;
+
+        }
+
+        synchronized void end(double latencyMs, boolean success) {
+
+            inFlight--;
+
+            double sample = success ? latencyMs : Math.max(latencyMs, FAILURE_PENALTY_MS);
+
+            ewmaMs = (ewmaMs < 0) ? sample : ALPHA * sample + (1 - ALPHA) * ewmaMs;
+            lastSampleT = System.currentTimeMillis();
+
+            if (!success) {
+
+                failures++;
+
+            }
+
+        }
+
+        synchronized void wonHedge() {
+
+            hedgesWon++;
+
+        }
+
+        public String getHitGroup() {
+
+            return hitGroup;
+
+        }
+
+        public String getAddress() {
+
+            return address;
+
+        }
+
+        public synchronized double getEwmaMs() {
+
+            return Math.max(0, ewmaMs);
+
+        }
+
+        public synchronized int getInFlight() {
+
+            return inFlight;
+
+        }
+
+        public synchronized long getRequests() {
+
+            return requests;
+
+        }
+
+        public synchronized long getFailures() {
+
+            return failures;
+
+        }
+
+        public synchronized long getHedgesWon() {
+
+            return hedgesWon;
+
+        }
+
+    }
+
+    // hit group => address => stats
+    private final Map<String, LinkedHashMap<String, ReplicaStats>> replicas = new LinkedHashMap<String, LinkedHashMap<String, ReplicaStats>>();
+
+    // hit group => ring of recent successful latencies (ms)
+    private final Map<String, double[]> windows = new LinkedHashMap<String, double[]>();
+    private final Map<String, int[]> windowCounts = new LinkedHashMap<String, int[]>();
+
+    /**
+     * @param hitAddresses : [Map<String, ArrayList<String>>], hit group =>
+     *                     replica addresses
+     */
+    public ReplicaSelector(Map<String, ArrayList<String>> hitAddresses) {
+
+        for (Map.Entry<String, ArrayList<String>> entry : hitAddresses.entrySet()) {
+
+            LinkedHashMap<String, ReplicaStats> stats = new LinkedHashMap<String, ReplicaStats>();
+
+            for (String address : entry.getValue()) {
+
+                stats.put(address, new ReplicaStats(entry.getKey(), address));
+
+            }
+
+            replicas.put(entry.getKey(), stats);
+            windows.put(entry.getKey(), new double[WINDOW]);
+            windowCounts.put(entry.getKey(), new int[1]);
+
+        }
+
+    }
+
+    /**
+     * @param hitGroup : [String], e.g. hit0
+     * @return [List<String>], the replicas from the best to the worst
+     */
+    public List<String> rank(String hitGroup) {
+
+        LinkedHashMap<String, ReplicaStats> stats = replicas.get(hitGroup);
+
+        if (stats == null) {
+
+            return new ArrayList<String>();
+
+        }
+
+        long now = System.currentTimeMillis();
+
+        ArrayList<ReplicaStats> ranked = new ArrayList<ReplicaStats>(stats.values());
+
+        // snapshot the costs first (they change concurrently)
+        final Map<ReplicaStats, Double> costs = new LinkedHashMap<ReplicaStats, Double>();
+
+        for (ReplicaStats replica : ranked) {
+
+            costs.put(replica, replica.cost(now));
+
+        }
+
+        // stable => ties keep the configured order
+        ranked.sort(Comparator.comparingDouble(costs::get));
+
+        ArrayList<String> addresses = new ArrayList<String>();
+
+        for (ReplicaStats replica : ranked) {
+
+            addresses.add(replica.getAddress());
+
+        }
+
+        return addresses;
+
+    }
+
+    public void begin(String hitGroup, String address) {
+
+        replicas.get(hitGroup).get(address).begin();
+
+    }
+
+    public void end(String hitGroup, String address, double latencyMs, boolean success) {
+
+        replicas.get(hitGroup).get(address).end(latencyMs, success);
+
+        if (success) {
+
+            double[] window = windows.get(hitGroup);
+
+            synchronized (window) {
+
+                int[] count = windowCounts.get(hitGroup);
+
+                window[count[0] % WINDOW] = latencyMs;
+                count[0]++;
+
+            }
+
+        }
+
+    }
+
+    public void wonHedge(String hitGroup, String address) {
+
+        replicas.get(hitGroup).get(address).wonHedge();
+
+    }
+
+    /**
+     * Percentile of the recent latencies of the hit group.
+     *
+     * @param hitGroup   : [String]
+     * @param percentile : [double], e.g. 95
+     * @return [double], in ms, -1 without any sample
+     */
+    public double getLatencyPercentile(String hitGroup, double percentile) {
+
+        double[] window = windows.get(hitGroup);
+
+        if (window == null) {
+
+            return -1;
+
+        }
+
+        double[] samples;
+
+        synchronized (window) {
+
+            int n = Math.min(windowCounts.get(hitGroup)[0], WINDOW);
+
+            if (n == 0) {
+
+                return -1;
+
+            }
+
+            samples = Arrays.copyOf(window, n);
+
+        }
+
+        Arrays.sort(samples);
+
+        int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+
+        return samples[Math.max(0, Math.min(samples.length - 1, index))];
+
+    }
+
+    /**
+     * @return [List<ReplicaStats>], every replica of every hit group (for
+     *         /monitor)
+     */
+    public List<ReplicaStats> getAllStats() {
+
+        ArrayList<ReplicaStats> all = new ArrayList<ReplicaStats>();
+
+        for (LinkedHashMap<String, ReplicaStats> stats : replicas.values()) {
+
+            all.addAll(stats.values());
+
+        }
+
+        return all;
+
+    }
+
+}
@@ -134,8 +134,8 @@ public class PageRank {
 		     Map<Integer, Double> scoreMap = BDB.getScoreMap();
 		     
 		     for (int id : list) {
-		    	 int mappedID = docIDMap.get(id);
-		    	 matches.add(new RankerResult(id, scoreMap.get(mappedID).floatValue()));
+		    	 Double score = scoreMap.get(id);
+		    	 matches.add(new RankerResult(id, (score == null) ? 0 : score.floatValue()));
 		     }
 		     
 			 String body = RankerResult.serialize(matches);
@@ -369,8 +369,10 @@ public class PageRank {
 		  log.info(" PageRank algorithm converged after " + ITERATION_STEP + " iterations.");
 		  
 		  // Display PageRank & add to local DB
-		  for (k = 1; k <= totalNodes; k++) {
-			  BDB.addTuple(k, pagerank[k]);
+		  // keyed by the crawled docID (not the node index), so that the indexer
+		  // can read the scores at load time (see indexer.index.DocQuality)
+		  for (Map.Entry<Integer, Integer> entry : docIDMap.entrySet()) {
+			  BDB.addTuple(entry.getKey(), pagerank[entry.getValue()]);
 		  }
 
 	 }
@@ -0,0 +1,203 @@
+package storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool of MySQL connections.
+ * - at most maxSize connections, opened lazily
+ * - checkout waits at most checkoutTimeoutMs, then throws SQLException
+ * - idle connections are validated before reuse once they have been idle for
+ * a while (the server drops idle sockets)
+ * - each connection keeps its own prepared statements (see PooledConnection)
+ */
+public class MySQLConnectionPool {
+    final static Logger logger = LogManager.getLogger(MySQLConnectionPool.class);
+
+    private static final long VALIDATE_AFTER_IDLE_MS = 30 * 1000;
+
+    private final String jdbcUrl;
+    private final Properties connProperties;
+    private final int maxSize;
+    private final long checkoutTimeoutMs;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final BlockingQueue<PooledConnection> idle;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+
+    public MySQLConnectionPool(MySQLConfig config, int maxSize, long checkoutTimeoutMs, int statementCacheSize) {
+        this.jdbcUrl = "jdbc:mysql://"
+                + config.getHostname() + ":" + config.getPort()
+                + "/" + config.getDbname();
+        this.connProperties = new Properties();
+        connProperties.put("password", config.getPassword());
+        connProperties.put("user", config.getUsername());
+        connProperties.put("autoReconnect", "true");
+        connProperties.put("maxReconnects", "4");
+
+        this.maxSize = Math.max(1, maxSize);
+        this.checkoutTimeoutMs = checkoutTimeoutMs;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(this.maxSize, true);
+        this.idle = new ArrayBlockingQueue<>(this.maxSize);
+
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            logger.warn(e.toString());
+        }
+    }
+
+    /**
+     * Check out a connection, to be returned with close()
+     * (i.e. try (PooledConnection conn = pool.checkout()) { ... }).
+     *
+     * @throws SQLException if no connection is available in time or it can not be opened
+     */
+    public PooledConnection checkout() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(checkoutTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + checkoutTimeoutMs + " ms waiting for a MySQL connection ("
+                        + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a MySQL connection");
+        }
+        waitNanos.addAndGet(System.nanoTime() - waitStart);
+        checkouts.incrementAndGet();
+
+        try {
+            PooledConnection conn = idle.poll();
+            while (conn != null && !isUsable(conn)) {
+                discard(conn);
+                conn = idle.poll();
+            }
+            if (conn == null) {
+                conn = open();
+            }
+            conn.markCheckedOut();
+            return conn;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection conn) {
+        try {
+            if (conn.getConnection().isClosed()) {
+                return false;
+            }
+            if (conn.getIdleMillis() > VALIDATE_AFTER_IDLE_MS) {
+                return conn.getConnection().isValid(1);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        logger.debug("Opening pooled connection : " + jdbcUrl + " ... ");
+        Connection raw = DriverManager.getConnection(jdbcUrl, connProperties);
+        PooledConnection conn = new PooledConnection(this, raw, statementCacheSize);
+        opened.incrementAndGet();
+        return conn;
+    }
+
+    private void discard(PooledConnection conn) {
+        broken.incrementAndGet();
+        conn.closePhysically();
+    }
+
+    /**
+     * Called by PooledConnection.close()
+     */
+    void release(PooledConnection conn, boolean reusable) {
+        if (closed || !reusable) {
+            discard(conn);
+        } else {
+            idle.offer(conn);
+        }
+        permits.release();
+    }
+
+    /**
+     * Close every connection (checked out ones are closed when returned).
+     */
+    public void close() {
+        closed = true;
+        PooledConnection conn;
+        while ((conn = idle.poll()) != null) {
+            conn.closePhysically();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getInUse() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getOpened() {
+        return opened.get();
+    }
+
+    public long getCheckouts() {
+        return checkouts.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getBroken() {
+        return broken.get();
+    }
+
+    /**
+     * Average wait of a checkout in ms.
+     */
+    public float getAverageWaitMillis() {
+        long n = checkouts.get();
+        return n == 0 ? 0 : (float) (waitNanos.get() / 1e6 / n);
+    }
+
+    public String toString() {
+        return "MySQLConnectionPool(inUse = " + getInUse() + "/" + maxSize + ", idle = " + getIdle()
+                + ", opened = " + getOpened() + ", checkouts = " + getCheckouts() + ", timeouts = " + getTimeouts()
+                + ", broken = " + getBroken() + ", avgWait = " + String.format("%.3f", getAverageWaitMillis()) + " ms)";
+    }
+}
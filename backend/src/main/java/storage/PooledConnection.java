@@ -0,0 +1,132 @@
+package storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A connection checked out of a MySQLConnectionPool, returned to the pool on close().
+ * Prepared statements are cached per connection (LRU by SQL string):
+ * statements from prepare() are reused by later checkouts and must not be closed
+ * by the caller, only their ResultSets.
+ */
+public class PooledConnection implements AutoCloseable {
+    final static Logger logger = LogManager.getLogger(PooledConnection.class);
+
+    private final MySQLConnectionPool pool;
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long lastReleased = System.currentTimeMillis();
+    private boolean checkedOut = false;
+    private boolean broken = false;
+
+    PooledConnection(MySQLConnectionPool pool, Connection conn, int statementCacheSize) {
+        this.pool = pool;
+        this.conn = conn;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The underlying connection, e.g. for transactions (auto commit is restored on close()).
+     */
+    public Connection getConnection() {
+        return conn;
+    }
+
+    /**
+     * Cached prepared statement of this connection (do not close it).
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = conn.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * Plain statement (not cached, close it after use).
+     */
+    public Statement createStatement() throws SQLException {
+        return conn.createStatement();
+    }
+
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return conn.createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    /**
+     * Mark the connection as unusable (it is closed instead of returned to the pool).
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    void markCheckedOut() {
+        checkedOut = true;
+    }
+
+    long getIdleMillis() {
+        return System.currentTimeMillis() - lastReleased;
+    }
+
+    /**
+     * Return the connection to the pool.
+     */
+    @Override
+    public void close() {
+        if (!checkedOut) {
+            return;
+        }
+        checkedOut = false;
+        boolean reusable = !broken;
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        lastReleased = System.currentTimeMillis();
+        pool.release(this, reusable);
+    }
+
+    void closePhysically() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.debug("Failed to close connection: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package api.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+class WordHitCodecTests {
+
+    private static final String[] TAGS = { "title", "p", "h1", "a" };
+
+    private static HashMap<String, HashMap<Integer, ArrayList<WordHit>>> randomHits(Random random) {
+        HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = new HashMap<>();
+        for (String word: new String[] { "pizza", "Pizza", "café", "york" }) {
+            HashMap<Integer, ArrayList<WordHit>> docHits = new HashMap<>();
+            for (int d = 0; d < 30; d++) {
+                // large & small docIDs (multi-byte varints)
+                int docID = random.nextBoolean() ? random.nextInt(100) : random.nextInt(Integer.MAX_VALUE);
+                ArrayList<WordHit> singleHits = new ArrayList<>();
+                for (int h = 0; h < 1 + random.nextInt(5); h++) {
+                    // positions are not sorted => negative deltas
+                    singleHits.add(new WordHit(docID, word, TAGS[random.nextInt(TAGS.length)], random.nextInt(5000),
+                        random.nextInt(2), random.nextInt(40), "context " + random.nextInt(3)));
+                }
+                docHits.put(docID, singleHits);
+            }
+            hits.put(word, docHits);
+        }
+        return hits;
+    }
+
+    private static void assertSameHits(Map<String, HashMap<Integer, ArrayList<WordHit>>> expected,
+            Map<String, HashMap<Integer, ArrayList<WordHit>>> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String word: expected.keySet()) {
+            assertEquals(expected.get(word).keySet(), actual.get(word).keySet(), word);
+            for (int docID: expected.get(word).keySet()) {
+                ArrayList<WordHit> expectedHits = expected.get(word).get(docID);
+                ArrayList<WordHit> actualHits = actual.get(word).get(docID);
+                assertEquals(expectedHits.size(), actualHits.size());
+                for (int i = 0; i < expectedHits.size(); i++) {
+                    WordHit e = expectedHits.get(i);
+                    WordHit a = actualHits.get(i);
+                    assertEquals(docID, a.getDocID());
+                    assertEquals(e.getWord(), a.getWord());
+                    assertEquals(e.getTag(), a.getTag());
+                    assertEquals(e.getPos(), a.getPos());
+                    assertEquals(e.getCap(), a.getCap());
+                    assertEquals(e.getFontSize(), a.getFontSize());
+                    assertEquals(e.getContext(), a.getContext());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = randomHits(new Random(455));
+        byte[] encoded = WordHitCodec.encode(hits);
+        assertSameHits(hits, WordHitCodec.decode(encoded));
+        assertSameHits(hits, WordHitCodec.decode(new ByteArrayInputStream(encoded)));
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        assertTrue(WordHitCodec.decode(WordHitCodec.encode(new HashMap<String, HashMap<Integer, ArrayList<WordHit>>>())).isEmpty());
+    }
+
+    @Test
+    void testNullContext() throws IOException {
+        HashMap<Integer, ArrayList<WordHit>> docHits = new HashMap<>();
+        docHits.put(3, new ArrayList<>(Arrays.asList(new WordHit(3, "pizza", "p", 7, 0, 12, null))));
+        HashMap<String, HashMap<Integer, ArrayList<WordHit>>> hits = new HashMap<>();
+        hits.put("pizza", docHits);
+        // a missing context is sent as the empty string
+        assertEquals("", WordHitCodec.decode(WordHitCodec.encode(hits)).get("pizza").get(3).get(0).getContext());
+    }
+
+    @Test
+    void testTruncated() {
+        byte[] encoded = WordHitCodec.encode(randomHits(new Random(1)));
+        assertThrows(IOException.class, () -> WordHitCodec.decode(Arrays.copyOf(encoded, encoded.length / 2)));
+        assertThrows(IOException.class, () -> WordHitCodec.decode(new byte[0]));
+    }
+
+    @Test
+    void testUnknownVersion() {
+        byte[] encoded = WordHitCodec.encode(randomHits(new Random(2)));
+        encoded[0] = (byte) (WordHitCodec.VERSION + 1);
+        assertThrows(IOException.class, () -> WordHitCodec.decode(encoded));
+    }
+}
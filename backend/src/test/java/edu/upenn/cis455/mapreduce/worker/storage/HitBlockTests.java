@@ -0,0 +1,77 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.HitBlock;
+
+class HitBlockTests {
+
+    private static HitBlock roundTrip(HitBlock block) {
+        HitBlockBinding binding = new HitBlockBinding();
+        TupleOutput output = new TupleOutput();
+        binding.objectToEntry(block, output);
+        return binding.entryToObject(new TupleInput(output.toByteArray()));
+    }
+
+    private static void assertSameBlock(HitBlock expected, HitBlock actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getPos(i), actual.getPos(i), "pos " + i);
+            assertEquals(expected.getCap(i), actual.getCap(i), "cap " + i);
+            assertEquals(expected.getTagID(i), actual.getTagID(i), "tagID " + i);
+            assertEquals(expected.getFontSize(i), actual.getFontSize(i), "fontSize " + i);
+            assertEquals(expected.getContextRef(i), actual.getContextRef(i), "contextRef " + i);
+        }
+    }
+
+    @Test
+    void testAddGrowsColumns() {
+        HitBlock block = new HitBlock();
+        for (int i = 0; i < 100; i++) {
+            block.add(3 * i, i % 2, i % 7, 10 + i, i % 3);
+        }
+        assertEquals(100, block.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(3 * i, block.getPos(i));
+            assertEquals(i % 2, block.getCap(i));
+            assertEquals(i % 7, block.getTagID(i));
+            assertEquals(10 + i, block.getFontSize(i));
+            assertEquals(i % 3, block.getContextRef(i));
+        }
+    }
+
+    @Test
+    void testBindingRoundTrip() {
+        Random random = new Random(455);
+        HitBlock block = new HitBlock(2);
+        int pos = 0;
+        for (int i = 0; i < 500; i++) {
+            pos += random.nextInt(1000);
+            block.add(pos, random.nextInt(2), random.nextInt(20), random.nextInt(72), random.nextInt(4));
+        }
+        assertSameBlock(block, roundTrip(block));
+    }
+
+    @Test
+    void testUnsortedPositions() {
+        // hits keep the order they were added in => negative deltas
+        HitBlock block = new HitBlock();
+        block.add(900, 0, 1, 12, 0);
+        block.add(3, 1, 0, 12, 0);
+        block.add(Integer.MAX_VALUE / 2, 0, 2, 12, 1);
+        block.add(0, 0, 0, 0, 0);
+        assertSameBlock(block, roundTrip(block));
+    }
+
+    @Test
+    void testEmptyBlock() {
+        assertEquals(0, roundTrip(new HitBlock()).size());
+    }
+}
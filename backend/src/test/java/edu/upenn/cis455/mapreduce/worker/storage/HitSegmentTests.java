@@ -0,0 +1,165 @@
+package edu.upenn.cis455.mapreduce.worker.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.HitBlock;
+import edu.upenn.cis455.mapreduce.worker.storage.entities.WordHit;
+
+class HitSegmentTests {
+
+    private static final List<String> TAGS = Arrays.asList("title", "p", "h1", "a");
+
+    // multi-byte keys too (modified UTF-8 order)
+    private static final String[] WORDS = { "pizza", "pie", "café", "東京", "new", "york", "zebra" };
+
+    // the key order of the BerkeleyDB storage
+    private static final Comparator<String> KEY_ORDER = (a, b) -> HitSegmentWriter
+        .compare(HitSegmentWriter.encodeKey(a), HitSegmentWriter.encodeKey(b));
+
+    private File directory;
+
+    private TreeMap<String, HitBlock> blocks;
+
+    private TreeMap<String, ArrayList<String>> contexts;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("hit-segment").toFile();
+        Random random = new Random(455);
+        blocks = new TreeMap<>(KEY_ORDER);
+        contexts = new TreeMap<>(KEY_ORDER);
+        // enough entries for several sparse index samples
+        for (String word: WORDS) {
+            for (int d = 0; d < 60; d++) {
+                int docID = random.nextBoolean() ? random.nextInt(1000) : random.nextInt(Integer.MAX_VALUE);
+                HitBlock block = new HitBlock();
+                for (int h = 0; h < 1 + random.nextInt(6); h++) {
+                    // unsorted positions => negative deltas
+                    block.add(random.nextInt(100000), random.nextInt(2), random.nextInt(TAGS.size()),
+                        random.nextInt(40), random.nextInt(4));
+                }
+                blocks.put(word + "," + docID, block);
+                for (String tag: TAGS) {
+                    // 3 contexts per (doc, tag), a contextRef of 3 has none
+                    contexts.computeIfAbsent(docID + "," + tag,
+                        key -> new ArrayList<>(Arrays.asList(key + " 0", key + " 1 é", key + " 2")));
+                }
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private HitSegment write() throws IOException {
+        File file = new File(directory, "hit0.seg");
+        assertEquals(blocks.size(), HitSegmentWriter.write(file, blocks.entrySet(), contexts.entrySet(), TAGS));
+        return new HitSegment(file);
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        HitSegment segment = write();
+        assertEquals(blocks.size(), segment.getNumEntries());
+        for (Map.Entry<String, HitBlock> entry: blocks.entrySet()) {
+            String word = entry.getKey().substring(0, entry.getKey().lastIndexOf(','));
+            int docID = Integer.parseInt(entry.getKey().substring(entry.getKey().lastIndexOf(',') + 1));
+            HitBlock block = entry.getValue();
+
+            ArrayList<WordHit> hits = segment.getWordHitList(word, docID, "short");
+            ArrayList<WordHit> noContext = segment.getWordHitList(word, docID, "short", false);
+            assertEquals(block.size(), hits.size(), entry.getKey());
+            assertEquals(block.size(), noContext.size(), entry.getKey());
+
+            for (int i = 0; i < block.size(); i++) {
+                WordHit hit = hits.get(i);
+                String tag = TAGS.get(block.getTagID(i));
+                assertEquals(docID, hit.getDocID());
+                assertEquals(word, hit.getWord());
+                assertEquals(block.getPos(i), hit.getPos(), entry.getKey() + " pos " + i);
+                assertEquals(block.getCap(i), hit.getCap());
+                assertEquals(tag, hit.getTag());
+                assertEquals(block.getFontSize(i), hit.getFontSize());
+                List<String> tagContexts = contexts.get(docID + "," + tag);
+                String context = (block.getContextRef(i) < tagContexts.size()) ? tagContexts.get(block.getContextRef(i)) : "";
+                assertEquals(context, hit.getContext());
+                assertEquals("", noContext.get(i).getContext());
+                assertEquals(block.getPos(i), noContext.get(i).getPos());
+            }
+        }
+    }
+
+    @Test
+    void testMissingKeys() throws IOException {
+        HitSegment segment = write();
+        String first = blocks.firstKey();
+        int docID = Integer.parseInt(first.substring(first.lastIndexOf(',') + 1));
+        // before the first sampled key, after the last one, between two keys
+        assertTrue(segment.getWordHitList("a", 0, "short").isEmpty());
+        assertTrue(segment.getWordHitList("\uffff", 0, "short").isEmpty());
+        assertTrue(segment.getWordHitList("pizzas", docID, "short").isEmpty());
+        // only the short hits are exported
+        assertTrue(segment.getWordHitList(first.substring(0, first.lastIndexOf(',')), docID, "plain").isEmpty());
+    }
+
+    @Test
+    void testHitKeys() throws IOException {
+        HitSegment segment = write();
+        List<String> keys = new ArrayList<>();
+        for (String key: segment.getHitKeys("short")) {
+            keys.add(key);
+        }
+        assertEquals(new ArrayList<>(blocks.keySet()), keys);
+        assertFalse(segment.getHitKeys("plain").iterator().hasNext());
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        blocks.clear();
+        contexts.clear();
+        HitSegment segment = write();
+        assertEquals(0, segment.getNumEntries());
+        assertTrue(segment.getWordHitList("pizza", 1, "short").isEmpty());
+    }
+
+    @Test
+    void testUnsortedKeys() {
+        File file = new File(directory, "hit1.seg");
+        LinkedHashMap<String, HitBlock> unsorted = new LinkedHashMap<>();
+        unsorted.put("pizza,9", new HitBlock());
+        // "pizza,10" < "pizza,9" in byte order
+        unsorted.put("pizza,10", new HitBlock());
+        assertThrows(IllegalStateException.class,
+            () -> HitSegmentWriter.write(file, unsorted.entrySet(), contexts.entrySet(), TAGS));
+        // neither the segment nor the temporary file is left
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    void testNotASegment() throws IOException {
+        File file = new File(directory, "hit2.seg");
+        Files.write(file.toPath(), new byte[HitSegmentWriter.FOOTER_SIZE + 10]);
+        assertThrows(IOException.class, () -> new HitSegment(file));
+    }
+}
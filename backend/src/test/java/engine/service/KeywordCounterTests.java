@@ -0,0 +1,44 @@
+package engine.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class KeywordCounterTests {
+
+    @Test
+    void testLowerCase() {
+        assertEquals(Arrays.asList("new", "york", "pizza"), KeywordCounter.tokenize("New YORK pizza"));
+    }
+
+    @Test
+    void testSeparators() {
+        // spaces, tabs, new lines & commas, several in a row
+        assertEquals(Arrays.asList("cats", "dogs", "birds", "fish"),
+            KeywordCounter.tokenize("cats,dogs , \tbirds\n,,fish"));
+    }
+
+    @Test
+    void testPunctuationAround() {
+        assertEquals(Arrays.asList("new", "york", "pizza", "what"), KeywordCounter.tokenize("\"new york\" (pizza)! what?"));
+        assertEquals(Arrays.asList("café", "東京"), KeywordCounter.tokenize("«café» 「東京」"));
+    }
+
+    @Test
+    void testPunctuationInside() {
+        assertEquals(Arrays.asList("don't", "e-mail", "u.s.a", "3.5"), KeywordCounter.tokenize("don't e-mail U.S.A. 3.5"));
+        // only the ends are trimmed
+        assertEquals(Arrays.asList("c"), KeywordCounter.tokenize("c++"));
+    }
+
+    @Test
+    void testEmpty() {
+        assertTrue(KeywordCounter.tokenize("").isEmpty());
+        assertTrue(KeywordCounter.tokenize("   ").isEmpty());
+        // only punctuation
+        assertTrue(KeywordCounter.tokenize(" , \"\" ?! -- ").isEmpty());
+        assertEquals(Arrays.asList("pizza"), KeywordCounter.tokenize("  ,pizza, "));
+    }
+}
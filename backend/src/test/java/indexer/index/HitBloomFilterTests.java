@@ -0,0 +1,119 @@
+package indexer.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class HitBloomFilterTests {
+
+    private static final int NUM_KEYS = 20000;
+
+    private static final int BLOCK_SIZE = 16;
+
+    private static String word(int i) {
+        return "word" + i;
+    }
+
+    // (word, docID) pairs, some words in several docs
+    private static int[][] keys(Random random) {
+        int[][] keys = new int[NUM_KEYS][2];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            keys[i][0] = random.nextInt(NUM_KEYS / 4);
+            keys[i][1] = random.nextInt(Integer.MAX_VALUE);
+        }
+        return keys;
+    }
+
+    private static HitBloomFilter filter(int[][] keys, double fpp) {
+        HitBloomFilter filter = new HitBloomFilter(keys.length, fpp, BLOCK_SIZE);
+        for (int[] key: keys) {
+            filter.add(word(key[0]), key[1]);
+        }
+        return filter;
+    }
+
+    @Test
+    void testNoFalseNegatives() {
+        int[][] keys = keys(new Random(455));
+        HitBloomFilter filter = filter(keys, 0.01);
+        for (int[] key: keys) {
+            assertTrue(filter.mightContain(word(key[0]), key[1]), word(key[0]) + " " + key[1]);
+            // any doc of the same block
+            int first = filter.getBlock(key[1]) * BLOCK_SIZE;
+            assertTrue(filter.mightContain(word(key[0]), first));
+            assertTrue(filter.mightContain(word(key[0]), first + BLOCK_SIZE - 1));
+        }
+        assertEquals(NUM_KEYS, filter.getNumKeys());
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        Random random = new Random(7);
+        int[][] keys = keys(random);
+        HitBloomFilter filter = filter(keys, 0.01);
+        Set<Long> added = new HashSet<>();
+        for (int[] key: keys) {
+            added.add(((long) key[0] << 32) | filter.getBlock(key[1]));
+        }
+        int numProbes = 0;
+        int falsePositives = 0;
+        while (numProbes < 100000) {
+            int word = random.nextInt(NUM_KEYS);
+            int docID = random.nextInt(Integer.MAX_VALUE);
+            if (added.contains(((long) word << 32) | filter.getBlock(docID))) {
+                continue;
+            }
+            numProbes++;
+            if (filter.mightContain(word(word), docID)) {
+                falsePositives++;
+            }
+        }
+        // target 1 %, some slack for the hashing
+        assertTrue(falsePositives < 0.02 * numProbes, falsePositives + " false positives");
+    }
+
+    @Test
+    void testRoundTrip() {
+        Random random = new Random(12);
+        int[][] keys = keys(random);
+        HitBloomFilter filter = filter(keys, 0.05);
+        HitBloomFilter copy = HitBloomFilter.fromBytes(filter.toBytes());
+        assertEquals(filter.getNumKeys(), copy.getNumKeys());
+        assertEquals(filter.getBlockSize(), copy.getBlockSize());
+        assertEquals(filter.getSizeInBytes(), copy.getSizeInBytes());
+        assertArrayEquals(filter.toBytes(), copy.toBytes());
+        for (int[] key: keys) {
+            assertTrue(copy.mightContain(word(key[0]), key[1]));
+        }
+        // same answers for absent keys too
+        for (int i = 0; i < 10000; i++) {
+            String word = word(random.nextInt(NUM_KEYS));
+            int docID = random.nextInt();
+            assertEquals(filter.mightContain(word, docID), copy.mightContain(word, docID));
+        }
+    }
+
+    @Test
+    void testMightContainAny() {
+        HitBloomFilter filter = new HitBloomFilter(10, 0.001, BLOCK_SIZE);
+        filter.add("pizza", 100);
+        assertTrue(filter.mightContainAny("pizza", Arrays.asList(5000, 101)));
+        assertFalse(filter.mightContainAny("pizza", Arrays.asList()));
+    }
+
+    @Test
+    void testMalformed() {
+        byte[] bytes = filter(keys(new Random(1)), 0.01).toBytes();
+        assertThrows(IllegalArgumentException.class, () -> HitBloomFilter.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> HitBloomFilter.fromBytes(Arrays.copyOf(bytes, 10)));
+        assertThrows(IllegalArgumentException.class, () -> HitBloomFilter.fromBytes(new byte[0]));
+        byte[] unknownVersion = bytes.clone();
+        unknownVersion[3] = (byte) (HitBloomFilter.VERSION + 1);
+        assertThrows(IllegalArgumentException.class, () -> HitBloomFilter.fromBytes(unknownVersion));
+    }
+}
@@ -0,0 +1,117 @@
+package indexer.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ImpactRetrieverTests {
+
+    private static final int NUM_DOCS = 5000;
+
+    // impact-ordered postings of each term (score descending, then docID)
+    private static List<List<ScoredDoc>> lists(Random random, double[] fractions) {
+        List<List<ScoredDoc>> lists = new ArrayList<>();
+        for (double fraction: fractions) {
+            List<ScoredDoc> list = new ArrayList<>();
+            for (int docID = 0; docID < NUM_DOCS; docID++) {
+                if (random.nextDouble() < fraction) {
+                    // skewed scores, a few high impacts per term
+                    list.add(new ScoredDoc(docID, (float) Math.pow(random.nextDouble(), 4) * 10));
+                }
+            }
+            list.sort((a, b) -> a.getScore() != b.getScore() ? Float.compare(b.getScore(), a.getScore())
+                : Integer.compare(a.getDocID(), b.getDocID()));
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    // docs in every list, scores summed in term order
+    private static List<ScoredDoc> exhaustive(List<List<ScoredDoc>> lists, int k) {
+        HashMap<Integer, float[]> scores = new HashMap<>();
+        for (int i = 0; i < lists.size(); i++) {
+            for (ScoredDoc posting: lists.get(i)) {
+                scores.computeIfAbsent(posting.getDocID(), docID -> new float[lists.size() + 1]);
+                float[] docScores = scores.get(posting.getDocID());
+                docScores[i] = posting.getScore();
+                docScores[lists.size()]++;
+            }
+        }
+        List<ScoredDoc> matches = new ArrayList<>();
+        for (int docID: scores.keySet()) {
+            float[] docScores = scores.get(docID);
+            if (docScores[lists.size()] == lists.size()) {
+                float score = 0;
+                for (int i = 0; i < lists.size(); i++) {
+                    score += docScores[i];
+                }
+                matches.add(new ScoredDoc(docID, score));
+            }
+        }
+        matches.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+        return matches.subList(0, Math.min(k, matches.size()));
+    }
+
+    private static ImpactRetriever.PageReader reader(List<List<ScoredDoc>> lists) {
+        return (term, offset, limit) -> {
+            List<ScoredDoc> list = lists.get(term);
+            return new ArrayList<>(list.subList(Math.min(offset, list.size()), Math.min(offset + limit, list.size())));
+        };
+    }
+
+    private static int numPostings(List<List<ScoredDoc>> lists) {
+        int total = 0;
+        for (List<ScoredDoc> list: lists) {
+            total += list.size();
+        }
+        return total;
+    }
+
+    @Test
+    void testSameTopKAsExhaustive() throws Exception {
+        double[][] queries = { { 0.8, 0.3 }, { 0.05, 0.8 }, { 0.3, 0.3, 0.8 }, { 0.5 } };
+        Random random = new Random(455);
+        for (double[] fractions: queries) {
+            List<List<ScoredDoc>> lists = lists(random, fractions);
+            for (int k: new int[] { 1, 10, 100 }) {
+                for (int pageSize: new int[] { 1, 16, 100 }) {
+                    ImpactRetriever retriever = new ImpactRetriever(null, "ShortImpacts", pageSize, DocRange.ALL);
+                    List<ScoredDoc> topK = retriever.retrieve(lists.size(), k, reader(lists));
+                    TopKRetrieverTests.assertSameRanking(exhaustive(lists, k), topK,
+                        fractions.length + " terms k=" + k + " page=" + pageSize);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testStopsEarly() throws Exception {
+        List<List<ScoredDoc>> lists = lists(new Random(7), new double[] { 0.8, 0.6 });
+        ImpactRetriever retriever = new ImpactRetriever(null, "ShortImpacts", 50, DocRange.ALL);
+        retriever.retrieve(lists.size(), 10, reader(lists));
+        // the tails of the lists can not change the top 10
+        assertTrue(retriever.getNumEvaluated() < numPostings(lists),
+            retriever.getNumEvaluated() + " read, " + numPostings(lists) + " postings");
+    }
+
+    @Test
+    void testFewerMatchesThanK() throws Exception {
+        List<List<ScoredDoc>> lists = lists(new Random(12), new double[] { 0.02, 0.05 });
+        int numMatches = exhaustive(lists, NUM_DOCS).size();
+        ImpactRetriever retriever = new ImpactRetriever(null, "ShortImpacts", 8, DocRange.ALL);
+        List<ScoredDoc> topK = retriever.retrieve(lists.size(), numMatches + 20, reader(lists));
+        TopKRetrieverTests.assertSameRanking(exhaustive(lists, NUM_DOCS), topK, "all matches");
+    }
+
+    @Test
+    void testMissingTerm() throws Exception {
+        List<List<ScoredDoc>> lists = lists(new Random(1), new double[] { 0.5, 0 });
+        ImpactRetriever retriever = new ImpactRetriever(null, "ShortImpacts", 100, DocRange.ALL);
+        assertTrue(retriever.retrieve(lists.size(), 10, reader(lists)).isEmpty());
+    }
+}
@@ -0,0 +1,213 @@
+package indexer.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PostingListTests {
+
+    // sorted docIDs with small & large gaps (multi-byte varints), 5 blocks with a partial last one
+    private static int[] docIDs(Random random, int size) {
+        int[] docIDs = new int[size];
+        int docID = random.nextInt(10);
+        for (int i = 0; i < size; i++) {
+            docIDs[i] = docID;
+            docID += 1 + (random.nextInt(4) == 0 ? random.nextInt(1 << 22) : random.nextInt(100));
+        }
+        return docIDs;
+    }
+
+    private static float[] weights(Random random, int size) {
+        float[] weights = new float[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = random.nextFloat() * 10;
+        }
+        return weights;
+    }
+
+    // first index of the sorted docIDs whose value >= target, docIDs.length if none
+    private static int lowerBound(int[] docIDs, int target) {
+        int low = 0;
+        int high = docIDs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (docIDs[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Test
+    void testRoundTrip() {
+        Random random = new Random(455);
+        int size = 4 * PostingList.BLOCK_SIZE + 37;
+        int[] docIDs = docIDs(random, size);
+        float[] weights = weights(random, size);
+        PostingList list = PostingList.compress(docIDs, weights, size);
+        assertEquals(size, list.size());
+        assertEquals(5, list.numBlocks());
+
+        PostingList.Cursor cursor = list.cursor();
+        assertEquals(-1, cursor.docID());
+        for (int i = 0; i < size; i++) {
+            assertEquals(docIDs[i], cursor.next());
+            assertEquals(weights[i], cursor.weight(), 0f);
+            assertEquals(i, cursor.ordinal());
+        }
+        assertEquals(PostingList.NO_MORE_DOCS, cursor.next());
+        assertEquals(PostingList.NO_MORE_DOCS, cursor.next());
+    }
+
+    @Test
+    void testPartialArrays() {
+        // only the first size entries are compressed
+        PostingList list = PostingList.compress(new int[] { 3, 7, 200000, 9 }, new float[] { 1, 2, 3, 4 }, 3);
+        PostingList.Cursor cursor = list.cursor();
+        assertEquals(3, cursor.next());
+        assertEquals(7, cursor.next());
+        assertEquals(200000, cursor.next());
+        assertEquals(PostingList.NO_MORE_DOCS, cursor.next());
+    }
+
+    @Test
+    void testBlockBounds() {
+        Random random = new Random(7);
+        int size = 3 * PostingList.BLOCK_SIZE + 5;
+        int[] docIDs = docIDs(random, size);
+        float[] weights = weights(random, size);
+        PostingList list = PostingList.compress(docIDs, weights, size);
+
+        float max = 0;
+        for (int b = 0; b < list.numBlocks(); b++) {
+            int end = Math.min(size, (b + 1) * PostingList.BLOCK_SIZE);
+            float blockMax = 0;
+            for (int i = b * PostingList.BLOCK_SIZE; i < end; i++) {
+                blockMax = Math.max(blockMax, weights[i]);
+            }
+            assertEquals(docIDs[end - 1], list.getBlockLastDoc(b));
+            assertEquals(blockMax, list.getBlockMaxWeight(b), 0f);
+            max = Math.max(max, blockMax);
+        }
+        assertEquals(max, list.getMaxWeight(), 0f);
+        assertFalse(list.hasQualities());
+        assertEquals(0, list.getBlockMaxQuality(0));
+    }
+
+    @Test
+    void testAdvance() {
+        Random random = new Random(12);
+        int size = 6 * PostingList.BLOCK_SIZE + 11;
+        int[] docIDs = docIDs(random, size);
+        PostingList list = PostingList.compress(docIDs, weights(random, size), size);
+        int last = docIDs[size - 1];
+
+        for (int run = 0; run < 200; run++) {
+            PostingList.Cursor cursor = list.cursor();
+            int target = 0;
+            while (true) {
+                // short hops inside a block & long jumps over blocks
+                target += (random.nextBoolean() ? random.nextInt(50) : random.nextInt(last / 4 + 1));
+                int expected = lowerBound(docIDs, target);
+                int docID = cursor.advance(target);
+                if (expected == size) {
+                    assertEquals(PostingList.NO_MORE_DOCS, docID);
+                    break;
+                }
+                assertEquals(docIDs[expected], docID, "advance(" + target + ")");
+                assertEquals(expected, cursor.ordinal());
+                // never moves backwards
+                assertEquals(docID, cursor.advance(target - 1));
+                target = docID;
+            }
+        }
+    }
+
+    @Test
+    void testAdvanceMixedWithNext() {
+        int size = 3 * PostingList.BLOCK_SIZE;
+        int[] docIDs = new int[size];
+        for (int i = 0; i < size; i++) {
+            docIDs[i] = 2 * i;
+        }
+        PostingList list = PostingList.compress(docIDs, new float[size], size);
+        PostingList.Cursor cursor = list.cursor();
+        assertEquals(0, cursor.advance(0));
+        assertEquals(2, cursor.next());
+        // odd target => the next even docID
+        assertEquals(10, cursor.advance(9));
+        assertEquals(12, cursor.next());
+        // last of a block, first of the next one
+        assertEquals(2 * (PostingList.BLOCK_SIZE - 1), cursor.advance(2 * PostingList.BLOCK_SIZE - 3));
+        assertEquals(2 * PostingList.BLOCK_SIZE, cursor.next());
+        assertEquals(2 * (size - 1), cursor.advance(2 * (size - 1)));
+        assertEquals(PostingList.NO_MORE_DOCS, cursor.advance(2 * size));
+    }
+
+    @Test
+    void testFindBlock() {
+        Random random = new Random(3);
+        int size = 5 * PostingList.BLOCK_SIZE + 1;
+        int[] docIDs = docIDs(random, size);
+        PostingList list = PostingList.compress(docIDs, weights(random, size), size);
+        PostingList.Cursor cursor = list.cursor();
+
+        for (int i = 0; i < 1000; i++) {
+            int target = random.nextInt(docIDs[size - 1] + 10);
+            int expected = lowerBound(docIDs, target);
+            int block = cursor.findBlock(target);
+            if (expected == size) {
+                assertEquals(-1, block);
+            } else {
+                assertEquals(expected / PostingList.BLOCK_SIZE, block, "findBlock(" + target + ")");
+            }
+            // shallow: the cursor does not move
+            assertEquals(-1, cursor.docID());
+        }
+
+        // from the current block on
+        cursor.advance(docIDs[3 * PostingList.BLOCK_SIZE]);
+        assertEquals(3, cursor.findBlock(docIDs[0]));
+        assertEquals(docIDs[4 * PostingList.BLOCK_SIZE - 1], cursor.blockLastDoc());
+    }
+
+    @Test
+    void testQualities() {
+        Random random = new Random(21);
+        int size = 2 * PostingList.BLOCK_SIZE + 3;
+        int[] docIDs = docIDs(random, size);
+        byte[] qualities = new byte[size];
+        for (int i = 0; i < size; i++) {
+            qualities[i] = (byte) random.nextInt(256);
+        }
+        PostingList list = PostingList.compress(docIDs, weights(random, size), qualities, size);
+        assertTrue(list.hasQualities());
+
+        for (int b = 0; b < list.numBlocks(); b++) {
+            int blockMax = 0;
+            for (int i = b * PostingList.BLOCK_SIZE; i < Math.min(size, (b + 1) * PostingList.BLOCK_SIZE); i++) {
+                blockMax = Math.max(blockMax, qualities[i] & 0xFF);
+            }
+            assertEquals(blockMax, list.getBlockMaxQuality(b));
+        }
+
+        PostingList.Cursor cursor = list.cursor();
+        for (int i = 0; i < size; i++) {
+            cursor.next();
+            assertEquals(qualities[i] & 0xFF, cursor.quality());
+        }
+    }
+
+    @Test
+    void testEmpty() {
+        PostingList list = PostingList.compress(new int[0], new float[0], 0);
+        assertEquals(0, list.size());
+        assertEquals(PostingList.NO_MORE_DOCS, list.cursor().next());
+        assertEquals(PostingList.NO_MORE_DOCS, list.cursor().advance(5));
+        assertEquals(-1, list.cursor().findBlock(5));
+    }
+}
@@ -0,0 +1,163 @@
+package indexer.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class ResultCacheTests {
+
+    @Test
+    void testKeyIgnoresOrderAndCase() {
+        assertEquals(ResultCache.makeKey(Arrays.asList("cats", "Dog"), 10, "doc", "topk"),
+            ResultCache.makeKey(Arrays.asList("dog", "cats"), 10, "doc", "topk"));
+        assertNotEquals(ResultCache.makeKey(Arrays.asList("dog"), 10, "doc", "topk"),
+            ResultCache.makeKey(Arrays.asList("dog"), 20, "doc", "topk"));
+    }
+
+    @Test
+    void testPutGet() {
+        ResultCache cache = new ResultCache(1 << 20, 3);
+        cache.put("a", "[1]", 3);
+        assertEquals("[1]", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testDisabled() {
+        ResultCache cache = new ResultCache(0, 0);
+        cache.put("a", "[1]", 0);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testStaleGenerationPutIsDropped() {
+        ResultCache cache = new ResultCache(1 << 20, 1);
+        // computed on generation 1, the sync finished before the put
+        cache.setGeneration(2);
+        cache.put("a", "[old]", 1);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testNewGenerationDropsEntries() {
+        ResultCache cache = new ResultCache(1 << 20, 1);
+        cache.put("a", "[1]", 1);
+        cache.put("b", "[2]", 1);
+        cache.setGeneration(1);
+        assertEquals(2, cache.size());
+        cache.setGeneration(2);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertEquals(2, cache.getInvalidations());
+        assertNull(cache.get("a"));
+        cache.put("a", "[new]", 2);
+        assertEquals("[new]", cache.get("a"));
+    }
+
+    @Test
+    void testStaleEpochPutIsDropped() {
+        ResultCache cache = new ResultCache(1 << 20, 5);
+        long epoch = cache.getEpoch();
+        // the in-memory index was swapped while the query ran
+        cache.invalidate();
+        cache.put("a", "[old]", 5, epoch);
+        assertNull(cache.get("a"));
+        cache.put("a", "[new]", 5, cache.getEpoch());
+        assertEquals("[new]", cache.get("a"));
+        assertEquals(5, cache.getGeneration());
+    }
+
+    @Test
+    void testInvalidateDropsEntries() {
+        ResultCache cache = new ResultCache(1 << 20, 0);
+        cache.put("a", "[1]", 0);
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        String json = "[" + "x".repeat(100) + "]";
+        // room for two entries
+        ResultCache cache = new ResultCache(2 * (2L * json.length() + 64) + 10, 0);
+        cache.put("a", json, 0);
+        cache.put("b", json, 0);
+        assertNotNull(cache.get("a"));
+        cache.put("c", json, 0);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    void testTooLargeIsNotCached() {
+        ResultCache cache = new ResultCache(100, 0);
+        cache.put("a", "x".repeat(100), 0);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testConcurrentSyncNeverServesStale() throws InterruptedException {
+        ResultCache cache = new ResultCache(1 << 20, 0);
+        AtomicBoolean stop = new AtomicBoolean();
+
+        // queries: snapshot the generation & epoch, compute, put
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String key = "q" + t;
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    long generation = cache.getGeneration();
+                    long epoch = cache.getEpoch();
+                    Thread.yield();
+                    cache.put(key, generation + "/" + epoch, generation, epoch);
+                    cache.get(key);
+                }
+            }));
+        }
+        for (Thread thread: threads) {
+            thread.start();
+        }
+
+        try {
+            // syncs & segment swaps
+            for (int i = 1; i <= 2000; i++) {
+                if (i % 2 == 0) {
+                    cache.setGeneration(i);
+                } else {
+                    cache.invalidate();
+                }
+                long generation = cache.getGeneration();
+                long epoch = cache.getEpoch();
+                synchronized (cache) {
+                    // no entry computed before the last change survives it
+                    for (int t = 0; t < 4; t++) {
+                        String json = cache.get("q" + t);
+                        if (json != null) {
+                            String[] parts = json.split("/");
+                            assertEquals(generation, Long.parseLong(parts[0]));
+                            assertEquals(epoch, Long.parseLong(parts[1]));
+                        }
+                    }
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread thread: threads) {
+                thread.join();
+            }
+        }
+    }
+}
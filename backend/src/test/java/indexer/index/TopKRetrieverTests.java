@@ -0,0 +1,149 @@
+package indexer.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.upenn.cis455.mapreduce.worker.storage.entities.DocInfo;
+
+class TopKRetrieverTests {
+
+    private static final int NUM_DOCS = 20000;
+
+    // df of each term as a fraction of the docs
+    private static final String[] TERMS = { "rare", "uncommon", "common", "stopword" };
+    private static final double[] FRACTIONS = { 0.005, 0.05, 0.3, 0.8 };
+
+    private static PostingList postings(Random random, double fraction) {
+        int[] docIDs = new int[NUM_DOCS];
+        float[] weights = new float[NUM_DOCS];
+        int size = 0;
+        for (int docID = 0; docID < NUM_DOCS; docID++) {
+            if (random.nextDouble() < fraction) {
+                docIDs[size] = docID;
+                // skewed weights, so that the block maxima differ
+                weights[size] = (float) Math.pow(random.nextDouble(), 4) * 10;
+                size++;
+            }
+        }
+        return PostingList.compress(docIDs, weights, size);
+    }
+
+    static InvertedIndex index(long seed) {
+        Random random = new Random(seed);
+        HashMap<String, PostingList> postings = new HashMap<>();
+        for (int t = 0; t < TERMS.length; t++) {
+            postings.put(TERMS[t], postings(random, FRACTIONS[t]));
+        }
+        HashMap<Integer, DocInfo> docInfos = new HashMap<>();
+        for (int docID = 0; docID < NUM_DOCS; docID++) {
+            docInfos.put(docID, new DocInfo(docID, "http://doc/" + docID, "", ""));
+        }
+        return new InvertedIndex(postings, docInfos);
+    }
+
+    static void assertSameRanking(List<ScoredDoc> expected, List<ScoredDoc> actual, String query) {
+        assertEquals(expected.size(), actual.size(), query + " size");
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDocID(), actual.get(i).getDocID(), query + " rank " + i);
+            assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-4f, query + " score " + i);
+        }
+    }
+
+    // PageRank scores with a long tail, some docs without a score
+    static DocQuality quality(long seed) {
+        Random random = new Random(seed);
+        HashMap<Integer, Double> scores = new HashMap<>();
+        for (int docID = 0; docID < NUM_DOCS; docID++) {
+            if (random.nextInt(10) > 0) {
+                scores.put(docID, Math.exp(-8 * random.nextDouble()));
+            }
+        }
+        return DocQuality.fromScores(scores);
+    }
+
+    static final List<List<String>> QUERIES = Arrays.asList(
+        Arrays.asList("rare", "stopword"),
+        Arrays.asList("stopword", "common"),
+        Arrays.asList("uncommon", "common", "stopword"),
+        Arrays.asList("common"),
+        Arrays.asList("stopword"));
+
+    @Test
+    void testSameTopKAsExhaustive() {
+        InvertedIndex index = index(455);
+        for (List<String> query: QUERIES) {
+            for (int k: new int[] { 1, 10, 100, 1000 }) {
+                List<ScoredDoc> exhaustive = new QueryEvaluator(index).matchAll(query, k);
+                List<ScoredDoc> topK = new TopKRetriever(index).retrieve(query, k);
+                assertSameRanking(exhaustive, topK, query + " k=" + k);
+            }
+        }
+    }
+
+    @Test
+    void testPruning() {
+        InvertedIndex index = index(7);
+        List<String> query = Arrays.asList("stopword", "common");
+        QueryEvaluator evaluator = new QueryEvaluator(index);
+        evaluator.matchAll(query, 10);
+        TopKRetriever retriever = new TopKRetriever(index);
+        retriever.retrieve(query, 10);
+        // whole blocks are skipped without scoring their docs
+        assertTrue(retriever.getNumEvaluated() < evaluator.getNumEvaluated(),
+            retriever.getNumEvaluated() + " evaluated, exhaustive " + evaluator.getNumEvaluated());
+    }
+
+    @Test
+    void testFewerMatchesThanK() {
+        InvertedIndex index = index(12);
+        List<String> query = Arrays.asList("rare", "uncommon");
+        List<ScoredDoc> exhaustive = new QueryEvaluator(index).matchAll(query, -1);
+        List<ScoredDoc> topK = new TopKRetriever(index).retrieve(query, exhaustive.size() + 50);
+        assertSameRanking(exhaustive, topK, query.toString());
+    }
+
+    @Test
+    void testMissingTerm() {
+        InvertedIndex index = index(1);
+        assertTrue(new TopKRetriever(index).retrieve(Arrays.asList("rare", "missing"), 10).isEmpty());
+    }
+
+    @Test
+    void testSameTopKWithQuality() {
+        InvertedIndex plain = index(455);
+        DocQuality quality = quality(455);
+        for (float weight: new float[] { 0.5f, 5f, 50f }) {
+            InvertedIndex index = plain.withQuality(quality, weight);
+            for (List<String> query: QUERIES) {
+                for (int k: new int[] { 1, 10, 100 }) {
+                    List<ScoredDoc> exhaustive = new QueryEvaluator(index).matchAll(query, k);
+                    List<ScoredDoc> topK = new TopKRetriever(index).retrieve(query, k);
+                    assertSameRanking(exhaustive, topK, query + " k=" + k + " weight=" + weight);
+                    for (int i = 0; i < topK.size(); i++) {
+                        assertEquals(quality.getQuality(topK.get(i).getDocID()), topK.get(i).getQuality());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testQualityEarlyTermination() {
+        // the quality dominates: the best docs come first in the index order
+        InvertedIndex index = index(7).withQuality(quality(7), 50f);
+        List<String> query = Arrays.asList("stopword", "common");
+        QueryEvaluator evaluator = new QueryEvaluator(index);
+        List<ScoredDoc> exhaustive = evaluator.matchAll(query, 10);
+        TopKRetriever retriever = new TopKRetriever(index);
+        assertSameRanking(exhaustive, retriever.retrieve(query, 10), query.toString());
+        // stops long before the end of the intersection
+        assertTrue(retriever.getNumEvaluated() * 4 < evaluator.getNumEvaluated(),
+            retriever.getNumEvaluated() + " evaluated, exhaustive " + evaluator.getNumEvaluated());
+    }
+}
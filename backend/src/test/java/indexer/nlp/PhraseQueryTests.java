@@ -0,0 +1,94 @@
+package indexer.nlp;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.stanford.nlp.ling.CoreLabel;
+
+class PhraseQueryTests {
+
+    private static List<CoreLabel> tokens(String... lemmas) {
+        List<CoreLabel> tokens = new ArrayList<>();
+        for (String lemma: lemmas) {
+            CoreLabel token = new CoreLabel();
+            token.setWord(lemma);
+            token.setLemma(lemma);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    @Test
+    void testNoQuotes() {
+        PhraseQuery query = PhraseQuery.parse("new york pizza");
+        assertFalse(query.hasPhrases());
+        assertTrue(query.getPhrases().isEmpty());
+        assertEquals("new york pizza", query.getText());
+    }
+
+    @Test
+    void testPhrases() {
+        PhraseQuery query = PhraseQuery.parse("\"new york\" pizza \"hot   dog\"");
+        assertEquals(Arrays.asList("new york", "hot dog"), query.getPhrases());
+        // the quotes become spaces, all the words stay in the text
+        assertEquals(" new york  pizza  hot   dog ", query.getText());
+    }
+
+    @Test
+    void testQuoteGlued() {
+        PhraseQuery query = PhraseQuery.parse("best\"new york\"pizza");
+        assertEquals(Arrays.asList("new york"), query.getPhrases());
+        assertEquals(Arrays.asList("best", "new", "york", "pizza"), Arrays.asList(query.getText().trim().split("\\s+")));
+    }
+
+    @Test
+    void testCurlyQuotes() {
+        PhraseQuery query = PhraseQuery.parse("“new york” pizza");
+        assertEquals(Arrays.asList("new york"), query.getPhrases());
+        // mixed straight & curly quotes
+        assertEquals(Arrays.asList("new york"), PhraseQuery.parse("\"new york”").getPhrases());
+    }
+
+    @Test
+    void testUnclosedQuote() {
+        PhraseQuery query = PhraseQuery.parse("pizza \"new york style");
+        assertEquals(Arrays.asList("new york style"), query.getPhrases());
+        assertEquals("pizza  new york style", query.getText());
+    }
+
+    @Test
+    void testSingleWordIgnored() {
+        PhraseQuery query = PhraseQuery.parse("\"pizza\" \" \" \"\" new");
+        assertFalse(query.hasPhrases());
+        assertEquals(Arrays.asList("pizza", "new"), Arrays.asList(query.getText().trim().split("\\s+")));
+    }
+
+    @Test
+    void testPhraseOffsets() {
+        // "the" is not in the lexicon: it only holds its place
+        PhraseQuery.Phrase phrase = new PhraseQuery.Phrase("statue of the liberty",
+            tokens("statue", "of", "the", "liberty"), Arrays.asList(true, true, false, true));
+        assertEquals(3, phrase.size());
+        assertEquals(0, phrase.getOffset(0));
+        assertEquals(1, phrase.getOffset(1));
+        assertEquals(3, phrase.getOffset(2));
+        assertEquals("\"statue of _ liberty\"", phrase.getKey());
+        assertEquals("statue of the liberty", phrase.getText());
+    }
+
+    @Test
+    void testPhraseLeadingSkipped() {
+        PhraseQuery.Phrase phrase = new PhraseQuery.Phrase("the new york",
+            tokens("the", "new", "york"), Arrays.asList(false, true, true));
+        assertEquals(2, phrase.size());
+        // offsets from the first kept token
+        assertEquals(0, phrase.getOffset(0));
+        assertEquals(1, phrase.getOffset(1));
+        assertEquals("\"new york\"", phrase.getKey());
+    }
+}
@@ -0,0 +1,91 @@
+package indexer.scorer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class ProximityWindowTests {
+
+    // every (start, end) pair of positions
+    private static int bruteForce(List<List<Integer>> positions) {
+        List<Integer> all = new ArrayList<>();
+        for (List<Integer> list: positions) {
+            all.addAll(list);
+        }
+        int best = ProximityWindow.NO_WINDOW;
+        for (int start: all) {
+            for (int end: all) {
+                if (end < start) {
+                    continue;
+                }
+                boolean covers = true;
+                for (List<Integer> list: positions) {
+                    if (list.isEmpty()) {
+                        continue;
+                    }
+                    boolean found = false;
+                    for (int pos: list) {
+                        found |= pos >= start && pos <= end;
+                    }
+                    covers &= found;
+                }
+                if (covers) {
+                    best = Math.min(best, end - start + 1);
+                }
+            }
+        }
+        return best;
+    }
+
+    @Test
+    void testAdjacent() {
+        assertEquals(2, ProximityWindow.minimalWindow(Arrays.asList(Arrays.asList(4), Arrays.asList(5))));
+        assertEquals(3, ProximityWindow.minimalWindow(Arrays.asList(Arrays.asList(1, 10), Arrays.asList(11), Arrays.asList(2, 12))));
+    }
+
+    @Test
+    void testSameKeywordTwice() {
+        // a window of one keyword only does not count
+        assertEquals(6, ProximityWindow.minimalWindow(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(8))));
+    }
+
+    @Test
+    void testSharedPosition() {
+        // two lemmas of the same token
+        assertEquals(1, ProximityWindow.minimalWindow(Arrays.asList(Arrays.asList(7), Arrays.asList(7))));
+    }
+
+    @Test
+    void testEmptyLists() {
+        assertEquals(ProximityWindow.NO_WINDOW, ProximityWindow.minimalWindow(new ArrayList<List<Integer>>()));
+        assertEquals(ProximityWindow.NO_WINDOW, ProximityWindow.minimalWindow(Arrays.asList(Collections.<Integer>emptyList())));
+        // the empty ones are ignored
+        assertEquals(1, ProximityWindow.minimalWindow(Arrays.asList(Arrays.asList(3, 9), Collections.<Integer>emptyList())));
+        assertEquals(4, ProximityWindow.minimalWindow(Arrays.asList(Arrays.asList(3), Collections.<Integer>emptyList(), Arrays.asList(6))));
+    }
+
+    @Test
+    void testAgainstBruteForce() {
+        Random random = new Random(455);
+        for (int run = 0; run < 500; run++) {
+            List<List<Integer>> positions = new ArrayList<>();
+            int numKeywords = 1 + random.nextInt(5);
+            for (int k = 0; k < numKeywords; k++) {
+                TreeSet<Integer> list = new TreeSet<>();
+                int size = random.nextInt(8);
+                while (list.size() < size) {
+                    list.add(random.nextInt(60));
+                }
+                positions.add(new ArrayList<>(list));
+            }
+            assertEquals(bruteForce(positions), ProximityWindow.minimalWindow(positions), positions.toString());
+        }
+    }
+}
@@ -9,6 +9,13 @@ export const search = async (term: string, type: string) => {
   return searchResults as SearchResult[];
 }
 
+export const fetchSnippets = async (term: string, docIds: number[]) => {
+  const url = `${API_HOST}/api/snippets?q=${term}&docIds=${docIds.join(",")}`;
+  const resp = await fetch(url);
+  const snippets = await resp.json();
+  return snippets as {[docId: number]: string};
+}
+
 export const searchYoutube = async (term: string) => {
   const API_KEY = process.env.REACT_APP_YOUTUBE_API_KEY;
   const url = `https://www.googleapis.com/youtube/v3/search?q=${term}&part=snippet&maxResults=90&key=${API_KEY}`;
@@ -1,4 +1,5 @@
 export interface SearchResult {
+  docId: number;
   url: string;
 	title: string;
 	type: string;
@@ -1,7 +1,7 @@
 import { Alert, AlertTitle, Link, Paper, Skeleton } from "@mui/material";
 import Grid from "@mui/material/Grid";
 import React, { useEffect, useState } from "react";
-import { search } from "../api/search-api";
+import { fetchSnippets, search } from "../api/search-api";
 import PaginationSection from "../components/PaginationSection";
 import SearchSection from "../components/SearchSection";
 import { SearchResult } from "../datatype/SearchData";
@@ -34,6 +34,18 @@ const Documents = () => {
     });
   }, [query]);
 
+  // only the first page comes with snippets, the others are fetched when rendered
+  useEffect(() => {
+    const pending = documents.slice((page - 1) * 10, page * 10).filter((doc) => !doc.displayText);
+    if (pending.length === 0) {
+      return;
+    }
+    const pendingIds = pending.map((doc) => doc.docId);
+    fetchSnippets(query.get("q") || "", pendingIds).then((snippets) => {
+      setDocuments((prev) => prev.map((doc) => pendingIds.includes(doc.docId) ? {...doc, displayText: snippets[doc.docId] || "..."} : doc));
+    }).catch(() => {});
+  }, [page, documents, query]);
+
   const pageChangeHandler = (pageNumber: number) => {
     setPage(pageNumber);
   }